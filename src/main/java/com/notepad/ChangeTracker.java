@@ -0,0 +1,60 @@
+package com.notepad;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+/**
+ * Remembers whether a document was changed since tracking started. Background tasks that work on a snapshot
+ * use it to find out if their result still fits the document.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class ChangeTracker implements DocumentListener{
+
+	private final Document document;
+
+	private boolean changed;
+
+	/**
+	 * Starts tracking changes of document.
+	 *
+	 * @param document document to track
+	 */
+	ChangeTracker(Document document) {
+		this.document = document;
+		document.addDocumentListener(this);
+	}
+
+	/**
+	 * Returns true if document was changed since tracking started.
+	 *
+	 * @return was document changed
+	 */
+	boolean isChanged() {
+		return changed;
+	}
+
+	/**
+	 * Stops tracking, listener is removed from document.
+	 */
+	void stop() {
+		document.removeDocumentListener(this);
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		changed = true;
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		changed = true;
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+		changed = true;
+	}
+}
@@ -1,18 +1,44 @@
 package com.notepad;
 
+import java.awt.Point;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.ImageIcon;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
-import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import com.notepad.document.DocumentReader;
+import com.notepad.document.DocumentWriter;
+import com.notepad.document.EditHistory;
+import com.notepad.document.EditJournal;
+import com.notepad.document.FileStamp;
+import com.notepad.document.PieceTableContent;
+import com.notepad.document.PieceTableDocument;
+import com.notepad.document.TextEncoding;
+import com.notepad.document.TextSource;
+import com.notepad.search.TrigramIndex;
 
 /**
  * Contains a collection of {@link SingleDocumentModel}s and displays then.
@@ -24,11 +50,79 @@ import javax.swing.JTextArea;
 public class DefaultMultipleDocumentModel extends JTabbedPane implements MultipleDocumentModel{
 	private static final long serialVersionUID = 1L;
 	
+	/**
+	 * Files of this size in bytes or bigger are memory mapped instead of read in
+	 */
+	public static final long DEFAULT_MAPPED_LOADING_THRESHOLD = 16 * 1024 * 1024;
+	
+	/**
+	 * Documents with this many chars or more are kept off heap
+	 */
+	public static final int DEFAULT_OFF_HEAP_THRESHOLD = 4 * 1024 * 1024;
+	
+	/**
+	 * Charset of files that are not Unicode, Central European like the rest of the program
+	 */
+	public static final Charset DEFAULT_FALLBACK_CHARSET = Charset.forName("windows-1250");
+	
+	/**
+	 * Most bytes taken by index of open documents
+	 */
+	public static final long DEFAULT_SEARCH_INDEX_BUDGET = 64 * 1024 * 1024;
+	
+	/**
+	 * Milliseconds after which text component of a tab that is not used is released
+	 */
+	public static final long DEFAULT_VIEW_TIMEOUT = 10 * 60 * 1000;
+	
+	/**
+	 * Milliseconds after which text of a tab that is not used is compacted
+	 */
+	public static final long DEFAULT_COMPACT_TIMEOUT = 30 * 60 * 1000;
+	
+	/**
+	 * Directory where edits of unsaved documents are journaled
+	 */
+	public static final Path DEFAULT_RECOVERY_DIRECTORY = Paths.get(System.getProperty("user.home"), ".javanotepadplus", "recovery");
+	
+	/**
+	 * File where tabs open when editor closes are remembered
+	 */
+	public static final Path DEFAULT_SESSION_FILE = Paths.get(System.getProperty("user.home"), ".javanotepadplus", "session");
+	
+	/**
+	 * How often tabs are checked for components to release, in milliseconds
+	 */
+	private static final int VIEW_SWEEP_INTERVAL = 30 * 1000;
+	
+	/**
+	 * Journal with more bytes of edits than this and than twice the length of its document starts again from the text
+	 */
+	private static final long JOURNAL_CHECKPOINT_SIZE = 1024 * 1024;
+	
+	private static final String JOURNAL_SUFFIX = ".journal";
+	
 	private List<MultipleDocumentListener> listeners;
 	
-	private List<SingleDocumentModel> documentModels;
+	/**
+	 * Tabs of documents in order
+	 */
+	private List<Tab> tabs;
+	
+	/**
+	 * Tab of every document, so tab of a document is found without searching
+	 */
+	private Map<SingleDocumentModel, Tab> tabsByModel;
+	
+	/**
+	 * Documents that have a file by absolute normalized path of the file
+	 */
+	private Map<Path, SingleDocumentModel> modelsByPath;
 	
-	private List<Path> openedPaths;
+	/**
+	 * Key under which document is in modelsByPath
+	 */
+	private Map<SingleDocumentModel, Path> pathsByModel;
 	
 	private SingleDocumentModel currentModel;
 	
@@ -38,7 +132,70 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 	
 	private ImageIcon savedIcon;
 	
-	private List<JScrollPane> listForRemoving;
+	private long mappedLoadingThreshold;
+	
+	private int offHeapThreshold;
+	
+	private Charset fallbackCharset;
+	
+	/**
+	 * Runs loading and saving so the EDT never waits for the disk
+	 */
+	private ExecutorService ioExecutor;
+	
+	/**
+	 * Releases components and compacts text of tabs that were not used for a while
+	 */
+	private Timer sweepTimer;
+	
+	/**
+	 * Loads in progress by path
+	 */
+	private Map<Path, CompletableFuture<SingleDocumentModel>> loadsByPath;
+	
+	/**
+	 * Loads in progress by empty document shown in their tab
+	 */
+	private Map<SingleDocumentModel, CompletableFuture<SingleDocumentModel>> loadsByPlaceholder;
+	
+	/**
+	 * Trigram index of text of every open document, documents are its keys
+	 */
+	private TrigramIndex searchIndex;
+	
+	private long viewTimeout;
+	
+	private long compactTimeout;
+	
+	/**
+	 * Is text of inactive documents also deflated when it is compacted
+	 */
+	private boolean deflateInactive;
+	
+	/**
+	 * Is text of some tab being compacted, tabs are compacted one at a time so the I/O threads are not flooded
+	 */
+	private boolean compacting;
+	
+	/**
+	 * Directory of edit journals, null if edits are not journaled
+	 */
+	private Path recoveryDirectory;
+	
+	/**
+	 * File of session, null if session is not remembered
+	 */
+	private Path sessionFile;
+	
+	/**
+	 * Number of bytes undo history of each document can take
+	 */
+	private long historyBudget;
+	
+	/**
+	 * Number of restored tabs that are being read
+	 */
+	private int restoresRunning;
 	
 	/**
 	 * Creates new {@link DefaultMultipleDocumentModel}. Reads in icons. Adds listener so that current document changes.
@@ -47,9 +204,29 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 	 */
 	public DefaultMultipleDocumentModel() throws IOException {
 		listeners = new ArrayList<>();
-		documentModels = new ArrayList<>();
-		openedPaths = new ArrayList<>();
-		listForRemoving = new ArrayList<>();
+		tabs = new ArrayList<>();
+		tabsByModel = new IdentityHashMap<>();
+		modelsByPath = new HashMap<>();
+		pathsByModel = new IdentityHashMap<>();
+		mappedLoadingThreshold = DEFAULT_MAPPED_LOADING_THRESHOLD;
+		offHeapThreshold = DEFAULT_OFF_HEAP_THRESHOLD;
+		fallbackCharset = DEFAULT_FALLBACK_CHARSET;
+		loadsByPath = new HashMap<>();
+		loadsByPlaceholder = new HashMap<>();
+		searchIndex = new TrigramIndex(DEFAULT_SEARCH_INDEX_BUDGET);
+		viewTimeout = DEFAULT_VIEW_TIMEOUT;
+		compactTimeout = DEFAULT_COMPACT_TIMEOUT;
+		deflateInactive = true;
+		recoveryDirectory = DEFAULT_RECOVERY_DIRECTORY;
+		sessionFile = DEFAULT_SESSION_FILE;
+		historyBudget = EditHistory.DEFAULT_BUDGET;
+		
+		//daemon threads so a stuck disk can not keep program alive
+		ioExecutor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "document-io");
+			thread.setDaemon(true);
+			return thread;
+		});
 		
 		//loading unsaved icon
 		try(InputStream is = this.getClass().getResourceAsStream("icons/unsaved.png")){
@@ -73,24 +250,42 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 		
 		//add listener to himself basically to change currentModel
 		this.addChangeListener(l -> {
+			//tab that is left starts its idle time now
+			Tab left = tabsByModel.get(currentModel);
+			if(left != null)
+				left.lastUsed = System.nanoTime();
+			
 			if(this.getSelectedIndex() == -1) {
 				currentModel = null;
 			}
 			else {
-				if(currentModel != documentModels.get(this.getSelectedIndex())) {
+				Tab selected = tabs.get(this.getSelectedIndex());
+				//restored tab that was not read yet is read before all others
+				if(selected.restore != null && !selected.restoreStarted)
+					startRestore(selected);
+				//compact text can be read while it is expanded
+				if(selected.model.isTextCompact())
+					swapText(selected, selected.model.prepareExpandText());
+				if(selected.view == null)
+					createView(selected);
+				
+				if(currentModel != selected.model) {
 					previousModel = currentModel;
-					currentModel = documentModels.get(this.getSelectedIndex());
+					currentModel = selected.model;
 				}
 				
 				
 			}
 			this.notifyAllListenersCurrentDocumentChanged();
 		});
+		
+		sweepTimer = new Timer(VIEW_SWEEP_INTERVAL, e -> releaseIdleTabs());
+		sweepTimer.start();
 	}
 	
 	@Override
 	public Iterator<SingleDocumentModel> iterator() {
-		return documentModels.iterator();
+		return tabs.stream().map(tab -> tab.model).iterator();
 	}
 
 	/**
@@ -102,17 +297,17 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 		DefaultSingleDocumentModel newModel = new DefaultSingleDocumentModel(null, "");
 		newModel.setModified(true);
 		
-		documentModels.add(newModel);
+		startJournal(addModel(newModel));
 		
 		//add listener
 		newModel.addSingleDocumentListener(documentListener);
-		
-		listForRemoving.add(new JScrollPane(newModel.getTextComponent()));
+		addToSearchIndex(newModel);
 		
 		//if i am corrent this will prompt the change listener which will set the currentModel
-		this.addTab("(unnamed)", unsavedIcon, new JScrollPane(newModel.getTextComponent()), "(unnamed)");
+		this.addTab("(unnamed)", unsavedIcon, null, "(unnamed)");
+		notifyAllListenersDocumentAdded(newModel);
 		
-		setSelectedIndex(documentModels.size() - 1);
+		setSelectedIndex(tabs.size() - 1);
 		
 		return newModel;
 	}
@@ -129,48 +324,64 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 	 * Reads file from given path and returns {@link DefaultSingleDocumentModel} with text of file on given path. If path does not show a readable file or there was an error reading
 	 * returns null.
 	 * 
-	 * If file is already opened just switches the current pane the pane where that document is opened
+	 * If file is already opened just switches the current pane the pane where that document is opened. File that
+	 * is being opened in the background, or whose tab of the restored session was not read yet, is read right away
+	 * into its tab.
+	 * 
+	 * Files bigger than mapped loading threshold are memory mapped and decoded only where they are read.
+	 * Encoding of file is guessed and kept in the model so the file is saved the way it was read.
 	 */
 	@Override
 	public SingleDocumentModel loadDocument(Path path) {
-		if(openedPaths.contains(path)) {
-			int index = openedPaths.indexOf(path);
-			
-			setSelectedIndex(index);
-			return documentModels.get(index);
+		SingleDocumentModel opened = modelsByPath.get(pathKey(path));
+		if(opened != null) {
+			setSelectedIndex(indexOf(opened));
+			return opened;
 		}
 		
+		CompletableFuture<SingleDocumentModel> pending = loadsByPath.get(pathKey(path));
+		if(pending != null)
+			return finishPendingLoad(path, pending);
+		
 		if(!Files.isReadable(path)) {
 			return null;
 		}
 		
-		String text;
+		DocumentReader.Result result;
 		try {
-			text = Files.readString(path);
+			result = DocumentReader.read(path, mappedLoadingThreshold, fallbackCharset, null, null);
 		} catch(Exception ex) {
 			return null;
 		}
 		
-		SingleDocumentModel newModel = new DefaultSingleDocumentModel(path, text);
+		if(result.getContent().length() >= offHeapThreshold)
+			result.getContent().moveOffHeap();
 		
-		documentModels.add(newModel);
+		SingleDocumentModel newModel = new DefaultSingleDocumentModel(path, result.getContent());
+		newModel.setEncoding(result.getEncoding());
+		newModel.setFileStamp(result.getStamp());
+		
+		startJournal(addModel(newModel));
 		
 		//add listener
 		newModel.addSingleDocumentListener(documentListener);
+		addToSearchIndex(newModel);
 		
-		openedPaths.add(path);
+		putPath(newModel, path);
 		
 		//currentModel = newModel;
 		
-		this.addTab(path.getFileName().toString(), savedIcon, new JScrollPane(newModel.getTextComponent()), path.toAbsolutePath().toString());
+		this.addTab(path.getFileName().toString(), savedIcon, null, path.toAbsolutePath().toString());
+		notifyAllListenersDocumentAdded(newModel);
 		
-		setSelectedIndex(documentModels.size() - 1);
+		setSelectedIndex(tabs.size() - 1);
 		
 		return newModel;
 	}
 
 	/**
-	 * Saves model to newPath.
+	 * Saves model to newPath. Text is encoded segment by segment into a temporary file which then atomically
+	 * replaces the target, so a failed save never leaves a half written file.
 	 */
 	@Override
 	public void saveDocument(SingleDocumentModel model, Path newPath) {
@@ -178,39 +389,168 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 			newPath = model.getFilePath();
 		
 		
-		int index = documentModels.indexOf(model);
-		
-		JTextArea textArea = model.getTextComponent();
-		
-		byte[] data = textArea.getText().getBytes(StandardCharsets.UTF_8);
-		
 		try {
-			Files.write(newPath, data);
+			//streamed into temporary file and moved over target, a file that is memory mapped must not be truncated
+			model.setFileStamp(DocumentWriter.write(model.getDocument(), newPath, model.getEncoding()));
 		} 
 		catch (IOException exc) {
 			//i know IllegalArgumentException is not really appropriate
 			throw new IllegalArgumentException();
 		}
 		
-		documentModels.get(index).setModified(false);
+		model.setModified(false);
 		
 		//if it was successfull then set the path of document
 		model.setFilePath(newPath);
 		
 	}
 
+	/**
+	 * Reads file from given path on a background thread. Tab of the document is added right away and shows progress
+	 * of reading with a button that cancels it. Returned future is completed on the EDT once the document is shown,
+	 * exceptionally if file could not be read.
+	 * 
+	 * If file is already opened or being opened just switches to its tab.
+	 */
+	@Override
+	public CompletableFuture<SingleDocumentModel> loadDocumentAsync(Path path) {
+		SingleDocumentModel opened = modelsByPath.get(pathKey(path));
+		if(opened != null) {
+			setSelectedIndex(indexOf(opened));
+			return CompletableFuture.completedFuture(opened);
+		}
+		
+		//selecting tab of a restored session also starts reading it
+		CompletableFuture<SingleDocumentModel> pending = loadsByPath.get(pathKey(path));
+		if(pending != null) {
+			setSelectedIndex(indexOf(getPlaceholder(pending)));
+			return pending;
+		}
+		
+		CompletableFuture<SingleDocumentModel> future = new CompletableFuture<>();
+		SingleDocumentModel placeholder = addPlaceholder(path, future);
+		setSelectedIndex(tabs.size() - 1);
+		readInBackground(path, null, placeholder, future);
+		
+		return future;
+	}
+	
+	/**
+	 * Saves model to newPath on a background thread. Text is taken from a snapshot so document can be edited
+	 * while it is saved, edits made during saving keep the document modified. Tab of the document shows progress
+	 * with a button that cancels saving, target is left untouched in that case. Returned future is completed on the EDT.
+	 */
+	@Override
+	public CompletableFuture<Void> saveDocumentAsync(SingleDocumentModel model, Path newPath) {
+		Path path = newPath == null ? model.getFilePath() : newPath;
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		
+		TextSource snapshot = model.createSnapshot();
+		TextEncoding encoding = model.getEncoding();
+		
+		ChangeTracker tracker = new ChangeTracker(model.getDocument());
+		
+		int index = indexOf(model);
+		TabProgress progress = new TabProgress(getTitleAt(index), getIconAt(index), future);
+		setTabComponentAt(index, progress);
+		
+		ioExecutor.execute(() -> {
+			Exception error = null;
+			FileStamp written = null;
+			try {
+				written = DocumentWriter.write(snapshot, path, encoding, progress::setProgress, future::isCancelled);
+			} catch(Exception ex) {
+				error = ex;
+			}
+			
+			Exception failure = error;
+			FileStamp stamp = written;
+			SwingUtilities.invokeLater(() -> {
+				tracker.stop();
+				int current = indexOf(model);
+				if(current != -1)
+					setTabComponentAt(current, null);
+				
+				if(future.isCancelled())
+					return;
+				
+				if(failure != null) {
+					future.completeExceptionally(failure);
+					return;
+				}
+				
+				model.setFileStamp(stamp);
+				if(!tracker.isChanged())
+					model.setModified(false);
+				model.setFilePath(path);
+				
+				//journal of edits made while saving was based on the old file
+				Tab tab = tabsByModel.get(model);
+				if(tracker.isChanged() && tab != null && tab.journal != null)
+					tab.journal.checkpoint(path, null, model.getEncoding(), model.createSnapshot());
+				future.complete(null);
+			});
+		});
+		
+		return future;
+	}
+
 	/**
 	 * Removes model from internal collection of {@link SingleDocumentModel}s and from JTabbedPane.
 	 */
 	@Override
 	public void closeDocument(SingleDocumentModel model) {
-		int index = documentModels.indexOf(model);
+		int index = indexOf(model);
 		
 		if(index == -1)
 			throw new IllegalArgumentException("Given model to close does not exist in multiple document model");
 		
-		documentModels.remove(index);
+		//closing a tab that is still loading cancels the loading which removes the tab
+		CompletableFuture<SingleDocumentModel> load = loadsByPlaceholder.get(model);
+		if(load != null && load.cancel(false))
+			return;
+		
+		Tab tab = tabs.remove(index);
+		tabsByModel.remove(model);
+		//tabs after the closed one move one place to the left
+		for(int i = index; i < tabs.size(); i++)
+			tabs.get(i).index = i;
+		putPath(model, null);
+		model.removeSingleDocumentListener(documentListener);
 		this.remove(index);
+		
+		Document document = model.getDocument();
+		document.removeDocumentListener(indexListener);
+		searchIndex.remove(document);
+		
+		if(tab.journalListener != null) {
+			document.removeDocumentListener(tab.journalListener);
+			deleteJournal(tab);
+		}
+		
+		notifyAllListenersDocumentRemoved(model);
+	}
+	
+	/**
+	 * Selects tab of given model.
+	 */
+	@Override
+	public void setCurrentDocument(SingleDocumentModel model) {
+		int index = indexOf(model);
+		
+		if(index == -1)
+			throw new IllegalArgumentException("Given model does not exist in multiple document model");
+		
+		setSelectedIndex(index);
+	}
+	
+	/**
+	 * Returns trigram index of open documents. Documents are keys of the index, it is kept up to date as they are edited
+	 * and built on a background thread when they are opened.
+	 */
+	@Override
+	public TrigramIndex getSearchIndex() {
+		return searchIndex;
 	}
 
 	@Override
@@ -225,15 +565,400 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 
 	@Override
 	public int getNumberOfDocuments() {
-		return documentModels.size();
+		return tabs.size();
 	}
 
+	/**
+	 * Returns size in bytes from which files are memory mapped when loaded.
+	 * 
+	 * @return mapped loading threshold
+	 */
+	public long getMappedLoadingThreshold() {
+		return mappedLoadingThreshold;
+	}
+	
+	/**
+	 * Sets size in bytes from which files are memory mapped when loaded. 0 maps every file, Long.MAX_VALUE none.
+	 * 
+	 * @param mappedLoadingThreshold new threshold
+	 */
+	public void setMappedLoadingThreshold(long mappedLoadingThreshold) {
+		this.mappedLoadingThreshold = mappedLoadingThreshold;
+	}
+	
+	/**
+	 * Returns number of chars from which text of loaded documents is kept off heap.
+	 * 
+	 * @return off heap threshold
+	 */
+	public int getOffHeapThreshold() {
+		return offHeapThreshold;
+	}
+	
+	/**
+	 * Sets number of chars from which text of loaded documents is kept off heap. 0 keeps every document off heap,
+	 * Integer.MAX_VALUE none. Documents that are already open stay where they are.
+	 * 
+	 * @param offHeapThreshold new threshold
+	 */
+	public void setOffHeapThreshold(int offHeapThreshold) {
+		this.offHeapThreshold = offHeapThreshold;
+	}
+	
+	/**
+	 * Returns milliseconds after which text component of a tab that is not selected is released.
+	 * 
+	 * @return view timeout
+	 */
+	public long getViewTimeout() {
+		return viewTimeout;
+	}
+	
+	/**
+	 * Sets milliseconds after which text component of a tab that is not selected is released, Long.MAX_VALUE keeps them all.
+	 * Tabs are checked every 30 seconds, so components can live that much longer.
+	 * 
+	 * @param viewTimeout new timeout
+	 */
+	public void setViewTimeout(long viewTimeout) {
+		this.viewTimeout = viewTimeout;
+	}
+	
+	/**
+	 * Returns milliseconds after which text of a tab that is not selected is compacted.
+	 * 
+	 * @return compact timeout
+	 */
+	public long getCompactTimeout() {
+		return compactTimeout;
+	}
+	
+	/**
+	 * Sets milliseconds after which text of a tab that is not selected is compacted, Long.MAX_VALUE never compacts.
+	 * 
+	 * @param compactTimeout new timeout
+	 */
+	public void setCompactTimeout(long compactTimeout) {
+		this.compactTimeout = compactTimeout;
+	}
+	
+	/**
+	 * Returns true if compacted text is also deflated.
+	 * 
+	 * @return is compacted text deflated
+	 */
+	public boolean isDeflateInactive() {
+		return deflateInactive;
+	}
+	
+	/**
+	 * Sets whether compacted text is also deflated, which saves more memory but makes reading it slower.
+	 * 
+	 * @param deflateInactive should compacted text be deflated
+	 */
+	public void setDeflateInactive(boolean deflateInactive) {
+		this.deflateInactive = deflateInactive;
+	}
+	
+	/**
+	 * Returns directory where edits of unsaved documents are journaled.
+	 * 
+	 * @return recovery directory, null if edits are not journaled
+	 */
+	public Path getRecoveryDirectory() {
+		return recoveryDirectory;
+	}
+	
+	/**
+	 * Sets directory where edits of unsaved documents are journaled, null stops journaling edits that come after.
+	 * 
+	 * @param recoveryDirectory new recovery directory
+	 */
+	public void setRecoveryDirectory(Path recoveryDirectory) {
+		this.recoveryDirectory = recoveryDirectory;
+	}
+	
+	/**
+	 * Returns number of bytes undo history of each document can take.
+	 * 
+	 * @return budget of history in bytes
+	 */
+	public long getHistoryBudget() {
+		return historyBudget;
+	}
+	
+	/**
+	 * Sets number of bytes undo history of each document can take, oldest steps of every open document are
+	 * dropped right away if its history takes more.
+	 * 
+	 * @param historyBudget budget of history in bytes
+	 */
+	public void setHistoryBudget(long historyBudget) {
+		this.historyBudget = historyBudget;
+		for(Tab tab : tabs)
+			tab.model.getHistory().setBudget(historyBudget);
+	}
+	
+	/**
+	 * Returns number of bytes undo histories of all documents take.
+	 * 
+	 * @return size of histories in bytes
+	 */
+	public long getHistoryMemory() {
+		long memory = 0;
+		for(Tab tab : tabs)
+			memory += tab.model.getHistory().getMemoryUsage();
+		return memory;
+	}
+	
+	/**
+	 * Returns file where tabs are remembered between runs of editor.
+	 * 
+	 * @return session file, null if session is not remembered
+	 */
+	public Path getSessionFile() {
+		return sessionFile;
+	}
+	
+	/**
+	 * Sets file where tabs are remembered between runs of editor, null stops remembering them.
+	 * 
+	 * @param sessionFile session file
+	 */
+	public void setSessionFile(Path sessionFile) {
+		this.sessionFile = sessionFile;
+	}
+	
+	/**
+	 * Remembers path, encoding and caret of every tab with a file, and which tab is selected. Tabs of session that
+	 * were not read yet are remembered as they were restored. Does nothing if there is no session file.
+	 * 
+	 * @throws IOException if session could not be written
+	 */
+	public void saveSession() throws IOException {
+		if(sessionFile == null)
+			return;
+		
+		Map<CompletableFuture<SingleDocumentModel>, Path> loading = new IdentityHashMap<>();
+		for(Map.Entry<Path, CompletableFuture<SingleDocumentModel>> load : loadsByPath.entrySet())
+			loading.put(load.getValue(), load.getKey());
+		
+		List<SessionFile.Entry> entries = new ArrayList<>();
+		int selected = -1;
+		for(Tab tab : tabs) {
+			SessionFile.Entry entry = tab.restore;
+			if(entry == null) {
+				CompletableFuture<SingleDocumentModel> load = loadsByPlaceholder.get(tab.model);
+				if(load != null)
+					entry = new SessionFile.Entry(loading.get(load), null, 0);
+				else if(tab.model.getFilePath() != null)
+					entry = new SessionFile.Entry(tab.model.getFilePath().toAbsolutePath(), tab.model.getEncoding(), tab.model.getCaretPosition());
+			}
+			
+			//new documents that were not saved have no file to read again
+			if(entry == null || entry.getPath() == null)
+				continue;
+			
+			if(tab.index == getSelectedIndex())
+				selected = entries.size();
+			entries.add(entry);
+		}
+		
+		if(entries.isEmpty()) {
+			Files.deleteIfExists(sessionFile);
+			return;
+		}
+		new SessionFile(entries, selected).write(sessionFile);
+	}
+	
+	/**
+	 * Opens tabs of the last session. Only selected tab is read right away, the others hold an empty document
+	 * until they are read one by one in the background, tabs closest to the selected one first. Tab that is selected
+	 * before its turn is read right away. Files that can not be read lose their tab. Files already open are skipped.
+	 * 
+	 * @throws IOException if session file could not be read
+	 */
+	public void restoreSession() throws IOException {
+		if(sessionFile == null)
+			return;
+		
+		SessionFile session = SessionFile.read(sessionFile);
+		if(session == null)
+			return;
+		
+		List<SessionFile.Entry> entries = session.getEntries();
+		List<Tab> restored = new ArrayList<>();
+		List<SessionFile.Entry> restoredEntries = new ArrayList<>();
+		Tab selected = null;
+		for(int i = 0; i < entries.size(); i++) {
+			SessionFile.Entry entry = entries.get(i);
+			Path key = pathKey(entry.getPath());
+			if(modelsByPath.containsKey(key) || loadsByPath.containsKey(key))
+				continue;
+			
+			Tab tab = tabsByModel.get(addPlaceholder(entry.getPath(), new CompletableFuture<>()));
+			restored.add(tab);
+			restoredEntries.add(entry);
+			if(i == session.getSelected())
+				selected = tab;
+		}
+		
+		//tabs are marked only now, the first tab added is selected on its own and would be read right away
+		for(int i = 0; i < restored.size(); i++)
+			restored.get(i).restore = restoredEntries.get(i);
+		if(selected != null) {
+			setSelectedIndex(selected.index);
+			if(!selected.restoreStarted)
+				startRestore(selected);
+		}
+		restoreNext();
+	}
+	
+	/**
+	 * Opens documents whose edits were journaled by an editor that did not close them, in a tab each. Journals are
+	 * replayed on a background thread. Journal whose document can not be brought back, because its file was changed
+	 * or it is damaged, is deleted. Recovered documents are modified and keep journaling into the same journal.
+	 */
+	public void recoverDocuments() {
+		Path directory = recoveryDirectory;
+		if(directory == null)
+			return;
+		
+		long threshold = mappedLoadingThreshold;
+		int offHeap = offHeapThreshold;
+		ioExecutor.execute(() -> {
+			List<EditJournal.Recovery> recovered = new ArrayList<>();
+			List<PieceTableDocument> documents = new ArrayList<>();
+			try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for(Path file : files) {
+					if(!file.getFileName().toString().endsWith(JOURNAL_SUFFIX)) {
+						//checkpoint that was cut short
+						Files.deleteIfExists(file);
+						continue;
+					}
+					
+					try {
+						EditJournal.Recovery recovery = EditJournal.recover(file, threshold);
+						if(recovery == null)
+							continue;
+						
+						if(recovery.getContent().length() >= offHeap)
+							recovery.getContent().moveOffHeap();
+						recovered.add(recovery);
+						documents.add(new PieceTableDocument(recovery.getContent()));
+					} catch(Exception ex) {
+						Files.deleteIfExists(file);
+					}
+				}
+			} catch(IOException ex) {
+				//there is no directory when nothing was ever journaled
+			}
+			
+			SwingUtilities.invokeLater(() -> {
+				for(int i = 0; i < recovered.size(); i++)
+					addRecovered(recovered.get(i), documents.get(i));
+			});
+		});
+	}
+	
+	/**
+	 * Stops journaling and deletes journals of every document, for when editor closes and the user already chose what to save.
+	 * Waits a short while for the journals to be deleted.
+	 */
+	public void deleteJournals() {
+		for(Tab tab : tabs)
+			deleteJournal(tab);
+		EditJournal.awaitWrites(1000);
+	}
+	
+	/**
+	 * Stops checking tabs for components to release, for when editor closes.
+	 */
+	public void dispose() {
+		sweepTimer.stop();
+	}
+	
+	/**
+	 * Returns number of documents whose edits are journaled.
+	 * 
+	 * @return number of journals
+	 */
+	public int getJournalCount() {
+		int count = 0;
+		for(Tab tab : tabs) {
+			if(tab.journal != null)
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns number of documents whose text is compacted.
+	 * 
+	 * @return number of compact documents
+	 */
+	public int getCompactDocumentCount() {
+		int count = 0;
+		for(Tab tab : tabs) {
+			if(tab.model.isTextCompact())
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns number of documents whose text is off heap.
+	 * 
+	 * @return number of off heap documents
+	 */
+	public int getOffHeapDocumentCount() {
+		int count = 0;
+		for(Tab tab : tabs) {
+			if(tab.model.isTextOffHeap())
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns number of bytes of heap saved by compacting text of inactive documents.
+	 * 
+	 * @return bytes saved
+	 */
+	public long getHeapSaved() {
+		long saved = 0;
+		for(Tab tab : tabs) {
+			//document that was edited since is expanded again
+			if(tab.model.isTextCompact())
+				saved += tab.bytesSaved;
+		}
+		return saved;
+	}
+	
+	/**
+	 * Returns charset used for files that are neither UTF-8 nor UTF-16.
+	 * 
+	 * @return fallback charset
+	 */
+	public Charset getFallbackCharset() {
+		return fallbackCharset;
+	}
+	
+	/**
+	 * Sets charset used for files that are neither UTF-8 nor UTF-16.
+	 * 
+	 * @param fallbackCharset new fallback charset
+	 */
+	public void setFallbackCharset(Charset fallbackCharset) {
+		this.fallbackCharset = fallbackCharset;
+	}
+	
 	/**
 	 * Returns {@link SingleDocumentModel} stored at given index in internal collection.
 	 */
 	@Override
 	public SingleDocumentModel getDocument(int index) {
-		return documentModels.get(index);
+		return tabs.get(index).model;
 	}
 
 	/**
@@ -246,25 +971,615 @@ public class DefaultMultipleDocumentModel extends JTabbedPane implements Multipl
 			boolean status = model.isModified();
 			
 			//update icon
-			int index = DefaultMultipleDocumentModel.this.documentModels.indexOf(model);
+			int index = indexOf(model);
+			if(index == -1)
+				return;
 			
 			ImageIcon icon = status ? DefaultMultipleDocumentModel.this.unsavedIcon : DefaultMultipleDocumentModel.this.savedIcon;
 			
 			DefaultMultipleDocumentModel.this.setIconAt(index, icon);
+			
+			//saved document is its file again, nothing to recover
+			if(!status)
+				deleteJournal(tabsByModel.get(model));
 		}
 		
 		@Override
 		public void documentFilePathUpdated(SingleDocumentModel model) {
 			// update tooltip and title
-			int index = DefaultMultipleDocumentModel.this.documentModels.indexOf(model);
+			int index = indexOf(model);
+			if(index == -1)
+				return;
+			
+			putPath(model, model.getFilePath());
 			
 			DefaultMultipleDocumentModel.this.setTitleAt(index, model.getFilePath().getFileName().toString());
 			DefaultMultipleDocumentModel.this.setToolTipTextAt(index, model.getFilePath().toAbsolutePath().toString());
 		}
 	};
 	
+	/**
+	 * Passes edits of documents to search index. Bulk replacements only tell where they start, so all text after is indexed again.
+	 */
+	private DocumentListener indexListener = new DocumentListener() {
+		
+		@Override
+		public void insertUpdate(DocumentEvent e) {
+			searchIndex.textInserted(e.getDocument(), e.getOffset(), e.getLength());
+		}
+		
+		@Override
+		public void removeUpdate(DocumentEvent e) {
+			searchIndex.textRemoved(e.getDocument(), e.getOffset(), e.getLength());
+		}
+		
+		@Override
+		public void changedUpdate(DocumentEvent e) {
+			searchIndex.textReplaced(e.getDocument(), e.getOffset(), e.getDocument().getLength());
+		}
+	};
+	
+	/**
+	 * Adds document of model to search index, its text is indexed on a background thread.
+	 */
+	private void addToSearchIndex(SingleDocumentModel model) {
+		Document document = model.getDocument();
+		searchIndex.add(document, document.getLength());
+		document.addDocumentListener(indexListener);
+		
+		TextSource snapshot = model.createSnapshot();
+		int version = searchIndex.getVersion(document);
+		ioExecutor.execute(() -> searchIndex.refresh(document, snapshot, version));
+	}
+	
+	/**
+	 * Adds tab with empty document that holds the place of file until it is read. Closing the tab cancels the future.
+	 * 
+	 * @return placeholder document
+	 */
+	private SingleDocumentModel addPlaceholder(Path path, CompletableFuture<SingleDocumentModel> future) {
+		SingleDocumentModel placeholder = new DefaultSingleDocumentModel(null, "");
+		addModel(placeholder);
+		
+		this.addTab(path.getFileName().toString(), savedIcon, null, path.toAbsolutePath().toString());
+		notifyAllListenersDocumentAdded(placeholder);
+		
+		loadsByPath.put(pathKey(path), future);
+		loadsByPlaceholder.put(placeholder, future);
+		future.whenComplete((model, ex) -> {
+			if(future.isCancelled())
+				runOnEdt(() -> finishLoad(path, placeholder, null));
+		});
+		return placeholder;
+	}
+	
+	/**
+	 * Reads file into placeholder tab on a background thread, tab shows progress of reading with a button that cancels it.
+	 * Future is completed on the EDT once the document is shown, exceptionally if file could not be read.
+	 * 
+	 * @param encoding encoding of file, null if it is guessed
+	 */
+	private void readInBackground(Path path, TextEncoding encoding, SingleDocumentModel placeholder, CompletableFuture<SingleDocumentModel> future) {
+		placeholder.getTextComponent().setEditable(false);
+		
+		int index = indexOf(placeholder);
+		TabProgress progress = new TabProgress(getTitleAt(index), getIconAt(index), future);
+		setTabComponentAt(index, progress);
+		
+		long threshold = mappedLoadingThreshold;
+		int offHeap = offHeapThreshold;
+		Charset fallback = fallbackCharset;
+		ioExecutor.execute(() -> {
+			try {
+				if(future.isCancelled())
+					return;
+				
+				//load that was finished by loadDocument in the meantime is done too
+				DocumentReader.Result result = encoding == null
+						? DocumentReader.read(path, threshold, fallback, progress::setProgress, future::isDone)
+						: DocumentReader.read(path, encoding, threshold, progress::setProgress, future::isDone);
+				if(result.getContent().length() >= offHeap)
+					result.getContent().moveOffHeap();
+				//lines are indexed here too, only the text component is created on the EDT
+				PieceTableDocument document = new PieceTableDocument(result.getContent());
+				
+				SwingUtilities.invokeLater(() -> {
+					if(future.isDone())
+						return;
+					
+					SingleDocumentModel model = new DefaultSingleDocumentModel(path, document);
+					model.setEncoding(result.getEncoding());
+					model.setFileStamp(result.getStamp());
+					finishLoad(path, placeholder, model);
+					future.complete(model);
+				});
+			} catch(Exception ex) {
+				SwingUtilities.invokeLater(() -> {
+					if(future.isDone())
+						return;
+					
+					finishLoad(path, placeholder, null);
+					future.completeExceptionally(ex);
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Starts reading file of restored tab, caret is put back where it was once it is read.
+	 */
+	private void startRestore(Tab tab) {
+		SessionFile.Entry entry = tab.restore;
+		tab.restoreStarted = true;
+		
+		CompletableFuture<SingleDocumentModel> future = loadsByPlaceholder.get(tab.model);
+		restoresRunning++;
+		future.whenComplete((model, ex) -> runOnEdt(() -> {
+			if(model != null)
+				model.setCaretPosition(entry.getCaret());
+			restoresRunning--;
+			restoreNext();
+		}));
+		readInBackground(entry.getPath(), entry.getEncoding(), tab.model, future);
+	}
+	
+	/**
+	 * Starts reading restored tab closest to the selected one, unless another restored tab is being read.
+	 */
+	private void restoreNext() {
+		if(restoresRunning > 0)
+			return;
+		
+		int selected = Math.max(getSelectedIndex(), 0);
+		Tab next = null;
+		for(Tab tab : tabs) {
+			if(tab.restore != null && !tab.restoreStarted && (next == null || Math.abs(tab.index - selected) < Math.abs(next.index - selected)))
+				next = tab;
+		}
+		
+		if(next != null)
+			startRestore(next);
+	}
+	
+	/**
+	 * Reads file of a load that is pending on the EDT and completes the load with it, so file does not get a second tab.
+	 * Reading in the background stops once the load is completed.
+	 * 
+	 * @return read document, null if file could not be read
+	 */
+	private SingleDocumentModel finishPendingLoad(Path path, CompletableFuture<SingleDocumentModel> pending) {
+		SingleDocumentModel placeholder = getPlaceholder(pending);
+		Tab tab = tabsByModel.get(placeholder);
+		SessionFile.Entry entry = tab.restore;
+		TextEncoding encoding = entry == null ? null : entry.getEncoding();
+		setSelectedIndex(tab.index);
+		
+		DocumentReader.Result result;
+		try {
+			result = encoding == null
+					? DocumentReader.read(path, mappedLoadingThreshold, fallbackCharset, null, null)
+					: DocumentReader.read(path, encoding, mappedLoadingThreshold, null, null);
+		} catch(Exception ex) {
+			return null;
+		}
+		
+		if(result.getContent().length() >= offHeapThreshold)
+			result.getContent().moveOffHeap();
+		
+		SingleDocumentModel model = new DefaultSingleDocumentModel(path, result.getContent());
+		model.setEncoding(result.getEncoding());
+		model.setFileStamp(result.getStamp());
+		finishLoad(path, placeholder, model);
+		if(entry != null)
+			model.setCaretPosition(entry.getCaret());
+		pending.complete(model);
+		return model;
+	}
+	
+	/**
+	 * Returns empty document shown in tab of pending load.
+	 */
+	private SingleDocumentModel getPlaceholder(CompletableFuture<SingleDocumentModel> pending) {
+		for(Map.Entry<SingleDocumentModel, CompletableFuture<SingleDocumentModel>> entry : loadsByPlaceholder.entrySet()) {
+			if(entry.getValue() == pending)
+				return entry.getKey();
+		}
+		throw new IllegalStateException("Load has no tab");
+	}
+	
+	/**
+	 * Ends loading into placeholder tab. Placeholder is replaced by loaded model or, if there is none, removed.
+	 */
+	private void finishLoad(Path path, SingleDocumentModel placeholder, SingleDocumentModel model) {
+		loadsByPath.remove(pathKey(path));
+		loadsByPlaceholder.remove(placeholder);
+		
+		int index = indexOf(placeholder);
+		if(index == -1)
+			return;
+		
+		if(model == null) {
+			closeDocument(placeholder);
+			return;
+		}
+		
+		Tab tab = tabs.get(index);
+		tab.restore = null;
+		tabsByModel.remove(placeholder);
+		tab.model = model;
+		model.getHistory().setBudget(historyBudget);
+		tabsByModel.put(model, tab);
+		startJournal(tab);
+		model.addSingleDocumentListener(documentListener);
+		addToSearchIndex(model);
+		putPath(model, path);
+		
+		//view of placeholder is replaced by view of loaded text
+		tab.view = null;
+		tab.viewPosition = null;
+		setComponentAt(index, null);
+		if(getSelectedIndex() == index)
+			createView(tab);
+		setTabComponentAt(index, null);
+		
+		notifyAllListenersDocumentRemoved(placeholder);
+		notifyAllListenersDocumentAdded(model);
+		
+		if(currentModel == placeholder) {
+			previousModel = placeholder;
+			currentModel = model;
+			notifyAllListenersCurrentDocumentChanged();
+		}
+	}
+	
+	/**
+	 * Shows text component of tab in a new scroll pane, scrolled to where it was when it was released.
+	 */
+	private void createView(Tab tab) {
+		JScrollPane view = new JScrollPane(tab.model.getTextComponent());
+		tab.view = view;
+		setComponentAt(tab.index, view);
+		
+		Point position = tab.viewPosition;
+		if(position != null) {
+			//view is not laid out yet, a position set now would be clamped to its empty size
+			SwingUtilities.invokeLater(() -> {
+				if(tab.view == view)
+					view.getViewport().setViewPosition(position);
+			});
+		}
+	}
+	
+	/**
+	 * Releases text components of tabs that were not selected for longer than view timeout. Tab keeps only
+	 * its model and scroll position until it is selected again. Text of tabs not selected for longer than
+	 * compact timeout is compacted off the EDT, one tab at a time, and read through compact buffers until tab
+	 * is selected or edited.
+	 */
+	private void releaseIdleTabs() {
+		long now = System.nanoTime();
+		int selected = getSelectedIndex();
+		for(Tab tab : tabs) {
+			long idle = (now - tab.lastUsed) / 1_000_000;
+			if(tab.index == selected)
+				continue;
+			
+			if(tab.view != null && idle >= viewTimeout) {
+				tab.viewPosition = tab.view.getViewport().getViewPosition();
+				tab.view = null;
+				setComponentAt(tab.index, null);
+				tab.model.releaseTextComponent();
+			}
+		}
+		compactIdleTab();
+	}
+	
+	/**
+	 * Starts compacting text of one tab not selected for longer than compact timeout, the next one is compacted
+	 * when it is done.
+	 */
+	private void compactIdleTab() {
+		if(compacting)
+			return;
+		
+		long now = System.nanoTime();
+		int selected = getSelectedIndex();
+		for(Tab tab : tabs) {
+			//text off heap already takes no heap
+			if(tab.index == selected || tab.swapping || tab.model.isTextCompact() || tab.model.isTextOffHeap()
+					|| (now - tab.lastUsed) / 1_000_000 < compactTimeout)
+				continue;
+			
+			PieceTableContent.BufferSwap swap = tab.model.prepareCompactText(deflateInactive);
+			if(swap != null) {
+				compacting = true;
+				swapText(tab, swap);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Builds compacted or expanded text of tab on an I/O thread and swaps it in on the EDT. Text that was edited
+	 * in the meantime is kept as it is, as is text of a tab that was selected while it was being compacted.
+	 */
+	private void swapText(Tab tab, PieceTableContent.BufferSwap swap) {
+		if(swap == null || tab.swapping)
+			return;
+		
+		boolean compact = !tab.model.isTextCompact();
+		tab.swapping = true;
+		ioExecutor.execute(() -> {
+			try {
+				swap.build();
+			}
+			finally {
+				SwingUtilities.invokeLater(() -> {
+					tab.swapping = false;
+					if(!compact) {
+						swap.apply();
+						tab.bytesSaved = 0;
+						return;
+					}
+					
+					compacting = false;
+					long saved = tab.index != getSelectedIndex() ? swap.apply() : 0;
+					if(saved != 0)
+						tab.bytesSaved = saved;
+					else
+						//tab that was used meanwhile waits for another timeout
+						tab.lastUsed = System.nanoTime();
+					compactIdleTab();
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Starts passing edits of document of tab to its journal. Journal itself is created with the first edit.
+	 */
+	private void startJournal(Tab tab) {
+		Document document = tab.model.getDocument();
+		tab.journaledLength = document.getLength();
+		tab.journalListener = new DocumentListener() {
+			
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				if(openJournal(tab))
+					tab.journal.inserted(e.getOffset(), text(e.getOffset(), e.getLength()));
+				journaled(tab);
+			}
+			
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				if(openJournal(tab))
+					tab.journal.removed(e.getOffset(), e.getLength());
+				journaled(tab);
+			}
+			
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				//bulk replacement only tells how much was inserted, removed part is what the length is missing
+				int removed = tab.journaledLength + e.getLength() - document.getLength();
+				if(openJournal(tab)) {
+					if(removed > 0)
+						tab.journal.removed(e.getOffset(), removed);
+					if(e.getLength() > 0)
+						tab.journal.inserted(e.getOffset(), text(e.getOffset(), e.getLength()));
+				}
+				journaled(tab);
+			}
+			
+			private String text(int offset, int length) {
+				try {
+					return document.getText(offset, length);
+				} catch (BadLocationException e) {
+					throw new RuntimeException("Error while reading document");
+				}
+			}
+		};
+		document.addDocumentListener(tab.journalListener);
+	}
+	
+	/**
+	 * Creates journal of tab if it has none. Returns true if the edit that was just made must be journaled, false if it is
+	 * already in the text the journal starts from.
+	 */
+	private boolean openJournal(Tab tab) {
+		if(tab.journal != null)
+			return true;
+		if(recoveryDirectory == null)
+			return false;
+		
+		SingleDocumentModel model = tab.model;
+		Path file = recoveryDirectory.resolve(UUID.randomUUID() + JOURNAL_SUFFIX);
+		//document without a journal holds what its file did when it was read or saved, so journal starts from the file
+		if(model.getFilePath() != null && model.getFileStamp() != null) {
+			tab.journal = new EditJournal(file, model.getFilePath(), model.getFileStamp(), model.getEncoding(), null);
+			return true;
+		}
+		
+		tab.journal = new EditJournal(file, null, null, model.getEncoding(), model.createSnapshot());
+		return false;
+	}
+	
+	/**
+	 * Remembers length of document after edit, journal that grew too long starts again from the text.
+	 */
+	private void journaled(Tab tab) {
+		tab.journaledLength = tab.model.getDocument().getLength();
+		if(tab.journal != null && tab.journal.getSize() > Math.max(JOURNAL_CHECKPOINT_SIZE, 2L * tab.journaledLength))
+			tab.journal.checkpoint(tab.model.getFilePath(), null, tab.model.getEncoding(), tab.model.createSnapshot());
+	}
+	
+	private void deleteJournal(Tab tab) {
+		if(tab == null || tab.journal == null)
+			return;
+		
+		tab.journal.delete();
+		tab.journal = null;
+	}
+	
+	/**
+	 * Adds recovered document in a new tab.
+	 */
+	private void addRecovered(EditJournal.Recovery recovery, PieceTableDocument document) {
+		//file opened in the meantime keeps its tab, recovered text is shown as a new document
+		Path path = recovery.getPath();
+		if(path != null && (modelsByPath.containsKey(pathKey(path)) || loadsByPath.containsKey(pathKey(path))))
+			path = null;
+		
+		DefaultSingleDocumentModel model = new DefaultSingleDocumentModel(path, document);
+		model.setEncoding(recovery.getEncoding());
+		model.setModified(true);
+		
+		Tab tab = addModel(model);
+		tab.journal = recovery.getJournal();
+		startJournal(tab);
+		
+		model.addSingleDocumentListener(documentListener);
+		addToSearchIndex(model);
+		if(path != null) {
+			putPath(model, path);
+			this.addTab(path.getFileName().toString(), unsavedIcon, null, path.toAbsolutePath().toString());
+		}
+		else {
+			this.addTab("(unnamed)", unsavedIcon, null, "(unnamed)");
+		}
+		notifyAllListenersDocumentAdded(model);
+		
+		setSelectedIndex(tabs.size() - 1);
+	}
+	
+	/**
+	 * Returns index of tab of model or -1 if model is not in this collection.
+	 */
+	private int indexOf(SingleDocumentModel model) {
+		Tab tab = tabsByModel.get(model);
+		return tab == null ? -1 : tab.index;
+	}
+	
+	/**
+	 * Adds model as the last document, its tab is added by caller.
+	 * 
+	 * @return tab of model
+	 */
+	private Tab addModel(SingleDocumentModel model) {
+		model.getHistory().setBudget(historyBudget);
+		Tab tab = new Tab(model, tabs.size());
+		tabs.add(tab);
+		tabsByModel.put(model, tab);
+		return tab;
+	}
+	
+	/**
+	 * Files are looked up by absolute normalized path, so the same file is not opened twice under different paths.
+	 */
+	private static Path pathKey(Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+	
+	/**
+	 * Makes model found by given path, null path takes it out of lookup by path.
+	 */
+	private void putPath(SingleDocumentModel model, Path path) {
+		Path old = pathsByModel.remove(model);
+		if(old != null)
+			modelsByPath.remove(old, model);
+		
+		if(path != null) {
+			Path key = pathKey(path);
+			modelsByPath.put(key, model);
+			pathsByModel.put(model, key);
+		}
+	}
+	
+	private static void runOnEdt(Runnable runnable) {
+		if(SwingUtilities.isEventDispatchThread())
+			runnable.run();
+		else
+			SwingUtilities.invokeLater(runnable);
+	}
+	
 	private void notifyAllListenersCurrentDocumentChanged() {
 		for(MultipleDocumentListener listener : listeners)
 			listener.currentDocumentChanged(previousModel, currentModel);
 	}
+	
+	private void notifyAllListenersDocumentAdded(SingleDocumentModel model) {
+		for(MultipleDocumentListener listener : listeners)
+			listener.documentAdded(model);
+	}
+	
+	private void notifyAllListenersDocumentRemoved(SingleDocumentModel model) {
+		for(MultipleDocumentListener listener : listeners)
+			listener.documentRemoved(model);
+	}
+	
+	/**
+	 * Document shown in a tab together with index of the tab. Scroll pane of tab is created when tab is
+	 * first selected and dropped again when it is not used for a while.
+	 */
+	private static class Tab {
+		
+		private SingleDocumentModel model;
+		
+		private int index;
+		
+		/**
+		 * Scroll pane with text component of model, null while tab has no view
+		 */
+		private JScrollPane view;
+		
+		/**
+		 * Where view was scrolled when it was dropped
+		 */
+		private Point viewPosition;
+		
+		/**
+		 * When tab was last left, from {@link System#nanoTime()}
+		 */
+		private long lastUsed;
+		
+		/**
+		 * Bytes saved when text of tab was compacted
+		 */
+		private long bytesSaved;
+		
+		/**
+		 * Is text of tab being compacted or expanded
+		 */
+		private boolean swapping;
+		
+		/**
+		 * Journal of edits since document was last read or saved, null if there were none
+		 */
+		private EditJournal journal;
+		
+		/**
+		 * Passes edits of document to journal
+		 */
+		private DocumentListener journalListener;
+		
+		/**
+		 * Length of document after the last journaled edit
+		 */
+		private int journaledLength;
+		
+		/**
+		 * Tab of session whose file was not read yet, null for every other tab
+		 */
+		private SessionFile.Entry restore;
+		
+		/**
+		 * Is file of restored tab being read
+		 */
+		private boolean restoreStarted;
+		
+		private Tab(SingleDocumentModel model, int index) {
+			this.model = model;
+			this.index = index;
+			lastUsed = System.nanoTime();
+		}
+	}
 }
@@ -7,29 +7,98 @@ import java.util.List;
 import javax.swing.JTextArea;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
 import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+
+import com.notepad.document.DocumentStatistics;
+import com.notepad.document.EditHistory;
+import com.notepad.document.FileStamp;
+import com.notepad.document.LineIndex;
+import com.notepad.document.PieceTableContent;
+import com.notepad.document.PieceTableDocument;
+import com.notepad.document.TextEncoding;
+import com.notepad.document.TextSource;
+import com.notepad.highlight.HighlightedTextArea;
+import com.notepad.highlight.Lexers;
+import com.notepad.highlight.SyntaxHighlighter;
 
 public class DefaultSingleDocumentModel implements SingleDocumentModel{
 
+	/**
+	 * Component showing the document, created when it is first asked for and null again once released
+	 */
 	private JTextArea textArea;
 	
+	/**
+	 * Caret of released component, positions move with edits made while there is no component
+	 */
+	private Position caretDot;
+	
+	private Position caretMark;
+	
+	private boolean editable;
+	
 	private boolean modified;
 	
 	private Path path;
 	
+	private TextEncoding encoding;
+	
+	/**
+	 * Size and modification time file had when it was read or saved, null if document has no file
+	 */
+	private FileStamp fileStamp;
+	
+	private DocumentStatistics statistics;
+	
+	private LineIndex lineIndex;
+	
+	private PieceTableDocument document;
+	
+	/**
+	 * Highlighter of document, lexer is chosen by extension of path
+	 */
+	private SyntaxHighlighter highlighter;
+	
 	List<SingleDocumentListener> listeners;
 	
 	public DefaultSingleDocumentModel(Path path, String content) {
-		textArea = new JTextArea();
-		textArea.setText(content);
+		this(path, new PieceTableContent(content));
+	}
+	
+	public DefaultSingleDocumentModel(Path path, PieceTableContent content) {
+		//text is kept in piece table so edits never copy the whole document
+		this(path, new PieceTableDocument(content));
+	}
+	
+	/**
+	 * Creates model over document that was already built, for example by a background thread.
+	 * 
+	 * @param path path of document, can be null
+	 * @param document document over a piece table
+	 */
+	public DefaultSingleDocumentModel(Path path, PieceTableDocument document) {
+		this.document = document;
+		editable = true;
+		//piece table keeps counts up to date on every edit
+		statistics = document.getPieceTable();
+		lineIndex = document.getPieceTable();
 		modified = false;
 		this.path = path;
+		encoding = TextEncoding.UTF_8;
 		listeners = new ArrayList<>();
+		highlighter = new SyntaxHighlighter(document, Lexers.forPath(path));
+		//component is looked up every time so highlighter does not keep a released one alive
+		highlighter.addChangeListener(e -> {
+			if(textArea != null)
+				textArea.repaint();
+		});
 		
-		//add listener to JTextArea so when i changes modified state changes
-		Document documentModel = textArea.getDocument();
-		
-		documentModel.addDocumentListener(new DocumentListener() {
+		//add listener to document so when it changes modified state changes
+		document.addDocumentListener(new DocumentListener() {
 			
 			@Override
 			public void removeUpdate(DocumentEvent e) {
@@ -43,15 +112,95 @@ public class DefaultSingleDocumentModel implements SingleDocumentModel{
 			
 			@Override
 			public void changedUpdate(DocumentEvent e) {
-				// DO NOTHING
+				//bulk replacements are reported as changes
+				DefaultSingleDocumentModel.this.setModified(true);
 			}
 		});
 	}
 	
+	/**
+	 * Returns component showing the document. It is created on first call and again after it was released,
+	 * with the caret where it was.
+	 */
 	@Override
 	public JTextArea getTextComponent() {
+		if(textArea == null) {
+			textArea = new HighlightedTextArea(highlighter);
+			textArea.setEditable(editable);
+			if(caretDot != null) {
+				Caret caret = textArea.getCaret();
+				caret.setDot(caretMark.getOffset());
+				caret.moveDot(caretDot.getOffset());
+				caretDot = null;
+				caretMark = null;
+			}
+		}
 		return textArea;
 	}
+	
+	/**
+	 * Returns document without creating a component for it.
+	 */
+	@Override
+	public Document getDocument() {
+		return document;
+	}
+	
+	/**
+	 * Releases component showing the document so it can be collected, next call to {@link #getTextComponent()}
+	 * creates a new one. Component must no longer be shown.
+	 */
+	@Override
+	public void releaseTextComponent() {
+		if(textArea == null)
+			return;
+		
+		Caret caret = textArea.getCaret();
+		try {
+			caretDot = document.createPosition(caret.getDot());
+			caretMark = document.createPosition(caret.getMark());
+		} catch (BadLocationException e) {
+			throw new RuntimeException("Error while reading document");
+		}
+		editable = textArea.isEditable();
+		
+		//component listens to the document, which would otherwise keep it alive
+		textArea.setDocument(new PlainDocument());
+		textArea = null;
+		//states of lines are lexed again when document is shown
+		highlighter.release();
+	}
+
+	/**
+	 * Returns position of caret without creating a component.
+	 */
+	@Override
+	public int getCaretPosition() {
+		if(textArea != null)
+			return textArea.getCaretPosition();
+		
+		return caretDot == null ? 0 : caretDot.getOffset();
+	}
+	
+	/**
+	 * Moves caret to offset, clamped to the document. Caret of a document without component is placed there
+	 * once component is created.
+	 */
+	@Override
+	public void setCaretPosition(int offset) {
+		offset = Math.max(0, Math.min(offset, document.getLength()));
+		if(textArea != null) {
+			textArea.setCaretPosition(offset);
+			return;
+		}
+		
+		try {
+			caretDot = document.createPosition(offset);
+			caretMark = caretDot;
+		} catch (BadLocationException e) {
+			throw new RuntimeException("Error while reading document");
+		}
+	}
 
 	@Override
 	public Path getFilePath() {
@@ -62,10 +211,37 @@ public class DefaultSingleDocumentModel implements SingleDocumentModel{
 	public void setFilePath(Path path) {		
 		if(this.path == null || !this.path.equals(path)) {
 			this.path = path;
+			highlighter.setLexer(Lexers.forPath(path));
 			notifyAllListenersOfFilePathUpdate();
 		}		
 	}
 
+	/**
+	 * Returns encoding file was read with and is written with, UTF-8 for new documents.
+	 */
+	@Override
+	public TextEncoding getEncoding() {
+		return encoding;
+	}
+
+	@Override
+	public void setEncoding(TextEncoding encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Returns size and modification time file had when it was last read or saved, null if document has no file.
+	 */
+	@Override
+	public FileStamp getFileStamp() {
+		return fileStamp;
+	}
+
+	@Override
+	public void setFileStamp(FileStamp stamp) {
+		fileStamp = stamp;
+	}
+
 	@Override
 	public boolean isModified() {
 		return modified;
@@ -79,6 +255,95 @@ public class DefaultSingleDocumentModel implements SingleDocumentModel{
 		}
 	}
 
+	/**
+	 * Returns statistics of document which are updated on every edit.
+	 */
+	@Override
+	public DocumentStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Returns index of line starts which is updated on every edit.
+	 */
+	@Override
+	public LineIndex getLineIndex() {
+		return lineIndex;
+	}
+	
+	/**
+	 * Returns immutable snapshot of text that background tasks can read while document is being edited.
+	 */
+	@Override
+	public TextSource createSnapshot() {
+		return document.snapshot();
+	}
+	
+	/**
+	 * Returns undo and redo history of document.
+	 */
+	@Override
+	public EditHistory getHistory() {
+		return document.getHistory();
+	}
+	
+	/**
+	 * Returns highlighter that colors tokens of document, its lexer follows extension of file path.
+	 */
+	@Override
+	public SyntaxHighlighter getSyntaxHighlighter() {
+		return highlighter;
+	}
+	
+	/**
+	 * Prepares storing text as bytes instead of chars until it is expanded or edited. Swap is built off the EDT
+	 * and applied on it.
+	 * 
+	 * @param deflate should text also be deflated
+	 * @return swap that compacts text, null if there is nothing to compact
+	 */
+	@Override
+	public PieceTableContent.BufferSwap prepareCompactText(boolean deflate) {
+		return document.getPieceTable().prepareCompact(deflate);
+	}
+	
+	/**
+	 * Prepares turning compacted text back into chars. Text can be read while swap is built.
+	 * 
+	 * @return swap that expands text, null if text is not compact
+	 */
+	@Override
+	public PieceTableContent.BufferSwap prepareExpandText() {
+		return document.getPieceTable().prepareExpand();
+	}
+	
+	@Override
+	public boolean isTextCompact() {
+		return document.getPieceTable().isCompact();
+	}
+	
+	/**
+	 * Moves text out of the heap for as long as the document is open, which is meant for big documents.
+	 * Text is then never compacted.
+	 */
+	@Override
+	public void moveTextOffHeap() {
+		document.getPieceTable().moveOffHeap();
+	}
+	
+	@Override
+	public boolean isTextOffHeap() {
+		return document.getPieceTable().isOffHeap();
+	}
+	
+	/**
+	 * Replaces range of text with one document event and one undoable edit.
+	 */
+	@Override
+	public void bulkReplace(int offset, int length, String text) throws BadLocationException {
+		document.bulkReplace(offset, length, text);
+	}
+
 	@Override
 	public void addSingleDocumentListener(SingleDocumentListener l) {
 		listeners.add(l);
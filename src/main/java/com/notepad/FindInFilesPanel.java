@@ -0,0 +1,289 @@
+package com.notepad;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.swing.AbstractListModel;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+
+import com.notepad.document.LineIndex;
+import com.notepad.localization.ILocalizationProvider;
+import com.notepad.localization.LocalizableAction;
+import com.notepad.search.FileHit;
+import com.notepad.search.FileSearch;
+import com.notepad.search.TextSearcher;
+
+/**
+ * Shows results of searching files while they are found. Hits arrive from searching threads into a queue
+ * which a timer moves to the list a few times a second, so the EDT is not flooded. List has a fixed cell
+ * height, so only visible hits are ever rendered. Clicking a hit opens its file at the matched line.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class FindInFilesPanel extends JPanel{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Most hits shown, search is stopped when there are this many
+	 */
+	private static final int MAX_HITS = 100_000;
+
+	/**
+	 * How often found hits are moved to the list, in milliseconds
+	 */
+	private static final int REFRESH_DELAY = 150;
+
+	private MultipleDocumentModel documents;
+
+	private ILocalizationProvider flp;
+
+	private HitListModel hits;
+
+	private JLabel statusLabel;
+
+	/**
+	 * Hits found by searching threads but not yet in the list
+	 */
+	private Queue<List<FileHit>> pending;
+
+	private Timer refreshTimer;
+
+	private CompletableFuture<Integer> search;
+
+	/**
+	 * Directory that is searched, paths are shown relative to it
+	 */
+	private Path root;
+
+	/**
+	 * Creates panel.
+	 *
+	 * @param documents documents where hits are opened
+	 * @param flp provider of translations
+	 * @param onClose called when user closes the panel
+	 */
+	FindInFilesPanel(MultipleDocumentModel documents, ILocalizationProvider flp, Runnable onClose) {
+		super(new BorderLayout());
+		this.documents = documents;
+		this.flp = flp;
+		pending = new ConcurrentLinkedQueue<>();
+		hits = new HitListModel();
+
+		statusLabel = new JLabel(" ");
+		JPanel header = new JPanel(new BorderLayout());
+		header.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+		header.add(statusLabel, BorderLayout.CENTER);
+
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 4, 0));
+		buttons.add(new JButton(new LocalizableAction("cancel", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				cancel();
+			}
+		}));
+		buttons.add(new JButton(new LocalizableAction("close", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				cancel();
+				onClose.run();
+			}
+		}));
+		header.add(buttons, BorderLayout.LINE_END);
+		add(header, BorderLayout.PAGE_START);
+
+		JList<FileHit> list = new JList<>(hits);
+		//fixed height means cells are not measured, only visible ones are rendered
+		list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2);
+		list.setCellRenderer(new DefaultListCellRenderer() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+				FileHit hit = (FileHit) value;
+				String text = root.relativize(hit.getPath()) + ":" + (hit.getLine() + 1) + ":  " + hit.getPreview();
+				return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+			}
+		});
+		list.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int index = list.locationToIndex(e.getPoint());
+				if(index != -1 && list.getCellBounds(index, index).contains(e.getPoint()))
+					open(hits.getElementAt(index));
+			}
+		});
+		add(new JScrollPane(list), BorderLayout.CENTER);
+
+		setPreferredSize(new Dimension(0, 200));
+
+		refreshTimer = new Timer(REFRESH_DELAY, e -> refresh());
+	}
+
+	/**
+	 * Starts searching files under root, hits of previous search are removed.
+	 *
+	 * @param root directory to search
+	 * @param glob pattern of file names, empty for every file
+	 * @param searcher searcher for query
+	 * @param fallback charset of files that are neither UTF-8 nor UTF-16
+	 */
+	void search(Path root, String glob, TextSearcher searcher, Charset fallback) {
+		cancel();
+		hits.clear();
+		this.root = root;
+
+		//threads of a cancelled search can still add hits to its own queue
+		Queue<List<FileHit>> queue = new ConcurrentLinkedQueue<>();
+		pending = queue;
+
+		statusLabel.setText(flp.getString("searching"));
+		CompletableFuture<Integer> current = new FileSearch(searcher, fallback, Runtime.getRuntime().availableProcessors())
+				.start(root, glob, queue::add);
+		search = current;
+		current.whenComplete((files, ex) -> SwingUtilities.invokeLater(() -> {
+			if(search == current)
+				refresh();
+		}));
+		refreshTimer.start();
+	}
+
+	/**
+	 * Stops search that is running, hits found so far stay.
+	 */
+	void cancel() {
+		if(search != null && !search.isDone())
+			search.cancel(false);
+		refresh();
+	}
+
+	/**
+	 * Moves found hits to the list and shows how many there are.
+	 */
+	private void refresh() {
+		List<FileHit> batch = new ArrayList<>();
+		for(List<FileHit> found; (found = pending.poll()) != null; ) {
+			if(hits.getSize() + batch.size() < MAX_HITS)
+				batch.addAll(found);
+		}
+		if(hits.getSize() + batch.size() > MAX_HITS)
+			batch.subList(MAX_HITS - hits.getSize(), batch.size()).clear();
+		hits.addAll(batch);
+
+		if(search == null)
+			return;
+
+		if(hits.getSize() >= MAX_HITS && !search.isDone())
+			search.cancel(false);
+
+		String status = flp.getString("hits") + ": " + hits.getSize();
+		if(!search.isDone()) {
+			statusLabel.setText(flp.getString("searching") + " " + status);
+			return;
+		}
+
+		refreshTimer.stop();
+		if(search.isCancelled() || search.isCompletedExceptionally())
+			statusLabel.setText(status);
+		else
+			statusLabel.setText(status + ", " + flp.getString("files_searched") + ": " + search.join());
+	}
+
+	/**
+	 * Opens file of hit in the background and selects the match once the file is read.
+	 */
+	private void open(FileHit hit) {
+		//future is completed on the EDT
+		documents.loadDocumentAsync(hit.getPath()).whenComplete((model, exc) -> {
+			if(exc == null)
+				select(model, hit);
+			else if(!(exc instanceof CancellationException))
+				JOptionPane.showMessageDialog(this, flp.getString("error_while_reading"), flp.getString("error"), JOptionPane.ERROR_MESSAGE);
+		});
+	}
+
+	/**
+	 * Selects match of hit in opened document.
+	 */
+	private void select(SingleDocumentModel model, FileHit hit) {
+		//file could have been edited since it was searched, match is only selected if it is still inside the document
+		JTextArea area = model.getTextComponent();
+		LineIndex lineIndex = model.getLineIndex();
+		if(hit.getLine() < lineIndex.getLineCount()) {
+			try {
+				int length = area.getDocument().getLength();
+				int start = Math.min(lineIndex.getLineStartOffset(hit.getLine()) + hit.getColumn(), length);
+				area.select(start, Math.min(start + hit.getLength(), length));
+				area.getCaret().setSelectionVisible(true);
+			} catch (BadLocationException e) {
+				throw new RuntimeException("Error while reading document");
+			}
+		}
+		area.requestFocusInWindow();
+	}
+
+	/**
+	 * List of hits that grows by batches.
+	 */
+	private static class HitListModel extends AbstractListModel<FileHit> {
+		private static final long serialVersionUID = 1L;
+
+		private List<FileHit> hits = new ArrayList<>();
+
+		@Override
+		public int getSize() {
+			return hits.size();
+		}
+
+		@Override
+		public FileHit getElementAt(int index) {
+			return hits.get(index);
+		}
+
+		void addAll(List<FileHit> batch) {
+			if(batch.isEmpty())
+				return;
+
+			int first = hits.size();
+			hits.addAll(batch);
+			fireIntervalAdded(this, first, hits.size() - 1);
+		}
+
+		void clear() {
+			int size = hits.size();
+			if(size == 0)
+				return;
+
+			hits.clear();
+			fireIntervalRemoved(this, 0, size - 1);
+		}
+	}
+}
@@ -0,0 +1,614 @@
+package com.notepad;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+
+import com.notepad.document.TextSource;
+import com.notepad.localization.ILocalizationProvider;
+import com.notepad.localization.LocalizableAction;
+import com.notepad.search.Replacement;
+import com.notepad.search.SearchMatch;
+import com.notepad.search.SearchQuery;
+import com.notepad.search.TextSearcher;
+import com.notepad.search.TrigramIndex;
+
+/**
+ * Dialog for finding and replacing text in current document. Searches run on a snapshot off the EDT,
+ * a new search cancels the one still running. Typing into find field searches as you type, starting
+ * from where the caret was when the dialog got focus. Replace all is applied as one edit.
+ *
+ * Find next can go on into other tabs. Their literal text is looked up in the trigram index of open
+ * documents first, so only regions that can contain it are searched.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class FindReplaceDialog extends JDialog{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Background of find field when nothing is found
+	 */
+	private static final Color NOT_FOUND_COLOR = new Color(255, 200, 200);
+
+	private MultipleDocumentModel documents;
+
+	private ILocalizationProvider flp;
+
+	private JTextField findField;
+
+	private JTextField replaceField;
+
+	private JLabel findLabel;
+
+	private JLabel replaceLabel;
+
+	private JLabel statusLabel;
+
+	private JCheckBox matchCaseBox;
+
+	private JCheckBox regexBox;
+
+	private JCheckBox wrapBox;
+
+	private JCheckBox allTabsBox;
+
+	/**
+	 * Offset where search as you type starts
+	 */
+	private int anchor;
+
+	/**
+	 * Search or replace that is still running
+	 */
+	private SwingWorker<?, ?> running;
+
+	/**
+	 * Creates dialog, it is not shown.
+	 *
+	 * @param owner main window
+	 * @param documents documents that are searched
+	 * @param flp provider of translations
+	 */
+	FindReplaceDialog(JFrame owner, MultipleDocumentModel documents, ILocalizationProvider flp) {
+		super(owner, false);
+		this.documents = documents;
+		this.flp = flp;
+
+		initGUI();
+		updateTexts();
+		flp.addLocalizationListener(() -> updateTexts());
+
+		//caret could have been moved in the document while dialog was in background
+		addWindowFocusListener(new WindowAdapter() {
+			@Override
+			public void windowGainedFocus(WindowEvent e) {
+				resetAnchor();
+			}
+		});
+
+		pack();
+		setLocationRelativeTo(owner);
+	}
+
+	private void initGUI() {
+		JPanel content = new JPanel(new BorderLayout(8, 8));
+		content.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+		setContentPane(content);
+
+		findLabel = new JLabel();
+		replaceLabel = new JLabel();
+		findField = new JTextField(25);
+		replaceField = new JTextField(25);
+
+		JPanel fields = new JPanel(new GridLayout(2, 2, 4, 4));
+		fields.add(findLabel);
+		fields.add(findField);
+		fields.add(replaceLabel);
+		fields.add(replaceField);
+
+		matchCaseBox = new JCheckBox(new LocalizableAction("match_case", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				search(true, true);
+			}
+		});
+		regexBox = new JCheckBox(new LocalizableAction("regular_expression", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				search(true, true);
+			}
+		});
+		wrapBox = new JCheckBox(new LocalizableAction("wrap_around", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				// DO NOTHING
+			}
+		});
+		wrapBox.setSelected(true);
+		allTabsBox = new JCheckBox(new LocalizableAction("all_tabs", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				// DO NOTHING
+			}
+		});
+
+		JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+		options.add(matchCaseBox);
+		options.add(regexBox);
+		options.add(wrapBox);
+		options.add(allTabsBox);
+
+		statusLabel = new JLabel(" ");
+
+		JPanel center = new JPanel(new BorderLayout(4, 4));
+		center.add(fields, BorderLayout.PAGE_START);
+		center.add(options, BorderLayout.CENTER);
+		center.add(statusLabel, BorderLayout.PAGE_END);
+		content.add(center, BorderLayout.CENTER);
+
+		JPanel buttons = new JPanel(new GridLayout(4, 1, 4, 4));
+		buttons.add(new JButton(new LocalizableAction("find_next", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				findNext();
+			}
+		}));
+		buttons.add(new JButton(new LocalizableAction("find_previous", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				findPrevious();
+			}
+		}));
+		buttons.add(new JButton(new LocalizableAction("replace_next", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				replace();
+			}
+		}));
+		buttons.add(new JButton(new LocalizableAction("replace_all", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				replaceAll();
+			}
+		}));
+		JPanel east = new JPanel(new BorderLayout());
+		east.add(buttons, BorderLayout.PAGE_START);
+		content.add(east, BorderLayout.LINE_END);
+
+		//search as you type
+		findField.getDocument().addDocumentListener(new DocumentListener() {
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				search(true, true);
+			}
+
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				search(true, true);
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				// DO NOTHING
+			}
+		});
+		findField.addActionListener(e -> findNext());
+		replaceField.addActionListener(e -> replace());
+
+		//escape closes dialog
+		getRootPane().registerKeyboardAction(e -> setVisible(false), KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+				JComponent.WHEN_IN_FOCUSED_WINDOW);
+	}
+
+	/**
+	 * Sets texts that are not shown by actions according to current language.
+	 */
+	private void updateTexts() {
+		setTitle(flp.getString("find_replace"));
+		findLabel.setText(flp.getString("find_what"));
+		replaceLabel.setText(flp.getString("replace_with"));
+	}
+
+	/**
+	 * Shows dialog with focus in find field.
+	 */
+	void showFind() {
+		showDialog(findField);
+	}
+
+	/**
+	 * Shows dialog with focus in replace field.
+	 */
+	void showReplace() {
+		showDialog(replaceField);
+	}
+
+	private void showDialog(JTextField focused) {
+		resetAnchor();
+		setVisible(true);
+		focused.selectAll();
+		focused.requestFocusInWindow();
+	}
+
+	/**
+	 * Returns true if there is text to search for.
+	 *
+	 * @return is find field not empty
+	 */
+	boolean hasQuery() {
+		return !findField.getText().isEmpty();
+	}
+
+	/**
+	 * Selects next match after selection of current document.
+	 */
+	void findNext() {
+		search(true, false);
+	}
+
+	/**
+	 * Selects previous match before selection of current document.
+	 */
+	void findPrevious() {
+		search(false, false);
+	}
+
+	private void resetAnchor() {
+		SingleDocumentModel model = documents.getCurrentDocument();
+		if(model != null)
+			anchor = model.getTextComponent().getSelectionStart();
+	}
+
+	/**
+	 * Creates searcher for query in find field, shows why if query is not valid.
+	 *
+	 * @return searcher or null if query is empty or invalid
+	 */
+	private TextSearcher createSearcher() {
+		if(findField.getText().isEmpty()) {
+			showStatus(" ", true);
+			return null;
+		}
+
+		try {
+			return TextSearcher.create(new SearchQuery(findField.getText(), matchCaseBox.isSelected(), regexBox.isSelected()));
+		} catch(PatternSyntaxException ex) {
+			showStatus(flp.getString("invalid_pattern"), false);
+			return null;
+		}
+	}
+
+	private void showStatus(String text, boolean found) {
+		statusLabel.setText(text);
+		findField.setBackground(found ? UIManager.getColor("TextField.background") : NOT_FOUND_COLOR);
+	}
+
+	/**
+	 * Returns size of search index and how many documents are in it.
+	 */
+	private String indexStatus() {
+		TrigramIndex index = documents.getSearchIndex();
+		return String.format("%s: %.1f MB, %d/%d %s", flp.getString("search_index"), index.getMemoryUsage() / (1024.0 * 1024.0),
+				index.getIndexedDocumentCount(), index.getDocumentCount(), flp.getString("indexed_documents"));
+	}
+
+	/**
+	 * Searches current document off the EDT and selects match. Searching forward can go on into other tabs,
+	 * in order of tabs after the current one.
+	 *
+	 * @param forward should search go forward or backward from selection
+	 * @param incremental is this search as you type, which starts from anchor
+	 */
+	private void search(boolean forward, boolean incremental) {
+		cancelRunning();
+
+		SingleDocumentModel model = documents.getCurrentDocument();
+		if(model == null)
+			return;
+
+		TextSearcher searcher = createSearcher();
+		if(searcher == null)
+			return;
+
+		JTextArea area = model.getTextComponent();
+		int from = incremental ? anchor : forward ? area.getSelectionEnd() : area.getSelectionStart();
+		//empty match at the caret would be found over and over again
+		boolean skipEmpty = !incremental && area.getSelectionStart() == area.getSelectionEnd();
+		boolean wrap = wrapBox.isSelected();
+
+		TextSource snapshot = model.createSnapshot();
+		ChangeTracker tracker = new ChangeTracker(area.getDocument());
+
+		//snapshots of other tabs with versions of their text in the index
+		boolean allTabs = allTabsBox.isSelected() && forward && !incremental;
+		TrigramIndex index = documents.getSearchIndex();
+		String literal = regexBox.isSelected() ? null : findField.getText();
+		List<SingleDocumentModel> others = new ArrayList<>();
+		List<TextSource> snapshots = new ArrayList<>();
+		int count = documents.getNumberOfDocuments();
+		int current = 0;
+		while(current < count && documents.getDocument(current) != model)
+			current++;
+		for(int i = 1; allTabs && i < count; i++) {
+			SingleDocumentModel other = documents.getDocument((current + i) % count);
+			//documents still loading are not in the index
+			if(index.getVersion(other.getDocument()) != -1) {
+				others.add(other);
+				snapshots.add(other.createSnapshot());
+			}
+		}
+		Object[] keys = new Object[others.size()];
+		int[] versions = new int[others.size()];
+		for(int k = 0; k < keys.length; k++) {
+			keys[k] = others.get(k).getDocument();
+			versions[k] = index.getVersion(keys[k]);
+		}
+
+		SwingWorker<Found, Void> worker = new SwingWorker<>() {
+
+			@Override
+			protected Found doInBackground() throws Exception {
+				SearchMatch match = find(from);
+				if(match != null && skipEmpty && match.getLength() == 0 && match.getStart() == from)
+					match = forward ? (from < snapshot.length() ? find(from + 1) : null) : (from > 0 ? find(from - 1) : null);
+
+				if(match == null && allTabs) {
+					Found found = findInOthers();
+					if(found != null)
+						return found;
+				}
+
+				if(match == null && wrap)
+					match = find(forward ? 0 : snapshot.length());
+				return match == null ? null : new Found(-1, match);
+			}
+
+			private SearchMatch find(int offset) {
+				return forward ? searcher.find(snapshot, offset, this::isCancelled) : searcher.findPrevious(snapshot, offset, this::isCancelled);
+			}
+
+			/**
+			 * Finds first match in other tabs, only candidate regions of index are searched for literal text.
+			 */
+			private Found findInOthers() {
+				for(int k = 0; k < keys.length; k++)
+					index.refresh(keys[k], snapshots.get(k), versions[k]);
+				int[][] regions = literal == null ? new int[keys.length][] : index.candidates(literal, keys, versions);
+
+				for(int k = 0; k < keys.length; k++) {
+					SearchMatch match = null;
+					if(regions[k] == null)
+						match = searcher.find(snapshots.get(k), 0, this::isCancelled);
+					for(int r = 0; regions[k] != null && r < regions[k].length && match == null; r += 2)
+						match = searcher.find(snapshots.get(k), regions[k][r], regions[k][r + 1], this::isCancelled);
+
+					if(match != null)
+						return new Found(k, match);
+				}
+				return null;
+			}
+
+			@Override
+			protected void done() {
+				tracker.stop();
+				if(running != this)
+					return;
+				running = null;
+
+				Found found;
+				try {
+					found = get();
+				} catch (InterruptedException | ExecutionException exc) {
+					throw new RuntimeException("Error while searching");
+				}
+
+				//offsets of match are not valid anymore
+				if((found == null || found.document == -1) ? tracker.isChanged() : index.getVersion(keys[found.document]) != versions[found.document])
+					return;
+
+				if(found == null) {
+					showStatus(flp.getString("not_found"), false);
+					return;
+				}
+
+				JTextArea target = area;
+				if(found.document != -1) {
+					SingleDocumentModel other = others.get(found.document);
+					documents.setCurrentDocument(other);
+					target = other.getTextComponent();
+				}
+
+				showStatus(allTabs ? indexStatus() : " ", true);
+				SearchMatch match = found.match;
+				target.select(match.getStart(), match.getEnd());
+				target.getCaret().setSelectionVisible(true);
+				if(!incremental)
+					anchor = match.getStart();
+			}
+		};
+		running = worker;
+		worker.execute();
+	}
+
+	/**
+	 * Replaces selection if it is a match and selects the next match.
+	 */
+	private void replace() {
+		cancelRunning();
+
+		SingleDocumentModel model = documents.getCurrentDocument();
+		if(model == null)
+			return;
+
+		TextSearcher searcher = createSearcher();
+		if(searcher == null)
+			return;
+
+		//only the selection is searched, so this is fast even in huge documents
+		JTextArea area = model.getTextComponent();
+		int start = area.getSelectionStart();
+		int end = area.getSelectionEnd();
+		Replacement replacement;
+		try {
+			replacement = searcher.replaceAll(model.createSnapshot(), start, end, replaceField.getText(), null);
+		} catch(IllegalArgumentException ex) {
+			showStatus(flp.getString("invalid_replacement"), false);
+			return;
+		}
+
+		if(replacement != null && replacement.getCount() == 1 && replacement.getStart() == start && replacement.getEnd() == end) {
+			try {
+				model.bulkReplace(start, end - start, replacement.getText());
+			} catch (BadLocationException e) {
+				throw new RuntimeException("Error while replacing text");
+			}
+			area.setCaretPosition(start + replacement.getText().length());
+		}
+
+		findNext();
+	}
+
+	/**
+	 * Replaces every match in current document off the EDT, result is applied as one edit.
+	 */
+	private void replaceAll() {
+		cancelRunning();
+
+		SingleDocumentModel model = documents.getCurrentDocument();
+		if(model == null)
+			return;
+
+		TextSearcher searcher = createSearcher();
+		if(searcher == null)
+			return;
+
+		String replacementText = replaceField.getText();
+		TextSource snapshot = model.createSnapshot();
+		ChangeTracker tracker = new ChangeTracker(model.getDocument());
+
+		SwingWorker<Replacement, Void> worker = new SwingWorker<>() {
+
+			@Override
+			protected Replacement doInBackground() throws Exception {
+				return searcher.replaceAll(snapshot, 0, snapshot.length(), replacementText, this::isCancelled);
+			}
+
+			@Override
+			protected void done() {
+				tracker.stop();
+				if(running != this)
+					return;
+				running = null;
+
+				if(tracker.isChanged()) {
+					JOptionPane.showMessageDialog(FindReplaceDialog.this, flp.getString("document_changed"),
+							flp.getString("warning"), JOptionPane.WARNING_MESSAGE);
+					return;
+				}
+
+				Replacement replacement;
+				try {
+					replacement = get();
+				} catch (ExecutionException exc) {
+					if(exc.getCause() instanceof IllegalArgumentException) {
+						showStatus(flp.getString("invalid_replacement"), false);
+						return;
+					}
+					throw new RuntimeException("Error while replacing text");
+				} catch (InterruptedException exc) {
+					throw new RuntimeException("Error while replacing text");
+				}
+
+				if(replacement == null) {
+					showStatus(flp.getString("not_found"), false);
+					return;
+				}
+
+				//caret does not follow a bulk replace, so it is moved like an insert and a remove would move it
+				JTextArea area = model.getTextComponent();
+				int dot = area.getCaretPosition();
+				try {
+					model.bulkReplace(replacement.getStart(), replacement.getEnd() - replacement.getStart(), replacement.getText());
+				} catch (BadLocationException e) {
+					throw new RuntimeException("Error while replacing text");
+				}
+				if(dot >= replacement.getEnd())
+					dot += replacement.getText().length() - (replacement.getEnd() - replacement.getStart());
+				else if(dot > replacement.getStart())
+					dot = replacement.getStart() + replacement.getText().length();
+				area.setCaretPosition(dot);
+				showStatus(flp.getString("replaced_count") + " " + replacement.getCount(), true);
+			}
+		};
+		running = worker;
+		worker.execute();
+	}
+
+	/**
+	 * Match found by search, document is index into other tabs or -1 for current document.
+	 */
+	private static class Found {
+
+		private final int document;
+
+		private final SearchMatch match;
+
+		private Found(int document, SearchMatch match) {
+			this.document = document;
+			this.match = match;
+		}
+	}
+
+	private void cancelRunning() {
+		if(running != null) {
+			running.cancel(false);
+			running = null;
+		}
+	}
+}
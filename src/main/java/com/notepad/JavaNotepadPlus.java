@@ -2,6 +2,7 @@ package com.notepad;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Container;
 import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
@@ -11,20 +12,25 @@ import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.UnmappableCharacterException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.CollationKey;
-import java.text.Collator;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.function.Function;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
 
+import javax.swing.AbstractButton;
 import javax.swing.Action;
+import javax.swing.ButtonGroup;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -33,10 +39,15 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.JSplitPane;
+import javax.swing.JTextField;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
 import javax.swing.WindowConstants;
 import javax.swing.border.MatteBorder;
@@ -47,12 +58,23 @@ import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Caret;
 import javax.swing.text.Document;
-import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
 
+import com.notepad.document.LineIndex;
+import com.notepad.document.TextEncoding;
+import com.notepad.document.TextSource;
 import com.notepad.localization.FormLocalizationProvider;
 import com.notepad.localization.LocalizableAction;
 import com.notepad.localization.LocalizationProvider;
+import com.notepad.search.SearchQuery;
+import com.notepad.search.TextSearcher;
+import com.notepad.tools.CaseTransformer;
+import com.notepad.tools.LineDeduplicator;
+import com.notepad.tools.LineSorter;
+import com.notepad.tools.LineTool;
+import com.notepad.tools.StatisticsEngine;
+import com.notepad.tools.TextTool;
+import com.notepad.tools.TextStatistics;
 
 /**
  * Java Notepad Plus main program.
@@ -70,6 +92,54 @@ public class JavaNotepadPlus extends JFrame {
 	private String savedString;
 	
 	private Timer timer;
+	
+	private LineSorter.Mode sortMode = LineSorter.Mode.ALPHABETIC;
+	
+	private boolean stableSort = true;
+	
+	private String sortDelimiter = "\t";
+	
+	private int sortColumn = 0;
+	
+	private LineDeduplicator.Mode uniqueMode = LineDeduplicator.Mode.KEEP_FIRST;
+	
+	private boolean uniqueIgnoreCase;
+	
+	private boolean uniqueTrim;
+	
+	/**
+	 * Created when it is first needed
+	 */
+	private FindReplaceDialog findDialog;
+	
+	/**
+	 * Created when files are searched for the first time
+	 */
+	private FindInFilesPanel findInFilesPanel;
+	
+	private String findInFilesGlob = "*";
+	
+	/**
+	 * Runs updates of status bar and actions that need a selection at most once per frame
+	 */
+	private UpdateScheduler statusUpdates = new UpdateScheduler(UpdateScheduler.FRAME_DELAY);
+	
+	/**
+	 * Values last shown in status bar, update that would show the same values is skipped
+	 */
+	private int shownLength = Integer.MIN_VALUE;
+	
+	private int shownLine = Integer.MIN_VALUE;
+	
+	private int shownColumn;
+	
+	private int shownSelection;
+	
+	private Runnable lengthUpdate = this::updateLength;
+	
+	private Runnable caretUpdate = this::updateCaret;
+	
+	private Runnable historyUpdate = this::updateHistory;
 
 	public JavaNotepadPlus() throws IOException {
 		setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
@@ -107,7 +177,7 @@ public class JavaNotepadPlus extends JFrame {
 				//unsubscribe previous model carot and subscribe new one
 				if(previousModel != null) {
 					previousModel.getTextComponent().getCaret().removeChangeListener(changeListener);
-					previousModel.getTextComponent().getDocument().removeDocumentListener(documentListener);
+					previousModel.getDocument().removeDocumentListener(documentListener);
 				}
 					
 				
@@ -116,29 +186,18 @@ public class JavaNotepadPlus extends JFrame {
 					saveAsAction.setEnabled(true);
 					pasteAction.setEnabled(true);
 					closeAction.setEnabled(true);
-					cutAction.setEnabled(false);
-					copyAction.setEnabled(false);
-					deleteAction.setEnabled(false);
-					toUpperAction.setEnabled(false);
-					toLowerAction.setEnabled(false);
-					invertCaseAction.setEnabled(false);
-					ascendingAction.setEnabled(false);
-					descendingAction.setEnabled(false);
-					uniqueAction.setEnabled(false);
+					goToLineAction.setEnabled(true);
+					findAction.setEnabled(true);
+					replaceAction.setEnabled(true);
+					findNextAction.setEnabled(true);
+					findPreviousAction.setEnabled(true);
+					//caret stays where it was in the document, actions follow its selection
 					currentModel.getTextComponent().getCaret().addChangeListener(changeListener);
-					currentModel.getTextComponent().setCaretPosition(0);
 					
 					//attach listener for length
-					currentModel.getTextComponent().getDocument().addDocumentListener(documentListener);
-					//update length
-					lengthStatusAction.actionPerformed(null);
-					otherStatusAction.actionPerformed(null);
+					currentModel.getDocument().addDocumentListener(documentListener);
 				}
 				else {
-					//update length
-					lengthStatusAction.actionPerformed(null);
-					otherStatusAction.actionPerformed(null);
-					
 					cutAction.setEnabled(false);
 					copyAction.setEnabled(false);
 					deleteAction.setEnabled(false);
@@ -146,6 +205,11 @@ public class JavaNotepadPlus extends JFrame {
 					saveAction.setEnabled(false);
 					saveAsAction.setEnabled(false);
 					closeAction.setEnabled(false);
+					goToLineAction.setEnabled(false);
+					findAction.setEnabled(false);
+					replaceAction.setEnabled(false);
+					findNextAction.setEnabled(false);
+					findPreviousAction.setEnabled(false);
 					toUpperAction.setEnabled(false);
 					toLowerAction.setEnabled(false);
 					invertCaseAction.setEnabled(false);
@@ -153,9 +217,13 @@ public class JavaNotepadPlus extends JFrame {
 					descendingAction.setEnabled(false);
 					uniqueAction.setEnabled(false);
 				}
-					
-				
+				updateHistory();
 				
+				//status of new document is shown right away, not at the end of the frame
+				shownLength = Integer.MIN_VALUE;
+				shownLine = Integer.MIN_VALUE;
+				updateLength();
+				updateCaret();
 				
 				updateTitle();
 			}
@@ -164,6 +232,16 @@ public class JavaNotepadPlus extends JFrame {
 		
 		
 		this.addWindowListener(wl);
+		
+		//tabs of last run come back, files are read in the background
+		try {
+			documentsModel.restoreSession();
+		} catch(IOException ex) {
+			//damaged session starts editor without tabs
+		}
+		
+		//documents left unsaved by a crash come back in their tabs
+		documentsModel.recoverDocuments();
 
 		setSize(800, 500);
 		// pack();
@@ -187,12 +265,19 @@ public class JavaNotepadPlus extends JFrame {
 		saveAction.setEnabled(false);
 		saveAsAction.setEnabled(false);
 		closeAction.setEnabled(false);
+		goToLineAction.setEnabled(false);
+		findAction.setEnabled(false);
+		replaceAction.setEnabled(false);
+		findNextAction.setEnabled(false);
+		findPreviousAction.setEnabled(false);
 		toUpperAction.setEnabled(false);
 		toLowerAction.setEnabled(false);
 		invertCaseAction.setEnabled(false);
 		ascendingAction.setEnabled(false);
 		uniqueAction.setEnabled(false);
 		descendingAction.setEnabled(false);
+		undoAction.setEnabled(false);
+		redoAction.setEnabled(false);
 		
 		//add listener so then language changes there action properties get set again
 		flp.addLocalizationListener(() -> {
@@ -335,7 +420,14 @@ public class JavaNotepadPlus extends JFrame {
 				return;
 			}
 
-			documentsModel.loadDocument(path);
+			documentsModel.loadDocumentAsync(path).whenComplete((model, exc) -> {
+				if(exc == null || exc instanceof CancellationException)
+					return;
+				
+				JOptionPane.showMessageDialog(JavaNotepadPlus.this,
+						flp.getString("error_while_reading") + " " + fileName.getAbsolutePath(),
+						flp.getString("error"), JOptionPane.ERROR_MESSAGE);
+			});
 		}
 	};
 	
@@ -347,40 +439,7 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			//saving currentModel from MultipleDocumentModel
-			//if path is not set get one
-			SingleDocumentModel model = documentsModel.getCurrentDocument();
-			
-			Path path = model.getFilePath();
-			if(path == null) {
-				JFileChooser fc = new JFileChooser();
-				fc.setDialogTitle(flp.getString("choose_where_to_save"));
-				if (fc.showOpenDialog(JavaNotepadPlus.this) != JFileChooser.APPROVE_OPTION) {
-					return;
-				}
-				File fileName = fc.getSelectedFile();
-				path = fileName.toPath();
-			}
-			
-			try{
-				documentsModel.saveDocument(model, path);
-			}
-			catch (IllegalArgumentException exc){
-				JOptionPane.showMessageDialog(
-						JavaNotepadPlus.this,
-						flp.getString("error_while_writing_to_path") + " " + path.toFile().getAbsolutePath(), 
-						flp.getString("error"), 
-						JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-			
-			
-			updateTitle();
-			JOptionPane.showMessageDialog(
-					JavaNotepadPlus.this,
-					flp.getString("file_was_saved"), 
-					flp.getString("information"), 
-					JOptionPane.INFORMATION_MESSAGE);
+			saveCurrentDocument();
 		}
 	};
 	
@@ -441,25 +500,7 @@ public class JavaNotepadPlus extends JFrame {
 			//change path of document
 			model.setFilePath(path);
 			
-			try{
-				documentsModel.saveDocument(model, path);
-			}
-			catch (IllegalArgumentException exc){
-				JOptionPane.showMessageDialog(
-						JavaNotepadPlus.this,
-						flp.getString("error_while_writing_to_path") + " " + path.toFile().getAbsolutePath(), 
-						flp.getString("error"), 
-						JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-			
-			
-			updateTitle();
-			JOptionPane.showMessageDialog(
-					JavaNotepadPlus.this,
-					flp.getString("file_was_saved"), 
-					flp.getString("information"), 
-					JOptionPane.INFORMATION_MESSAGE);
+			saveInBackground(model, path, true);
 		}
 	};
 	
@@ -479,11 +520,15 @@ public class JavaNotepadPlus extends JFrame {
 					unsavedData = true;
 
 			if (!unsavedData) {
+				saveSession();
+				documentsModel.deleteJournals();
+				documentsModel.dispose();
 				dispose();
 				return;
 			}
 			
 			//String[] options = new String[] { flp.getString("yes"), flp.getString("no"), flp.getString("cancel") };
+			List<CompletableFuture<Void>> saves = new ArrayList<>();
 			for(int i = 0; i < documentsModel.getNumberOfDocuments(); i++) {
 				SingleDocumentModel document = documentsModel.getDocument(i);
 				//skip the ones that dont need saving
@@ -512,7 +557,7 @@ public class JavaNotepadPlus extends JFrame {
 						File fileName = fc.getSelectedFile();
 						path = fileName.toPath();
 					}
-					documentsModel.saveDocument(document, path);
+					saves.add(saveInBackground(document, path, false));
 					
 				}
 				// no
@@ -529,8 +574,19 @@ public class JavaNotepadPlus extends JFrame {
 				}
 				}
 			}
-			timer.stop();
-			dispose();
+			
+			//exit only once everything was saved
+			CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0])).whenComplete((result, exc) -> {
+				if(exc != null)
+					return;
+				
+				timer.stop();
+				//documents user chose not to save are not recovered either
+				saveSession();
+				documentsModel.deleteJournals();
+				documentsModel.dispose();
+				dispose();
+			});
 		}
 	}; 
 	
@@ -542,12 +598,18 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
+			SingleDocumentModel model = documentsModel.getCurrentDocument();
+			
 			//ask only if there is something to save
-			if(documentsModel.getCurrentDocument().isModified()) {
+			if(model.isModified()) {
 				int result = askIfSave();
 				
 				if(result == 0) {
-					saveAction.actionPerformed(e);
+					//tab is closed once its document is saved
+					CompletableFuture<Void> save = saveCurrentDocument();
+					if(save != null)
+						save.thenRun(() -> documentsModel.closeDocument(model));
+					return;
 				}
 				else if(result == 1) {
 					//dont save
@@ -560,9 +622,41 @@ public class JavaNotepadPlus extends JFrame {
 			
 			
 			//remove currentModel
-			documentsModel.closeDocument(documentsModel.getCurrentDocument());
+			documentsModel.closeDocument(model);
+			
+			
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for undoing last change of current document.
+	 */
+	private LocalizableAction undoAction = new LocalizableAction("undo", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
+			if(currentModel == null || !currentModel.getHistory().canUndo())
+				return;
 			
+			currentModel.getTextComponent().setCaretPosition(currentModel.getHistory().undo());
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for redoing last undone change of current document.
+	 */
+	private LocalizableAction redoAction = new LocalizableAction("redo", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
+			if(currentModel == null || !currentModel.getHistory().canRedo())
+				return;
 			
+			currentModel.getTextComponent().setCaretPosition(currentModel.getHistory().redo());
 		}
 	};
 	
@@ -692,27 +786,67 @@ public class JavaNotepadPlus extends JFrame {
 			}
 				
 			
-			Document document = currentModel.getTextComponent().getDocument();
+			//counting is done in parallel off the EDT over a snapshot so editing can continue
+			StatisticsEngine engine = new StatisticsEngine(currentModel.createSnapshot());
+			ProgressMonitor monitor = new ProgressMonitor(JavaNotepadPlus.this, flp.getString("calculating_statistics"), null, 0, 100);
 			
-			String text = "";
-			try {
-				text = document.getText(0, document.getLength());
-			} catch (BadLocationException e1) {
-				throw new RuntimeException("Error while reading document text");
-			}
-			int numberOfCharacters = text.length();
-			int numberofNonBlankCharacters = 0;
-			int numberOfLines = 1;
-			for(int i = 0; i < document.getLength(); i++) {
-				if(!Character.isWhitespace(text.charAt(i)))
-					numberofNonBlankCharacters++;
-				if(text.charAt(i) == '\n')
-					numberOfLines++;
-			}
+			SwingWorker<TextStatistics, Void> worker = new SwingWorker<>() {
+				
+				@Override
+				protected TextStatistics doInBackground() throws Exception {
+					engine.setProgressListener(this::setProgress);
+					return engine.compute();
+				}
+				
+				@Override
+				protected void done() {
+					monitor.close();
+					if(engine.isCancelled())
+						return;
+					
+					TextStatistics statistics;
+					try {
+						statistics = get();
+					} catch (InterruptedException | ExecutionException exc) {
+						throw new RuntimeException("Error while calculating statistics");
+					}
+					
+					JOptionPane.showMessageDialog(JavaNotepadPlus.this, String.format("%s %d %s, %d %s, %d %s, %d %s %s %d %s. %s %d %s.", 
+							flp.getString("your_document_has"), statistics.getCharacters(), flp.getString("characters"), 
+							statistics.getCodePoints(), flp.getString("code_points"), 
+							statistics.getNonBlank(), flp.getString("non_blank_characters"), 
+							statistics.getWords(), flp.getString("words"), 
+							flp.getString("and"), statistics.getLines(), flp.getString("lines"), 
+							flp.getString("longest_line_has"), statistics.getLongestLine(), flp.getString("characters")));
+				}
+			};
+			
+			worker.addPropertyChangeListener(evt -> {
+				if("progress".equals(evt.getPropertyName()))
+					monitor.setProgress(worker.getProgress());
+				
+				if(monitor.isCanceled())
+					engine.cancel();
+			});
 			
-			JOptionPane.showMessageDialog(JavaNotepadPlus.this, String.format("%s %d %s, %d %s %s %d %s", flp.getString("your_document_has"), numberOfCharacters,
-							flp.getString("characters"), numberofNonBlankCharacters, flp.getString("non_blank_characters"), 
-							flp.getString("and"), numberOfLines, flp.getString("lines")));
+			worker.execute();
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for showing how much memory open documents take.
+	 */
+	private LocalizableAction memoryAction = new LocalizableAction("memory", flp) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			JOptionPane.showMessageDialog(JavaNotepadPlus.this, String.format("%s %d%n%s %.1f MB%n%s %d%n%s %.1f MB",
+					flp.getString("compact_documents"), documentsModel.getCompactDocumentCount(),
+					flp.getString("heap_saved"), documentsModel.getHeapSaved() / (1024.0 * 1024.0),
+					flp.getString("off_heap_documents"), documentsModel.getOffHeapDocumentCount(),
+					flp.getString("history_memory"), documentsModel.getHistoryMemory() / (1024.0 * 1024.0)),
+					flp.getString("memory"), JOptionPane.INFORMATION_MESSAGE);
 		}
 	};
 	
@@ -732,14 +866,7 @@ public class JavaNotepadPlus extends JFrame {
 			SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
 			
 			if(currentModel != null) {
-				Document document = currentModel.getTextComponent().getDocument();
-				String text = "";
-				try {
-					text = document.getText(0, document.getLength());
-				} catch (BadLocationException e1) {
-					throw new RuntimeException("Error while reading document text");
-				}
-				int numberOfCharacters = text.length();
+				int numberOfCharacters = currentModel.getStatistics().getCharacterCount();
 				
 				String newLength = firstWord + " : " + numberOfCharacters;
 				this.putValue(Action.NAME, newLength);
@@ -775,8 +902,9 @@ public class JavaNotepadPlus extends JFrame {
 			int selectionLength = 0;
 			
 			try {
-				currentLine = currentDocument.getTextComponent().getLineOfOffset(offset) + 1;
-				currentCol = offset - currentDocument.getTextComponent().getLineStartOffset(currentLine-1) + 1;
+				LineIndex lineIndex = currentDocument.getLineIndex();
+				currentLine = lineIndex.getLineOfOffset(offset) + 1;
+				currentCol = offset - lineIndex.getLineStartOffset(currentLine-1) + 1;
 				
 			} catch (BadLocationException e2) {
 				throw new RuntimeException("Error while reading document");
@@ -794,6 +922,152 @@ public class JavaNotepadPlus extends JFrame {
 		}
 	};
 	
+	/**
+	 * {@link LocalizableAction} for moving caret to start of line.
+	 */
+	private LocalizableAction goToLineAction = new LocalizableAction("go_to_line", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			SingleDocumentModel currentDocument = documentsModel.getCurrentDocument();
+			LineIndex lineIndex = currentDocument.getLineIndex();
+			int lineCount = lineIndex.getLineCount();
+			
+			String input = JOptionPane.showInputDialog(JavaNotepadPlus.this, 
+					String.format("%s (1 - %d):", flp.getString("line_number"), lineCount), 
+					flp.getString("go_to_line"), JOptionPane.QUESTION_MESSAGE);
+			
+			if(input == null)
+				return;
+			
+			int line;
+			try {
+				line = Integer.parseInt(input.trim());
+			} catch (NumberFormatException exc) {
+				line = -1;
+			}
+			
+			if(line < 1 || line > lineCount) {
+				JOptionPane.showMessageDialog(JavaNotepadPlus.this, flp.getString("invalid_line_number"), 
+						flp.getString("error"), JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			
+			//line start is found in O(log n) so this is instant even in huge files
+			try {
+				currentDocument.getTextComponent().setCaretPosition(lineIndex.getLineStartOffset(line - 1));
+			} catch (BadLocationException exc) {
+				throw new RuntimeException("Error while reading document");
+			}
+			currentDocument.getTextComponent().requestFocusInWindow();
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for showing find dialog.
+	 */
+	private LocalizableAction findAction = new LocalizableAction("find", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			getFindDialog().showFind();
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for showing find dialog with focus on replacement.
+	 */
+	private LocalizableAction replaceAction = new LocalizableAction("replace", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			getFindDialog().showReplace();
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for selecting next match of last search.
+	 */
+	private LocalizableAction findNextAction = new LocalizableAction("find_next", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			FindReplaceDialog dialog = getFindDialog();
+			if(dialog.hasQuery())
+				dialog.findNext();
+			else
+				dialog.showFind();
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for selecting previous match of last search.
+	 */
+	private LocalizableAction findPreviousAction = new LocalizableAction("find_previous", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			FindReplaceDialog dialog = getFindDialog();
+			if(dialog.hasQuery())
+				dialog.findPrevious();
+			else
+				dialog.showFind();
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for searching every file in a directory.
+	 */
+	private LocalizableAction findInFilesAction = new LocalizableAction("find_in_files", flp) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			JFileChooser jfc = new JFileChooser();
+			jfc.setDialogTitle(flp.getString("choose_directory"));
+			jfc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+			if(jfc.showOpenDialog(JavaNotepadPlus.this) != JFileChooser.APPROVE_OPTION)
+				return;
+			Path root = jfc.getSelectedFile().toPath().toAbsolutePath().normalize();
+			
+			JTextField queryField = new JTextField(25);
+			JTextField globField = new JTextField(findInFilesGlob, 25);
+			JCheckBox matchCaseBox = new JCheckBox(flp.getString("match_case"));
+			JCheckBox regexBox = new JCheckBox(flp.getString("regular_expression"));
+			JPanel panel = new JPanel(new GridLayout(0, 2, 4, 4));
+			panel.add(new JLabel(flp.getString("find_what")));
+			panel.add(queryField);
+			panel.add(new JLabel(flp.getString("file_pattern")));
+			panel.add(globField);
+			panel.add(matchCaseBox);
+			panel.add(regexBox);
+			
+			int answer = JOptionPane.showConfirmDialog(JavaNotepadPlus.this, panel, flp.getString("find_in_files"), 
+					JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+			if(answer != JOptionPane.OK_OPTION || queryField.getText().isEmpty())
+				return;
+			
+			TextSearcher searcher;
+			try {
+				searcher = TextSearcher.create(new SearchQuery(queryField.getText(), matchCaseBox.isSelected(), regexBox.isSelected()));
+			} catch (PatternSyntaxException exc) {
+				JOptionPane.showMessageDialog(JavaNotepadPlus.this, flp.getString("invalid_pattern"), 
+						flp.getString("error"), JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			
+			findInFilesGlob = globField.getText().trim();
+			String glob = findInFilesGlob.equals("*") ? null : findInFilesGlob;
+			showFindInFilesPanel();
+			findInFilesPanel.search(root, glob, searcher, documentsModel.getFallbackCharset());
+		}
+	};
+	
 	/**
 	 * {@link LocalizableAction} for changing to upper case selected text.
 	 */
@@ -802,7 +1076,7 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			changeCase(String::toUpperCase);	
+			changeCase(CaseTransformer.Mode.UPPER);	
 		}
 	};
 	
@@ -814,7 +1088,7 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			changeCase(String::toLowerCase);	
+			changeCase(CaseTransformer.Mode.LOWER);	
 		}
 	};
 	
@@ -826,27 +1100,7 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			changeCase(new Function<String, String>() {
-
-				@Override
-				public String apply(String t) {
-					StringBuilder builder = new StringBuilder();
-					for(int i = 0; i < t.length(); i++) {
-						if(Character.isUpperCase(t.charAt(i))) {
-							builder.append(Character.toLowerCase(t.charAt(i)));
-						}
-						else if(Character.isLowerCase(t.charAt(i))) {
-							builder.append(Character.toUpperCase(t.charAt(i)));
-						}
-						else {
-							builder.append(t.charAt(i));
-						}
-					}
-					
-					return builder.toString();
-				}
-				
-			});	
+			changeCase(CaseTransformer.Mode.INVERT);	
 		}
 	};
 	
@@ -858,9 +1112,7 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			Collator collator = Collator.getInstance(Locale.forLanguageTag(flp.getCurrentLanguage()));
-			changeStringByLinesByComparator(collator);
-			
+			sortLines(false);
 		}
 	};
 	
@@ -872,26 +1124,19 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			Collator collator = Collator.getInstance(Locale.forLanguageTag(flp.getCurrentLanguage()));
-			Collator reversed = new Collator() {
-				
-				@Override
-				public int hashCode() {
-					return collator.hashCode();
-				}
-				
-				@Override
-				public CollationKey getCollationKey(String source) {
-					return collator.getCollationKey(source);
-				}
-				
-				@Override
-				public int compare(String source, String target) {
-					return collator.compare(target, source);
-				}
-			};
-			changeStringByLinesByComparator(reversed);
-			
+			sortLines(true);
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for switching between stable and unstable sorting.
+	 */
+	private LocalizableAction stableSortAction = new LocalizableAction("stable_sort", flp) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			stableSort = ((AbstractButton) e.getSource()).isSelected();
 		}
 	};
 	
@@ -903,56 +1148,35 @@ public class JavaNotepadPlus extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			JTextComponent c = documentsModel.getCurrentDocument().getTextComponent();
-			int startPos = Math.min(c.getCaret().getDot(), c.getCaret().getMark());
-			int endPos = Math.max(c.getCaret().getDot(), c.getCaret().getMark());
-			
-			SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
-			Document doc = currentModel.getTextComponent().getDocument();
-			Element root = doc.getDefaultRootElement();
-			int startingRow = root.getElementIndex(startPos);
-			int endingRow = root.getElementIndex(endPos);
-			
-			// positions start and end counting in entire lines
-			int start = root.getElement(startingRow).getStartOffset();
-			int end = root.getElement(endingRow).getEndOffset();
-			
-			//if this was the last line i need to decrement end
-			if(endingRow == root.getElementIndex(doc.getLength()))
-				end--;
-			
-			List<String> lines = new ArrayList<>();
-			for(int i = startingRow; i <= endingRow; i++) {
-				String line = "";
-				int startOffset = root.getElement(i).getStartOffset();
-				int endOffset = Math.min(root.getElement(i).getEndOffset(), end);
-				try {
-					line = doc.getText(startOffset, endOffset - startOffset);
-				} catch (BadLocationException exc) {
-					throw new RuntimeException("Error reading");
-				}
-				
-				if(!lines.contains(line))
-					lines.add(line);
-			}
-			
-			//remove old lines
-			try {
-				doc.remove(start, end - start);
-			} catch (BadLocationException e1) {
-				throw new RuntimeException("Error while deleting");
-			}
-			
-			//insert new lines
-			for(int i = 0; i < lines.size(); i++) {
-				try {
-					doc.insertString(start, lines.get(i), null);
-				} catch (BadLocationException exc) {
-					throw new RuntimeException("Error reading");
-				}
-				start += lines.get(i).length();
-			}
+			LineDeduplicator deduplicator = new LineDeduplicator(uniqueMode);
+			deduplicator.setIgnoreCase(uniqueIgnoreCase);
+			deduplicator.setTrim(uniqueTrim);
 			
+			runLineTool(deduplicator);
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for ignoring case when looking for duplicate lines.
+	 */
+	private LocalizableAction uniqueIgnoreCaseAction = new LocalizableAction("unique_ignore_case", flp) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			uniqueIgnoreCase = ((AbstractButton) e.getSource()).isSelected();
+		}
+	};
+	
+	/**
+	 * {@link LocalizableAction} for ignoring leading and trailing white space when looking for duplicate lines.
+	 */
+	private LocalizableAction uniqueTrimAction = new LocalizableAction("unique_trim", flp) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			uniqueTrim = ((AbstractButton) e.getSource()).isSelected();
 		}
 	};
 
@@ -968,6 +1192,105 @@ public class JavaNotepadPlus extends JFrame {
 		return result;
 	}
 	
+	/**
+	 * Saves current document, asking for a path if it does not have one.
+	 * 
+	 * @return future completed when document is saved, null if user did not choose a path
+	 */
+	private CompletableFuture<Void> saveCurrentDocument() {
+		//saving currentModel from MultipleDocumentModel
+		//if path is not set get one
+		SingleDocumentModel model = documentsModel.getCurrentDocument();
+		
+		Path path = model.getFilePath();
+		if(path == null) {
+			JFileChooser fc = new JFileChooser();
+			fc.setDialogTitle(flp.getString("choose_where_to_save"));
+			if (fc.showOpenDialog(JavaNotepadPlus.this) != JFileChooser.APPROVE_OPTION) {
+				return null;
+			}
+			File fileName = fc.getSelectedFile();
+			path = fileName.toPath();
+		}
+		
+		return saveInBackground(model, path, true);
+	}
+	
+	/**
+	 * Saves document on a background thread and tells user if saving failed. If charset of document can not store
+	 * some of its characters, user can choose to save it as UTF-8 instead.
+	 * 
+	 * @param model document to save
+	 * @param path where to save
+	 * @param confirm should user be told that saving succeeded
+	 * @return future completed when document is saved
+	 */
+	private CompletableFuture<Void> saveInBackground(SingleDocumentModel model, Path path, boolean confirm) {
+		CompletableFuture<Void> saved = new CompletableFuture<>();
+		
+		documentsModel.saveDocumentAsync(model, path).whenComplete((result, exc) -> {
+			if(exc instanceof UnmappableCharacterException && askIfSaveAsUtf8(model)) {
+				model.setEncoding(TextEncoding.UTF_8);
+				saveInBackground(model, path, confirm).whenComplete((retried, retryExc) -> complete(saved, retryExc));
+				return;
+			}
+			complete(saved, exc);
+			
+			//user was already told why document was not saved
+			if(exc instanceof CancellationException || exc instanceof UnmappableCharacterException)
+				return;
+			
+			if(exc != null) {
+				JOptionPane.showMessageDialog(
+						JavaNotepadPlus.this,
+						flp.getString("error_while_writing_to_path") + " " + path.toFile().getAbsolutePath(), 
+						flp.getString("error"), 
+						JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			
+			updateTitle();
+			if(confirm) {
+				JOptionPane.showMessageDialog(
+						JavaNotepadPlus.this,
+						flp.getString("file_was_saved"), 
+						flp.getString("information"), 
+						JOptionPane.INFORMATION_MESSAGE);
+			}
+		});
+		
+		return saved;
+	}
+	
+	/**
+	 * Tells user that charset of document can not store all of its characters and asks if it should be saved as UTF-8.
+	 * 
+	 * @return true if document should be saved as UTF-8
+	 */
+	private boolean askIfSaveAsUtf8(SingleDocumentModel model) {
+		String message = flp.getString("unmappable_characters") + " " + model.getEncoding().getCharset().name() + ". " + flp.getString("save_as_utf8");
+		return JOptionPane.showConfirmDialog(JavaNotepadPlus.this, message, flp.getString("warning"),
+				JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION;
+	}
+	
+	private static void complete(CompletableFuture<Void> future, Throwable exc) {
+		if(exc == null)
+			future.complete(null);
+		else
+			future.completeExceptionally(exc);
+	}
+	
+	/**
+	 * Remembers open tabs for the next run, editor closes even if they could not be remembered.
+	 */
+	private void saveSession() {
+		try {
+			documentsModel.saveSession();
+		} catch(IOException ex) {
+			//next run starts without tabs
+		}
+	}
+	
 	/**
 	 * Updates the program title.
 	 */
@@ -1014,6 +1337,10 @@ public class JavaNotepadPlus extends JFrame {
 		JMenuItem statisticsItem = new JMenuItem(statisticsAction);
 		fileMenu.add(statisticsItem);
 		
+		//adding memory usage button
+		JMenuItem memoryItem = new JMenuItem(memoryAction);
+		fileMenu.add(memoryItem);
+		
 		//adding button for saving file in File menu
 		JMenuItem saveItem = new JMenuItem(saveAction);
 		fileMenu.add(saveItem);
@@ -1041,6 +1368,11 @@ public class JavaNotepadPlus extends JFrame {
 		});
 		bar.add(editMenu);
 		
+		//adding undo and redo buttons
+		editMenu.add(new JMenuItem(undoAction));
+		editMenu.add(new JMenuItem(redoAction));
+		editMenu.addSeparator();
+		
 		//adding delete button
 		JMenuItem deleteItem = new JMenuItem(deleteAction);
 		editMenu.add(deleteItem);
@@ -1057,6 +1389,18 @@ public class JavaNotepadPlus extends JFrame {
 		JMenuItem pasteItem = new JMenuItem(pasteAction);
 		editMenu.add(pasteItem);
 		
+		//adding go to line button
+		JMenuItem goToLineItem = new JMenuItem(goToLineAction);
+		editMenu.add(goToLineItem);
+		
+		//adding find and replace buttons
+		editMenu.addSeparator();
+		editMenu.add(new JMenuItem(findAction));
+		editMenu.add(new JMenuItem(findNextAction));
+		editMenu.add(new JMenuItem(findPreviousAction));
+		editMenu.add(new JMenuItem(replaceAction));
+		editMenu.add(new JMenuItem(findInFilesAction));
+		
 		// adding menu for languages
 		JMenu languages = new JMenu(new LocalizableAction("languages", flp) {
 			private static final long serialVersionUID = 1L;
@@ -1127,9 +1471,60 @@ public class JavaNotepadPlus extends JFrame {
 		JMenuItem descendingItem = new JMenuItem(descendingAction);
 		sortMenu.add(descendingItem);
 		
+		//adding sort modes
+		sortMenu.addSeparator();
+		ButtonGroup sortModes = new ButtonGroup();
+		String[] modeKeys = {"sort_alphabetic", "sort_case_insensitive", "sort_numeric", "sort_natural", "sort_length", "sort_column"};
+		for(LineSorter.Mode mode : LineSorter.Mode.values()) {
+			JRadioButtonMenuItem modeItem = new JRadioButtonMenuItem(createSortModeAction(modeKeys[mode.ordinal()], mode));
+			modeItem.setSelected(mode == sortMode);
+			sortModes.add(modeItem);
+			sortMenu.add(modeItem);
+		}
+		
+		//adding stable option
+		sortMenu.addSeparator();
+		JCheckBoxMenuItem stableItem = new JCheckBoxMenuItem(stableSortAction);
+		stableItem.setSelected(stableSort);
+		sortMenu.add(stableItem);
+		
+		//adding duplicates submenu
+		JMenu uniqueMenu = new JMenu(new LocalizableAction("duplicate_lines", flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				// DO NOTHING
+			}
+		});
+		toolsMenu.add(uniqueMenu);
+		
 		//add unique item
 		JMenuItem uniqueItem = new JMenuItem(uniqueAction);
-		toolsMenu.add(uniqueItem);
+		uniqueMenu.add(uniqueItem);
+		
+		//adding modes of removing duplicates
+		uniqueMenu.addSeparator();
+		ButtonGroup uniqueModes = new ButtonGroup();
+		String[] uniqueKeys = {"unique_keep_first", "unique_keep_last", "unique_count", "unique_adjacent"};
+		for(LineDeduplicator.Mode mode : LineDeduplicator.Mode.values()) {
+			JRadioButtonMenuItem modeItem = new JRadioButtonMenuItem(new LocalizableAction(uniqueKeys[mode.ordinal()], flp) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					uniqueMode = mode;
+				}
+			});
+			modeItem.setSelected(mode == uniqueMode);
+			uniqueModes.add(modeItem);
+			uniqueMenu.add(modeItem);
+		}
+		
+		//adding comparison options
+		uniqueMenu.addSeparator();
+		uniqueMenu.add(new JCheckBoxMenuItem(uniqueIgnoreCaseAction));
+		uniqueMenu.add(new JCheckBoxMenuItem(uniqueTrimAction));
 		
 	}
 	
@@ -1199,16 +1594,54 @@ public class JavaNotepadPlus extends JFrame {
 		pasteAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_V);
 		pasteAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("paste_description"));
 		
+		//undo
+		undoAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control Z"));
+		undoAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_U);
+		undoAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("undo_description"));
+		
+		//redo
+		redoAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control Y"));
+		redoAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_R);
+		redoAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("redo_description"));
+		
 		//delete
 		deleteAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control D"));
 		deleteAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_D);
 		deleteAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("delete_description"));
 		
+		//go to line
+		goToLineAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control G"));
+		goToLineAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_G);
+		goToLineAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("go_to_line_description"));
+		
+		//find
+		findAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control F"));
+		findAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_F);
+		findAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("find_description"));
+		
+		//find next
+		findNextAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("F3"));
+		
+		//find previous
+		findPreviousAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("shift F3"));
+		
+		//replace
+		replaceAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control H"));
+		replaceAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_R);
+		replaceAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("replace_description"));
+		
+		//find in files
+		findInFilesAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control shift F"));
+		findInFilesAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("find_in_files_description"));
+		
 		//statistics
 		statisticsAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control T"));
 		statisticsAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_T);
 		statisticsAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("statistics_description"));
 		
+		//memory
+		memoryAction.putValue(Action.SHORT_DESCRIPTION, flp.getString("memory_description"));
+		
 		//close
 		closeAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control W"));
 		closeAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_W);
@@ -1252,22 +1685,8 @@ public class JavaNotepadPlus extends JFrame {
 		
 		@Override
 		public void stateChanged(ChangeEvent e) {
-			Caret c = (Caret) e.getSource();
-			int length = Math.abs(c.getDot() - c.getMark());
-			
-			cutAction.setEnabled(length > 0);
-			deleteAction.setEnabled(length > 0);
-			copyAction.setEnabled(length > 0);
-			toUpperAction.setEnabled(length > 0);
-			toLowerAction.setEnabled(length > 0);
-			invertCaseAction.setEnabled(length > 0);
-			ascendingAction.setEnabled(length > 0);
-			descendingAction.setEnabled(length > 0);
-			uniqueAction.setEnabled(length > 0);
-			
-			
-			//caret changed
-			otherStatusAction.actionPerformed(null);
+			//caret changed, shown at the end of the frame
+			statusUpdates.markDirty(caretUpdate);
 		}
 	};
 	
@@ -1278,112 +1697,279 @@ public class JavaNotepadPlus extends JFrame {
 		
 		@Override
 		public void removeUpdate(DocumentEvent e) {
-			lengthStatusAction.actionPerformed(null);
-			
+			statusUpdates.markDirty(lengthUpdate);
+			statusUpdates.markDirty(historyUpdate);
 		}
 		
 		@Override
 		public void insertUpdate(DocumentEvent e) {
-			lengthStatusAction.actionPerformed(null);
+			statusUpdates.markDirty(lengthUpdate);
+			statusUpdates.markDirty(historyUpdate);
 		}
 		
 		@Override
 		public void changedUpdate(DocumentEvent e) {
-			// TODO Auto-generated method stub
-			
+			statusUpdates.markDirty(lengthUpdate);
+			statusUpdates.markDirty(historyUpdate);
 		}
 	};
 	
 	/**
-	 * Changes case according to given function
+	 * Shows length of current document if it changed since it was last shown.
 	 */
-	private void changeCase(Function<String, String> func) {
+	private void updateLength() {
 		SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
-		Document document = currentModel.getTextComponent().getDocument();
-		Caret caret = currentModel.getTextComponent().getCaret();
+		int length = currentModel == null ? -1 : currentModel.getStatistics().getCharacterCount();
+		if(length == shownLength)
+			return;
+		
+		shownLength = length;
+		lengthStatusAction.actionPerformed(null);
+	}
+	
+	/**
+	 * Enables undo and redo if history of current document has steps for them.
+	 */
+	private void updateHistory() {
+		SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
+		undoAction.setEnabled(currentModel != null && currentModel.getHistory().canUndo());
+		redoAction.setEnabled(currentModel != null && currentModel.getHistory().canRedo());
+	}
+	
+	/**
+	 * Enables actions that need a selection and shows position of caret, if any of that changed since it was last shown.
+	 */
+	private void updateCaret() {
+		SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
+		int line = -1;
+		int column = -1;
+		int selection = 0;
+		if(currentModel != null) {
+			Caret caret = currentModel.getTextComponent().getCaret();
+			try {
+				LineIndex lineIndex = currentModel.getLineIndex();
+				line = lineIndex.getLineOfOffset(caret.getDot());
+				column = caret.getDot() - lineIndex.getLineStartOffset(line);
+			} catch (BadLocationException e) {
+				throw new RuntimeException("Error while reading document");
+			}
+			selection = Math.abs(caret.getDot() - caret.getMark());
+		}
+		
+		if(line == shownLine && column == shownColumn && selection == shownSelection)
+			return;
+		
+		//actions are only touched when selection appears or disappears
+		if(shownLine == Integer.MIN_VALUE || (selection > 0) != (shownSelection > 0)) {
+			boolean enabled = selection > 0;
+			cutAction.setEnabled(enabled);
+			deleteAction.setEnabled(enabled);
+			copyAction.setEnabled(enabled);
+			toUpperAction.setEnabled(enabled);
+			toLowerAction.setEnabled(enabled);
+			invertCaseAction.setEnabled(enabled);
+			ascendingAction.setEnabled(enabled);
+			descendingAction.setEnabled(enabled);
+			uniqueAction.setEnabled(enabled);
+		}
+		
+		shownLine = line;
+		shownColumn = column;
+		shownSelection = selection;
+		otherStatusAction.actionPerformed(null);
+	}
+	
+	/**
+	 * Returns find dialog, creates it the first time.
+	 * 
+	 * @return find dialog
+	 */
+	private FindReplaceDialog getFindDialog() {
+		if(findDialog == null)
+			findDialog = new FindReplaceDialog(this, documentsModel, flp);
+		
+		return findDialog;
+	}
+	
+	/**
+	 * Shows panel with results of searching files under the documents, creates it the first time.
+	 */
+	private void showFindInFilesPanel() {
+		if(findInFilesPanel == null)
+			findInFilesPanel = new FindInFilesPanel(documentsModel, flp, () -> hideFindInFilesPanel());
+		if(findInFilesPanel.getParent() != null)
+			return;
+		
+		Container parent = documentsModel.getParent();
+		parent.remove(documentsModel);
+		JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, documentsModel, findInFilesPanel);
+		split.setResizeWeight(1);
+		parent.add(split, BorderLayout.CENTER);
+		parent.revalidate();
+	}
+	
+	/**
+	 * Removes panel with results of searching files.
+	 */
+	private void hideFindInFilesPanel() {
+		Container split = findInFilesPanel.getParent();
+		if(split == null)
+			return;
+		
+		Container parent = split.getParent();
+		parent.remove(split);
+		split.remove(documentsModel);
+		parent.add(documentsModel, BorderLayout.CENTER);
+		parent.revalidate();
+		parent.repaint();
+	}
+	
+	/**
+	 * Changes case of selected text with case rules of current language.
+	 * 
+	 * @param mode how case is changed
+	 */
+	private void changeCase(CaseTransformer.Mode mode) {
+		Caret caret = documentsModel.getCurrentDocument().getTextComponent().getCaret();
 		
 		int offset = Math.min(caret.getDot(), caret.getMark());
 		int length = Math.abs(caret.getDot() - caret.getMark());
 		
-		String oldString = "";
-		
-		//if some text is selected remove old
-		if(length > 0) {
-			try {
-				oldString = document.getText(offset, length);
-				document.remove(offset, length);
-				document.insertString(offset, func.apply(oldString), null);
-			} catch (BadLocationException e1) {
-				throw new RuntimeException("error deleting");
+		if(length > 0)
+			runTextTool(new CaseTransformer(mode, Locale.forLanguageTag(flp.getCurrentLanguage())), offset, offset + length);
+	}
+	
+	/**
+	 * Sorts selected lines with currently chosen sort mode.
+	 * 
+	 * @param descending should order be descending
+	 */
+	private void sortLines(boolean descending) {
+		LineSorter sorter = new LineSorter(sortMode, Locale.forLanguageTag(flp.getCurrentLanguage()));
+		sorter.setDescending(descending);
+		sorter.setStable(stableSort);
+		if(sortMode == LineSorter.Mode.COLUMN)
+			sorter.setColumn(sortDelimiter, sortColumn);
+		
+		runLineTool(sorter);
+	}
+	
+	/**
+	 * Creates {@link LocalizableAction} that chooses sort mode.
+	 * 
+	 * @param key translation key of mode
+	 * @param mode mode to choose
+	 * @return action that chooses mode
+	 */
+	private LocalizableAction createSortModeAction(String key, LineSorter.Mode mode) {
+		return new LocalizableAction(key, flp) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				sortMode = mode;
+				
+				if(mode != LineSorter.Mode.COLUMN)
+					return;
+				
+				//ask which column, previous values stay if user cancels
+				String delimiter = JOptionPane.showInputDialog(JavaNotepadPlus.this, flp.getString("column_delimiter"), 
+						sortDelimiter.equals("\t") ? "\\t" : sortDelimiter);
+				if(delimiter == null || delimiter.isEmpty())
+					return;
+				
+				String column = JOptionPane.showInputDialog(JavaNotepadPlus.this, flp.getString("column_number"), sortColumn + 1);
+				try {
+					int number = Integer.parseInt(column.trim());
+					if(number < 1)
+						return;
+					
+					sortDelimiter = delimiter.replace("\\t", "\t");
+					sortColumn = number - 1;
+				} catch (NullPointerException | NumberFormatException exc) {
+					return;
+				}
 			}
-		}	
-		
+		};
 	}
 	
 	/**
-	 * Oders selected lines by given collator.
+	 * Runs given tool over selected lines off the EDT and replaces the lines with its result.
 	 * 
-	 * @param collator by which to do order
+	 * @param tool tool to run
 	 */
-	private void changeStringByLinesByComparator(Collator collator) {
-		JTextComponent c = documentsModel.getCurrentDocument().getTextComponent();
+	private void runLineTool(LineTool tool) {
+		SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
+		JTextComponent c = currentModel.getTextComponent();
+		Document doc = c.getDocument();
+		LineIndex lineIndex = currentModel.getLineIndex();
+		
 		int startPos = Math.min(c.getCaret().getDot(), c.getCaret().getMark());
 		int endPos = Math.max(c.getCaret().getDot(), c.getCaret().getMark());
 		
-		SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
-		Document doc = currentModel.getTextComponent().getDocument();
-		Element root = doc.getDefaultRootElement();
-		int startingRow = root.getElementIndex(startPos);
-		int endingRow = root.getElementIndex(endPos);
-		
-		// positions start and end counting in entire lines
-		int start = root.getElement(startingRow).getStartOffset();
-		int end = root.getElement(endingRow).getEndOffset();
-		
-		//if this was the last line i need to decrement end
-		if(endingRow == root.getElementIndex(doc.getLength()))
-			end--;
-		
-		List<String> lines = new ArrayList<>();
-		for(int i = startingRow; i <= endingRow; i++) {
-			String line = "";
-			int startOffset = root.getElement(i).getStartOffset();
-			int endOffset = Math.min(root.getElement(i).getEndOffset(), end);
-			try {
-				line = doc.getText(startOffset, endOffset - startOffset);
-			} catch (BadLocationException e) {
-				throw new RuntimeException("Error reading");
-			}
-			//if it was the last line add \n
-			if(line.length() > 0 && line.charAt(line.length()-1) != '\n')
-				line += "\n";
-			
-			lines.add(line);
-		}
-		Collections.sort(lines, collator);
-
-		//remove new line on last line 
-//		String lastLine = lines.get(lines.size()-1);
-//		if(lastLine.charAt(lastLine.length()-1) == '\n')
-//			lines.set(lines.size() - 1, lastLine.substring(0, lastLine.length() - 1));
-		
-		//remove old lines
+		// positions start and end counting in entire lines, end is without the last new line
+		int start;
+		int end;
 		try {
-			doc.remove(start, end - start);
-		} catch (BadLocationException e1) {
-			throw new RuntimeException("Error while deleting");
+			start = lineIndex.getLineStartOffset(lineIndex.getLineOfOffset(startPos));
+			int endingRow = lineIndex.getLineOfOffset(endPos);
+			end = endingRow + 1 < lineIndex.getLineCount() ? lineIndex.getLineStartOffset(endingRow + 1) - 1 : doc.getLength();
+		} catch (BadLocationException e) {
+			throw new RuntimeException("Error reading");
 		}
 		
-		//replace all selected lines
-		for(int i = 0; i < lines.size(); i++) {
-			try {
-				doc.insertString(start, lines.get(i), null);
-			} catch (BadLocationException e) {
-				throw new RuntimeException("Error reading");
-			}
-			start += lines.get(i).length();
-		}
+		runTextTool(tool, start, end);
+	}
+	
+	/**
+	 * Runs given tool over [start, end) of current document off the EDT and replaces the range with its result.
+	 * Tool reads a snapshot, so if the document is changed while it runs the result is thrown away.
+	 * 
+	 * @param tool tool to run
+	 * @param start start of range
+	 * @param end end of range
+	 */
+	private void runTextTool(TextTool tool, int start, int end) {
+		SingleDocumentModel currentModel = documentsModel.getCurrentDocument();
+		JTextComponent c = currentModel.getTextComponent();
+		Document doc = c.getDocument();
+		TextSource snapshot = currentModel.createSnapshot();
+		ChangeTracker tracker = new ChangeTracker(doc);
+		
+		SwingWorker<String, Void> worker = new SwingWorker<>() {
 
+			@Override
+			protected String doInBackground() throws Exception {
+				return tool.apply(snapshot, start, end);
+			}
+			
+			@Override
+			protected void done() {
+				tracker.stop();
+				
+				if(tracker.isChanged()) {
+					JOptionPane.showMessageDialog(JavaNotepadPlus.this, flp.getString("document_changed"), 
+							flp.getString("warning"), JOptionPane.WARNING_MESSAGE);
+					return;
+				}
+				
+				String result;
+				try {
+					result = get();
+				} catch (InterruptedException | ExecutionException exc) {
+					throw new RuntimeException("Error while running tool");
+				}
+				
+				//replace whole range at once and select it
+				try {
+					currentModel.bulkReplace(start, end - start, result);
+					c.select(start, start + result.length());
+				} catch (BadLocationException e) {
+					throw new RuntimeException("Error while replacing lines");
+				}
+			}
+		};
+		worker.execute();
 	}
 
     
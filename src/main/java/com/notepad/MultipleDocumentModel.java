@@ -1,6 +1,9 @@
 package com.notepad;
 
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import com.notepad.search.TrigramIndex;
 
 public interface MultipleDocumentModel extends Iterable<SingleDocumentModel> {
 	
@@ -8,10 +11,16 @@ public interface MultipleDocumentModel extends Iterable<SingleDocumentModel> {
 
 	SingleDocumentModel getCurrentDocument();
 
+	void setCurrentDocument(SingleDocumentModel model);
+
 	SingleDocumentModel loadDocument(Path path);
 
 	void saveDocument(SingleDocumentModel model, Path newPath);
 
+	CompletableFuture<SingleDocumentModel> loadDocumentAsync(Path path);
+
+	CompletableFuture<Void> saveDocumentAsync(SingleDocumentModel model, Path newPath);
+
 	void closeDocument(SingleDocumentModel model);
 
 	void addMultipleDocumentListener(MultipleDocumentListener l);
@@ -21,4 +30,6 @@ public interface MultipleDocumentModel extends Iterable<SingleDocumentModel> {
 	int getNumberOfDocuments();
 
 	SingleDocumentModel getDocument(int index);
+
+	TrigramIndex getSearchIndex();
 }
@@ -0,0 +1,157 @@
+package com.notepad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.notepad.document.TextEncoding;
+
+/**
+ * Tabs that were open when editor was closed. Session is written in a small binary file: magic number, version,
+ * index of selected tab, number of tabs and then path, charset name, byte order mark flag and caret of every tab.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+final class SessionFile{
+
+	private static final int MAGIC = 0x4A4E5053;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Tab of session.
+	 */
+	static final class Entry{
+
+		private final Path path;
+
+		/**
+		 * Encoding file was read with, null if it is guessed again
+		 */
+		private final TextEncoding encoding;
+
+		private final int caret;
+
+		Entry(Path path, TextEncoding encoding, int caret) {
+			this.path = path;
+			this.encoding = encoding;
+			this.caret = caret;
+		}
+
+		Path getPath() {
+			return path;
+		}
+
+		TextEncoding getEncoding() {
+			return encoding;
+		}
+
+		int getCaret() {
+			return caret;
+		}
+	}
+
+	private final List<Entry> entries;
+
+	private final int selected;
+
+	/**
+	 * Creates session.
+	 *
+	 * @param entries tabs in order
+	 * @param selected index of selected tab, -1 if none is
+	 */
+	SessionFile(List<Entry> entries, int selected) {
+		this.entries = Collections.unmodifiableList(entries);
+		this.selected = selected;
+	}
+
+	List<Entry> getEntries() {
+		return entries;
+	}
+
+	int getSelected() {
+		return selected;
+	}
+
+	/**
+	 * Writes session into a temporary file which then replaces file, an editor that dies while writing keeps
+	 * the previous session.
+	 *
+	 * @param file where session is written
+	 * @throws IOException if session could not be written
+	 */
+	void write(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		if(parent != null)
+			Files.createDirectories(parent);
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(selected);
+			out.writeInt(entries.size());
+			for(Entry entry : entries) {
+				out.writeUTF(entry.path.toString());
+				out.writeUTF(entry.encoding == null ? "" : entry.encoding.getCharset().name());
+				out.writeBoolean(entry.encoding != null && entry.encoding.hasBom());
+				out.writeInt(entry.caret);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads session from file. Tab whose charset is not supported here has its encoding guessed again.
+	 *
+	 * @param file file with session
+	 * @return session, null if there is no file
+	 * @throws IOException if file could not be read or is not a session
+	 */
+	static SessionFile read(Path file) throws IOException {
+		if(!Files.exists(file))
+			return null;
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readByte() != VERSION)
+				throw new IOException("File is not a session");
+
+			int selected = in.readInt();
+			int count = in.readInt();
+			if(count < 0)
+				throw new IOException("File is not a session");
+
+			List<Entry> entries = new ArrayList<>();
+			for(int i = 0; i < count; i++) {
+				Path path = Paths.get(in.readUTF());
+				String charset = in.readUTF();
+				boolean bom = in.readBoolean();
+				int caret = in.readInt();
+
+				TextEncoding encoding = null;
+				try {
+					if(!charset.isEmpty())
+						encoding = new TextEncoding(Charset.forName(charset), bom);
+				} catch(IllegalCharsetNameException | UnsupportedCharsetException ex) {
+					//guessed again when file is read
+				}
+				entries.add(new Entry(path, encoding, caret));
+			}
+			return new SessionFile(entries, selected);
+		}
+	}
+}
@@ -3,19 +3,68 @@ package com.notepad;
 import java.nio.file.Path;
 
 import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import com.notepad.document.DocumentStatistics;
+import com.notepad.document.EditHistory;
+import com.notepad.document.FileStamp;
+import com.notepad.document.LineIndex;
+import com.notepad.document.PieceTableContent;
+import com.notepad.document.TextEncoding;
+import com.notepad.document.TextSource;
+import com.notepad.highlight.SyntaxHighlighter;
 
 public interface SingleDocumentModel {
 
 	JTextArea getTextComponent();
 
+	Document getDocument();
+
+	void releaseTextComponent();
+
+	PieceTableContent.BufferSwap prepareCompactText(boolean deflate);
+
+	PieceTableContent.BufferSwap prepareExpandText();
+
+	boolean isTextCompact();
+
+	void moveTextOffHeap();
+
+	boolean isTextOffHeap();
+
+	int getCaretPosition();
+
+	void setCaretPosition(int offset);
+
 	Path getFilePath();
 
 	void setFilePath(Path path);
 
+	TextEncoding getEncoding();
+
+	void setEncoding(TextEncoding encoding);
+
+	FileStamp getFileStamp();
+
+	void setFileStamp(FileStamp stamp);
+
 	boolean isModified();
 
 	void setModified(boolean modified);
 
+	DocumentStatistics getStatistics();
+
+	LineIndex getLineIndex();
+
+	TextSource createSnapshot();
+
+	EditHistory getHistory();
+
+	SyntaxHighlighter getSyntaxHighlighter();
+
+	void bulkReplace(int offset, int length, String text) throws BadLocationException;
+
 	void addSingleDocumentListener(SingleDocumentListener l);
 
 	void removeSingleDocumentListener(SingleDocumentListener l);
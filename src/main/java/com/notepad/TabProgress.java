@@ -0,0 +1,70 @@
+package com.notepad;
+
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.util.concurrent.Future;
+
+import javax.swing.BorderFactory;
+import javax.swing.Icon;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+
+/**
+ * Tab component shown while a document is loaded or saved in the background. Shows title of tab,
+ * progress of the task and a button that cancels it.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class TabProgress extends JPanel{
+	private static final long serialVersionUID = 1L;
+
+	private JProgressBar progressBar;
+
+	/**
+	 * Last percentage sent to the EDT, written only by the background thread
+	 */
+	private int lastPercent;
+
+	/**
+	 * Creates component for a tab.
+	 *
+	 * @param title title of tab
+	 * @param icon icon of tab
+	 * @param task task whose progress is shown and which cancel button cancels
+	 */
+	TabProgress(String title, Icon icon, Future<?> task) {
+		super(new FlowLayout(FlowLayout.LEFT, 4, 0));
+		setOpaque(false);
+		lastPercent = -1;
+
+		add(new JLabel(title, icon, JLabel.LEFT));
+
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setPreferredSize(new Dimension(60, 12));
+		add(progressBar);
+
+		JButton cancelButton = new JButton("\u00D7");
+		cancelButton.setBorder(BorderFactory.createEmptyBorder(0, 2, 0, 2));
+		cancelButton.setContentAreaFilled(false);
+		cancelButton.setFocusable(false);
+		cancelButton.addActionListener(e -> task.cancel(false));
+		add(cancelButton);
+	}
+
+	/**
+	 * Shows given percentage. Can be called from any thread, the EDT is only bothered when percentage changes.
+	 *
+	 * @param percent done part of task
+	 */
+	void setProgress(int percent) {
+		if(percent == lastPercent)
+			return;
+
+		lastPercent = percent;
+		SwingUtilities.invokeLater(() -> progressBar.setValue(percent));
+	}
+}
@@ -0,0 +1,66 @@
+package com.notepad;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.swing.Timer;
+
+/**
+ * Runs updates of the user interface at most once per frame. Listeners mark an update as dirty instead of
+ * running it, an update that is marked many times before the frame ends runs only once. One timer is started
+ * by the first update marked and stops after it ran them all.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class UpdateScheduler{
+
+	/**
+	 * Milliseconds of one frame at 60 frames per second
+	 */
+	static final int FRAME_DELAY = 16;
+
+	/**
+	 * Updates that will run, in the order they were first marked
+	 */
+	private final Set<Runnable> dirty;
+
+	private final Timer timer;
+
+	/**
+	 * Creates scheduler.
+	 *
+	 * @param delay milliseconds from first marked update to running them
+	 */
+	UpdateScheduler(int delay) {
+		dirty = new LinkedHashSet<>();
+		timer = new Timer(delay, e -> flush());
+		timer.setRepeats(false);
+		timer.setCoalesce(true);
+	}
+
+	/**
+	 * Marks update as dirty, it runs with the other updates at the end of the frame. Must be called on the EDT.
+	 *
+	 * @param update update to run
+	 */
+	void markDirty(Runnable update) {
+		if(dirty.add(update) && !timer.isRunning())
+			timer.start();
+	}
+
+	/**
+	 * Runs every dirty update now.
+	 */
+	void flush() {
+		timer.stop();
+		if(dirty.isEmpty())
+			return;
+
+		//updates marked while these run wait for the next frame
+		Runnable[] updates = dirty.toArray(new Runnable[dirty.size()]);
+		dirty.clear();
+		for(Runnable update : updates)
+			update.run();
+	}
+}
@@ -0,0 +1,30 @@
+package com.notepad.document;
+
+import javax.swing.text.Segment;
+
+/**
+ * {@link TextSource} over a char array that is kept on heap.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class ArrayTextSource implements TextSource{
+
+	private final char[] text;
+
+	ArrayTextSource(char[] text) {
+		this.text = text;
+	}
+
+	@Override
+	public int length() {
+		return text.length;
+	}
+
+	@Override
+	public void getChars(int offset, int length, Segment segment) {
+		segment.array = text;
+		segment.offset = offset;
+		segment.count = length;
+	}
+}
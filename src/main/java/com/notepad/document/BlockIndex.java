@@ -0,0 +1,201 @@
+package com.notepad.document;
+
+import java.util.Arrays;
+
+import javax.swing.text.Segment;
+
+/**
+ * Prefix counts of new lines and non-blank characters at every block boundary of a {@link TextSource}.
+ * Counting any range then only scans the partial blocks at its ends.
+ * Source can grow, blocks that become complete are indexed by {@link #update()}. A source that reads all of its
+ * text anyway can instead count it as it goes with {@link #add(char[], int, int)}, so the text is not read again.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class BlockIndex {
+
+	/**
+	 * Number of characters in one block
+	 */
+	static final int BLOCK_SIZE = 1024;
+
+	private TextSource source;
+
+	/**
+	 * New lines before start of each block
+	 */
+	private int[] newlines;
+
+	/**
+	 * Non-blank characters before start of each block
+	 */
+	private int[] nonBlank;
+
+	/**
+	 * Number of indexed blocks
+	 */
+	private int blocks;
+
+	/**
+	 * Characters, new lines and non-blank characters added to the block after the indexed ones
+	 */
+	private int added;
+
+	private int addedNewlines;
+
+	private int addedNonBlank;
+
+	BlockIndex(TextSource source) {
+		this(source, true);
+	}
+
+	/**
+	 * Creates index whose text is added by {@link #add(char[], int, int)} before it is used, source is set once it can be read.
+	 */
+	BlockIndex() {
+		this(null, false);
+	}
+
+	private BlockIndex(TextSource source, boolean update) {
+		this.source = source;
+		newlines = new int[16];
+		nonBlank = new int[16];
+		if(update)
+			update();
+	}
+
+	/**
+	 * Replaces source with one that holds the same text, for example the same text stored differently.
+	 */
+	void setSource(TextSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * Indexes blocks that were completed since last update.
+	 */
+	void update() {
+		int[] counts = new int[2];
+		while((blocks + 1) * BLOCK_SIZE <= source.length()) {
+			grow();
+			counts[0] = 0;
+			counts[1] = 0;
+			scan(blocks * BLOCK_SIZE, (blocks + 1) * BLOCK_SIZE, counts);
+			newlines[blocks + 1] = newlines[blocks] + counts[0];
+			nonBlank[blocks + 1] = nonBlank[blocks] + counts[1];
+			blocks++;
+		}
+	}
+
+	/**
+	 * Counts characters in [from, to) of array, which follow the characters added before.
+	 */
+	void add(char[] chars, int from, int to) {
+		for(int i = from; i < to; i++) {
+			char c = chars[i];
+			if(c == '\n')
+				addedNewlines++;
+			if(!Character.isWhitespace(c))
+				addedNonBlank++;
+
+			if(++added == BLOCK_SIZE) {
+				grow();
+				newlines[blocks + 1] = newlines[blocks] + addedNewlines;
+				nonBlank[blocks + 1] = nonBlank[blocks] + addedNonBlank;
+				blocks++;
+				added = 0;
+				addedNewlines = 0;
+				addedNonBlank = 0;
+			}
+		}
+	}
+
+	/**
+	 * Counts new lines and non-blank characters in [start, end) and adds them to counts[0] and counts[1].
+	 */
+	void count(int start, int end, int[] counts) {
+		int firstBlock = (start + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int lastBlock = Math.min(end / BLOCK_SIZE, blocks);
+
+		if(firstBlock >= lastBlock) {
+			scan(start, end, counts);
+			return;
+		}
+
+		scan(start, firstBlock * BLOCK_SIZE, counts);
+		counts[0] += newlines[lastBlock] - newlines[firstBlock];
+		counts[1] += nonBlank[lastBlock] - nonBlank[firstBlock];
+		scan(lastBlock * BLOCK_SIZE, end, counts);
+	}
+
+	/**
+	 * Returns offset right after the n-th new line in [start, end), n starts from 1, or -1 if there are not that many.
+	 */
+	int findNewline(int start, int end, int n) {
+		int offset = start;
+
+		int firstBlock = (start + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int lastBlock = Math.min(end / BLOCK_SIZE, blocks);
+		if(firstBlock < lastBlock) {
+			int[] counts = new int[2];
+			scan(start, firstBlock * BLOCK_SIZE, counts);
+
+			//skip whole blocks, prefix counts are sorted so the right block is found by binary search
+			if(counts[0] < n) {
+				int target = newlines[firstBlock] + n - counts[0];
+				int low = firstBlock;
+				int high = lastBlock;
+				if(newlines[high] < target) {
+					low = high;
+				}
+				else {
+					while(high - low > 1) {
+						int middle = (low + high) >>> 1;
+						if(newlines[middle] < target)
+							low = middle;
+						else
+							high = middle;
+					}
+				}
+				offset = low * BLOCK_SIZE;
+				n = target - newlines[low];
+			}
+		}
+
+		Segment segment = new Segment();
+		while(offset < end) {
+			source.getChars(offset, end - offset, segment);
+			for(int i = 0; i < segment.count; i++) {
+				if(segment.array[segment.offset + i] == '\n' && --n == 0)
+					return offset + i + 1;
+			}
+			offset += segment.count;
+		}
+
+		return -1;
+	}
+
+	private void grow() {
+		if(blocks + 1 >= newlines.length) {
+			newlines = Arrays.copyOf(newlines, newlines.length * 2);
+			nonBlank = Arrays.copyOf(nonBlank, nonBlank.length * 2);
+		}
+	}
+
+	private void scan(int start, int end, int[] counts) {
+		Segment segment = new Segment();
+		while(start < end) {
+			source.getChars(start, end - start, segment);
+			char[] array = segment.array;
+			for(int i = segment.offset, last = segment.offset + segment.count; i < last; i++) {
+				char c = array[i];
+				if(c == '\n')
+					counts[0]++;
+				if(!Character.isWhitespace(c))
+					counts[1]++;
+			}
+			start += segment.count;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.notepad.document;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.swing.text.Segment;
+
+/**
+ * {@link TextSource} that keeps text in blocks of bytes instead of chars. Block whose characters all fit in
+ * a byte is stored as Latin-1, any other block as UTF-8 where each char, surrogates too, is encoded on its own
+ * so every string survives. Blocks can also be deflated, a deflated block is kept only if it is smaller.
+ *
+ * Reading decodes the whole block into a new array that is kept until another block is read. Arrays are
+ * never reused, so segments returned earlier stay valid and the source can be read from any thread.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+final class CompactTextSource implements TextSource{
+
+	/**
+	 * Number of characters in one block
+	 */
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final byte LATIN_1 = 0;
+
+	private static final byte UTF_8 = 1;
+
+	/**
+	 * Added to format of a block that is deflated
+	 */
+	private static final byte DEFLATED = 2;
+
+	private final int length;
+
+	private final byte[][] blocks;
+
+	private final byte[] formats;
+
+	/**
+	 * Number of bytes of every block before it was deflated
+	 */
+	private final int[] encodedSizes;
+
+	/**
+	 * Last decoded block
+	 */
+	private volatile DecodedBlock last;
+
+	/**
+	 * Encodes text of source in [from, to).
+	 *
+	 * @param source text to encode
+	 * @param from start of text
+	 * @param to end of text
+	 * @param deflate should blocks be deflated
+	 */
+	CompactTextSource(TextSource source, int from, int to, boolean deflate) {
+		length = to - from;
+		int count = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		blocks = new byte[count][];
+		formats = new byte[count];
+		encodedSizes = new int[count];
+
+		char[] chars = new char[Math.min(BLOCK_SIZE, length)];
+		Segment segment = new Segment();
+		Deflater deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+		try {
+			for(int block = 0; block < count; block++) {
+				int start = from + block * BLOCK_SIZE;
+				int size = Math.min(BLOCK_SIZE, to - start);
+				for(int copied = 0; copied < size; copied += segment.count) {
+					source.getChars(start + copied, size - copied, segment);
+					System.arraycopy(segment.array, segment.offset, chars, copied, segment.count);
+				}
+
+				byte[] encoded = encode(chars, size, block);
+				encodedSizes[block] = encoded.length;
+				blocks[block] = deflater == null ? encoded : deflate(deflater, encoded, block);
+			}
+		}
+		finally {
+			if(deflater != null)
+				deflater.end();
+		}
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public void getChars(int offset, int length, Segment segment) {
+		int block = offset / BLOCK_SIZE;
+		DecodedBlock decoded = last;
+		if(decoded == null || decoded.block != block) {
+			decoded = new DecodedBlock(block, decode(block));
+			last = decoded;
+		}
+
+		int start = offset - block * BLOCK_SIZE;
+		segment.array = decoded.chars;
+		segment.offset = start;
+		segment.count = Math.min(length, decoded.chars.length - start);
+	}
+
+	/**
+	 * Returns number of bytes that hold the text.
+	 *
+	 * @return size of blocks
+	 */
+	long getByteSize() {
+		long size = 0;
+		for(byte[] block : blocks)
+			size += block.length;
+		return size;
+	}
+
+	/**
+	 * Decodes whole text into a new array.
+	 *
+	 * @return text
+	 */
+	char[] toCharArray() {
+		char[] text = new char[length];
+		for(int block = 0; block < blocks.length; block++) {
+			char[] chars = decode(block);
+			System.arraycopy(chars, 0, text, block * BLOCK_SIZE, chars.length);
+		}
+		return text;
+	}
+
+	private byte[] encode(char[] chars, int size, int block) {
+		boolean latin1 = true;
+		for(int i = 0; i < size && latin1; i++)
+			latin1 = chars[i] <= 0xFF;
+
+		if(latin1) {
+			formats[block] = LATIN_1;
+			byte[] bytes = new byte[size];
+			for(int i = 0; i < size; i++)
+				bytes[i] = (byte) chars[i];
+			return bytes;
+		}
+
+		formats[block] = UTF_8;
+		byte[] bytes = new byte[size * 3];
+		int n = 0;
+		for(int i = 0; i < size; i++) {
+			char c = chars[i];
+			if(c < 0x80) {
+				bytes[n++] = (byte) c;
+			}
+			else if(c < 0x800) {
+				bytes[n++] = (byte) (0xC0 | c >> 6);
+				bytes[n++] = (byte) (0x80 | c & 0x3F);
+			}
+			else {
+				bytes[n++] = (byte) (0xE0 | c >> 12);
+				bytes[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+				bytes[n++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		return Arrays.copyOf(bytes, n);
+	}
+
+	private byte[] deflate(Deflater deflater, byte[] encoded, int block) {
+		deflater.reset();
+		deflater.setInput(encoded);
+		deflater.finish();
+		byte[] buffer = new byte[encoded.length];
+		int n = 0;
+		while(!deflater.finished() && n < buffer.length)
+			n += deflater.deflate(buffer, n, buffer.length - n);
+
+		//text that does not shrink is kept as it is
+		if(!deflater.finished())
+			return encoded;
+
+		formats[block] |= DEFLATED;
+		return Arrays.copyOf(buffer, n);
+	}
+
+	private char[] decode(int block) {
+		byte[] bytes = blocks[block];
+		if((formats[block] & DEFLATED) != 0)
+			bytes = inflate(bytes, encodedSizes[block]);
+
+		int size = Math.min(BLOCK_SIZE, length - block * BLOCK_SIZE);
+		char[] chars = new char[size];
+		if((formats[block] & UTF_8) == 0) {
+			for(int i = 0; i < size; i++)
+				chars[i] = (char) (bytes[i] & 0xFF);
+			return chars;
+		}
+
+		for(int i = 0, n = 0; i < size; i++) {
+			int b = bytes[n++] & 0xFF;
+			if(b < 0x80)
+				chars[i] = (char) b;
+			else if(b < 0xE0)
+				chars[i] = (char) ((b & 0x1F) << 6 | bytes[n++] & 0x3F);
+			else
+				chars[i] = (char) ((b & 0x0F) << 12 | (bytes[n++] & 0x3F) << 6 | bytes[n++] & 0x3F);
+		}
+		return chars;
+	}
+
+	private static byte[] inflate(byte[] deflated, int size) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(deflated);
+			byte[] bytes = new byte[size];
+			int n = 0;
+			while(n < size) {
+				int inflated = inflater.inflate(bytes, n, size - n);
+				if(inflated == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new IllegalStateException("Compressed text is cut short");
+				n += inflated;
+			}
+			return bytes;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Compressed text is corrupted", e);
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Block together with its decoded text.
+	 */
+	private static final class DecodedBlock {
+		final int block;
+		final char[] chars;
+
+		DecodedBlock(int block, char[] chars) {
+			this.block = block;
+			this.chars = chars;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package com.notepad.document;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import javax.swing.text.Segment;
+
+/**
+ * {@link TextSource} whose chars are kept outside of the heap in a direct buffer, so a big text is not one huge
+ * array the collector has to look after. Text can only be appended, chars that were written never change.
+ *
+ * Segments need arrays, so pages that are read are copied to the heap. Recently used pages are cached and
+ * reading a cached page allocates nothing. Content reads the source while it holds its lock and its readers
+ * are done with a segment before they read again, so arrays of evicted pages are reused for those reads.
+ * Readers that keep segments or read from other threads, like snapshots, go through {@link #snapshot()} whose
+ * arrays are never reused.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+final class DirectTextSource implements TextSource{
+
+	/**
+	 * Number of characters in one page
+	 */
+	private static final int PAGE_SIZE = 16 * 1024;
+
+	/**
+	 * Number of pages cached on heap
+	 */
+	private static final int CACHED_PAGES = 16;
+
+	private CharBuffer chars;
+
+	private int length;
+
+	/**
+	 * Pages of reads from the content, arrays are reused
+	 */
+	private final PageCache pages = new PageCache(true);
+
+	/**
+	 * Pages of snapshot reads, arrays are never written where they were already read
+	 */
+	private final PageCache copies = new PageCache(false);
+
+	private final TextSource snapshot = new TextSource() {
+
+		@Override
+		public int length() {
+			return DirectTextSource.this.length();
+		}
+
+		@Override
+		public void getChars(int offset, int length, Segment segment) {
+			read(copies, offset, length, segment);
+		}
+	};
+
+	/**
+	 * Copies text of source in [from, to) out of the heap.
+	 *
+	 * @param source text to copy
+	 * @param from start of text
+	 * @param to end of text
+	 * @param capacity number of chars space is made for, at least to - from
+	 */
+	DirectTextSource(TextSource source, int from, int to, int capacity) {
+		chars = allocate(capacity);
+
+		Segment segment = new Segment();
+		for(int offset = from; offset < to; offset += segment.count) {
+			source.getChars(offset, to - offset, segment);
+			chars.put(offset - from, segment.array, segment.offset, segment.count);
+		}
+		length = to - from;
+	}
+
+	@Override
+	public synchronized int length() {
+		return length;
+	}
+
+	/**
+	 * Points segment to chars starting at offset. Segment is valid only until the source is read again.
+	 */
+	@Override
+	public void getChars(int offset, int length, Segment segment) {
+		read(pages, offset, length, segment);
+	}
+
+	/**
+	 * Returns source with the same chars whose segments stay valid, it can be read from any thread.
+	 *
+	 * @return source for snapshots
+	 */
+	TextSource snapshot() {
+		return snapshot;
+	}
+
+	private synchronized void read(PageCache cache, int offset, int length, Segment segment) {
+		int page = offset / PAGE_SIZE;
+		int pageStart = page * PAGE_SIZE;
+		int pageEnd = Math.min(pageStart + PAGE_SIZE, this.length);
+
+		int slot = cache.slot(page);
+		char[] chars = cache.pages[slot];
+
+		//chars appended since page was cached are copied to the part of array nobody has seen yet
+		if(cache.filled[slot] < pageEnd - pageStart) {
+			this.chars.get(pageStart + cache.filled[slot], chars, cache.filled[slot], pageEnd - pageStart - cache.filled[slot]);
+			cache.filled[slot] = pageEnd - pageStart;
+		}
+
+		segment.array = chars;
+		segment.offset = offset - pageStart;
+		segment.count = Math.min(length, pageEnd - offset);
+	}
+
+	/**
+	 * Appends text to the end, space grows twice when it runs out.
+	 *
+	 * @param text text to append
+	 */
+	synchronized void append(String text) {
+		int added = text.length();
+		if(length + added > chars.capacity()) {
+			CharBuffer grown = allocate(Math.max(length + added, chars.capacity() * 2));
+			grown.put(0, chars, 0, length);
+			chars = grown;
+		}
+
+		for(int i = 0; i < added; i++)
+			chars.put(length + i, text.charAt(i));
+		length += added;
+	}
+
+	/**
+	 * Returns number of chars there is space for out of the heap.
+	 *
+	 * @return capacity of buffer
+	 */
+	synchronized int capacity() {
+		return chars.capacity();
+	}
+
+	private static CharBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(2 * Math.max(capacity, 1)).order(ByteOrder.nativeOrder()).asCharBuffer();
+	}
+
+	/**
+	 * Least recently used pages, a page can be in any slot.
+	 */
+	private static final class PageCache {
+
+		/**
+		 * Should array of an evicted page be filled with the next page
+		 */
+		private final boolean reuse;
+
+		private final char[][] pages = new char[CACHED_PAGES][];
+
+		/**
+		 * Page that is in every slot, -1 for empty slot
+		 */
+		private final int[] pageNumbers = new int[CACHED_PAGES];
+
+		/**
+		 * Number of chars of every cached page that were copied, page at the end of text can be partly filled
+		 */
+		private final int[] filled = new int[CACHED_PAGES];
+
+		/**
+		 * Read count when every slot was last read, 0 for empty slot
+		 */
+		private final long[] used = new long[CACHED_PAGES];
+
+		private long reads;
+
+		PageCache(boolean reuse) {
+			this.reuse = reuse;
+			Arrays.fill(pageNumbers, -1);
+		}
+
+		/**
+		 * Returns slot of page, least recently used page is evicted if page is not cached.
+		 */
+		int slot(int page) {
+			int slot = 0;
+			for(int i = 0; i < CACHED_PAGES; i++) {
+				if(pageNumbers[i] == page) {
+					slot = i;
+					break;
+				}
+				if(used[i] < used[slot])
+					slot = i;
+			}
+
+			if(pageNumbers[slot] != page) {
+				if(pages[slot] == null || !reuse)
+					pages[slot] = new char[PAGE_SIZE];
+				pageNumbers[slot] = page;
+				filled[slot] = 0;
+			}
+			used[slot] = ++reads;
+			return slot;
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.notepad.document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads files into {@link PieceTableContent}. Small files are decoded straight into the char array that becomes
+ * the original buffer, big files are memory mapped and decoded lazily by {@link MappedTextSource}.
+ * Encoding is guessed from the start of the file by {@link EncodingDetector}. File guessed to be UTF-8 that
+ * turns out not to be is read again in the fallback charset. Buffers of ASCII text skip the decoder.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class DocumentReader {
+
+	/**
+	 * Number of bytes read at once
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Text of a read file, the encoding it was read with and the stamp file had when it was read.
+	 */
+	public static final class Result {
+
+		private final PieceTableContent content;
+
+		private final TextEncoding encoding;
+
+		private final FileStamp stamp;
+
+		private Result(PieceTableContent content, TextEncoding encoding, FileStamp stamp) {
+			this.content = content;
+			this.encoding = encoding;
+			this.stamp = stamp;
+		}
+
+		public PieceTableContent getContent() {
+			return content;
+		}
+
+		public TextEncoding getEncoding() {
+			return encoding;
+		}
+
+		/**
+		 * Returns size and modification time file had before it was read.
+		 *
+		 * @return stamp of read file
+		 */
+		public FileStamp getStamp() {
+			return stamp;
+		}
+	}
+
+	private DocumentReader() {
+	}
+
+	/**
+	 * Reads file from path, guessing its encoding.
+	 *
+	 * @param path file to read
+	 * @param mappedThreshold files of this size in bytes or bigger are memory mapped if their charset allows it
+	 * @param fallback charset of files that are neither UTF-8 nor UTF-16
+	 * @param progress receives percentage of read bytes, can be null
+	 * @param cancelled checked between buffers, reading stops if it returns true, can be null
+	 * @return content with text of file and encoding of file
+	 * @throws IOException if file can not be read
+	 * @throws CancellationException if reading was cancelled
+	 */
+	public static Result read(Path path, long mappedThreshold, Charset fallback, IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer sample = ByteBuffer.allocate((int) Math.min(channel.size(), EncodingDetector.SAMPLE_SIZE));
+			while(sample.hasRemaining()) {
+				if(channel.read(sample) == -1)
+					break;
+			}
+			sample.flip();
+
+			TextEncoding encoding = EncodingDetector.detect(sample, fallback);
+
+			//only a guess of UTF-8 can be proven wrong, everything else replaces invalid bytes
+			boolean guessed = !encoding.hasBom() && encoding.getCharset().equals(StandardCharsets.UTF_8);
+			try {
+				return read(channel, path, encoding, guessed ? CodingErrorAction.REPORT : CodingErrorAction.REPLACE, mappedThreshold, progress, cancelled);
+			} catch(CharacterCodingException ex) {
+				if(!guessed)
+					throw ex;
+
+				encoding = new TextEncoding(fallback, false);
+				return read(channel, path, encoding, CodingErrorAction.REPLACE, mappedThreshold, progress, cancelled);
+			}
+		}
+	}
+
+	/**
+	 * Reads file from path in an encoding that is already known, invalid bytes are replaced.
+	 *
+	 * @param path file to read
+	 * @param encoding encoding of file
+	 * @param mappedThreshold files of this size in bytes or bigger are memory mapped if their charset allows it
+	 * @param progress receives percentage of read bytes, can be null
+	 * @param cancelled checked between buffers, reading stops if it returns true, can be null
+	 * @return content with text of file and given encoding
+	 * @throws IOException if file can not be read
+	 * @throws CancellationException if reading was cancelled
+	 */
+	public static Result read(Path path, TextEncoding encoding, long mappedThreshold, IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			//file could have been written without its byte order mark since
+			byte[] bom = encoding.getBomBytes();
+			ByteBuffer start = ByteBuffer.allocate(bom.length);
+			while(start.hasRemaining()) {
+				if(channel.read(start) == -1)
+					break;
+			}
+			if(!Arrays.equals(start.array(), bom))
+				encoding = new TextEncoding(encoding.getCharset(), false);
+
+			return read(channel, path, encoding, CodingErrorAction.REPLACE, mappedThreshold, progress, cancelled);
+		}
+	}
+
+	private static Result read(FileChannel channel, Path path, TextEncoding encoding, CodingErrorAction errors, long mappedThreshold,
+			IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+		long size = channel.size();
+		//taken before reading, a file changed while it is read then does not match the stamp anymore
+		FileStamp stamp = new FileStamp(size, Files.getLastModifiedTime(path).toMillis());
+		Charset charset = encoding.getCharset();
+		if(size >= mappedThreshold && MappedTextSource.canMap(charset))
+			return new Result(new PieceTableContent(MappedTextSource.open(path, encoding, errors, progress, cancelled)), encoding, stamp);
+
+		if(size > Integer.MAX_VALUE - 8)
+			throw new IOException("File is too big to be read in");
+
+		int skip = (int) Math.min(encoding.getBomBytes().length, size);
+		channel.position(skip);
+
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(errors)
+				.onUnmappableCharacter(errors);
+		boolean ascii = EncodingDetector.isAsciiCompatible(charset);
+
+		//UTF-8, UTF-16 and single byte charsets never have more chars than bytes
+		char[] text = new char[(int) Math.min(Math.ceil((size - skip) * (double) decoder.maxCharsPerByte()), Integer.MAX_VALUE - 8)];
+		CharBuffer out = CharBuffer.wrap(text);
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		byte[] bytes = in.array();
+
+		long read = skip;
+		int percent = -1;
+		while(true) {
+			if(cancelled != null && cancelled.getAsBoolean())
+				throw new CancellationException("Reading was cancelled");
+
+			int count = channel.read(in);
+			boolean endOfInput = count == -1;
+			if(!endOfInput)
+				read += count;
+
+			in.flip();
+
+			//ASCII at the start of the buffer is widened directly, bytes of an unfinished sequence are never ASCII
+			if(ascii) {
+				int start = in.position();
+				int run = EncodingDetector.asciiPrefix(in, start, in.limit());
+				if(run > out.remaining())
+					throw new IOException("File grew while it was read");
+
+				int position = out.position();
+				for(int i = 0; i < run; i++)
+					text[position + i] = (char) bytes[start + i];
+				in.position(start + run);
+				out.position(position + run);
+			}
+
+			CoderResult result = decoder.decode(in, out, endOfInput);
+			if(result.isError())
+				result.throwException();
+			if(result.isOverflow())
+				throw new IOException("File grew while it was read");
+			in.compact();
+
+			int current = size == 0 ? 100 : (int) (read * 100 / size);
+			if(progress != null && current != percent) {
+				percent = current;
+				progress.accept(percent);
+			}
+
+			if(endOfInput)
+				break;
+		}
+
+		CoderResult result = decoder.flush(out);
+		if(!result.isUnderflow())
+			throw new IOException("File grew while it was read");
+
+		PieceTableContent content = new PieceTableContent(out.position() == text.length ? text : Arrays.copyOf(text, out.position()));
+		return new Result(content, encoding, stamp);
+	}
+}
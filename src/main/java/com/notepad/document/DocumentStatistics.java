@@ -0,0 +1,31 @@
+package com.notepad.document;
+
+/**
+ * Statistics of a document that are kept up to date while it is edited, so reading them is O(1).
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public interface DocumentStatistics {
+
+	/**
+	 * Returns number of characters.
+	 *
+	 * @return number of characters
+	 */
+	int getCharacterCount();
+
+	/**
+	 * Returns number of characters that are not whitespace.
+	 *
+	 * @return number of non-blank characters
+	 */
+	int getNonBlankCount();
+
+	/**
+	 * Returns number of lines, an empty document has one line.
+	 *
+	 * @return number of lines
+	 */
+	int getLineCount();
+}
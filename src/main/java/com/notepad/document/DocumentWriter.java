@@ -0,0 +1,251 @@
+package com.notepad.document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.UnmappableCharacterException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Writes documents to disk without building the whole text in memory.
+ * Text is read segment by segment, encoded through a fixed size buffer into a temporary file
+ * next to the target, and the temporary file is then moved over the target. Target is either
+ * left untouched or fully replaced. Text with a character the charset can not encode is not written at all
+ * instead of losing the character. Symbolic links are followed, so the file they point to is replaced,
+ * and replaced file keeps its permissions, owner and group where the file system allows it.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class DocumentWriter {
+
+	/**
+	 * Number of chars encoded at once
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private DocumentWriter() {
+	}
+
+	/**
+	 * Writes text of document to path using given encoding.
+	 *
+	 * @param document document to write
+	 * @param path where to write
+	 * @param encoding charset to encode text with and whether text starts with a byte order mark
+	 * @return stamp of written file
+	 * @throws UnmappableCharacterException if charset can not encode a character of text, target is not changed in that case
+	 * @throws IOException if writing fails, target is not changed in that case
+	 */
+	public static FileStamp write(Document document, Path path, TextEncoding encoding) throws IOException {
+		//read lock is held so document can not change while it is written
+		IOException[] error = new IOException[1];
+		FileStamp[] stamp = new FileStamp[1];
+		document.render(() -> {
+			try {
+				stamp[0] = write(new DocumentSource(document), path, encoding, null, null);
+			} catch(IOException ex) {
+				error[0] = ex;
+			}
+		});
+
+		if(error[0] != null)
+			throw error[0];
+		return stamp[0];
+	}
+
+	/**
+	 * Writes text to path using given encoding. Text has to stay unchanged while it is written, a snapshot
+	 * of a document can be written from any thread while the document is being edited.
+	 *
+	 * @param text text to write
+	 * @param path where to write
+	 * @param encoding charset to encode text with and whether text starts with a byte order mark
+	 * @param progress receives percentage of written text, can be null
+	 * @param cancelled checked between buffers, writing stops if it returns true, can be null
+	 * @return stamp of written file
+	 * @throws UnmappableCharacterException if charset can not encode a character of text, target is not changed in that case
+	 * @throws IOException if writing fails, target is not changed in that case
+	 * @throws CancellationException if writing was cancelled, target is not changed in that case
+	 */
+	public static FileStamp write(TextSource text, Path path, TextEncoding encoding, IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+		//moving over a link would replace the link instead of the file it points to
+		Path target = Files.exists(path) ? path.toRealPath() : path.toAbsolutePath();
+		Path temp = createTemp(target);
+
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				encode(text, channel, encoding, progress, cancelled);
+				channel.force(true);
+			}
+			//target permissions are copied once temporary file is written because they can forbid writing
+			copyAttributes(target, temp);
+
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return FileStamp.of(target);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Creates temporary file next to target. While an existing target is replaced, temporary file is readable only
+	 * by its owner until permissions of target are copied to it. File for a new target gets the default permissions.
+	 */
+	private static Path createTemp(Path target) throws IOException {
+		if(Files.exists(target))
+			return Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+
+		while(true) {
+			Path temp = target.resolveSibling("." + target.getFileName() + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			try {
+				return Files.createFile(temp);
+			} catch(FileAlreadyExistsException ex) {
+				//another name is tried
+			}
+		}
+	}
+
+	/**
+	 * Gives temporary file permissions, owner and group of target if target exists on a POSIX file system.
+	 * Owner and group are kept only if the user is allowed to change them.
+	 */
+	private static void copyAttributes(Path target, Path temp) throws IOException {
+		if(!Files.exists(target))
+			return;
+
+		PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+		PosixFileAttributeView tempView = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+		if(view == null || tempView == null)
+			return;
+
+		PosixFileAttributes attributes = view.readAttributes();
+		try {
+			tempView.setGroup(attributes.group());
+		} catch(IOException | SecurityException ex) {
+			//user is not a member of the group
+		}
+		try {
+			tempView.setOwner(attributes.owner());
+		} catch(IOException | SecurityException ex) {
+			//only a privileged user can give files away
+		}
+		//set last, changing owner can clear set-user-ID and set-group-ID bits
+		tempView.setPermissions(attributes.permissions());
+	}
+
+	private static void encode(TextSource text, FileChannel channel, TextEncoding encoding, IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+		CharsetEncoder encoder = encoding.getCharset().newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+
+		CharBuffer in = CharBuffer.allocate(BUFFER_SIZE);
+		ByteBuffer out = ByteBuffer.allocate((int) Math.ceil(BUFFER_SIZE * encoder.maxBytesPerChar()) + 16);
+		out.put(encoding.getBomBytes());
+
+		Segment segment = new Segment();
+
+		int offset = 0;
+		int length = text.length();
+		int percent = -1;
+		while(offset < length) {
+			if(cancelled != null && cancelled.getAsBoolean())
+				throw new CancellationException("Writing was cancelled");
+
+			text.getChars(offset, Math.min(in.remaining(), length - offset), segment);
+			in.put(segment.array, segment.offset, segment.count);
+			offset += segment.count;
+
+			//half of a surrogate pair can stay in buffer until next segment
+			in.flip();
+			encode(encoder, in, out, channel, false);
+			in.compact();
+
+			int current = (int) (offset * 100L / length);
+			if(progress != null && current != percent) {
+				percent = current;
+				progress.accept(percent);
+			}
+		}
+
+		in.flip();
+		encode(encoder, in, out, channel, true);
+
+		CoderResult result;
+		while((result = encoder.flush(out)).isOverflow())
+			drain(out, channel);
+		if(result.isError())
+			result.throwException();
+
+		drain(out, channel);
+	}
+
+	private static void encode(CharsetEncoder encoder, CharBuffer in, ByteBuffer out, FileChannel channel, boolean endOfInput) throws IOException {
+		while(true) {
+			CoderResult result = encoder.encode(in, out, endOfInput);
+			if(result.isUnderflow())
+				break;
+			if(result.isOverflow())
+				drain(out, channel);
+			else
+				result.throwException();
+		}
+	}
+
+	private static void drain(ByteBuffer out, FileChannel channel) throws IOException {
+		out.flip();
+		while(out.hasRemaining())
+			channel.write(out);
+		out.clear();
+	}
+
+	/**
+	 * Text of document, only valid while document can not change.
+	 */
+	private static class DocumentSource implements TextSource {
+		private final Document document;
+
+		DocumentSource(Document document) {
+			this.document = document;
+		}
+
+		@Override
+		public int length() {
+			return document.getLength();
+		}
+
+		@Override
+		public void getChars(int offset, int length, Segment segment) {
+			segment.setPartialReturn(true);
+			try {
+				document.getText(offset, length, segment);
+			} catch(BadLocationException ex) {
+				throw new IllegalArgumentException("Invalid range", ex);
+			}
+		}
+	}
+}
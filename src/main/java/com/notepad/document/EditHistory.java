@@ -0,0 +1,351 @@
+package com.notepad.document;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+/**
+ * Undo and redo history of a {@link PieceTableDocument}. Every step is an offset, number of characters it put in
+ * the document and the {@link PieceTableContent.Range} of text they replaced, so even a step that replaced the whole
+ * document holds only a list of pieces. Undoing a step turns it into the step that redoes it.
+ *
+ * Characters typed one after another are merged into one step until a new line is typed, characters deleted one
+ * after another with delete or backspace are merged as well. Steps are kept within a memory budget, the oldest
+ * ones are dropped first.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class EditHistory {
+
+	/**
+	 * Default number of bytes history can take
+	 */
+	public static final long DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+	/**
+	 * Estimate of bytes a step takes without its range
+	 */
+	private static final long STEP_SIZE = 40;
+
+	/**
+	 * Kinds of steps, only typing and deleting steps are merged with the next edit
+	 */
+	private static final int OTHER = 0;
+
+	private static final int TYPING = 1;
+
+	private static final int DELETING = 2;
+
+	private final PieceTableDocument document;
+
+	private final PieceTableContent content;
+
+	private final Deque<Step> undoSteps;
+
+	private final Deque<Step> redoSteps;
+
+	private long budget;
+
+	private long memoryUsage;
+
+	/**
+	 * Is a step being undone or redone, edits it makes are not recorded
+	 */
+	private boolean applying;
+
+	/**
+	 * Step a replacement removed text with, text it inserts is added to it
+	 */
+	private Step replaced;
+
+	private boolean replacing;
+
+	/**
+	 * Creates empty history of document.
+	 *
+	 * @param document document whose edits are recorded
+	 */
+	EditHistory(PieceTableDocument document) {
+		this.document = document;
+		content = document.getPieceTable();
+		undoSteps = new ArrayDeque<>();
+		redoSteps = new ArrayDeque<>();
+		budget = DEFAULT_BUDGET;
+	}
+
+	/**
+	 * Returns true if there is a step to undo.
+	 *
+	 * @return can step be undone
+	 */
+	public boolean canUndo() {
+		return !undoSteps.isEmpty();
+	}
+
+	/**
+	 * Returns true if there is an undone step to redo.
+	 *
+	 * @return can step be redone
+	 */
+	public boolean canRedo() {
+		return !redoSteps.isEmpty();
+	}
+
+	/**
+	 * Undoes the last step. Must be called on the EDT.
+	 *
+	 * @return offset right after text the step put back, where caret goes
+	 * @throws CannotUndoException if there is nothing to undo
+	 */
+	public int undo() {
+		Step step = undoSteps.pollLast();
+		if(step == null)
+			throw new CannotUndoException();
+
+		int caret = apply(step);
+		redoSteps.addLast(step);
+		trim();
+		return caret;
+	}
+
+	/**
+	 * Redoes the last undone step. Must be called on the EDT.
+	 *
+	 * @return offset right after text the step put back, where caret goes
+	 * @throws CannotRedoException if there is nothing to redo
+	 */
+	public int redo() {
+		Step step = redoSteps.pollLast();
+		if(step == null)
+			throw new CannotRedoException();
+
+		int caret = apply(step);
+		undoSteps.addLast(step);
+		trim();
+		return caret;
+	}
+
+	/**
+	 * Drops all steps.
+	 */
+	public void clear() {
+		undoSteps.clear();
+		redoSteps.clear();
+		memoryUsage = 0;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets number of bytes history can take, oldest steps are dropped right away if it takes more.
+	 *
+	 * @param budget size of history in bytes
+	 */
+	public void setBudget(long budget) {
+		this.budget = budget;
+		trim();
+	}
+
+	/**
+	 * Returns estimate of bytes history takes on heap. Text of steps is in buffers of the document, so it is not counted.
+	 *
+	 * @return size of history in bytes
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public int getUndoCount() {
+		return undoSteps.size();
+	}
+
+	public int getRedoCount() {
+		return redoSteps.size();
+	}
+
+	/**
+	 * Records that length characters were inserted at offset.
+	 */
+	void inserted(int offset, int length) {
+		if(applying)
+			return;
+
+		clearRedo();
+
+		//text that replaces a selection is undone together with it
+		Step last = undoSteps.peekLast();
+		if(replacing && last != null && last == replaced && last.offset == offset) {
+			last.length += length;
+			last.kind = last.length == 1 ? TYPING : OTHER;
+			return;
+		}
+
+		if(length == 1 && last != null && last.kind == TYPING && offset == last.offset + last.length && !endsLine(offset)) {
+			last.length++;
+			return;
+		}
+
+		push(new Step(offset, length, PieceTableContent.Range.EMPTY, length == 1 ? TYPING : OTHER));
+	}
+
+	/**
+	 * Records that length characters at offset are about to be removed.
+	 */
+	void removing(int offset, int length) {
+		if(applying)
+			return;
+
+		clearRedo();
+
+		PieceTableContent.Range removed = range(offset, length);
+		Step last = undoSteps.peekLast();
+		if(length == 1 && !replacing && last != null && last.kind == DELETING) {
+			//delete key removes at the same offset, backspace right before it
+			if(offset == last.offset) {
+				grow(last, last.text.append(removed));
+				return;
+			}
+			if(offset + 1 == last.offset) {
+				grow(last, removed.append(last.text));
+				last.offset = offset;
+				return;
+			}
+		}
+
+		Step step = new Step(offset, 0, removed, length == 1 ? DELETING : OTHER);
+		push(step);
+		if(replacing)
+			replaced = step;
+	}
+
+	/**
+	 * Records that length characters at offset are about to be replaced by textLength characters.
+	 */
+	void replacing(int offset, int length, int textLength) {
+		if(applying)
+			return;
+
+		push(new Step(offset, textLength, range(offset, length), OTHER));
+	}
+
+	/**
+	 * Marks start and end of a replacement that removes and then inserts text, both are recorded as one step.
+	 */
+	void setReplacing(boolean replacing) {
+		this.replacing = replacing;
+		replaced = null;
+	}
+
+	/**
+	 * Replaces text step put in document with text it replaced. Step then holds what redoes it.
+	 */
+	private int apply(Step step) {
+		PieceTableContent.Range current = range(step.offset, step.length);
+
+		applying = true;
+		try {
+			document.restore(step.offset, step.length, step.text);
+		} catch (BadLocationException e) {
+			throw new RuntimeException("Error while restoring document");
+		}
+		finally {
+			applying = false;
+		}
+
+		memoryUsage -= step.getMemorySize();
+		step.length = step.text.length();
+		step.text = current;
+		step.kind = OTHER;
+		memoryUsage += step.getMemorySize();
+		return step.offset + step.length;
+	}
+
+	/**
+	 * Adds step as the last one, undone steps can not be redone after a new edit.
+	 */
+	private void push(Step step) {
+		clearRedo();
+		undoSteps.addLast(step);
+		memoryUsage += step.getMemorySize();
+		trim();
+	}
+
+	/**
+	 * Drops undone steps, called for every new edit, also one that is merged into the last step.
+	 */
+	private void clearRedo() {
+		for(Step undone : redoSteps)
+			memoryUsage -= undone.getMemorySize();
+		redoSteps.clear();
+	}
+
+	private void grow(Step step, PieceTableContent.Range text) {
+		memoryUsage -= step.getMemorySize();
+		step.text = text;
+		memoryUsage += step.getMemorySize();
+		trim();
+	}
+
+	/**
+	 * Drops the oldest steps while history takes more than its budget, undone steps that would be redone last go after them.
+	 */
+	private void trim() {
+		while(memoryUsage > budget && !undoSteps.isEmpty())
+			memoryUsage -= undoSteps.pollFirst().getMemorySize();
+		while(memoryUsage > budget && !redoSteps.isEmpty())
+			memoryUsage -= redoSteps.pollFirst().getMemorySize();
+	}
+
+	/**
+	 * Returns true if character before offset is a new line, typing after it starts a new step.
+	 */
+	private boolean endsLine(int offset) {
+		try {
+			return offset > 0 && document.getText(offset - 1, 1).charAt(0) == '\n';
+		} catch (BadLocationException e) {
+			throw new RuntimeException("Error while reading document");
+		}
+	}
+
+	private PieceTableContent.Range range(int offset, int length) {
+		if(length == 0)
+			return PieceTableContent.Range.EMPTY;
+
+		try {
+			return content.getRange(offset, length);
+		} catch (BadLocationException e) {
+			throw new RuntimeException("Error while reading document");
+		}
+	}
+
+	/**
+	 * Edit that put length characters at offset in place of text.
+	 */
+	private static final class Step {
+
+		private int offset;
+
+		private int length;
+
+		private PieceTableContent.Range text;
+
+		private int kind;
+
+		private Step(int offset, int length, PieceTableContent.Range text, int kind) {
+			this.offset = offset;
+			this.length = length;
+			this.text = text;
+			this.kind = kind;
+		}
+
+		private long getMemorySize() {
+			return STEP_SIZE + text.getMemorySize();
+		}
+	}
+}
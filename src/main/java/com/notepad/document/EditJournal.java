@@ -0,0 +1,606 @@
+package com.notepad.document;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+
+/**
+ * Append only journal of edits of one document, used to bring back unsaved text after a crash. Journal starts
+ * with a base, either the file of the document as it is on disk or a checkpoint with the whole text, followed
+ * by inserts and removes in the order they were made.
+ *
+ * Edits are only appended to memory by the thread that makes them. One background thread writes them to the
+ * file and forces them to disk at most every {@link #FLUSH_DELAY} milliseconds, so a crash loses at most that
+ * much typing. File of a journal is locked while it is open, so another running editor does not recover it.
+ *
+ * Numbers are written as variable length integers and every char takes one to three bytes like in UTF-8,
+ * surrogates on their own, so a journal of typing is a few bytes per key.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class EditJournal {
+
+	/**
+	 * Milliseconds from an edit until it is on disk
+	 */
+	public static final int FLUSH_DELAY = 500;
+
+	private static final int MAGIC = 0x4A4E504A;
+
+	private static final byte VERSION = 1;
+
+	/**
+	 * Base is the file of the document, which is checked to be unchanged when journal is replayed
+	 */
+	private static final byte FILE_BASE = 0;
+
+	/**
+	 * Base is the whole text
+	 */
+	private static final byte TEXT_BASE = 1;
+
+	private static final byte INSERT = 1;
+
+	private static final byte REMOVE = 2;
+
+	/**
+	 * Writes every journal, one thread keeps writes of a journal in order
+	 */
+	private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "edit-journal");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Path file;
+
+	/**
+	 * Edits not yet given to the writer
+	 */
+	private final ByteArrayOutputStream pending;
+
+	/**
+	 * Bytes of edits since base
+	 */
+	private long size;
+
+	/**
+	 * Base is written again on next flush, with text or file of document
+	 */
+	private boolean rebase;
+
+	private Path basePath;
+
+	/**
+	 * Stamp file of document had when document was read or saved
+	 */
+	private FileStamp baseStamp;
+
+	private TextEncoding baseEncoding;
+
+	private TextSource baseText;
+
+	private boolean flushScheduled;
+
+	private boolean deleted;
+
+	//used only by writer
+	private FileChannel channel;
+
+	private FileLock lock;
+
+	private boolean failed;
+
+	/**
+	 * Starts journal in given file. Base is written by the writer, if text is null base is the file of the document
+	 * which must then be exactly what the document holds before the next edit. Stamp of that file is the one taken
+	 * when document was read or saved, so a file changed by someone else in the meantime is not replayed.
+	 *
+	 * @param file file of journal
+	 * @param documentPath path of document, can be null if text is given
+	 * @param stamp stamp of file of document when it was read or saved, can be null if text is given
+	 * @param encoding encoding of document
+	 * @param text whole text of document, null to use its file
+	 */
+	public EditJournal(Path file, Path documentPath, FileStamp stamp, TextEncoding encoding, TextSource text) {
+		this.file = file;
+		pending = new ByteArrayOutputStream();
+		checkpoint(documentPath, stamp, encoding, text);
+	}
+
+	private EditJournal(Path file, FileChannel channel, FileLock lock, long size) {
+		this.file = file;
+		this.channel = channel;
+		this.lock = lock;
+		this.size = size;
+		pending = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * Appends insert of text at offset.
+	 *
+	 * @param offset where text was inserted
+	 * @param text inserted text
+	 */
+	public synchronized void inserted(int offset, String text) {
+		if(deleted)
+			return;
+
+		int start = pending.size();
+		pending.write(INSERT);
+		writeVarint(pending, offset);
+		writeVarint(pending, text.length());
+		for(int i = 0; i < text.length(); i++)
+			writeChar(pending, text.charAt(i));
+		size += pending.size() - start;
+		schedule();
+	}
+
+	/**
+	 * Appends remove of length chars at offset.
+	 *
+	 * @param offset where text was removed
+	 * @param length number of removed chars
+	 */
+	public synchronized void removed(int offset, int length) {
+		if(deleted)
+			return;
+
+		int start = pending.size();
+		pending.write(REMOVE);
+		writeVarint(pending, offset);
+		writeVarint(pending, length);
+		size += pending.size() - start;
+		schedule();
+	}
+
+	/**
+	 * Starts journal again from a new base, edits made so far are dropped. File is replaced only once the new
+	 * base is fully written.
+	 *
+	 * @param documentPath path of document, can be null if text is given
+	 * @param stamp stamp of file of document when it was read or saved, can be null if text is given
+	 * @param encoding encoding of document
+	 * @param text whole text of document, null to use its file
+	 */
+	public synchronized void checkpoint(Path documentPath, FileStamp stamp, TextEncoding encoding, TextSource text) {
+		if(deleted)
+			return;
+
+		pending.reset();
+		size = 0;
+		rebase = true;
+		basePath = documentPath;
+		baseStamp = stamp;
+		baseEncoding = encoding;
+		baseText = text;
+		schedule();
+	}
+
+	/**
+	 * Returns number of bytes of edits since base, used to decide when a checkpoint is cheaper to replay.
+	 *
+	 * @return size of edits
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Stops journal and deletes its file, document no longer has anything to recover.
+	 */
+	public synchronized void delete() {
+		if(deleted)
+			return;
+
+		deleted = true;
+		pending.reset();
+		baseText = null;
+		WRITER.execute(this::flush);
+	}
+
+	/**
+	 * Waits until everything given to the writer so far is written, at most given number of milliseconds.
+	 * Edits made within the last {@link #FLUSH_DELAY} milliseconds are not waited for.
+	 *
+	 * @param timeout most milliseconds to wait
+	 */
+	public static void awaitWrites(long timeout) {
+		try {
+			WRITER.submit(() -> {}).get(timeout, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException | TimeoutException ex) {
+			//writer is stuck on the disk, nothing more can be done
+		}
+	}
+
+	private void schedule() {
+		if(flushScheduled)
+			return;
+
+		flushScheduled = true;
+		WRITER.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes pending edits and base on the writer thread.
+	 */
+	private void flush() {
+		byte[] edits;
+		boolean writeBase;
+		Path path;
+		FileStamp stamp;
+		TextEncoding encoding;
+		TextSource text;
+		boolean delete;
+		synchronized(this) {
+			flushScheduled = false;
+			edits = pending.toByteArray();
+			pending.reset();
+			writeBase = rebase;
+			path = basePath;
+			stamp = baseStamp;
+			encoding = baseEncoding;
+			text = baseText;
+			rebase = false;
+			baseText = null;
+			delete = deleted;
+		}
+
+		try {
+			if(delete) {
+				closeChannel();
+				Files.deleteIfExists(file);
+				return;
+			}
+			if(failed)
+				return;
+
+			if(writeBase)
+				writeBase(path, stamp, encoding, text);
+
+			ByteBuffer buffer = ByteBuffer.wrap(edits);
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		} catch(IOException ex) {
+			//document stays usable, only it can not be recovered
+			failed = true;
+			try {
+				closeChannel();
+			} catch(IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Writes new file with base into a temporary file which then replaces the journal.
+	 */
+	private void writeBase(Path path, FileStamp stamp, TextEncoding encoding, TextSource text) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			writeString(out, path == null ? "" : path.toAbsolutePath().toString());
+			writeString(out, encoding.getCharset().name());
+			out.writeBoolean(encoding.hasBom());
+
+			if(text == null) {
+				out.writeByte(FILE_BASE);
+				out.writeLong(stamp.getSize());
+				out.writeLong(stamp.getModified());
+			}
+			else {
+				out.writeByte(TEXT_BASE);
+				int length = text.length();
+				writeVarint(out, length);
+				Segment segment = new Segment();
+				for(int offset = 0; offset < length; offset += segment.count) {
+					text.getChars(offset, length - offset, segment);
+					for(int i = 0; i < segment.count; i++)
+						writeChar(out, segment.array[segment.offset + i]);
+				}
+			}
+		}
+
+		try(FileChannel written = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			written.force(true);
+		}
+		closeChannel();
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		lock = channel.tryLock();
+	}
+
+	private void closeChannel() throws IOException {
+		if(channel == null)
+			return;
+
+		//closing the channel releases its lock
+		lock = null;
+		channel.close();
+		channel = null;
+	}
+
+	/**
+	 * Replays journal in given file. Edits after the last one that was fully written are cut off and the
+	 * journal continues after the replayed ones.
+	 *
+	 * @param file file of journal
+	 * @param mappedThreshold files of this size in bytes or bigger are memory mapped if their charset allows it
+	 * @return recovered document, null if journal is open in another editor
+	 * @throws IOException if journal is damaged or its file was changed since
+	 */
+	public static Recovery recover(Path file, long mappedThreshold) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} catch(OverlappingFileLockException ex) {
+				lock = null;
+			}
+			if(lock == null) {
+				channel.close();
+				return null;
+			}
+
+			JournalInput in = new JournalInput(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+			if(in.readInt() != MAGIC || in.read() != VERSION)
+				throw new IOException("File is not an edit journal");
+
+			String pathName = in.readString();
+			Path path = pathName.isEmpty() ? null : Paths.get(pathName);
+			TextEncoding encoding = new TextEncoding(Charset.forName(in.readString()), in.read() != 0);
+
+			PieceTableContent content;
+			int kind = in.read();
+			if(kind == FILE_BASE) {
+				FileStamp stamp = new FileStamp(in.readLong(), in.readLong());
+				if(path == null || !stamp.matches(path))
+					throw new IOException("File was changed after its edits were journaled");
+
+				//file is decoded the way it was when its edits were journaled
+				content = DocumentReader.read(path, encoding, mappedThreshold, null, null).getContent();
+			}
+			else if(kind == TEXT_BASE) {
+				char[] text = new char[in.readVarint()];
+				for(int i = 0; i < text.length; i++)
+					text[i] = in.readChar();
+				content = new PieceTableContent(text);
+			}
+			else {
+				throw new IOException("Journal has unknown base");
+			}
+
+			long base = in.getPosition();
+			long end = replay(in, content);
+
+			//edit that was cut short by the crash is dropped, new edits follow the last whole one
+			channel.truncate(end);
+			channel.position(end);
+			return new Recovery(content, path, encoding, new EditJournal(file, channel, lock, end - base));
+		} catch(IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Applies edits to content, returns position after the last edit that could be applied.
+	 */
+	private static long replay(JournalInput in, PieceTableContent content) throws IOException {
+		long end = in.getPosition();
+		try {
+			while(true) {
+				int kind = in.read();
+				if(kind == -1)
+					return end;
+
+				int offset = in.readVarint();
+				int length = in.readVarint();
+				if(length < 0)
+					return end;
+
+				if(kind == INSERT) {
+					char[] text = new char[length];
+					for(int i = 0; i < length; i++)
+						text[i] = in.readChar();
+					content.insertString(offset, new String(text));
+				}
+				else if(kind == REMOVE) {
+					content.remove(offset, length);
+				}
+				else {
+					return end;
+				}
+				end = in.getPosition();
+			}
+		} catch(EOFException | BadLocationException ex) {
+			return end;
+		}
+	}
+
+	private static void writeVarint(OutputStream out, int value) {
+		try {
+			while((value & ~0x7F) != 0) {
+				out.write(value & 0x7F | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		} catch(IOException ex) {
+			throw new IllegalStateException("Error while writing journal", ex);
+		}
+	}
+
+	private static void writeChar(OutputStream out, char c) {
+		try {
+			if(c < 0x80) {
+				out.write(c);
+			}
+			else if(c < 0x800) {
+				out.write(0xC0 | c >> 6);
+				out.write(0x80 | c & 0x3F);
+			}
+			else {
+				out.write(0xE0 | c >> 12);
+				out.write(0x80 | c >> 6 & 0x3F);
+				out.write(0x80 | c & 0x3F);
+			}
+		} catch(IOException ex) {
+			throw new IllegalStateException("Error while writing journal", ex);
+		}
+	}
+
+	private static void writeString(OutputStream out, String text) {
+		writeVarint(out, text.length());
+		for(int i = 0; i < text.length(); i++)
+			writeChar(out, text.charAt(i));
+	}
+
+	/**
+	 * Document brought back from a journal.
+	 */
+	public static final class Recovery {
+
+		private final PieceTableContent content;
+
+		private final Path path;
+
+		private final TextEncoding encoding;
+
+		private final EditJournal journal;
+
+		private Recovery(PieceTableContent content, Path path, TextEncoding encoding, EditJournal journal) {
+			this.content = content;
+			this.path = path;
+			this.encoding = encoding;
+			this.journal = journal;
+		}
+
+		public PieceTableContent getContent() {
+			return content;
+		}
+
+		/**
+		 * Returns path of document, null if it was never saved.
+		 *
+		 * @return path of document
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		public TextEncoding getEncoding() {
+			return encoding;
+		}
+
+		/**
+		 * Returns journal that continues after the recovered edits.
+		 *
+		 * @return journal of document
+		 */
+		public EditJournal getJournal() {
+			return journal;
+		}
+	}
+
+	/**
+	 * Reads journal and counts read bytes.
+	 */
+	private static final class JournalInput {
+
+		private final InputStream in;
+
+		private long position;
+
+		JournalInput(InputStream in) {
+			this.in = in;
+		}
+
+		long getPosition() {
+			return position;
+		}
+
+		/**
+		 * Returns next byte or -1 at the end.
+		 */
+		int read() throws IOException {
+			int b = in.read();
+			if(b != -1)
+				position++;
+			return b;
+		}
+
+		int readByte() throws IOException {
+			int b = read();
+			if(b == -1)
+				throw new EOFException();
+			return b;
+		}
+
+		int readInt() throws IOException {
+			return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+		}
+
+		long readLong() throws IOException {
+			return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+		}
+
+		int readVarint() throws IOException {
+			int value = 0;
+			for(int shift = 0; shift < 32; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7F) << shift;
+				if((b & 0x80) == 0)
+					return value;
+			}
+			throw new IOException("Journal has invalid number");
+		}
+
+		char readChar() throws IOException {
+			int b = readByte();
+			if(b < 0x80)
+				return (char) b;
+			if(b < 0xE0)
+				return (char) ((b & 0x1F) << 6 | readByte() & 0x3F);
+			return (char) ((b & 0x0F) << 12 | (readByte() & 0x3F) << 6 | readByte() & 0x3F);
+		}
+
+		String readString() throws IOException {
+			char[] chars = new char[readVarint()];
+			for(int i = 0; i < chars.length; i++)
+				chars[i] = readChar();
+			return new String(chars);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.notepad.document;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Guesses encoding of a file from its first bytes. Byte order mark decides if there is one. Otherwise
+ * text where every other byte is zero is taken as UTF-16, text that is valid UTF-8 as UTF-8 and anything
+ * else as the fallback charset. Bytes are scanned a long at a time while they are ASCII.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class EncodingDetector {
+
+	/**
+	 * Number of bytes looked at when guessing
+	 */
+	static final int SAMPLE_SIZE = 64 * 1024;
+
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+
+	private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+
+	private EncodingDetector() {
+	}
+
+	/**
+	 * Guesses encoding of text that starts with given bytes.
+	 *
+	 * @param sample first bytes of text, position and limit are not changed
+	 * @param fallback charset used if text is not Unicode
+	 * @return guessed encoding
+	 */
+	static TextEncoding detect(ByteBuffer sample, Charset fallback) {
+		TextEncoding bom = detectBom(sample);
+		if(bom != null)
+			return bom;
+
+		int start = sample.position();
+		int length = sample.remaining();
+		if(asciiPrefix(sample, start, sample.limit()) == length)
+			return TextEncoding.UTF_8;
+
+		//ASCII text in UTF-16 has a zero in every other byte
+		int evenZeros = 0;
+		int oddZeros = 0;
+		for(int i = 0; i + 1 < length; i += 2) {
+			if(sample.get(start + i) == 0)
+				evenZeros++;
+			if(sample.get(start + i + 1) == 0)
+				oddZeros++;
+		}
+		int units = length / 2;
+		if(units > 0 && evenZeros > units * 3 / 10 && oddZeros < units / 20)
+			return new TextEncoding(StandardCharsets.UTF_16BE, false);
+		if(units > 0 && oddZeros > units * 3 / 10 && evenZeros < units / 20)
+			return new TextEncoding(StandardCharsets.UTF_16LE, false);
+
+		return isUtf8(sample) ? TextEncoding.UTF_8 : new TextEncoding(fallback, false);
+	}
+
+	/**
+	 * Returns encoding given by byte order mark at the start of sample, null if there is none.
+	 */
+	static TextEncoding detectBom(ByteBuffer sample) {
+		int start = sample.position();
+		int length = sample.remaining();
+		int b0 = length > 0 ? sample.get(start) & 0xFF : -1;
+		int b1 = length > 1 ? sample.get(start + 1) & 0xFF : -1;
+		int b2 = length > 2 ? sample.get(start + 2) & 0xFF : -1;
+		int b3 = length > 3 ? sample.get(start + 3) & 0xFF : -1;
+
+		if(b0 == 0xEF && b1 == 0xBB && b2 == 0xBF)
+			return new TextEncoding(StandardCharsets.UTF_8, true);
+		if(b0 == 0x00 && b1 == 0x00 && b2 == 0xFE && b3 == 0xFF)
+			return new TextEncoding(UTF_32BE, true);
+		//checked before UTF-16LE whose mark starts the same
+		if(b0 == 0xFF && b1 == 0xFE && b2 == 0x00 && b3 == 0x00)
+			return new TextEncoding(UTF_32LE, true);
+		if(b0 == 0xFE && b1 == 0xFF)
+			return new TextEncoding(StandardCharsets.UTF_16BE, true);
+		if(b0 == 0xFF && b1 == 0xFE)
+			return new TextEncoding(StandardCharsets.UTF_16LE, true);
+
+		return null;
+	}
+
+	/**
+	 * Returns number of ASCII bytes in buffer starting at from, before to.
+	 * Eight bytes are checked at once by looking at their high bits.
+	 */
+	static int asciiPrefix(ByteBuffer buffer, int from, int to) {
+		int i = from;
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			while(i + 8 <= to) {
+				long word = buffer.getLong(i);
+				if((word & HIGH_BITS) != 0)
+					//lowest set high bit belongs to the first non-ASCII byte
+					return i - from + Long.numberOfTrailingZeros(word & HIGH_BITS) / 8;
+				i += 8;
+			}
+		}
+		finally {
+			buffer.order(order);
+		}
+
+		while(i < to && buffer.get(i) >= 0)
+			i++;
+		return i - from;
+	}
+
+	/**
+	 * Returns true if charset maps every ASCII byte to the same char, so ASCII can be widened without a decoder.
+	 */
+	static boolean isAsciiCompatible(Charset charset) {
+		if(charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII))
+			return true;
+
+		//windows and ISO single byte charsets keep ASCII as it is
+		CharsetDecoder decoder = charset.newDecoder();
+		if(decoder.maxCharsPerByte() != 1 || charset.newEncoder().maxBytesPerChar() != 1)
+			return false;
+
+		byte[] ascii = new byte[128];
+		for(int i = 0; i < ascii.length; i++)
+			ascii[i] = (byte) i;
+		String decoded = new String(ascii, charset);
+		for(int i = 0; i < ascii.length; i++) {
+			if(decoded.charAt(i) != i)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if sample is valid UTF-8. Sequence cut by the end of sample is allowed.
+	 */
+	private static boolean isUtf8(ByteBuffer sample) {
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+
+		ByteBuffer in = sample.duplicate();
+		CharBuffer out = CharBuffer.allocate(in.remaining());
+		CoderResult result = decoder.decode(in, out, false);
+		return !result.isError();
+	}
+}
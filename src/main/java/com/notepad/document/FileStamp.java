@@ -0,0 +1,68 @@
+package com.notepad.document;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Size and last modification time of a file, taken when the file is read or written.
+ * A file that still has the same stamp later is assumed to hold what was read or written.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class FileStamp {
+
+	private final long size;
+
+	/**
+	 * Last modification time in milliseconds
+	 */
+	private final long modified;
+
+	/**
+	 * Creates stamp.
+	 *
+	 * @param size size of file in bytes
+	 * @param modified last modification time of file in milliseconds
+	 */
+	public FileStamp(long size, long modified) {
+		this.size = size;
+		this.modified = modified;
+	}
+
+	/**
+	 * Takes stamp of file as it is now.
+	 *
+	 * @param path path of file
+	 * @return stamp of file
+	 * @throws IOException if attributes of file can not be read
+	 */
+	public static FileStamp of(Path path) throws IOException {
+		return new FileStamp(Files.size(path), Files.getLastModifiedTime(path).toMillis());
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getModified() {
+		return modified;
+	}
+
+	/**
+	 * Checks if file on path still has this stamp.
+	 *
+	 * @param path path of file
+	 * @return true if file exists and has the same size and modification time
+	 * @throws IOException if attributes of file can not be read
+	 */
+	public boolean matches(Path path) throws IOException {
+		return Files.isRegularFile(path) && Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == modified;
+	}
+
+	@Override
+	public String toString() {
+		return size + " bytes, modified " + modified;
+	}
+}
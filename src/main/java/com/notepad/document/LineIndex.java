@@ -0,0 +1,38 @@
+package com.notepad.document;
+
+import javax.swing.text.BadLocationException;
+
+/**
+ * Index of line starts of a document that is kept up to date while it is edited.
+ * Lines are counted from 0 like in {@link javax.swing.JTextArea}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public interface LineIndex {
+
+	/**
+	 * Returns number of lines, an empty document has one line.
+	 *
+	 * @return number of lines
+	 */
+	int getLineCount();
+
+	/**
+	 * Returns line that contains given offset.
+	 *
+	 * @param offset offset in document
+	 * @return line of offset
+	 * @throws BadLocationException if offset is outside of document
+	 */
+	int getLineOfOffset(int offset) throws BadLocationException;
+
+	/**
+	 * Returns offset of first character of given line.
+	 *
+	 * @param line line to look up
+	 * @return start offset of line
+	 * @throws BadLocationException if there is no such line
+	 */
+	int getLineStartOffset(int line) throws BadLocationException;
+}
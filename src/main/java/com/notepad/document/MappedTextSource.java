@@ -0,0 +1,305 @@
+package com.notepad.document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+import javax.swing.text.Segment;
+
+/**
+ * {@link TextSource} over a memory mapped file. File is split into pages and only the pages
+ * that are read are decoded. UTF-8, UTF-16, UTF-32 and single byte charsets can be mapped, because
+ * their page boundaries can be placed between characters without decoding everything before them. A few recently used pages are cached, the rest of the file stays in the
+ * page cache of the operating system. While pages are found the text is also counted for a {@link BlockIndex},
+ * so it is decoded only once when the file is opened.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class MappedTextSource implements TextSource{
+
+	/**
+	 * Size of one page in bytes
+	 */
+	private static final int PAGE_SIZE = 1 << 16;
+
+	/**
+	 * Number of decoded pages kept on heap
+	 */
+	private static final int CACHED_PAGES = 32;
+
+	private final MappedByteBuffer buffer;
+
+	private final Path path;
+
+	private final Charset charset;
+
+	/**
+	 * What is done with bytes that are not valid in the charset
+	 */
+	private final CodingErrorAction errors;
+
+	/**
+	 * Number of bytes of one code unit, 1 for UTF-8 and single byte charsets
+	 */
+	private final int unitSize;
+
+	/**
+	 * Byte offset of every page, last entry is size of file
+	 */
+	private final int[] pageBytes;
+
+	/**
+	 * Char offset of every page, last entry is length of text
+	 */
+	private final int[] pageChars;
+
+	private final Map<Integer, char[]> cache;
+
+	/**
+	 * Counts of text taken while pages were found
+	 */
+	private final BlockIndex blockIndex;
+
+	private MappedTextSource(Path path, MappedByteBuffer buffer, int skip, Charset charset, CodingErrorAction errors,
+			IntConsumer progress, BooleanSupplier cancelled) throws IOException {
+		this.path = path;
+		this.buffer = buffer;
+		this.charset = charset;
+		this.errors = errors;
+		unitSize = unitSize(charset);
+
+		int size = buffer.capacity();
+		int pages = 0;
+		int[] bytes = new int[size / PAGE_SIZE + 2];
+		int[] chars = new int[size / PAGE_SIZE + 2];
+
+		//one pass to find where pages start and how many chars each has, no supported charset has more chars than bytes
+		blockIndex = new BlockIndex();
+		CharBuffer scratch = CharBuffer.allocate(PAGE_SIZE);
+		int start = skip;
+		long length = 0;
+		int percent = -1;
+		while(start < size) {
+			if(cancelled != null && cancelled.getAsBoolean())
+				throw new CancellationException("Reading was cancelled");
+
+			int end = pageEnd(start);
+
+			bytes[pages] = start;
+			chars[pages] = (int) length;
+			pages++;
+
+			scratch.clear();
+			decode(start, end, scratch);
+			blockIndex.add(scratch.array(), 0, scratch.position());
+			length += scratch.position();
+			if(length >= Integer.MAX_VALUE)
+				throw new IOException("File has too many characters");
+
+			int current = (int) ((long) end * 100 / size);
+			if(progress != null && current != percent) {
+				percent = current;
+				progress.accept(percent);
+			}
+
+			start = end;
+		}
+		bytes[pages] = Math.max(size, skip);
+		chars[pages] = (int) length;
+
+		pageBytes = Arrays.copyOf(bytes, pages + 1);
+		pageChars = Arrays.copyOf(chars, pages + 1);
+		blockIndex.setSource(this);
+
+		cache = new LinkedHashMap<>(CACHED_PAGES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+				return size() > CACHED_PAGES;
+			}
+		};
+	}
+
+	/**
+	 * Maps UTF-8 file on given path. File is indexed but not kept decoded.
+	 *
+	 * @param path path of UTF-8 file
+	 * @return source over the file
+	 * @throws IOException if file can not be mapped or is not valid UTF-8
+	 */
+	public static MappedTextSource open(Path path) throws IOException {
+		return open(path, TextEncoding.UTF_8, CodingErrorAction.REPORT, null, null);
+	}
+
+	/**
+	 * Maps file on given path. File is indexed but not kept decoded. Byte order mark is skipped if encoding has one.
+	 *
+	 * @param path path of file
+	 * @param encoding encoding of file, its charset must be supported by {@link #canMap(Charset)}
+	 * @param errors {@link CodingErrorAction#REPORT} to fail on invalid bytes, {@link CodingErrorAction#REPLACE} to replace them
+	 * @param progress receives percentage of indexed bytes, can be null
+	 * @param cancelled checked before every page is indexed, indexing stops if it returns true, can be null
+	 * @return source over the file
+	 * @throws IOException if file can not be mapped or is not valid in the charset and errors are reported
+	 * @throws CancellationException if indexing was cancelled
+	 */
+	public static MappedTextSource open(Path path, TextEncoding encoding, CodingErrorAction errors, IntConsumer progress,
+			BooleanSupplier cancelled) throws IOException {
+		if(!canMap(encoding.getCharset()))
+			throw new IOException("Files in " + encoding.getCharset().name() + " can not be mapped");
+
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size >= Integer.MAX_VALUE)
+				throw new IOException("File is too large to be mapped");
+
+			//mapping stays valid after channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int skip = (int) Math.min(encoding.getBomBytes().length, size);
+			return new MappedTextSource(path, buffer, skip, encoding.getCharset(), errors, progress, cancelled);
+		}
+	}
+
+	/**
+	 * Checks if files in given charset can be mapped.
+	 *
+	 * @param charset charset of file
+	 * @return true if charset is UTF-8, UTF-16, UTF-32 with known byte order or a single byte charset
+	 */
+	public static boolean canMap(Charset charset) {
+		return unitSize(charset) > 0;
+	}
+
+	/**
+	 * Returns size of code unit of charset, 0 if pages of charset can not be found.
+	 */
+	private static int unitSize(Charset charset) {
+		switch(charset.name()) {
+		case "UTF-8":
+			return 1;
+		case "UTF-16BE":
+		case "UTF-16LE":
+			return 2;
+		case "UTF-32BE":
+		case "UTF-32LE":
+			return 4;
+		}
+
+		//every byte is a character of its own
+		return charset.newDecoder().maxCharsPerByte() == 1 && charset.newEncoder().maxBytesPerChar() == 1 ? 1 : 0;
+	}
+
+	/**
+	 * Returns path of mapped file.
+	 *
+	 * @return path of file
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns counts of new lines and non-blank characters taken while file was opened.
+	 *
+	 * @return index of text
+	 */
+	BlockIndex getBlockIndex() {
+		return blockIndex;
+	}
+
+	@Override
+	public int length() {
+		return pageChars[pageChars.length - 1];
+	}
+
+	@Override
+	public void getChars(int offset, int length, Segment segment) {
+		int page = Arrays.binarySearch(pageChars, offset);
+		if(page < 0)
+			page = -page - 2;
+
+		char[] chars = page(page);
+		int inPage = offset - pageChars[page];
+
+		segment.array = chars;
+		segment.offset = inPage;
+		segment.count = Math.min(length, chars.length - inPage);
+	}
+
+	/**
+	 * Returns decoded page with given index.
+	 */
+	private synchronized char[] page(int page) {
+		char[] chars = cache.get(page);
+		if(chars != null)
+			return chars;
+
+		chars = new char[pageChars[page + 1] - pageChars[page]];
+		try {
+			decode(pageBytes[page], pageBytes[page + 1], CharBuffer.wrap(chars));
+		} catch(CharacterCodingException ex) {
+			//page was decoded without errors while indexing
+			throw new IllegalStateException("Mapped file was changed while it was open");
+		}
+
+		cache.put(page, chars);
+		return chars;
+	}
+
+	/**
+	 * Returns end of page that starts on start so that no character is split between pages.
+	 */
+	private int pageEnd(int start) {
+		int end = Math.min(start + PAGE_SIZE, buffer.capacity());
+		if(end == buffer.capacity())
+			return end;
+
+		//pages start on code units since page size is a multiple of unit size
+		if(unitSize == 2) {
+			//high surrogate stays with the low surrogate that follows it
+			int high = charset.name().equals("UTF-16BE") ? buffer.get(end - 2) : buffer.get(end - 1);
+			return (high & 0xFC) == 0xD8 ? end - 2 : end;
+		}
+		if(unitSize == 4 || !charset.name().equals("UTF-8"))
+			return end;
+
+		//continuation bytes of UTF-8 look like 10xxxxxx
+		int boundary = end;
+		while(boundary > start && (buffer.get(boundary) & 0xC0) == 0x80)
+			boundary--;
+
+		return boundary > start ? boundary : end;
+	}
+
+	private void decode(int start, int end, CharBuffer out) throws CharacterCodingException {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(errors)
+				.onUnmappableCharacter(errors);
+
+		ByteBuffer in = buffer.slice(start, end - start);
+		CoderResult result = decoder.decode(in, out, true);
+		if(!result.isUnderflow())
+			result.throwException();
+
+		result = decoder.flush(out);
+		if(!result.isUnderflow())
+			result.throwException();
+	}
+}
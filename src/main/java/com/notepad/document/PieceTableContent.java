@@ -0,0 +1,1420 @@
+package com.notepad.document;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * {@link AbstractDocument.Content} implemented as a piece table.
+ * Text is never moved once it is stored. The loaded text lives in an immutable original buffer
+ * and everything that is typed or pasted is appended to an add buffer. The document itself is a
+ * sequence of pieces (buffer, start, length) kept in a treap ordered by document offset, so
+ * inserts, removes and reads cost O(log pieces) and never copy the whole text.
+ * The original buffer is a {@link TextSource} so it does not have to be on heap.
+ *
+ * Every piece also knows how many new lines and non-blank characters it has. Counts are
+ * taken from a {@link BlockIndex} of its buffer and summed up the tree, so statistics of
+ * the whole text are always available in O(1) and stay right after edits and undo.
+ * The same counts make the content a {@link LineIndex} that answers line queries in O(log pieces).
+ *
+ * Like GapContent the content always ends with an implicit new line.
+ *
+ * Buffers of a document nobody looks at can be compacted into bytes by {@link #compact(boolean)}. Pieces
+ * and undo keep pointing to the same offsets, text is read through the compact buffers until the first
+ * edit or {@link #expand()} turns them back into arrays. Buffers of a big document can instead be moved
+ * off heap for good by {@link #moveOffHeap()}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class PieceTableContent implements AbstractDocument.Content, DocumentStatistics, LineIndex{
+
+	/**
+	 * Initial size of the add buffer
+	 */
+	private static final int INITIAL_ADD_CAPACITY = 64;
+
+	/**
+	 * Floor of a mark transform that does not clamp anything
+	 */
+	private static final int NO_FLOOR = Integer.MIN_VALUE;
+
+	private static final char[] EMPTY = new char[0];
+
+	private TextSource original;
+
+	/**
+	 * Add buffer, null while it is compacted or off heap
+	 */
+	private char[] addBuffer;
+
+	/**
+	 * Add buffer while it is compacted
+	 */
+	private CompactTextSource compactAdded;
+
+	/**
+	 * Add buffer while it is off heap
+	 */
+	private DirectTextSource directAdded;
+
+	private int addLength;
+
+	private BlockIndex originalIndex;
+
+	private BlockIndex addIndex;
+
+	/**
+	 * Add buffer as a source, array behind it changes when buffer grows
+	 */
+	private final TextSource added = new TextSource() {
+
+		@Override
+		public int length() {
+			return addLength;
+		}
+
+		@Override
+		public void getChars(int offset, int length, Segment segment) {
+			if(compactAdded != null) {
+				compactAdded.getChars(offset, length, segment);
+				return;
+			}
+			if(directAdded != null) {
+				directAdded.getChars(offset, length, segment);
+				return;
+			}
+
+			segment.array = addBuffer;
+			segment.offset = offset;
+			segment.count = length;
+		}
+	};
+
+	private Piece root;
+
+	private Mark marksRoot;
+
+	private ReferenceQueue<StickyPosition> deadMarks;
+
+	private int seed;
+
+	//results of the last split, used to avoid allocating pairs
+	private Piece splitLeft;
+
+	private Piece splitRight;
+
+	private Mark markLeft;
+
+	private Mark markRight;
+
+	/**
+	 * Creates empty content.
+	 */
+	public PieceTableContent() {
+		this(new char[0]);
+	}
+
+	/**
+	 * Creates content whose original buffer holds given text.
+	 *
+	 * @param text initial text
+	 */
+	public PieceTableContent(String text) {
+		this(text.toCharArray());
+	}
+
+	/**
+	 * Creates content whose original buffer is given array. Array is not copied and must not be changed afterwards.
+	 *
+	 * @param original initial text
+	 */
+	public PieceTableContent(char[] original) {
+		this(new ArrayTextSource(original));
+	}
+
+	/**
+	 * Creates content whose original buffer is given source.
+	 *
+	 * @param original source of initial text
+	 */
+	public PieceTableContent(TextSource original) {
+		this.original = original;
+		addBuffer = new char[INITIAL_ADD_CAPACITY];
+		deadMarks = new ReferenceQueue<>();
+		seed = (int) System.nanoTime() | 1;
+
+		//implicit new line at the end
+		addBuffer[0] = '\n';
+		addLength = 1;
+
+		//mapped file was counted while it was opened
+		originalIndex = original instanceof MappedTextSource ? ((MappedTextSource) original).getBlockIndex() : new BlockIndex(original);
+		addIndex = new BlockIndex(added);
+
+		Piece newLine = piece(true, 0, 1);
+		root = original.length() == 0 ? newLine : merge(piece(false, 0, original.length()), newLine);
+	}
+
+	@Override
+	public int length() {
+		return size(root);
+	}
+
+	/**
+	 * Returns number of characters without the implicit new line at the end.
+	 */
+	@Override
+	public int getCharacterCount() {
+		return length() - 1;
+	}
+
+	@Override
+	public int getNonBlankCount() {
+		return root.nonBlankCount;
+	}
+
+	/**
+	 * Returns number of lines, which is the number of new lines including the implicit one.
+	 */
+	@Override
+	public int getLineCount() {
+		return root.newlineCount;
+	}
+
+	@Override
+	public int getLineOfOffset(int offset) throws BadLocationException {
+		if(offset < 0 || offset >= length())
+			throw new BadLocationException("Can't translate offset to line", offset);
+
+		//line of offset is the number of new lines before it
+		int line = 0;
+		Piece t = root;
+		while(t != null) {
+			int leftSize = size(t.left);
+			if(offset < leftSize) {
+				t = t.left;
+				continue;
+			}
+
+			line += newlineCount(t.left);
+			if(offset < leftSize + t.length) {
+				int[] counts = new int[2];
+				(t.add ? addIndex : originalIndex).count(t.start, t.start + offset - leftSize, counts);
+				line += counts[0];
+				break;
+			}
+
+			line += t.newlines;
+			offset -= leftSize + t.length;
+			t = t.right;
+		}
+
+		return line;
+	}
+
+	@Override
+	public int getLineStartOffset(int line) throws BadLocationException {
+		if(line < 0 || line >= getLineCount())
+			throw new BadLocationException("No such line", line);
+
+		//line starts right after the line-th new line
+		int base = 0;
+		Piece t = root;
+		while(line > 0) {
+			int leftNewlines = newlineCount(t.left);
+			if(line <= leftNewlines) {
+				t = t.left;
+			}
+			else if(line <= leftNewlines + t.newlines) {
+				int end = (t.add ? addIndex : originalIndex).findNewline(t.start, t.start + t.length, line - leftNewlines);
+				return base + size(t.left) + end - t.start;
+			}
+			else {
+				line -= leftNewlines + t.newlines;
+				base += size(t.left) + t.length;
+				t = t.right;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns source of the original buffer.
+	 *
+	 * @return source of initial text
+	 */
+	public TextSource getOriginal() {
+		return original;
+	}
+
+	/**
+	 * Returns number of pieces the content consists of.
+	 *
+	 * @return number of pieces
+	 */
+	public int getPieceCount() {
+		return count(root);
+	}
+
+	/**
+	 * Returns immutable view of the first end characters. Buffers are never changed once written, so the view
+	 * only stores the current list of pieces and can then be read from any thread without locking.
+	 *
+	 * @param end number of characters in snapshot
+	 * @return snapshot of text
+	 */
+	public synchronized TextSource snapshot(int end) {
+		List<Piece> pieces = new ArrayList<>();
+		collect(root, 0, end, 0, pieces);
+
+		//off heap buffer is only appended to, so it can be read as it is
+		TextSource addSource = compactAdded != null ? compactAdded : directAdded != null ? directAdded.snapshot() : new ArrayTextSource(addBuffer);
+		return new Snapshot(pieces, addSource, shared(original));
+	}
+
+	/**
+	 * Returns source whose segments stay valid once the lock is released, off heap buffers reuse their arrays
+	 * for reads of the content.
+	 */
+	private static TextSource shared(TextSource source) {
+		return source instanceof DirectTextSource ? ((DirectTextSource) source).snapshot() : source;
+	}
+
+	/**
+	 * Stores buffers that are on heap as bytes, Latin-1 or UTF-8 per block and deflated if asked.
+	 * Buffers that are not on heap, like a mapped file, are left as they are.
+	 *
+	 * @param deflate should blocks also be deflated
+	 * @return number of bytes saved
+	 */
+	public long compact(boolean deflate) {
+		BufferSwap swap = prepareCompact(deflate);
+		if(swap == null)
+			return 0;
+
+		swap.build();
+		return swap.apply();
+	}
+
+	/**
+	 * Prepares compacting buffers without holding the lock while they are encoded. Returned swap is built on any
+	 * thread and then applied, it is applied only if buffers did not change in the meantime.
+	 *
+	 * @param deflate should blocks also be deflated
+	 * @return swap that compacts buffers, null if there is nothing to compact
+	 */
+	public synchronized BufferSwap prepareCompact(boolean deflate) {
+		if(addBuffer == null)
+			return null;
+
+		//written part of the add buffer never changes, appends go after it or into a copy
+		return new BufferSwap(true, deflate, original, new ArrayTextSource(addBuffer), addLength);
+	}
+
+	/**
+	 * Turns compacted buffers back into arrays.
+	 */
+	public void expand() {
+		BufferSwap swap = prepareExpand();
+		if(swap == null)
+			return;
+
+		swap.build();
+		swap.apply();
+	}
+
+	/**
+	 * Prepares turning compacted buffers back into arrays without holding the lock while they are decoded.
+	 *
+	 * @return swap that expands buffers, null if buffers are not compacted
+	 */
+	public synchronized BufferSwap prepareExpand() {
+		if(compactAdded == null)
+			return null;
+
+		return new BufferSwap(false, false, original, compactAdded, addLength);
+	}
+
+	/**
+	 * Returns true if buffers are compacted.
+	 *
+	 * @return is content compact
+	 */
+	public synchronized boolean isCompact() {
+		return compactAdded != null;
+	}
+
+	/**
+	 * Moves buffers out of the heap, into direct memory. Original buffer that is already not on heap, like
+	 * a mapped file, stays where it is. Buffers stay off heap for as long as the content lives.
+	 */
+	public synchronized void moveOffHeap() {
+		if(original instanceof ArrayTextSource || original instanceof CompactTextSource) {
+			original = new DirectTextSource(original, 0, original.length(), original.length());
+			originalIndex.setSource(original);
+		}
+		if(directAdded == null) {
+			directAdded = new DirectTextSource(added, 0, addLength, Math.max(addLength + addLength / 2, INITIAL_ADD_CAPACITY));
+			addBuffer = null;
+			compactAdded = null;
+		}
+	}
+
+	/**
+	 * Returns true if buffers are off heap.
+	 *
+	 * @return is content off heap
+	 */
+	public synchronized boolean isOffHeap() {
+		return directAdded != null;
+	}
+
+	/**
+	 * Returns number of bytes buffers take on heap, buffers that are mapped or off heap take none.
+	 *
+	 * @return size of buffers
+	 */
+	public synchronized long getBufferSize() {
+		long size = 0;
+		if(addBuffer != null)
+			size += 2L * addBuffer.length;
+		else if(compactAdded != null)
+			size += compactAdded.getByteSize();
+		if(original instanceof ArrayTextSource)
+			size += 2L * original.length();
+		else if(original instanceof CompactTextSource)
+			size += ((CompactTextSource) original).getByteSize();
+		return size;
+	}
+
+	@Override
+	public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+		if(where >= length() || where < 0)
+			throw new BadLocationException("Invalid insert", length());
+
+		int length = str.length();
+		if(length == 0)
+			return null;
+
+		removeDeadMarks();
+
+		//document that is edited again is not inactive anymore
+		if(compactAdded != null)
+			expand();
+
+		int start = addLength;
+		if(directAdded != null) {
+			directAdded.append(str);
+		}
+		else {
+			ensureAddCapacity(addLength + length);
+			str.getChars(0, length, addBuffer, addLength);
+		}
+		addLength += length;
+		addIndex.update();
+
+		//typing usually continues where last insert ended, so just extend that piece
+		if(!extendPiece(root, where, start, length)) {
+			split(root, where);
+			Piece left = splitLeft;
+			Piece right = splitRight;
+			root = merge(merge(left, piece(true, start, length)), right);
+		}
+
+		updateMarksForInsert(where, length);
+
+		return new InsertUndo(where, length);
+	}
+
+	@Override
+	public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+		if(where < 0 || nitems < 0 || where + nitems >= length())
+			throw new BadLocationException("Invalid remove", length() + 1);
+
+		if(nitems == 0)
+			return null;
+
+		removeDeadMarks();
+
+		SavedMarks marks = saveMarks(where, where + nitems);
+		Piece[] removed = cut(where, nitems);
+		updateMarksForRemove(where, nitems);
+
+		return new RemoveUndo(where, nitems, removed, marks);
+	}
+
+	/**
+	 * Returns pieces of text in [where, where + length), which stay valid whatever is edited afterwards.
+	 *
+	 * @param where start of text
+	 * @param length number of characters
+	 * @return range of text
+	 * @throws BadLocationException if text is not in content
+	 */
+	public synchronized Range getRange(int where, int length) throws BadLocationException {
+		if(where < 0 || length < 0 || where + length > length())
+			throw new BadLocationException("Invalid range", where);
+
+		List<Piece> pieces = new ArrayList<>();
+		collect(root, where, where + length, 0, pieces);
+		return new Range(this, pieces);
+	}
+
+	/**
+	 * Inserts text of range on offset where. Only pieces are inserted, buffers stay as they are.
+	 *
+	 * @param where offset of insert
+	 * @param range text to insert, taken from this content
+	 * @return edit that undoes the insert, null if range is empty
+	 * @throws BadLocationException if where is not in content
+	 */
+	public synchronized UndoableEdit insertRange(int where, Range range) throws BadLocationException {
+		if(where >= length() || where < 0)
+			throw new BadLocationException("Invalid insert", length());
+		if(range.length() == 0)
+			return null;
+		if(range.owner != this)
+			throw new IllegalArgumentException("Range is not from this content");
+
+		removeDeadMarks();
+
+		//document that is edited again is not inactive anymore
+		if(compactAdded != null)
+			expand();
+
+		Piece[] pieces = new Piece[range.starts.length];
+		for(int i = 0; i < pieces.length; i++) {
+			int start = range.starts[i];
+			int pieceStart = i == 0 ? 0 : range.ends[i - 1];
+			pieces[i] = new Piece(start < 0, start < 0 ? -start - 1 : start, range.ends[i] - pieceStart, 0);
+		}
+		paste(where, pieces, range.length());
+
+		return new InsertUndo(where, range.length());
+	}
+
+	@Override
+	public String getString(int where, int len) throws BadLocationException {
+		Segment s = new Segment();
+		getChars(where, len, s);
+
+		return new String(s.array, s.offset, s.count);
+	}
+
+	/**
+	 * Fills given segment with text. If text lies in a single piece segment points directly
+	 * into the buffer, otherwise text is copied unless segment allows partial return in which
+	 * case only the first piece is returned.
+	 */
+	@Override
+	public void getChars(int where, int len, Segment txt) throws BadLocationException {
+		if(where < 0 || len < 0 || where + len > length())
+			throw new BadLocationException("Invalid location", length() + 1);
+
+		//find the piece where is in
+		Piece t = root;
+		int offset = where;
+		while(t != null) {
+			int leftSize = size(t.left);
+			if(offset < leftSize) {
+				t = t.left;
+			}
+			else if(offset < leftSize + t.length) {
+				offset -= leftSize;
+				break;
+			}
+			else {
+				offset -= leftSize + t.length;
+				t = t.right;
+			}
+		}
+
+		if(t == null) {
+			txt.array = EMPTY;
+			txt.offset = 0;
+			txt.count = 0;
+			return;
+		}
+
+		read(t, offset, Math.min(len, t.length - offset), txt);
+		if(txt.count == len || txt.isPartialReturn())
+			return;
+
+		char[] copy = new char[len];
+		copy(root, where, where + len, copy, 0, new Segment());
+		txt.array = copy;
+		txt.offset = 0;
+		txt.count = len;
+	}
+
+	@Override
+	public synchronized Position createPosition(int offset) throws BadLocationException {
+		removeDeadMarks();
+
+		//positions are mostly created in increasing order, for example while lines are built
+		Mark last = marksRoot;
+		while(last != null && last.right != null) {
+			push(last);
+			last = last.right;
+		}
+		push(last);
+
+		if(last == null || last.value < offset) {
+			StickyPosition position = new StickyPosition();
+			Mark mark = new Mark(position, offset, nextPriority(), deadMarks);
+			position.mark = mark;
+			marksRoot = mergeMarks(marksRoot, mark);
+			return position;
+		}
+
+		splitMarks(marksRoot, offset);
+		Mark left = markLeft;
+		Mark right = markRight;
+
+		//reuse mark that is already on this offset
+		Mark first = right;
+		while(first != null && first.left != null) {
+			push(first);
+			first = first.left;
+		}
+		push(first);
+
+		StickyPosition position = first != null && first.value == offset ? first.get() : null;
+		if(position == null) {
+			position = new StickyPosition();
+			Mark mark = new Mark(position, offset, nextPriority(), deadMarks);
+			position.mark = mark;
+			right = mergeMarks(mark, right);
+		}
+
+		marksRoot = mergeMarks(left, right);
+
+		return position;
+	}
+
+	/**
+	 * Copies characters in [from, to) of subtree t, whose first character is on offset base, into destination.
+	 */
+	private void copy(Piece t, int from, int to, char[] destination, int base, Segment scratch) {
+		if(t == null || from >= base + t.size || to <= base)
+			return;
+
+		copy(t.left, from, to, destination, base, scratch);
+
+		int pieceStart = base + size(t.left);
+		int start = Math.max(from, pieceStart);
+		int end = Math.min(to, pieceStart + t.length);
+		while(start < end) {
+			read(t, start - pieceStart, end - start, scratch);
+			System.arraycopy(scratch.array, scratch.offset, destination, start - from, scratch.count);
+			start += scratch.count;
+		}
+
+		copy(t.right, from, to, destination, pieceStart + t.length, scratch);
+	}
+
+	/**
+	 * Points segment to at most length characters of piece starting on offset inside piece.
+	 */
+	private void read(Piece t, int offset, int length, Segment segment) {
+		(t.add ? added : original).getChars(t.start + offset, length, segment);
+	}
+
+	/**
+	 * Creates new piece with counted new lines and non-blank characters.
+	 */
+	private Piece piece(boolean add, int start, int length) {
+		Piece piece = new Piece(add, start, length, nextPriority());
+		countText(piece);
+		update(piece);
+		return piece;
+	}
+
+	/**
+	 * Counts new lines and non-blank characters of the piece itself.
+	 */
+	private void countText(Piece t) {
+		int[] counts = new int[2];
+		(t.add ? addIndex : originalIndex).count(t.start, t.start + t.length, counts);
+		t.newlines = counts[0];
+		t.nonBlank = counts[1];
+	}
+
+	/**
+	 * Collects copies of pieces in [from, to) of subtree t, whose first character is on offset base.
+	 */
+	private void collect(Piece t, int from, int to, int base, List<Piece> pieces) {
+		if(t == null || from >= base + t.size || to <= base)
+			return;
+
+		collect(t.left, from, to, base, pieces);
+
+		int pieceStart = base + size(t.left);
+		int start = Math.max(from, pieceStart);
+		int end = Math.min(to, pieceStart + t.length);
+		if(start < end)
+			pieces.add(new Piece(t.add, t.start + start - pieceStart, end - start, 0));
+
+		collect(t.right, from, to, pieceStart + t.length, pieces);
+	}
+
+	/**
+	 * Removes [where, where + length) from the table and returns removed pieces.
+	 */
+	private Piece[] cut(int where, int length) {
+		List<Piece> removed = new ArrayList<>();
+		collect(root, where, where + length, 0, removed);
+
+		split(root, where);
+		Piece left = splitLeft;
+		split(splitRight, length);
+		root = merge(left, splitRight);
+
+		return removed.toArray(new Piece[0]);
+	}
+
+	/**
+	 * Inserts copies of given pieces on offset where.
+	 */
+	private void paste(int where, Piece[] pieces, int length) {
+		Piece inserted = null;
+		for(Piece piece : pieces)
+			inserted = merge(inserted, piece(piece.add, piece.start, piece.length));
+
+		split(root, where);
+		Piece right = splitRight;
+		root = merge(merge(splitLeft, inserted), right);
+
+		updateMarksForInsert(where, length);
+	}
+
+	/**
+	 * Extends piece that ends on where if it is the last piece of add buffer.
+	 *
+	 * @return true if piece was extended
+	 */
+	private boolean extendPiece(Piece t, int where, int start, int length) {
+		if(t == null)
+			return false;
+
+		int leftSize = size(t.left);
+		boolean extended;
+		if(where <= leftSize) {
+			extended = extendPiece(t.left, where, start, length);
+		}
+		else if(where < leftSize + t.length) {
+			return false;
+		}
+		else if(where == leftSize + t.length && t.add && t.start + t.length == start) {
+			t.length += length;
+			countText(t);
+			extended = true;
+		}
+		else {
+			extended = extendPiece(t.right, where - leftSize - t.length, start, length);
+		}
+
+		if(extended)
+			update(t);
+
+		return extended;
+	}
+
+	/**
+	 * Splits subtree t so that splitLeft holds first k characters and splitRight the rest.
+	 */
+	private void split(Piece t, int k) {
+		if(t == null) {
+			splitLeft = null;
+			splitRight = null;
+			return;
+		}
+
+		int leftSize = size(t.left);
+		if(k <= leftSize) {
+			split(t.left, k);
+			t.left = splitRight;
+			update(t);
+			splitRight = t;
+		}
+		else if(k >= leftSize + t.length) {
+			split(t.right, k - leftSize - t.length);
+			t.right = splitLeft;
+			update(t);
+			splitLeft = t;
+		}
+		else {
+			//k is inside this piece so the piece has to be cut in two
+			int offset = k - leftSize;
+			Piece tail = piece(t.add, t.start + offset, t.length - offset);
+			Piece right = t.right;
+
+			t.length = offset;
+			t.right = null;
+			countText(t);
+			update(t);
+
+			splitLeft = t;
+			splitRight = merge(tail, right);
+		}
+	}
+
+	private Piece merge(Piece a, Piece b) {
+		if(a == null)
+			return b;
+		if(b == null)
+			return a;
+
+		if(a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		}
+
+		b.left = merge(a, b.left);
+		update(b);
+		return b;
+	}
+
+	private void ensureAddCapacity(int capacity) {
+		if(capacity <= addBuffer.length)
+			return;
+
+		//old array is not changed anymore, so segments that point to it stay valid
+		char[] newBuffer = new char[Math.max(capacity, addBuffer.length * 2)];
+		System.arraycopy(addBuffer, 0, newBuffer, 0, addLength);
+		addBuffer = newBuffer;
+	}
+
+	private int nextPriority() {
+		//xorshift
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+
+	private static int size(Piece t) {
+		return t == null ? 0 : t.size;
+	}
+
+	private static int count(Piece t) {
+		return t == null ? 0 : t.count;
+	}
+
+	private static int newlineCount(Piece t) {
+		return t == null ? 0 : t.newlineCount;
+	}
+
+	private static int nonBlankCount(Piece t) {
+		return t == null ? 0 : t.nonBlankCount;
+	}
+
+	private static void update(Piece t) {
+		t.size = size(t.left) + t.length + size(t.right);
+		t.count = count(t.left) + 1 + count(t.right);
+		t.newlineCount = newlineCount(t.left) + t.newlines + newlineCount(t.right);
+		t.nonBlankCount = nonBlankCount(t.left) + t.nonBlank + nonBlankCount(t.right);
+	}
+
+	/**
+	 * Marks at or after where move forward, except the ones at offset 0.
+	 */
+	private void updateMarksForInsert(int where, int length) {
+		splitMarks(marksRoot, where == 0 ? 1 : where);
+		Mark left = markLeft;
+		Mark right = markRight;
+		applyTag(right, length, NO_FLOOR);
+		marksRoot = mergeMarks(left, right);
+	}
+
+	/**
+	 * Marks inside removed range collapse to where, marks after it move back.
+	 */
+	private void updateMarksForRemove(int where, int length) {
+		splitMarks(marksRoot, where);
+		Mark left = markLeft;
+		Mark right = markRight;
+		applyTag(right, -length, where);
+		marksRoot = mergeMarks(left, right);
+	}
+
+	/**
+	 * Removes marks whose positions were garbage collected.
+	 */
+	private void removeDeadMarks() {
+		Object reference;
+		while((reference = deadMarks.poll()) != null)
+			detachMark((Mark) reference);
+	}
+
+	/**
+	 * Takes single mark out of the treap.
+	 */
+	private void detachMark(Mark mark) {
+		//push pending transforms from root down to the mark
+		List<Mark> path = new ArrayList<>();
+		for(Mark m = mark; m != null; m = m.parent)
+			path.add(m);
+		for(int i = path.size() - 1; i >= 0; i--)
+			push(path.get(i));
+
+		Mark replacement = mergeMarks(mark.left, mark.right);
+		Mark parent = mark.parent;
+		if(replacement != null)
+			replacement.parent = parent;
+
+		if(parent == null)
+			marksRoot = replacement;
+		else if(parent.left == mark)
+			parent.left = replacement;
+		else
+			parent.right = replacement;
+
+		mark.left = mark.right = mark.parent = null;
+	}
+
+	/**
+	 * Remembers offsets of live marks in [from, to]. Edits collapse such marks, undoing or redoing the edit
+	 * puts them back with {@link #restoreMarks(SavedMarks)}, same as {@link javax.swing.text.GapContent} does.
+	 */
+	private SavedMarks saveMarks(int from, int to) {
+		splitMarks(marksRoot, from);
+		Mark left = markLeft;
+		splitMarks(markRight, to + 1);
+		Mark middle = markLeft;
+		Mark right = markRight;
+
+		SavedMarks saved = new SavedMarks();
+		collectMarks(middle, saved);
+
+		marksRoot = mergeMarks(mergeMarks(left, middle), right);
+		return saved;
+	}
+
+	private void collectMarks(Mark t, SavedMarks saved) {
+		if(t == null)
+			return;
+
+		push(t);
+		collectMarks(t.left, saved);
+		if(t.get() != null)
+			saved.add(t);
+		collectMarks(t.right, saved);
+	}
+
+	/**
+	 * Moves saved marks that are still alive back to their saved offsets.
+	 */
+	private void restoreMarks(SavedMarks saved) {
+		for(int i = 0; i < saved.count; i++) {
+			Mark mark = saved.marks[i];
+			if(mark.get() == null)
+				continue;
+
+			detachMark(mark);
+			mark.value = saved.offsets[i];
+
+			splitMarks(marksRoot, mark.value);
+			Mark right = markRight;
+			marksRoot = mergeMarks(mergeMarks(markLeft, mark), right);
+		}
+	}
+
+	/**
+	 * Splits marks so that markLeft holds marks before key and markRight the rest.
+	 */
+	private void splitMarks(Mark t, int key) {
+		splitMarksRecursive(t, key);
+		if(markLeft != null)
+			markLeft.parent = null;
+		if(markRight != null)
+			markRight.parent = null;
+	}
+
+	private void splitMarksRecursive(Mark t, int key) {
+		if(t == null) {
+			markLeft = null;
+			markRight = null;
+			return;
+		}
+
+		push(t);
+		if(t.value < key) {
+			splitMarksRecursive(t.right, key);
+			t.right = markLeft;
+			if(markLeft != null)
+				markLeft.parent = t;
+			markLeft = t;
+		}
+		else {
+			splitMarksRecursive(t.left, key);
+			t.left = markRight;
+			if(markRight != null)
+				markRight.parent = t;
+			markRight = t;
+		}
+	}
+
+	private Mark mergeMarks(Mark a, Mark b) {
+		if(a == null)
+			return b;
+		if(b == null)
+			return a;
+
+		if(a.priority > b.priority) {
+			push(a);
+			a.right = mergeMarks(a.right, b);
+			a.right.parent = a;
+			a.parent = null;
+			return a;
+		}
+
+		push(b);
+		b.left = mergeMarks(a, b.left);
+		b.left.parent = b;
+		b.parent = null;
+		return b;
+	}
+
+	/**
+	 * Applies x -> max(x + add, floor) to every mark in subtree t.
+	 */
+	private static void applyTag(Mark t, int add, int floor) {
+		if(t == null)
+			return;
+
+		t.value = Math.max(t.value + add, floor);
+		t.tagFloor = t.tagFloor == NO_FLOOR ? floor : Math.max(t.tagFloor + add, floor);
+		t.tagAdd += add;
+	}
+
+	private static void push(Mark t) {
+		if(t == null || (t.tagAdd == 0 && t.tagFloor == NO_FLOOR))
+			return;
+
+		applyTag(t.left, t.tagAdd, t.tagFloor);
+		applyTag(t.right, t.tagAdd, t.tagFloor);
+		t.tagAdd = 0;
+		t.tagFloor = NO_FLOOR;
+	}
+
+	/**
+	 * One piece of the table, also a node of the treap.
+	 */
+	private static final class Piece {
+		final boolean add;
+		int start;
+		int length;
+		final int priority;
+		Piece left;
+		Piece right;
+
+		/**
+		 * Number of characters in this subtree
+		 */
+		int size;
+
+		/**
+		 * Number of pieces in this subtree
+		 */
+		int count;
+
+		/**
+		 * New lines and non-blank characters in this piece
+		 */
+		int newlines;
+		int nonBlank;
+
+		/**
+		 * New lines and non-blank characters in this subtree
+		 */
+		int newlineCount;
+		int nonBlankCount;
+
+		Piece(boolean add, int start, int length, int priority) {
+			this.add = add;
+			this.start = start;
+			this.length = length;
+			this.priority = priority;
+			size = length;
+			count = 1;
+		}
+	}
+
+	/**
+	 * Immutable list of pieces over buffers that are never changed.
+	 */
+	private static final class Snapshot implements TextSource {
+		private final int[] offsets;
+		private final int[] starts;
+		private final TextSource[] sources;
+
+		Snapshot(List<Piece> pieces, TextSource added, TextSource original) {
+			offsets = new int[pieces.size() + 1];
+			starts = new int[pieces.size()];
+			sources = new TextSource[pieces.size()];
+
+			for(int i = 0; i < pieces.size(); i++) {
+				Piece piece = pieces.get(i);
+				starts[i] = piece.start;
+				sources[i] = piece.add ? added : original;
+				offsets[i + 1] = offsets[i] + piece.length;
+			}
+		}
+
+		@Override
+		public int length() {
+			return offsets[offsets.length - 1];
+		}
+
+		@Override
+		public void getChars(int offset, int length, Segment segment) {
+			int piece = Arrays.binarySearch(offsets, offset);
+			if(piece < 0)
+				piece = -piece - 2;
+
+			int inPiece = offset - offsets[piece];
+			sources[piece].getChars(starts[piece] + inPiece, Math.min(length, offsets[piece + 1] - offset), segment);
+		}
+	}
+
+	/**
+	 * Text that was in the table kept as a list of pieces instead of the characters themselves. Buffers are only
+	 * ever appended to, so a range can be read and inserted again for as long as its table lives.
+	 */
+	public static final class Range implements TextSource {
+
+		/**
+		 * Range without text
+		 */
+		public static final Range EMPTY = new Range(null, new ArrayList<>());
+
+		private final PieceTableContent owner;
+
+		/**
+		 * Start of every piece in its buffer, pieces of add buffer are stored as -start - 1
+		 */
+		private final int[] starts;
+
+		/**
+		 * Offset in range right after every piece
+		 */
+		private final int[] ends;
+
+		private Range(PieceTableContent owner, List<Piece> pieces) {
+			this.owner = owner;
+			starts = new int[pieces.size()];
+			ends = new int[pieces.size()];
+
+			int end = 0;
+			for(int i = 0; i < starts.length; i++) {
+				Piece piece = pieces.get(i);
+				starts[i] = piece.add ? -piece.start - 1 : piece.start;
+				end += piece.length;
+				ends[i] = end;
+			}
+		}
+
+		private Range(PieceTableContent owner, int[] starts, int[] ends) {
+			this.owner = owner;
+			this.starts = starts;
+			this.ends = ends;
+		}
+
+		@Override
+		public int length() {
+			return ends.length == 0 ? 0 : ends[ends.length - 1];
+		}
+
+		@Override
+		public void getChars(int offset, int length, Segment segment) {
+			int piece = Arrays.binarySearch(ends, offset);
+			piece = piece < 0 ? -piece - 1 : piece + 1;
+
+			int pieceStart = piece == 0 ? 0 : ends[piece - 1];
+			int start = starts[piece];
+			synchronized(owner) {
+				TextSource source = start < 0 ? owner.directAdded != null ? owner.directAdded : owner.added : owner.original;
+				shared(source).getChars((start < 0 ? -start - 1 : start) + offset - pieceStart, Math.min(length, ends[piece] - offset), segment);
+			}
+		}
+
+		/**
+		 * Returns range with text of this range followed by text of other range.
+		 *
+		 * @param other range of the same table
+		 * @return joined range
+		 */
+		public Range append(Range other) {
+			if(other.length() == 0)
+				return this;
+			if(length() == 0)
+				return other;
+
+			int[] joinedStarts = Arrays.copyOf(starts, starts.length + other.starts.length);
+			int[] joinedEnds = Arrays.copyOf(ends, ends.length + other.ends.length);
+			int end = length();
+			for(int i = 0; i < other.starts.length; i++) {
+				joinedStarts[starts.length + i] = other.starts[i];
+				joinedEnds[ends.length + i] = end + other.ends[i];
+			}
+			return new Range(owner, joinedStarts, joinedEnds);
+		}
+
+		/**
+		 * Returns estimate of bytes range takes on heap, text itself is not counted because buffers hold it.
+		 *
+		 * @return size of range
+		 */
+		public long getMemorySize() {
+			return this == EMPTY ? 0 : 24 + 2 * (16 + 4L * starts.length);
+		}
+	}
+
+	/**
+	 * Node of the treap of marks. Marks are ordered by offset and moved by lazily applied transforms
+	 * so that an edit updates all marks after it in O(log marks).
+	 */
+	private static final class Mark extends WeakReference<StickyPosition> {
+		int value;
+		final int priority;
+		Mark left;
+		Mark right;
+		Mark parent;
+
+		/**
+		 * Pending transform x -> max(x + tagAdd, tagFloor) for children
+		 */
+		int tagAdd;
+		int tagFloor = NO_FLOOR;
+
+		Mark(StickyPosition position, int value, int priority, ReferenceQueue<StickyPosition> queue) {
+			super(position, queue);
+			this.value = value;
+			this.priority = priority;
+		}
+
+		int offset() {
+			int offset = value;
+			for(Mark m = parent; m != null; m = m.parent) {
+				offset += m.tagAdd;
+				if(m.tagFloor != NO_FLOOR)
+					offset = Math.max(offset, m.tagFloor);
+			}
+
+			return offset;
+		}
+	}
+
+	/**
+	 * Marks and their offsets before an edit moved them.
+	 */
+	private static final class SavedMarks {
+		Mark[] marks = new Mark[4];
+		int[] offsets = new int[4];
+		int count;
+
+		void add(Mark mark) {
+			if(count == marks.length) {
+				marks = Arrays.copyOf(marks, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+
+			marks[count] = mark;
+			offsets[count] = mark.value;
+			count++;
+		}
+	}
+
+	private static final class StickyPosition implements Position {
+		Mark mark;
+
+		@Override
+		public int getOffset() {
+			return mark.offset();
+		}
+
+		@Override
+		public String toString() {
+			return Integer.toString(getOffset());
+		}
+	}
+
+	/**
+	 * Undoable edit for insert. Undo only removes inserted pieces because text itself stays in add buffer.
+	 */
+	private final class InsertUndo extends AbstractUndoableEdit {
+		private static final long serialVersionUID = 1L;
+
+		private final int where;
+
+		private final int length;
+
+		private Piece[] pieces;
+
+		private SavedMarks marks;
+
+		InsertUndo(int where, int length) {
+			this.where = where;
+			this.length = length;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			synchronized(PieceTableContent.this) {
+				removeDeadMarks();
+				marks = saveMarks(where, where + length);
+				pieces = cut(where, length);
+				updateMarksForRemove(where, length);
+			}
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			synchronized(PieceTableContent.this) {
+				removeDeadMarks();
+				paste(where, pieces, length);
+				restoreMarks(marks);
+				pieces = null;
+				marks = null;
+			}
+		}
+	}
+
+	/**
+	 * Undoable edit for remove. Stores only removed pieces and not the removed text.
+	 */
+	private final class RemoveUndo extends AbstractUndoableEdit {
+		private static final long serialVersionUID = 1L;
+
+		private final int where;
+
+		private final int length;
+
+		private Piece[] pieces;
+
+		private SavedMarks marks;
+
+		RemoveUndo(int where, int length, Piece[] pieces, SavedMarks marks) {
+			this.where = where;
+			this.length = length;
+			this.pieces = pieces;
+			this.marks = marks;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			synchronized(PieceTableContent.this) {
+				removeDeadMarks();
+				paste(where, pieces, length);
+				restoreMarks(marks);
+				pieces = null;
+				marks = null;
+			}
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			synchronized(PieceTableContent.this) {
+				removeDeadMarks();
+				marks = saveMarks(where, where + length);
+				pieces = cut(where, length);
+				updateMarksForRemove(where, length);
+			}
+		}
+	}
+	/**
+	 * Compacted or expanded copy of buffers that is built outside of the lock. Copy replaces buffers only if
+	 * they are still the ones it was built from, so an edit made while it was built wins.
+	 */
+	public final class BufferSwap {
+
+		private final boolean compact;
+
+		private final boolean deflate;
+
+		private final TextSource fromOriginal;
+
+		private final TextSource fromAdded;
+
+		private final int fromAddLength;
+
+		private TextSource builtOriginal;
+
+		private CompactTextSource builtCompactAdded;
+
+		private char[] builtAddBuffer;
+
+		private BufferSwap(boolean compact, boolean deflate, TextSource original, TextSource added, int addLength) {
+			this.compact = compact;
+			this.deflate = deflate;
+			fromOriginal = original;
+			fromAdded = added;
+			fromAddLength = addLength;
+		}
+
+		/**
+		 * Encodes or decodes buffers, can be called from any thread.
+		 */
+		public void build() {
+			if(compact) {
+				if(fromOriginal instanceof ArrayTextSource)
+					builtOriginal = new CompactTextSource(fromOriginal, 0, fromOriginal.length(), deflate);
+				builtCompactAdded = new CompactTextSource(fromAdded, 0, fromAddLength, deflate);
+			}
+			else {
+				if(fromOriginal instanceof CompactTextSource)
+					builtOriginal = new ArrayTextSource(((CompactTextSource) fromOriginal).toCharArray());
+				char[] buffer = ((CompactTextSource) fromAdded).toCharArray();
+				builtAddBuffer = Arrays.copyOf(buffer, Math.max(buffer.length + buffer.length / 2, INITIAL_ADD_CAPACITY));
+			}
+		}
+
+		/**
+		 * Replaces buffers with the built copy if they did not change since the swap was prepared.
+		 *
+		 * @return number of bytes saved, negative when buffers were expanded, 0 if nothing was replaced
+		 */
+		public long apply() {
+			synchronized(PieceTableContent.this) {
+				boolean current = original == fromOriginal && addLength == fromAddLength
+						&& (compact ? addBuffer != null : compactAdded == fromAdded);
+				if(!current || (builtCompactAdded == null && builtAddBuffer == null))
+					return 0;
+
+				long before = getBufferSize();
+				if(builtOriginal != null) {
+					original = builtOriginal;
+					originalIndex.setSource(original);
+				}
+				if(compact) {
+					compactAdded = builtCompactAdded;
+					addBuffer = null;
+				}
+				else {
+					addBuffer = builtAddBuffer;
+					compactAdded = null;
+				}
+				return before - getBufferSize();
+			}
+		}
+	}
+}
@@ -0,0 +1,679 @@
+package com.notepad.document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.tree.TreeNode;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * {@link PlainDocument} over content that can already contain text when the document is created.
+ * Lines of a piece table are not kept as elements, the root element finds them in the {@link LineIndex} of the content
+ * and creates an element for a line only when it is asked for. Loading a file therefore neither goes through
+ * insertString nor reads the text, which stays in the original buffer of {@link PieceTableContent}.
+ * Edits of a document over a piece table are recorded in its {@link EditHistory}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class PieceTableDocument extends PlainDocument{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of line elements the root element keeps
+	 */
+	private static final int KEPT_LINES = 1024;
+
+	/**
+	 * History of edits, null if document was created over other content
+	 */
+	private final EditHistory history;
+
+	/**
+	 * Creates empty document.
+	 */
+	public PieceTableDocument() {
+		this(new PieceTableContent());
+	}
+
+	/**
+	 * Creates document over given content.
+	 *
+	 * @param content content of document
+	 */
+	public PieceTableDocument(AbstractDocument.Content content) {
+		super(content);
+		history = content instanceof PieceTableContent ? new EditHistory(this) : null;
+	}
+
+	/**
+	 * Returns undo and redo history of this document.
+	 *
+	 * @return history of edits, null if document was created over other content
+	 */
+	public EditHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Returns piece table that holds text of this document.
+	 *
+	 * @return piece table, null if document was created over other content
+	 */
+	public PieceTableContent getPieceTable() {
+		Content content = getContent();
+		return content instanceof PieceTableContent ? (PieceTableContent) content : null;
+	}
+
+	/**
+	 * Returns immutable snapshot of the text of this document that can be read from other threads.
+	 *
+	 * @return snapshot of text
+	 */
+	public TextSource snapshot() {
+		readLock();
+		try {
+			PieceTableContent pieceTable = getPieceTable();
+			if(pieceTable != null)
+				return pieceTable.snapshot(getLength());
+
+			return new ArrayTextSource(getContent().getString(0, getLength()).toCharArray());
+		} catch(BadLocationException ex) {
+			throw new RuntimeException("Error while reading document content");
+		}
+		finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Replaces length characters at offset with text as one change. Unlike {@link #replace(int, int, String, javax.swing.text.AttributeSet)},
+	 * which removes and then inserts, listeners get a single {@link DocumentEvent.EventType#CHANGE} event
+	 * and undo listeners get a single edit, so a large replacement is laid out and repainted once.
+	 * Carets do not move on a change event, so callers have to place the caret of every text component showing
+	 * the document after the replacement, otherwise it can be left past the end of a document that got shorter.
+	 *
+	 * @param offset start of replaced range
+	 * @param length number of replaced characters
+	 * @param text replacement text
+	 * @throws BadLocationException if range is not in document
+	 */
+	public void bulkReplace(int offset, int length, String text) throws BadLocationException {
+		if(length == 0 && text.isEmpty())
+			return;
+
+		//bidirectional text needs the element structure AbstractDocument keeps up to date on insert and remove,
+		//lines of other content than a piece table are plain elements
+		if(Boolean.TRUE.equals(getProperty("i18n")) || !(getDefaultRootElement() instanceof LineMap)) {
+			replace(offset, length, text, null);
+			return;
+		}
+
+		writeLock();
+		try {
+			if(offset < 0 || length < 0 || offset + length > getLength())
+				throw new BadLocationException("Invalid range", offset);
+
+			if(history != null)
+				history.replacing(offset, length, text.length());
+			Content content = getContent();
+			replaceLines(offset, length, text.length(), () -> content.insertString(offset, text));
+		}
+		finally {
+			writeUnlock();
+		}
+	}
+
+	/**
+	 * Replaces length characters at offset with text of range, which is only a list of pieces, for undo and redo.
+	 * Insert and remove are plain events, replacement is one {@link DocumentEvent.EventType#CHANGE} event.
+	 */
+	void restore(int offset, int length, PieceTableContent.Range text) throws BadLocationException {
+		if(text.length() == 0) {
+			remove(offset, length);
+			return;
+		}
+
+		if(Boolean.TRUE.equals(getProperty("i18n"))) {
+			replace(offset, length, getRangeText(text), null);
+			return;
+		}
+
+		writeLock();
+		try {
+			if(offset < 0 || length < 0 || offset + length > getLength())
+				throw new BadLocationException("Invalid range", offset);
+
+			PieceTableContent pieceTable = getPieceTable();
+			if(length > 0) {
+				replaceLines(offset, length, text.length(), () -> pieceTable.insertRange(offset, text));
+				return;
+			}
+
+			DefaultDocumentEvent event = new DefaultDocumentEvent(offset, text.length(), DocumentEvent.EventType.INSERT);
+			event.addEdit(pieceTable.insertRange(offset, text));
+			insertUpdate(event, null);
+			event.end();
+
+			fireInsertUpdate(event);
+			fireUndoableEditUpdate(new UndoableEditEvent(this, event));
+		}
+		finally {
+			writeUnlock();
+		}
+	}
+
+	/**
+	 * Removes and inserts text as one step of history.
+	 */
+	@Override
+	public void replace(int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
+		if(history == null) {
+			super.replace(offset, length, text, attrs);
+			return;
+		}
+
+		history.setReplacing(true);
+		try {
+			super.replace(offset, length, text, attrs);
+		}
+		finally {
+			history.setReplacing(false);
+		}
+	}
+
+	/**
+	 * Called after text is inserted into content, while lines are being updated the root element still shows the
+	 * lines from before the insert.
+	 */
+	@Override
+	protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+		Element root = getDefaultRootElement();
+		if(root instanceof LineMap)
+			((LineMap) root).inserting(chng.getOffset(), chng.getLength());
+		try {
+			super.insertUpdate(chng, attr);
+		}
+		finally {
+			if(root instanceof LineMap)
+				((LineMap) root).inserted();
+		}
+		if(history != null)
+			history.inserted(chng.getOffset(), chng.getLength());
+	}
+
+	/**
+	 * Called before text is removed from content, so history can still take pieces of it.
+	 */
+	@Override
+	protected void removeUpdate(DefaultDocumentEvent chng) {
+		if(history != null)
+			history.removing(chng.getOffset(), chng.getLength());
+
+		//PlainDocument would ask for an element of every removed line
+		Element root = getDefaultRootElement();
+		int offset = chng.getOffset();
+		if(root instanceof LineMap && root.getElementIndex(offset) != root.getElementIndex(offset + chng.getLength())) {
+			LineMap map = (LineMap) root;
+			int first = map.getElementIndex(offset);
+			int linesStart = map.getLineStart(first);
+			int linesEnd = map.getLineEnd(map.getElementIndex(offset + chng.getLength()));
+
+			Element[] removed = createLines(map, linesStart, linesEnd);
+			Element[] added = { createLeafElement(map, null, linesStart, linesEnd) };
+			map.replace(first, removed.length, added);
+			chng.addEdit(new ElementEdit(map, first, removed, added));
+			return;
+		}
+		super.removeUpdate(chng);
+	}
+
+	/**
+	 * Removes length characters at offset and inserts textLength characters there with insert, firing one change event.
+	 * Caller holds the write lock and has checked the range.
+	 */
+	private void replaceLines(int offset, int length, int textLength, ContentInsert insert) throws BadLocationException {
+		LineMap root = (LineMap) getDefaultRootElement();
+		//positions at offset move with inserted text so line ending there is built again too
+		int first = root.getElementIndex(textLength == 0 ? offset : Math.max(offset - 1, 0));
+		int last = root.getElementIndex(offset + length);
+		int linesStart = root.getLineStart(first);
+		int linesEnd = root.getLineEnd(last);
+
+		//lines touched by the range are described before the text changes and again from the new text
+		Element[] removed = createLines(root, linesStart, linesEnd);
+		root.forget(linesStart, linesEnd);
+
+		DefaultDocumentEvent event = new DefaultDocumentEvent(offset, textLength, DocumentEvent.EventType.CHANGE);
+		if(length > 0)
+			event.addEdit(getContent().remove(offset, length));
+		if(textLength > 0)
+			event.addEdit(insert.insert());
+
+		Element[] added = createLines(root, linesStart, linesEnd - length + textLength);
+		event.addEdit(new ElementEdit(root, first, removed, added));
+		event.end();
+
+		fireChangedUpdate(event);
+		fireUndoableEditUpdate(new UndoableEditEvent(this, event));
+	}
+
+	/**
+	 * Returns characters of range as a string.
+	 */
+	private static String getRangeText(PieceTableContent.Range range) {
+		char[] text = new char[range.length()];
+		Segment segment = new Segment();
+		for(int offset = 0; offset < text.length; offset += segment.count) {
+			range.getChars(offset, text.length - offset, segment);
+			System.arraycopy(segment.array, segment.offset, text, offset, segment.count);
+		}
+		return new String(text);
+	}
+
+	/**
+	 * Inserts text into content for a replacement.
+	 */
+	private interface ContentInsert {
+		UndoableEdit insert() throws BadLocationException;
+	}
+
+	/**
+	 * Creates root element over the lines of a piece table, other content gets one line element for each line
+	 * already stored in it.
+	 */
+	@Override
+	protected AbstractElement createDefaultRoot() {
+		Content content = getContent();
+		if(content instanceof LineIndex)
+			return new LineMap((LineIndex) content);
+
+		BranchElement map = (BranchElement) createBranchElement(null, null);
+		map.replace(0, 0, createLines(map, 0, content.length()));
+		return map;
+	}
+
+	/**
+	 * Creates line elements for text in [start, end), end has to be right after a new line. Lines of a {@link LineMap}
+	 * are given as the elements it keeps or as detached lines, so a change of many lines does not create an element
+	 * with positions for each of them.
+	 */
+	private Element[] createLines(Element root, int start, int end) {
+		Content content = getContent();
+
+		List<Element> lines = new ArrayList<>();
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
+
+		int lineStart = start;
+		int offset = start;
+		try {
+			while(offset < end) {
+				content.getChars(offset, end - offset, segment);
+				for(int i = 0; i < segment.count; i++) {
+					if(segment.array[segment.offset + i] == '\n') {
+						lines.add(root instanceof LineMap ? ((LineMap) root).peek(lineStart, offset + i + 1)
+								: createLeafElement(root, null, lineStart, offset + i + 1));
+						lineStart = offset + i + 1;
+					}
+				}
+				offset += segment.count;
+			}
+		} catch(BadLocationException ex) {
+			throw new RuntimeException("Error while reading document content");
+		}
+
+		return lines.toArray(new Element[0]);
+	}
+
+	/**
+	 * Root element whose lines are found in the {@link LineIndex} of content. An element is created for a line when it
+	 * is asked for and the most recently used ones are kept, so a line that is shown or edited stays the same element.
+	 * Kept elements are sorted by their start, which their positions keep up to date, and the elements of lines that
+	 * are replaced are forgotten. Readers can ask for lines at the same time, so kept elements are used synchronized.
+	 */
+	private final class LineMap extends BranchElement {
+		private static final long serialVersionUID = 1L;
+
+		private final LineIndex lines;
+
+		private Element[] kept;
+
+		/**
+		 * When each kept element was last used
+		 */
+		private long[] used;
+
+		private int size;
+
+		private long time;
+
+		/**
+		 * Offset of insert that content already has but lines do not, -1 if there is none
+		 */
+		private int insertOffset;
+
+		private int insertLength;
+
+		private int insertNewlines;
+
+		/**
+		 * Line that had the insert before the insert
+		 */
+		private int insertLine;
+
+		/**
+		 * Was insert at the start of a line, whose start then moved past the inserted text
+		 */
+		private boolean insertAtStart;
+
+		LineMap(LineIndex lines) {
+			super(null, null);
+			this.lines = lines;
+			kept = new Element[KEPT_LINES];
+			used = new long[KEPT_LINES];
+			insertOffset = -1;
+		}
+
+		/**
+		 * Starts showing lines from before an insert of length characters at offset, which content already has.
+		 */
+		void inserting(int offset, int length) {
+			int line = lineOf(offset);
+			insertNewlines = lineOf(offset + length) - line;
+			insertAtStart = offset > 0 && lineStart(line) == offset;
+			insertLine = insertAtStart ? line - 1 : line;
+			insertLength = length;
+			insertOffset = offset;
+		}
+
+		/**
+		 * Shows lines of content again once lines were updated for the insert.
+		 */
+		void inserted() {
+			insertOffset = -1;
+		}
+
+		/**
+		 * Returns start of line.
+		 */
+		int getLineStart(int line) {
+			if(insertOffset < 0 || line <= insertLine)
+				return lineStart(line);
+			if(insertAtStart && line == insertLine + 1)
+				return insertOffset + insertLength;
+			return lineStart(line + insertNewlines);
+		}
+
+		/**
+		 * Returns end of line, which is right after its new line.
+		 */
+		int getLineEnd(int line) {
+			return line + 1 < getElementCount() ? getLineStart(line + 1) : getEndOffset();
+		}
+
+		/**
+		 * Returns the element kept for line in [start, end) or a detached line with these offsets.
+		 */
+		synchronized Element peek(int start, int end) {
+			int i = lowerBound(start);
+			if(i < size && kept[i].getStartOffset() == start && kept[i].getEndOffset() == end)
+				return kept[i];
+			return new DetachedLine(this, start, end);
+		}
+
+		/**
+		 * Forgets elements of lines that start in [start, end).
+		 */
+		synchronized void forget(int start, int end) {
+			int from = lowerBound(start);
+			int to = lowerBound(end);
+			System.arraycopy(kept, to, kept, from, size - to);
+			System.arraycopy(used, to, used, from, size - to);
+			Arrays.fill(kept, size - (to - from), size, null);
+			size -= to - from;
+		}
+
+		@Override
+		public int getStartOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getEndOffset() {
+			return getContent().length();
+		}
+
+		@Override
+		public int getElementCount() {
+			int count = lines.getLineCount();
+			return insertOffset < 0 ? count : count - insertNewlines;
+		}
+
+		@Override
+		public synchronized Element getElement(int index) {
+			if(index < 0 || index >= getElementCount())
+				return null;
+
+			int start = getLineStart(index);
+			int end = getLineEnd(index);
+			int i = lowerBound(start);
+			if(i < size && kept[i].getStartOffset() == start) {
+				if(kept[i].getEndOffset() == end) {
+					used[i] = ++time;
+					return kept[i];
+				}
+				forget(start, start + 1);
+			}
+
+			Element line = createLeafElement(this, null, start, end);
+			keep(line);
+			return line;
+		}
+
+		@Override
+		public int getElementIndex(int offset) {
+			if(offset <= 0)
+				return 0;
+			if(offset >= getEndOffset())
+				return getElementCount() - 1;
+
+			if(insertOffset < 0 || offset < insertOffset)
+				return lineOf(offset);
+			if(offset < insertOffset + insertLength)
+				return insertLine;
+			return lineOf(offset) - insertNewlines;
+		}
+
+		@Override
+		public Element positionToElement(int pos) {
+			Element line = getElement(getElementIndex(pos));
+			return line.getStartOffset() <= pos && pos < line.getEndOffset() ? line : null;
+		}
+
+		/**
+		 * Lines are read from content, so only the elements of replaced lines are forgotten and the new ones are kept.
+		 */
+		@Override
+		public synchronized void replace(int offset, int length, Element[] elems) {
+			if(length > 0)
+				forget(getLineStart(offset), getLineEnd(offset + length - 1));
+			insertOffset = -1;
+
+			if(elems.length <= KEPT_LINES / 2) {
+				for(Element line : elems) {
+					if(!(line instanceof DetachedLine))
+						keep(line);
+				}
+			}
+		}
+
+		@Override
+		public Enumeration<TreeNode> children() {
+			return new Enumeration<>() {
+				private int next;
+
+				@Override
+				public boolean hasMoreElements() {
+					return next < getElementCount();
+				}
+
+				@Override
+				public TreeNode nextElement() {
+					return (TreeNode) getElement(next++);
+				}
+			};
+		}
+
+		@Override
+		public int getIndex(TreeNode node) {
+			if(!(node instanceof Element))
+				return -1;
+
+			int index = getElementIndex(((Element) node).getStartOffset());
+			return getElement(index) == node ? index : -1;
+		}
+
+		private void keep(Element line) {
+			if(size == kept.length)
+				evict();
+
+			int i = lowerBound(line.getStartOffset());
+			System.arraycopy(kept, i, kept, i + 1, size - i);
+			System.arraycopy(used, i, used, i + 1, size - i);
+			kept[i] = line;
+			used[i] = ++time;
+			size++;
+		}
+
+		/**
+		 * Forgets elements that were not used lately, at least half of them.
+		 */
+		private void evict() {
+			long limit = time - kept.length / 2;
+			int n = 0;
+			for(int i = 0; i < size; i++) {
+				if(used[i] > limit) {
+					kept[n] = kept[i];
+					used[n] = used[i];
+					n++;
+				}
+			}
+			Arrays.fill(kept, n, size, null);
+			size = n;
+		}
+
+		/**
+		 * Returns index of the first kept element that starts at offset or after it.
+		 */
+		private int lowerBound(int offset) {
+			int low = 0;
+			int high = size;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(kept[middle].getStartOffset() < offset)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+
+		private int lineOf(int offset) {
+			try {
+				return lines.getLineOfOffset(offset);
+			} catch(BadLocationException ex) {
+				throw new RuntimeException("Error while reading document content");
+			}
+		}
+
+		private int lineStart(int line) {
+			try {
+				return lines.getLineStartOffset(line);
+			} catch(BadLocationException ex) {
+				throw new RuntimeException("Error while reading document content");
+			}
+		}
+	}
+
+	/**
+	 * Line element with fixed offsets. Changes of many lines describe lines that are not kept by a {@link LineMap}
+	 * with these, elements of the lines as they are now can be taken from the root element.
+	 */
+	private final class DetachedLine implements Element {
+
+		private final Element parent;
+
+		private final int start;
+
+		private final int end;
+
+		DetachedLine(Element parent, int start, int end) {
+			this.parent = parent;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Document getDocument() {
+			return PieceTableDocument.this;
+		}
+
+		@Override
+		public Element getParentElement() {
+			return parent;
+		}
+
+		@Override
+		public String getName() {
+			return ContentElementName;
+		}
+
+		@Override
+		public AttributeSet getAttributes() {
+			return SimpleAttributeSet.EMPTY;
+		}
+
+		@Override
+		public int getStartOffset() {
+			return start;
+		}
+
+		@Override
+		public int getEndOffset() {
+			return end;
+		}
+
+		@Override
+		public int getElementIndex(int offset) {
+			return -1;
+		}
+
+		@Override
+		public int getElementCount() {
+			return 0;
+		}
+
+		@Override
+		public Element getElement(int index) {
+			return null;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.notepad.document;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Charset of a file together with whether the file starts with a byte order mark.
+ * Documents remember encoding they were read with so they are written back the same way.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class TextEncoding {
+
+	/**
+	 * UTF-8 without byte order mark
+	 */
+	public static final TextEncoding UTF_8 = new TextEncoding(StandardCharsets.UTF_8, false);
+
+	private final Charset charset;
+
+	private final boolean bom;
+
+	/**
+	 * Creates encoding.
+	 *
+	 * @param charset charset of text
+	 * @param bom does text start with a byte order mark
+	 */
+	public TextEncoding(Charset charset, boolean bom) {
+		this.charset = Objects.requireNonNull(charset);
+		this.bom = bom;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public boolean hasBom() {
+		return bom;
+	}
+
+	/**
+	 * Returns byte order mark written at the start of text, empty if encoding has none.
+	 *
+	 * @return bytes of byte order mark
+	 */
+	public byte[] getBomBytes() {
+		if(!bom)
+			return new byte[0];
+
+		return "\uFEFF".getBytes(charset);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj)
+			return true;
+		if(!(obj instanceof TextEncoding))
+			return false;
+
+		TextEncoding other = (TextEncoding) obj;
+		return charset.equals(other.charset) && bom == other.bom;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(charset, bom);
+	}
+
+	@Override
+	public String toString() {
+		return bom ? charset.name() + " BOM" : charset.name();
+	}
+}
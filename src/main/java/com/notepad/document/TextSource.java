@@ -0,0 +1,30 @@
+package com.notepad.document;
+
+import javax.swing.text.Segment;
+
+/**
+ * Read only source of text used as the original buffer of {@link PieceTableContent}.
+ * Text can be stored in any way as long as it can be read in runs of characters.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public interface TextSource {
+
+	/**
+	 * Returns number of characters in this source.
+	 *
+	 * @return number of characters
+	 */
+	int length();
+
+	/**
+	 * Points segment to characters starting at offset. At least one and at most length characters are returned,
+	 * returned run can be shorter if text is not stored contiguously. Returned array must not be modified.
+	 *
+	 * @param offset offset of first character
+	 * @param length maximum number of characters to return
+	 * @param segment segment to fill
+	 */
+	void getChars(int offset, int length, Segment segment);
+}
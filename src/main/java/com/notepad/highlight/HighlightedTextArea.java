@@ -0,0 +1,140 @@
+package com.notepad.highlight;
+
+import java.awt.event.ActionEvent;
+
+import javax.swing.ActionMap;
+import javax.swing.JTextArea;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.TextAction;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+
+/**
+ * {@link JTextArea} that draws tokens of its document in their colors. Lines are lexed while they are painted,
+ * starting from the states a {@link SyntaxHighlighter} keeps for them. Long lines are measured and drawn only where
+ * they are visible, wrapped or not, so that scrolling and typing do not get slower as lines get longer. Documents
+ * with bidirectional text are drawn like in a plain text area.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class HighlightedTextArea extends JTextArea{
+	private static final long serialVersionUID = 1L;
+
+	private static final String SELECT_LINE_ACTION = "select-line";
+
+	private transient SyntaxHighlighter highlighter;
+
+	/**
+	 * Creates text area showing document of highlighter.
+	 *
+	 * @param highlighter highlighter of document
+	 */
+	public HighlightedTextArea(SyntaxHighlighter highlighter) {
+		this.highlighter = highlighter;
+		//views are created again now that highlighter is known
+		setDocument(highlighter.getDocument());
+
+		//default actions find the start and the end of a row by going through all of its characters
+		ActionMap actions = getActionMap();
+		actions.put(DefaultEditorKit.beginLineAction, new RowAction(DefaultEditorKit.beginLineAction, true, false));
+		actions.put(DefaultEditorKit.endLineAction, new RowAction(DefaultEditorKit.endLineAction, false, true));
+		actions.put(DefaultEditorKit.selectionBeginLineAction, new RowAction(DefaultEditorKit.selectionBeginLineAction, true, true));
+		actions.put(DefaultEditorKit.selectionEndLineAction, new RowAction(DefaultEditorKit.selectionEndLineAction, false, true));
+		actions.put(SELECT_LINE_ACTION, new RowAction(SELECT_LINE_ACTION, true, true));
+	}
+
+	/**
+	 * Returns highlighter of shown document.
+	 *
+	 * @return highlighter
+	 */
+	public SyntaxHighlighter getSyntaxHighlighter() {
+		return highlighter;
+	}
+
+	@Override
+	public void updateUI() {
+		setUI(new BasicTextAreaUI() {
+
+			@Override
+			public View create(Element elem) {
+				if(highlighter == null || Boolean.TRUE.equals(elem.getDocument().getProperty("i18n")))
+					return super.create(elem);
+
+				return new HighlightedView(elem, highlighter, getLineWrap(), getWrapStyleWord());
+			}
+		});
+	}
+
+	/**
+	 * Returns start of row with position.
+	 */
+	private int getRowStart(int pos) throws BadLocationException {
+		HighlightedView view = getHighlightedView();
+		return view != null ? view.getRowStart(pos) : Utilities.getRowStart(this, pos);
+	}
+
+	/**
+	 * Returns end of row with position.
+	 */
+	private int getRowEnd(int pos) throws BadLocationException {
+		HighlightedView view = getHighlightedView();
+		return view != null ? view.getRowEnd(pos) : Utilities.getRowEnd(this, pos);
+	}
+
+	private HighlightedView getHighlightedView() {
+		View root = getUI().getRootView(this);
+		if(root.getViewCount() == 0)
+			return null;
+
+		View view = root.getView(0);
+		return view instanceof HighlightedView ? (HighlightedView) view : null;
+	}
+
+	/**
+	 * Moves caret to the start or the end of row, or selects the whole row.
+	 */
+	private static final class RowAction extends TextAction{
+		private static final long serialVersionUID = 1L;
+
+		private final boolean begin;
+
+		private final boolean select;
+
+		private RowAction(String name, boolean begin, boolean select) {
+			super(name);
+			this.begin = begin;
+			this.select = select;
+		}
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			JTextComponent target = getTextComponent(e);
+			if(!(target instanceof HighlightedTextArea))
+				return;
+
+			HighlightedTextArea area = (HighlightedTextArea) target;
+			try {
+				int dot = area.getCaretPosition();
+				if(SELECT_LINE_ACTION.equals(getValue(NAME))) {
+					area.setCaretPosition(area.getRowStart(dot));
+					area.moveCaretPosition(area.getRowEnd(dot));
+					return;
+				}
+
+				int pos = begin ? area.getRowStart(dot) : area.getRowEnd(dot);
+				if(select)
+					area.moveCaretPosition(pos);
+				else
+					area.setCaretPosition(pos);
+			} catch(BadLocationException ex) {
+				area.getToolkit().beep();
+			}
+		}
+	}
+}
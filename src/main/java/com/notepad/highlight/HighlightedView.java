@@ -0,0 +1,828 @@
+package com.notepad.highlight;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.SwingConstants;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * View of all lines of a plain text document that draws tokens in their colors and does only as much work as the
+ * visible part of the document needs. Unlike {@link javax.swing.text.PlainView}, which measures a whole line to paint
+ * it, to place the caret in it and after every edit of the longest line, a long line is measured once in runs of
+ * characters that are kept in {@link LineRuns}, and only its visible part is drawn. Wrapped lines are broken into
+ * rows only as far as rows are needed, rows of the other lines are estimated in {@link LineCounts}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class HighlightedView extends View implements TabExpander{
+
+	/**
+	 * Lines with more characters are measured in runs and drawn only where they are visible
+	 */
+	static final int LONG_LINE = 2 * LineRuns.RUN;
+
+	private final SyntaxHighlighter highlighter;
+
+	private final boolean wrap;
+
+	private final boolean wordWrap;
+
+	private final Segment segment;
+
+	private Font font;
+
+	private FontMetrics metrics;
+
+	private int lineHeight;
+
+	private float charWidth;
+
+	private float tabSize;
+
+	/**
+	 * Where x of measured text is in its row, text far in a long line is measured from 0 so that it keeps precision
+	 */
+	private double tabBase;
+
+	/**
+	 * Runs of long lines, measured when a line is first needed
+	 */
+	private final Map<Element, LineRuns> runs;
+
+	/**
+	 * Row starts of wrapped lines, broken into rows when a line is first needed
+	 */
+	private final Map<Element, Rows> rows;
+
+	/**
+	 * Rows of every line, null while lines are not wrapped or width is not known
+	 */
+	private LineCounts index;
+
+	private float wrapWidth;
+
+	/**
+	 * Number of characters of every line, line with most characters is the longest one and its width is preferred
+	 * width of unwrapped view
+	 */
+	private LineCounts lengths;
+
+	/**
+	 * Width of the longest line, -1 if it has to be measured again
+	 */
+	private float longestWidth;
+
+	/**
+	 * Widest line painted, lines with tabs can be wider than the longest one
+	 */
+	private float widest;
+
+	private Color unselected;
+
+	private Color selected;
+
+	/**
+	 * Creates view of lines of a document.
+	 *
+	 * @param elem root element of document
+	 * @param highlighter highlighter of document
+	 * @param wrap are lines wrapped
+	 * @param wordWrap are wrapped lines broken between words
+	 */
+	HighlightedView(Element elem, SyntaxHighlighter highlighter, boolean wrap, boolean wordWrap) {
+		super(elem);
+		this.highlighter = highlighter;
+		this.wrap = wrap;
+		this.wordWrap = wordWrap;
+		segment = new Segment();
+		runs = new WeakHashMap<>();
+		rows = new WeakHashMap<>();
+		longestWidth = -1;
+	}
+
+	@Override
+	public float getPreferredSpan(int axis) {
+		if(!updateMetrics())
+			return 0;
+
+		if(axis == X_AXIS) {
+			//wrapped lines are as wide as the view
+			if(wrap)
+				return wrapWidth > 0 && wrapWidth < Integer.MAX_VALUE ? wrapWidth : 100;
+
+			if(longestWidth < 0)
+				longestWidth = getLineWidth(getElement().getElement(lengths.getLargest()));
+			return Math.max(longestWidth, widest);
+		}
+
+		int count = index != null ? index.getTotal() : getElement().getElementCount();
+		return (float) count * lineHeight;
+	}
+
+	/**
+	 * Wrapped lines are broken into rows again when width of view changes.
+	 */
+	@Override
+	public void setSize(float width, float height) {
+		if(!wrap || (int) width == (int) wrapWidth || width <= 0 || !updateMetrics())
+			return;
+
+		wrapWidth = width;
+		rows.clear();
+		estimateRows();
+		preferenceChanged(null, false, true);
+	}
+
+	@Override
+	public void paint(Graphics g, Shape a) {
+		if(!updateMetrics())
+			return;
+
+		Rectangle alloc = a.getBounds();
+		JTextComponent host = (JTextComponent) getContainer();
+		Highlighter h = host.getHighlighter();
+		LayeredHighlighter layered = h instanceof LayeredHighlighter ? (LayeredHighlighter) h : null;
+		Caret caret = host.getCaret();
+		unselected = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+		selected = caret.isSelectionVisible() && h != null ? host.getSelectedTextColor() : unselected;
+		int sel0 = host.getSelectionStart();
+		int sel1 = host.getSelectionEnd();
+
+		Rectangle clip = g.getClipBounds();
+		if(clip == null)
+			clip = alloc;
+		float left = clip.x - alloc.x;
+		float right = left + clip.width;
+		int firstRow = Math.max(0, (clip.y - alloc.y) / lineHeight);
+		int lastRow = (clip.y + clip.height - alloc.y - 1) / lineHeight;
+
+		Element root = getElement();
+		int lineCount = root.getElementCount();
+		int line = firstRow;
+		int row = 0;
+		if(index != null) {
+			line = index.getLineAt(firstRow);
+			row = firstRow - index.getSumBefore(line);
+		}
+
+		//text is drawn relative to the view so tab stops are the same as when text is measured
+		Graphics2D text = (Graphics2D) g.create();
+		text.translate(alloc.x, alloc.y);
+		text.setFont(font);
+		try {
+			for(int r = firstRow; r <= lastRow && line < lineCount; ) {
+				Element elem = root.getElement(line);
+				int start = elem.getStartOffset();
+				int end = elem.getEndOffset() - 1;
+				if(index == null) {
+					paintRow(g, text, a, layered, line, elem, start, end, r * lineHeight, left, right, sel0, sel1);
+					r++;
+				}
+				else {
+					Rows lineRows = getRows(elem, line);
+					//end of a row is known when the next row is
+					for(ensureRow(lineRows, elem, line, row + 1); row < lineRows.valid && r <= lastRow; ensureRow(lineRows, elem, line, ++row + 1)) {
+						int p0 = start + lineRows.starts[row];
+						int p1 = row + 1 < lineRows.valid ? start + lineRows.starts[row + 1] : end;
+						paintRow(g, text, a, layered, line, elem, p0, p1, r * lineHeight, left, right, sel0, sel1);
+						r++;
+					}
+				}
+				line++;
+				row = 0;
+			}
+		} catch(BadLocationException ex) {
+			throw new RuntimeException("Error while reading document");
+		}
+		finally {
+			text.dispose();
+		}
+	}
+
+	/**
+	 * Paints characters of line in [p0, p1) that are between left and right on one row.
+	 */
+	private void paintRow(Graphics g, Graphics2D text, Shape a, LayeredHighlighter layered, int line, Element elem, int p0, int p1,
+			int top, float left, float right, int sel0, int sel1) throws BadLocationException {
+		double x = 0;
+		boolean whole = true;
+		if(index == null && p1 - p0 > LONG_LINE) {
+			int start = elem.getStartOffset();
+			LineRuns lineRuns = getRuns(elem);
+			int visible0 = start + lineRuns.offsetAt(start, left, false);
+			int visible1 = Math.min(p1, start + lineRuns.offsetAt(start, right, false) + 1);
+			x = lineRuns.xAt(start, visible0 - start);
+			whole = visible0 == p0 && visible1 == p1;
+			p0 = visible0;
+			p1 = visible1;
+		}
+
+		if(layered != null)
+			layered.paintLayeredHighlights(g, p0, p1, a, (JTextComponent) getContainer(), this);
+
+		float y = top + metrics.getAscent();
+		if(sel0 == sel1 || selected == unselected) {
+			x = drawUnselectedText(text, x, y, p0, p1, line);
+		}
+		else {
+			int s0 = Math.max(p0, Math.min(sel0, p1));
+			int s1 = Math.max(p0, Math.min(sel1, p1));
+			x = drawUnselectedText(text, x, y, p0, s0, line);
+			x = drawText(text, x, y, s0, s1, selected);
+			x = drawUnselectedText(text, x, y, s1, p1, line);
+		}
+
+		//lines with tabs can be wider than the longest one
+		if(whole && index == null && x > widest) {
+			float preferred = getPreferredSpan(X_AXIS);
+			widest = (float) x;
+			if(x > preferred)
+				preferenceChanged(null, true, false);
+		}
+	}
+
+	/**
+	 * Draws text that is not selected, tokens in their colors.
+	 */
+	private double drawUnselectedText(Graphics2D g, double x, float y, int p0, int p1, int line) throws BadLocationException {
+		if(p0 >= p1)
+			return x;
+
+		SyntaxHighlighter.LineTokens tokens = getContainer().isEnabled() ? highlighter.getTokens(line) : null;
+		if(tokens == null)
+			return drawText(g, x, y, p0, p1, unselected);
+
+		int at = p0;
+		for(int i = 0; i < tokens.count && at < p1; i++) {
+			int start = Math.max(tokens.starts[i], at);
+			int end = Math.min(tokens.ends[i], p1);
+			if(start >= end)
+				continue;
+
+			x = drawText(g, x, y, at, start, unselected);
+			Color color = tokens.types[i].getColor();
+			x = drawText(g, x, y, start, end, color == null ? unselected : color);
+			at = end;
+		}
+		return drawText(g, x, y, at, p1, unselected);
+	}
+
+	private double drawText(Graphics2D g, double x, float y, int p0, int p1, Color color) throws BadLocationException {
+		if(p0 >= p1)
+			return x;
+
+		int base = (int) x;
+		g.setColor(color);
+		g.translate(base, 0);
+		tabBase = base;
+		try {
+			return base + Utilities.drawTabbedText(getText(p0, p1), (float) (x - base), y, g, this, p0);
+		}
+		finally {
+			tabBase = 0;
+			g.translate(-base, 0);
+		}
+	}
+
+	@Override
+	public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+		if(pos < 0 || pos > getDocument().getLength())
+			throw new BadLocationException("Position is not in document", pos);
+		if(!updateMetrics())
+			return null;
+
+		Rectangle alloc = a.getBounds();
+		Element root = getElement();
+		int line = root.getElementIndex(pos);
+		Element elem = root.getElement(line);
+		int start = elem.getStartOffset();
+
+		int row = line;
+		int rowStart = start;
+		if(index != null) {
+			Rows lineRows = getRows(elem, line);
+			int inLine = getRowOf(lineRows, elem, line, pos - start);
+			//position between two rows is at the end of the first one when it is before its character
+			if(b == Position.Bias.Backward && inLine > 0 && lineRows.starts[inLine] == pos - start)
+				inLine--;
+			row = index.getSumBefore(line) + inLine;
+			rowStart = start + lineRows.starts[inLine];
+		}
+
+		double x = index == null && getLength(elem) > LONG_LINE ? getRuns(elem).xAt(start, pos - start) : measure(rowStart, pos, 0);
+		return new Rectangle(alloc.x + (int) x, alloc.y + row * lineHeight, 1, lineHeight);
+	}
+
+	@Override
+	public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+		bias[0] = Position.Bias.Forward;
+		if(!updateMetrics())
+			return 0;
+
+		Rectangle alloc = a.getBounds();
+		if(fy < alloc.y)
+			return getStartOffset();
+
+		Element root = getElement();
+		int row = (int) ((fy - alloc.y) / lineHeight);
+		int total = index != null ? index.getTotal() : root.getElementCount();
+		if(row >= total)
+			return getEndOffset() - 1;
+
+		int line = index != null ? index.getLineAt(row) : row;
+		Element elem = root.getElement(line);
+		int start = elem.getStartOffset();
+		int end = elem.getEndOffset() - 1;
+		float x = fx - alloc.x;
+		if(index == null) {
+			if(x <= 0)
+				return start;
+			if(end - start > LONG_LINE)
+				return Math.min(start + getRuns(elem).offsetAt(start, x, true), end);
+			return Math.min(start + offsetAt(start, end, 0, x, true), end);
+		}
+
+		//estimated rows of line can be more than it really has
+		Rows lineRows = getRows(elem, line);
+		int inLine = row - index.getSumBefore(line);
+		ensureRow(lineRows, elem, line, inLine + 1);
+		inLine = Math.min(inLine, lineRows.valid - 1);
+		int p0 = start + lineRows.starts[inLine];
+		boolean last = inLine + 1 == lineRows.valid;
+		int p1 = last ? end : start + lineRows.starts[inLine + 1];
+		if(x <= 0)
+			return p0;
+		//end of a row that is not the last one is before its last character, like in a wrapped text area
+		int offset = p0 + offsetAt(p0, p1, 0, x, false);
+		return Math.min(offset, last ? end : p1 - 1);
+	}
+
+	/**
+	 * Moves up and down from row to row without going through the characters of rows like views usually do.
+	 */
+	@Override
+	public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction, Position.Bias[] biasRet)
+			throws BadLocationException {
+		if(pos == -1 || a == null || (direction != SwingConstants.NORTH && direction != SwingConstants.SOUTH))
+			return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+
+		Shape shape = modelToView(pos, a, b);
+		if(shape == null)
+			return pos;
+
+		Rectangle r = shape.getBounds();
+		Caret caret = ((JTextComponent) getContainer()).getCaret();
+		Point magic = caret != null ? caret.getMagicCaretPosition() : null;
+		int x = magic != null ? magic.x : r.x;
+		int y = direction == SwingConstants.NORTH ? r.y - lineHeight : r.y + lineHeight;
+
+		Rectangle alloc = a.getBounds();
+		biasRet[0] = Position.Bias.Forward;
+		if(y < alloc.y)
+			return getStartOffset();
+		if(y >= alloc.y + getPreferredSpan(Y_AXIS))
+			return pos;
+		return viewToModel(x, y + lineHeight / 2f, a, biasRet);
+	}
+
+	/**
+	 * Returns first position of row with position.
+	 *
+	 * @param pos position in document
+	 * @return start of row
+	 */
+	int getRowStart(int pos) {
+		Element root = getElement();
+		int line = root.getElementIndex(pos);
+		Element elem = root.getElement(line);
+		if(index == null || !updateMetrics())
+			return elem.getStartOffset();
+
+		Rows lineRows = getRows(elem, line);
+		return elem.getStartOffset() + lineRows.starts[getRowOf(lineRows, elem, line, pos - elem.getStartOffset())];
+	}
+
+	/**
+	 * Returns last position of row with position, before the new line or before the first character of the next row.
+	 *
+	 * @param pos position in document
+	 * @return end of row
+	 */
+	int getRowEnd(int pos) {
+		Element root = getElement();
+		int line = root.getElementIndex(pos);
+		Element elem = root.getElement(line);
+		if(index == null || !updateMetrics())
+			return elem.getEndOffset() - 1;
+
+		Rows lineRows = getRows(elem, line);
+		int row = getRowOf(lineRows, elem, line, pos - elem.getStartOffset());
+		ensureRow(lineRows, elem, line, row + 1);
+		if(row + 1 == lineRows.valid)
+			return elem.getEndOffset() - 1;
+		return elem.getStartOffset() + lineRows.starts[row + 1] - 1;
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+		update(e, a);
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+		update(e, a);
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+		update(e, a);
+	}
+
+	/**
+	 * Measures again only what the edit changed.
+	 */
+	private void update(DocumentEvent e, Shape a) {
+		boolean measured = lengths != null;
+		if(!updateMetrics()) {
+			//edit is missed, everything is measured again once view is in a component
+			lengths = null;
+			font = null;
+			return;
+		}
+
+		Component host = getContainer();
+		if(!measured) {
+			//lines were just counted with the edit already in them
+			preferenceChanged(null, true, true);
+			host.repaint();
+			return;
+		}
+
+		Element root = getElement();
+		DocumentEvent.ElementChange change = e.getChange(root);
+		if(change != null) {
+			for(Element removed : change.getChildrenRemoved()) {
+				runs.remove(removed);
+				rows.remove(removed);
+			}
+			//added elements can describe lines that root creates only when asked, so lines are taken from root
+			Element[] added = change.getChildrenAdded();
+			int[] addedLengths = new int[added.length];
+			for(int i = 0; i < added.length; i++)
+				addedLengths[i] = getLength(added[i]);
+			lengths.replace(change.getIndex(), change.getChildrenRemoved().length, addedLengths);
+			longestWidth = -1;
+			if(index != null) {
+				int[] counts = new int[added.length];
+				for(int i = 0; i < added.length; i++)
+					counts[i] = estimateRows(addedLengths[i]);
+				index.replace(change.getIndex(), change.getChildrenRemoved().length, counts);
+			}
+			preferenceChanged(null, true, true);
+			host.repaint();
+			return;
+		}
+
+		int line = root.getElementIndex(e.getOffset());
+		Element elem = root.getElement(line);
+		int offset = e.getOffset() - elem.getStartOffset();
+		boolean insert = e.getType() == DocumentEvent.EventType.INSERT;
+		boolean remove = e.getType() == DocumentEvent.EventType.REMOVE;
+
+		LineRuns lineRuns = runs.get(elem);
+		if(lineRuns != null) {
+			if(insert)
+				lineRuns.inserted(offset, e.getLength());
+			else if(remove)
+				lineRuns.removed(offset, e.getLength());
+			else
+				runs.remove(elem);
+		}
+
+		boolean rowsChanged = false;
+		Rows lineRows = rows.get(elem);
+		if(lineRows != null) {
+			lineRows.truncate(offset);
+			rowsChanged = updateCount(lineRows, elem, line);
+		}
+		else if(index != null) {
+			int count = estimateRows(getLength(elem));
+			rowsChanged = count != index.get(line);
+			index.set(line, count);
+		}
+
+		//width changes if the longest line was edited or another line became longer than it
+		int longest = lengths.getLargest();
+		boolean widthChanged = line == longest || getLength(elem) > lengths.get(longest);
+		lengths.set(line, getLength(elem));
+		if(widthChanged)
+			longestWidth = -1;
+		if(widthChanged || rowsChanged)
+			preferenceChanged(null, widthChanged, rowsChanged);
+
+		if(a == null || rowsChanged) {
+			host.repaint();
+			return;
+		}
+		Rectangle alloc = a.getBounds();
+		if(index == null) {
+			host.repaint(alloc.x, alloc.y + line * lineHeight, alloc.width, lineHeight);
+		}
+		else {
+			int first = index.getSumBefore(line);
+			host.repaint(alloc.x, alloc.y + first * lineHeight, alloc.width, index.get(line) * lineHeight);
+		}
+	}
+
+	/**
+	 * Returns next tab stop, tab stops are relative to the start of a row.
+	 */
+	@Override
+	public float nextTabStop(float x, int tabOffset) {
+		if(tabSize == 0)
+			return x;
+
+		long tabs = (long) ((x + tabBase) / tabSize);
+		return (float) ((tabs + 1) * tabSize - tabBase);
+	}
+
+	/**
+	 * Returns characters in [p0, p1) in one array. Segment is reused by the next call.
+	 */
+	Segment getText(int p0, int p1) {
+		try {
+			getDocument().getText(p0, p1 - p0, segment);
+		} catch(BadLocationException ex) {
+			throw new RuntimeException("Error while reading document");
+		}
+		return segment;
+	}
+
+	/**
+	 * Returns width of characters in [p0, p1) starting at x.
+	 */
+	float measure(int p0, int p1, double x) {
+		if(p0 >= p1)
+			return 0;
+
+		tabBase = x;
+		try {
+			return Utilities.getTabbedTextWidth(getText(p0, p1), metrics, 0f, this, p0);
+		}
+		finally {
+			tabBase = 0;
+		}
+	}
+
+	/**
+	 * Returns number of characters in [p0, p1) before x when the characters start at x0.
+	 *
+	 * @param x x relative to x0
+	 * @param round should the nearest offset be returned instead of the one before x
+	 */
+	int offsetAt(int p0, int p1, double x0, float x, boolean round) {
+		tabBase = x0;
+		try {
+			return Utilities.getTabbedTextOffset(getText(p0, p1), metrics, 0, x, this, p0, round);
+		}
+		finally {
+			tabBase = 0;
+		}
+	}
+
+	/**
+	 * Takes metrics from font of component, everything measured with the old font is dropped.
+	 *
+	 * @return false if view is not in a component yet
+	 */
+	private boolean updateMetrics() {
+		Component host = getContainer();
+		if(host == null)
+			return false;
+
+		Font f = host.getFont();
+		if(f == font)
+			return true;
+
+		font = f;
+		metrics = host.getFontMetrics(f);
+		lineHeight = Math.max(1, metrics.getHeight());
+		charWidth = metrics.charWidth('m');
+		Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+		tabSize = (size instanceof Integer ? (Integer) size : 8) * charWidth;
+		runs.clear();
+		rows.clear();
+		longestWidth = -1;
+		widest = 0;
+		if(lengths == null) {
+			int[] lineLengths = getLineLengths();
+			lengths = new LineCounts(lineLengths, lineLengths.length);
+		}
+		if(wrap && wrapWidth > 0)
+			estimateRows();
+		return true;
+	}
+
+	private float getLineWidth(Element elem) {
+		int start = elem.getStartOffset();
+		int length = getLength(elem);
+		if(length > LONG_LINE)
+			return getRuns(elem).getWidth(start);
+		return measure(start, start + length, 0);
+	}
+
+	private LineRuns getRuns(Element elem) {
+		LineRuns lineRuns = runs.get(elem);
+		if(lineRuns == null) {
+			lineRuns = new LineRuns(this, getLength(elem));
+			runs.put(elem, lineRuns);
+		}
+		return lineRuns;
+	}
+
+	/**
+	 * Returns number of characters of line without the new line.
+	 */
+	private static int getLength(Element elem) {
+		return elem.getEndOffset() - 1 - elem.getStartOffset();
+	}
+
+	/**
+	 * Estimates rows of every line from its number of characters, lines are broken into rows only when they are shown.
+	 */
+	private void estimateRows() {
+		int[] counts = lengths.toArray();
+		for(int i = 0; i < counts.length; i++)
+			counts[i] = estimateRows(counts[i]);
+		index = new LineCounts(counts, counts.length);
+	}
+
+	/**
+	 * Returns number of characters of every line without the new line, taken from text so no element is needed for a line.
+	 */
+	private int[] getLineLengths() {
+		int[] lengths = new int[getElement().getElementCount()];
+		Segment text = new Segment();
+		text.setPartialReturn(true);
+		int length = getDocument().getLength();
+		int line = 0;
+		int lineStart = 0;
+		try {
+			for(int offset = 0; offset < length; offset += text.count) {
+				getDocument().getText(offset, length - offset, text);
+				for(int i = 0; i < text.count; i++) {
+					if(text.array[text.offset + i] == '\n') {
+						lengths[line++] = offset + i - lineStart;
+						lineStart = offset + i + 1;
+					}
+				}
+			}
+		} catch(BadLocationException ex) {
+			throw new RuntimeException("Error while reading document");
+		}
+		lengths[line] = length - lineStart;
+		return lengths;
+	}
+
+	private int estimateRows(int length) {
+		if(length == 0 || wrapWidth >= Integer.MAX_VALUE)
+			return 1;
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE / 2, Math.ceil(length * charWidth / wrapWidth)));
+	}
+
+	private Rows getRows(Element elem, int line) {
+		Rows lineRows = rows.get(elem);
+		if(lineRows == null) {
+			lineRows = new Rows();
+			rows.put(elem, lineRows);
+		}
+		return lineRows;
+	}
+
+	/**
+	 * Breaks line into rows until row is known or line has no more rows.
+	 */
+	private void ensureRow(Rows lineRows, Element elem, int line, int row) {
+		if(row < lineRows.valid || lineRows.complete)
+			return;
+
+		int start = elem.getStartOffset();
+		int length = getLength(elem);
+		while(row >= lineRows.valid && !lineRows.complete)
+			lineRows.add(nextRow(start, length, lineRows.starts[lineRows.valid - 1]), length);
+		updateCount(lineRows, elem, line);
+	}
+
+	/**
+	 * Returns row of line with offset relative to start of line, breaks line into rows up to it if needed.
+	 */
+	private int getRowOf(Rows lineRows, Element elem, int line, int offset) {
+		if(!lineRows.complete && lineRows.starts[lineRows.valid - 1] <= offset) {
+			int start = elem.getStartOffset();
+			int length = getLength(elem);
+			while(!lineRows.complete && lineRows.starts[lineRows.valid - 1] <= offset)
+				lineRows.add(nextRow(start, length, lineRows.starts[lineRows.valid - 1]), length);
+			updateCount(lineRows, elem, line);
+		}
+
+		int row = Arrays.binarySearch(lineRows.starts, 0, lineRows.valid, offset);
+		return row >= 0 ? row : -row - 2;
+	}
+
+	/**
+	 * Returns start of row after the row starting at from, past the new line if that row is the last one.
+	 */
+	private int nextRow(int start, int length, int from) {
+		//no character is narrower than a pixel, so a row never has more characters than the view has pixels,
+		//new line is measured as well so rows break where they break in a wrapped text area
+		int bound = (int) Math.min(length + 1 - from, (long) wrapWidth + 2);
+		int p0 = start + from;
+		Segment text = getText(p0, p0 + bound);
+		float width = Math.max(wrapWidth, 1);
+		int fit = wordWrap ? Utilities.getBreakLocation(text, metrics, 0, width, this, p0)
+				: Utilities.getTabbedTextOffset(text, metrics, 0, width, this, p0, false);
+		if(fit >= bound)
+			return from + bound;
+		//a character wider than the view gets a row of its own
+		return from + Math.max(fit, 1);
+	}
+
+	/**
+	 * Stores rows of line in index, count is estimated for the part not yet broken into rows.
+	 *
+	 * @return true if count changed
+	 */
+	private boolean updateCount(Rows lineRows, Element elem, int line) {
+		int count = lineRows.valid;
+		if(!lineRows.complete)
+			count += estimateRows(getLength(elem) - lineRows.starts[lineRows.valid - 1]) - 1;
+		if(index.get(line) == count)
+			return false;
+
+		index.set(line, count);
+		preferenceChanged(null, false, true);
+		return true;
+	}
+
+	/**
+	 * Starts of rows of one line relative to the start of line. Only the first valid ones are known, the line is broken
+	 * into more rows as they are needed.
+	 */
+	private static final class Rows {
+
+		private int[] starts = new int[4];
+
+		private int valid = 1;
+
+		private boolean complete;
+
+		/**
+		 * Adds start of next row, start past the new line means there are no more rows.
+		 */
+		void add(int start, int length) {
+			if(start > length) {
+				complete = true;
+				return;
+			}
+			if(valid == starts.length)
+				starts = Arrays.copyOf(starts, valid * 2);
+			starts[valid++] = start;
+		}
+
+		/**
+		 * Forgets rows that an edit at offset can change. End of the row before the edited one is found again as well
+		 * because a word wrapped to the edited row can fit on it now.
+		 */
+		void truncate(int offset) {
+			int row = Arrays.binarySearch(starts, 0, valid, offset);
+			row = row >= 0 ? row : -row - 2;
+			valid = Math.max(1, row);
+			complete = false;
+		}
+	}
+}
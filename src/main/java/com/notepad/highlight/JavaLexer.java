@@ -0,0 +1,153 @@
+package com.notepad.highlight;
+
+import java.util.Set;
+
+/**
+ * {@link Lexer} of Java source. Block comments and text blocks are the only tokens that continue on the next line.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class JavaLexer implements Lexer {
+
+	private static final int CODE = INITIAL_STATE;
+
+	private static final int BLOCK_COMMENT = 1;
+
+	private static final int TEXT_BLOCK = 2;
+
+	private static final Set<String> KEYWORDS = Set.of(
+			"abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+			"continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+			"for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+			"new", "package", "private", "protected", "public", "return", "short", "static", "strictfp", "super",
+			"switch", "synchronized", "this", "throw", "throws", "transient", "try", "void", "volatile", "while",
+			"var", "record", "yield", "sealed", "permits", "true", "false", "null");
+
+	@Override
+	public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+		int i = start;
+		if(state == BLOCK_COMMENT) {
+			int close = find(text, i, end, '*', '/');
+			if(close == -1) {
+				emit(sink, i, end, TokenType.COMMENT);
+				return BLOCK_COMMENT;
+			}
+			emit(sink, i, close + 2, TokenType.COMMENT);
+			i = close + 2;
+		}
+		else if(state == TEXT_BLOCK) {
+			int close = endOfTextBlock(text, i, end);
+			if(close == -1) {
+				emit(sink, i, end, TokenType.STRING);
+				return TEXT_BLOCK;
+			}
+			emit(sink, i, close, TokenType.STRING);
+			i = close;
+		}
+
+		while(i < end) {
+			char c = text[i];
+			if(c == '/' && i + 1 < end && text[i + 1] == '/') {
+				emit(sink, i, end, TokenType.COMMENT);
+				return CODE;
+			}
+			if(c == '/' && i + 1 < end && text[i + 1] == '*') {
+				int close = find(text, i + 2, end, '*', '/');
+				if(close == -1) {
+					emit(sink, i, end, TokenType.COMMENT);
+					return BLOCK_COMMENT;
+				}
+				emit(sink, i, close + 2, TokenType.COMMENT);
+				i = close + 2;
+			}
+			else if(c == '"' && i + 2 < end && text[i + 1] == '"' && text[i + 2] == '"') {
+				int close = endOfTextBlock(text, i + 3, end);
+				if(close == -1) {
+					emit(sink, i, end, TokenType.STRING);
+					return TEXT_BLOCK;
+				}
+				emit(sink, i, close, TokenType.STRING);
+				i = close;
+			}
+			else if(c == '"' || c == '\'') {
+				int close = endOfQuoted(text, i + 1, end, c);
+				emit(sink, i, close, TokenType.STRING);
+				i = close;
+			}
+			else if(Character.isDigit(c) || (c == '.' && i + 1 < end && Character.isDigit(text[i + 1]))) {
+				int close = i + 1;
+				while(close < end && (Character.isLetterOrDigit(text[close]) || text[close] == '.' || text[close] == '_'
+						|| ((text[close] == '+' || text[close] == '-') && (text[close - 1] == 'e' || text[close - 1] == 'E'))))
+					close++;
+				emit(sink, i, close, TokenType.NUMBER);
+				i = close;
+			}
+			else if(c == '@' && i + 1 < end && Character.isJavaIdentifierStart(text[i + 1])) {
+				int close = endOfIdentifier(text, i + 1, end);
+				emit(sink, i, close, TokenType.ANNOTATION);
+				i = close;
+			}
+			else if(Character.isJavaIdentifierStart(c)) {
+				int close = endOfIdentifier(text, i, end);
+				//only state matters when nobody takes tokens, so words are not looked up
+				if(sink != null && KEYWORDS.contains(new String(text, i, close - i)))
+					sink.token(i, close, TokenType.KEYWORD);
+				i = close;
+			}
+			else {
+				i++;
+			}
+		}
+		return CODE;
+	}
+
+	private static void emit(TokenSink sink, int start, int end, TokenType type) {
+		if(sink != null && start < end)
+			sink.token(start, end, type);
+	}
+
+	/**
+	 * Returns index of first of the two characters, -1 if they are not in [from, end).
+	 */
+	private static int find(char[] text, int from, int end, char first, char second) {
+		for(int i = from; i + 1 < end; i++) {
+			if(text[i] == first && text[i + 1] == second)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns index after closing quote, end of line if literal is not closed on it.
+	 */
+	private static int endOfQuoted(char[] text, int from, int end, char quote) {
+		for(int i = from; i < end; i++) {
+			if(text[i] == '\\')
+				i++;
+			else if(text[i] == quote)
+				return i + 1;
+		}
+		return end;
+	}
+
+	/**
+	 * Returns index after closing three quotes of text block, -1 if they are not on this line.
+	 */
+	private static int endOfTextBlock(char[] text, int from, int end) {
+		for(int i = from; i + 2 < end; i++) {
+			if(text[i] == '\\')
+				i++;
+			else if(text[i] == '"' && text[i + 1] == '"' && text[i + 2] == '"')
+				return i + 3;
+		}
+		return -1;
+	}
+
+	private static int endOfIdentifier(char[] text, int from, int end) {
+		int i = from;
+		while(i < end && Character.isJavaIdentifierPart(text[i]))
+			i++;
+		return i;
+	}
+}
@@ -0,0 +1,58 @@
+package com.notepad.highlight;
+
+/**
+ * {@link Lexer} of JSON. Strings followed by a colon are keys. No token of JSON continues on the next line,
+ * so state is always the initial one.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class JsonLexer implements Lexer {
+
+	@Override
+	public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+		if(sink == null)
+			return INITIAL_STATE;
+
+		int i = start;
+		while(i < end) {
+			char c = text[i];
+			if(c == '"') {
+				int close = i + 1;
+				while(close < end && text[close] != '"') {
+					if(text[close] == '\\')
+						close++;
+					close++;
+				}
+				close = Math.min(close + 1, end);
+
+				int next = close;
+				while(next < end && Character.isWhitespace(text[next]))
+					next++;
+				sink.token(i, close, next < end && text[next] == ':' ? TokenType.KEY : TokenType.STRING);
+				i = close;
+			}
+			else if(c == '-' || Character.isDigit(c)) {
+				int close = i + 1;
+				while(close < end && (Character.isDigit(text[close]) || text[close] == '.' || text[close] == 'e' || text[close] == 'E'
+						|| text[close] == '+' || text[close] == '-'))
+					close++;
+				sink.token(i, close, TokenType.NUMBER);
+				i = close;
+			}
+			else if(Character.isLetter(c)) {
+				int close = i + 1;
+				while(close < end && Character.isLetter(text[close]))
+					close++;
+				String word = new String(text, i, close - i);
+				if(word.equals("true") || word.equals("false") || word.equals("null"))
+					sink.token(i, close, TokenType.KEYWORD);
+				i = close;
+			}
+			else {
+				i++;
+			}
+		}
+		return INITIAL_STATE;
+	}
+}
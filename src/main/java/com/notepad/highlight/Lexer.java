@@ -0,0 +1,45 @@
+package com.notepad.highlight;
+
+/**
+ * Splits text of one file type into tokens, one line at a time. Everything a lexer needs to know about the text
+ * before a line is an int state, so lexing can start again at any line whose state at the start is known.
+ * Lexers keep no state of their own, one instance can lex any number of documents on any thread.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public interface Lexer {
+
+	/**
+	 * State at the start of text
+	 */
+	int INITIAL_STATE = 0;
+
+	/**
+	 * Receives tokens of a line in order. Characters between tokens are plain text.
+	 */
+	@FunctionalInterface
+	interface TokenSink {
+
+		/**
+		 * Receives token in [start, end) of the lexed array.
+		 *
+		 * @param start start of token in array
+		 * @param end end of token in array
+		 * @param type kind of token
+		 */
+		void token(int start, int end, TokenType type);
+	}
+
+	/**
+	 * Lexes characters of a line in [start, end) of text, without the new line that ends it.
+	 *
+	 * @param text array with line
+	 * @param start start of line in array
+	 * @param end end of line in array
+	 * @param state state at the start of line
+	 * @param sink receives tokens, null if only state at the start of next line is needed
+	 * @return state at the start of next line
+	 */
+	int lexLine(char[] text, int start, int end, int state, TokenSink sink);
+}
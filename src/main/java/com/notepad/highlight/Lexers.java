@@ -0,0 +1,61 @@
+package com.notepad.highlight;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lexers of file types by file name extension. Lexers for new file types are plugged in with {@link #register(String, Lexer)}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class Lexers {
+
+	private static final Map<String, Lexer> BY_EXTENSION = new ConcurrentHashMap<>();
+
+	static {
+		Lexer xml = new XmlLexer();
+		register("java", new JavaLexer());
+		register("json", new JsonLexer());
+		register("properties", new PropertiesLexer());
+		register("xml", xml);
+		register("xsd", xml);
+		register("xsl", xml);
+		register("xslt", xml);
+		register("svg", xml);
+		register("pom", xml);
+	}
+
+	private Lexers() {
+	}
+
+	/**
+	 * Makes lexer used for files with given extension.
+	 *
+	 * @param extension extension without dot, case does not matter
+	 * @param lexer lexer of those files
+	 */
+	public static void register(String extension, Lexer lexer) {
+		BY_EXTENSION.put(extension.toLowerCase(Locale.ROOT), lexer);
+	}
+
+	/**
+	 * Returns lexer of file on path.
+	 *
+	 * @param path path of file, can be null
+	 * @return lexer for extension of file, null if file is shown as plain text
+	 */
+	public static Lexer forPath(Path path) {
+		if(path == null || path.getFileName() == null)
+			return null;
+
+		String name = path.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if(dot == -1)
+			return null;
+
+		return BY_EXTENSION.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+}
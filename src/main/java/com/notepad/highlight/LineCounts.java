@@ -0,0 +1,331 @@
+package com.notepad.highlight;
+
+import java.util.Arrays;
+
+/**
+ * A count for every line of a document, for example rows a line is wrapped into or its number of characters.
+ * Counts are kept in chunks of lines so lines can be inserted and removed by changing only the chunks they are in.
+ * Lines and sums of chunks are summed in Fenwick trees, so the sum of counts before a line and the line at a sum are
+ * found in logarithmic time plus a scan of one chunk. Every chunk knows its largest count, the line with the
+ * largest count of all is found from them when it is asked for after an edit that could have changed it.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+final class LineCounts {
+
+	/**
+	 * Most lines in a chunk, chunks are built half full so lines can be inserted into them
+	 */
+	private static final int CHUNK = 512;
+
+	private int[][] chunks;
+
+	/**
+	 * Number of lines in each chunk
+	 */
+	private int[] sizes;
+
+	/**
+	 * Sum of counts of each chunk
+	 */
+	private int[] sums;
+
+	/**
+	 * Largest count of each chunk
+	 */
+	private int[] maxima;
+
+	private int chunkCount;
+
+	/**
+	 * Fenwick trees over sizes and sums of chunks, indexed from 1
+	 */
+	private int[] sizeTree;
+
+	private int[] sumTree;
+
+	private int size;
+
+	private int total;
+
+	/**
+	 * Line with the largest count, -1 if it has to be found again
+	 */
+	private int largest;
+
+	/**
+	 * Creates counts.
+	 *
+	 * @param counts count of each line, array is not kept
+	 * @param size number of lines
+	 */
+	LineCounts(int[] counts, int size) {
+		chunks = new int[0][];
+		sizes = new int[0];
+		sums = new int[0];
+		maxima = new int[0];
+		fill(0, 0, counts, size);
+		build();
+	}
+
+	int getLineCount() {
+		return size;
+	}
+
+	int getTotal() {
+		return total;
+	}
+
+	int get(int line) {
+		int chunk = chunkOf(line);
+		return chunks[chunk][line - linesBefore(chunk)];
+	}
+
+	void set(int line, int count) {
+		int chunk = chunkOf(line);
+		int[] counts = chunks[chunk];
+		int i = line - linesBefore(chunk);
+		int old = counts[i];
+		int delta = count - old;
+		if(delta == 0)
+			return;
+
+		counts[i] = count;
+		sums[chunk] += delta;
+		total += delta;
+		for(int c = chunk + 1; c <= chunkCount; c += c & -c)
+			sumTree[c] += delta;
+
+		if(count > maxima[chunk])
+			maxima[chunk] = count;
+		else if(old == maxima[chunk])
+			maxima[chunk] = max(counts, sizes[chunk]);
+
+		if(largest >= 0) {
+			if(count > get(largest))
+				largest = line;
+			else if(line == largest && delta < 0)
+				largest = -1;
+		}
+	}
+
+	/**
+	 * Returns sum of counts of lines before line.
+	 */
+	int getSumBefore(int line) {
+		int chunk = chunkOf(line);
+		int sum = 0;
+		for(int c = chunk; c > 0; c -= c & -c)
+			sum += sumTree[c];
+
+		int[] counts = chunks[chunk];
+		for(int i = 0, n = line - linesBefore(chunk); i < n; i++)
+			sum += counts[i];
+		return sum;
+	}
+
+	/**
+	 * Returns line whose counts contain sum when counts of lines are laid one after another, last line if sum is
+	 * after all of them.
+	 */
+	int getLineAt(int sum) {
+		int chunk = 0;
+		for(int mask = Integer.highestOneBit(Math.max(chunkCount, 1)); mask > 0; mask >>= 1) {
+			int next = chunk + mask;
+			if(next <= chunkCount && sumTree[next] <= sum) {
+				chunk = next;
+				sum -= sumTree[next];
+			}
+		}
+		if(chunk == chunkCount)
+			return size - 1;
+
+		int[] counts = chunks[chunk];
+		int i = 0;
+		while(i < sizes[chunk] - 1 && sum >= counts[i])
+			sum -= counts[i++];
+		return linesBefore(chunk) + i;
+	}
+
+	/**
+	 * Returns a line with the largest count.
+	 */
+	int getLargest() {
+		if(largest >= 0)
+			return largest;
+
+		int chunk = 0;
+		for(int c = 1; c < chunkCount; c++) {
+			if(maxima[c] > maxima[chunk])
+				chunk = c;
+		}
+		int[] counts = chunks[chunk];
+		int i = 0;
+		while(counts[i] != maxima[chunk])
+			i++;
+		largest = linesBefore(chunk) + i;
+		return largest;
+	}
+
+	/**
+	 * Returns counts of all lines.
+	 */
+	int[] toArray() {
+		int[] counts = new int[size];
+		for(int c = 0, line = 0; c < chunkCount; line += sizes[c++])
+			System.arraycopy(chunks[c], 0, counts, line, sizes[c]);
+		return counts;
+	}
+
+	/**
+	 * Replaces removed lines starting at index with lines whose counts are given.
+	 */
+	void replace(int index, int removed, int[] added) {
+		largest = -1;
+		int first = chunkOf(Math.min(index, size - 1));
+		int start = linesBefore(first);
+		int from = index - start;
+		int newSize = sizes[first] - removed + added.length;
+
+		//change inside one chunk that keeps it neither empty nor overfull moves only the lines of that chunk
+		if(from + removed <= sizes[first] && newSize > 0 && newSize <= CHUNK) {
+			int[] counts = chunks[first];
+			int delta = -sum(counts, from, from + removed);
+			System.arraycopy(counts, from + removed, counts, from + added.length, sizes[first] - from - removed);
+			System.arraycopy(added, 0, counts, from, added.length);
+			delta += sum(counts, from, from + added.length);
+
+			sizes[first] = newSize;
+			sums[first] += delta;
+			maxima[first] = max(counts, newSize);
+			size += added.length - removed;
+			total += delta;
+			for(int c = first + 1; c <= chunkCount; c += c & -c) {
+				sizeTree[c] += added.length - removed;
+				sumTree[c] += delta;
+			}
+			return;
+		}
+
+		//chunks with the removed lines are laid out again together with the added lines
+		int last = removed == 0 ? first : chunkOf(index + removed - 1);
+		int end = linesBefore(last) + sizes[last];
+		int[] old = new int[end - start];
+		int at = 0;
+		for(int c = first; c <= last; c++) {
+			System.arraycopy(chunks[c], 0, old, at, sizes[c]);
+			at += sizes[c];
+		}
+		int[] counts = new int[old.length - removed + added.length];
+		System.arraycopy(old, 0, counts, 0, from);
+		System.arraycopy(added, 0, counts, from, added.length);
+		System.arraycopy(old, from + removed, counts, from + added.length, old.length - from - removed);
+
+		int[][] after = Arrays.copyOfRange(chunks, last + 1, chunkCount);
+		int[] afterSizes = Arrays.copyOfRange(sizes, last + 1, chunkCount);
+		int[] afterSums = Arrays.copyOfRange(sums, last + 1, chunkCount);
+		int[] afterMaxima = Arrays.copyOfRange(maxima, last + 1, chunkCount);
+		fill(first, start, counts, counts.length);
+		int count = chunkCount + after.length;
+		ensureChunks(count);
+		System.arraycopy(after, 0, chunks, chunkCount, after.length);
+		System.arraycopy(afterSizes, 0, sizes, chunkCount, after.length);
+		System.arraycopy(afterSums, 0, sums, chunkCount, after.length);
+		System.arraycopy(afterMaxima, 0, maxima, chunkCount, after.length);
+		chunkCount = count;
+		build();
+	}
+
+	/**
+	 * Puts counts into half full chunks starting at chunk, which has line start as its first line, chunks after them
+	 * are dropped.
+	 */
+	private void fill(int chunk, int start, int[] counts, int length) {
+		int half = CHUNK / 2;
+		ensureChunks(chunk + (length + half - 1) / half);
+		for(int i = 0; i < length; i += half, chunk++) {
+			int n = Math.min(half, length - i);
+			int[] chunkCounts = new int[CHUNK];
+			System.arraycopy(counts, i, chunkCounts, 0, n);
+			chunks[chunk] = chunkCounts;
+			sizes[chunk] = n;
+			sums[chunk] = sum(chunkCounts, 0, n);
+			maxima[chunk] = max(chunkCounts, n);
+		}
+		chunkCount = chunk;
+		size = start + length;
+	}
+
+	private void ensureChunks(int count) {
+		if(count <= chunks.length)
+			return;
+
+		int capacity = Math.max(count, chunks.length + chunks.length / 2);
+		chunks = Arrays.copyOf(chunks, capacity);
+		sizes = Arrays.copyOf(sizes, capacity);
+		sums = Arrays.copyOf(sums, capacity);
+		maxima = Arrays.copyOf(maxima, capacity);
+	}
+
+	/**
+	 * Builds Fenwick trees and totals from chunks.
+	 */
+	private void build() {
+		sizeTree = new int[chunkCount + 1];
+		sumTree = new int[chunkCount + 1];
+		size = 0;
+		total = 0;
+		for(int c = 1; c <= chunkCount; c++) {
+			sizeTree[c] += sizes[c - 1];
+			sumTree[c] += sums[c - 1];
+			size += sizes[c - 1];
+			total += sums[c - 1];
+			int parent = c + (c & -c);
+			if(parent <= chunkCount) {
+				sizeTree[parent] += sizeTree[c];
+				sumTree[parent] += sumTree[c];
+			}
+		}
+		largest = -1;
+	}
+
+	/**
+	 * Returns chunk with line.
+	 */
+	private int chunkOf(int line) {
+		int chunk = 0;
+		for(int mask = Integer.highestOneBit(Math.max(chunkCount, 1)); mask > 0; mask >>= 1) {
+			int next = chunk + mask;
+			if(next <= chunkCount && sizeTree[next] <= line) {
+				chunk = next;
+				line -= sizeTree[next];
+			}
+		}
+		return Math.min(chunk, chunkCount - 1);
+	}
+
+	/**
+	 * Returns number of lines in chunks before chunk.
+	 */
+	private int linesBefore(int chunk) {
+		int lines = 0;
+		for(int c = chunk; c > 0; c -= c & -c)
+			lines += sizeTree[c];
+		return lines;
+	}
+
+	private static int sum(int[] counts, int from, int to) {
+		int sum = 0;
+		for(int i = from; i < to; i++)
+			sum += counts[i];
+		return sum;
+	}
+
+	private static int max(int[] counts, int length) {
+		int max = Integer.MIN_VALUE;
+		for(int i = 0; i < length; i++)
+			max = Math.max(max, counts[i]);
+		return max;
+	}
+}
@@ -0,0 +1,234 @@
+package com.notepad.highlight;
+
+import java.util.Arrays;
+
+import javax.swing.text.Segment;
+
+/**
+ * Widths of runs of characters of one long line. A position in the line is found by adding up widths of
+ * runs before it and measuring only inside its run, an edit measures again only the runs it touched.
+ * Width of a run with tabs depends on where it starts, so such runs are measured again when runs before
+ * them changed width.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+final class LineRuns {
+
+	/**
+	 * Characters in a run when line is first measured
+	 */
+	static final int RUN = 4096;
+
+	private final HighlightedView view;
+
+	private int count;
+
+	private int[] lengths;
+
+	/**
+	 * Width of each run, negative if run has to be measured
+	 */
+	private float[] widths;
+
+	/**
+	 * Start x runs with tabs were measured at
+	 */
+	private double[] measuredAt;
+
+	private boolean[] tabs;
+
+	/**
+	 * Measures line.
+	 *
+	 * @param view view measuring the text
+	 * @param length number of characters of line without the new line
+	 */
+	LineRuns(HighlightedView view, int length) {
+		this.view = view;
+		count = Math.max(1, (length + RUN - 1) / RUN);
+		lengths = new int[count + 4];
+		widths = new float[count + 4];
+		measuredAt = new double[count + 4];
+		tabs = new boolean[count + 4];
+		for(int i = 0; i < count; i++) {
+			lengths[i] = Math.min(RUN, length - i * RUN);
+			widths[i] = -1;
+		}
+	}
+
+	/**
+	 * Returns width of line.
+	 *
+	 * @param start start offset of line
+	 */
+	float getWidth(int start) {
+		double x = 0;
+		int runStart = start;
+		for(int i = 0; i < count; i++) {
+			x += width(i, runStart, x);
+			runStart += lengths[i];
+		}
+		return (float) x;
+	}
+
+	/**
+	 * Returns x of offset in line.
+	 *
+	 * @param start start offset of line
+	 * @param offset offset relative to start of line
+	 */
+	double xAt(int start, int offset) {
+		double x = 0;
+		int runStart = 0;
+		for(int i = 0; i < count - 1 && offset >= runStart + lengths[i]; i++) {
+			x += width(i, start + runStart, x);
+			runStart += lengths[i];
+		}
+		return x + view.measure(start + runStart, start + offset, x);
+	}
+
+	/**
+	 * Returns offset relative to start of line shown at x.
+	 *
+	 * @param start start offset of line
+	 * @param x x relative to start of line
+	 * @param round should the nearest offset be returned instead of the one before x
+	 */
+	int offsetAt(int start, float x, boolean round) {
+		double at = 0;
+		int runStart = 0;
+		for(int i = 0; i < count; i++) {
+			float width = width(i, start + runStart, at);
+			if(x < at + width || i == count - 1)
+				return runStart + view.offsetAt(start + runStart, start + runStart + lengths[i], at, (float) (x - at), round);
+			at += width;
+			runStart += lengths[i];
+		}
+		return runStart;
+	}
+
+	/**
+	 * Adds inserted characters to the run they were inserted into.
+	 *
+	 * @param offset offset of insert relative to start of line
+	 * @param length number of inserted characters
+	 */
+	void inserted(int offset, int length) {
+		int i = 0;
+		int runStart = 0;
+		//insert at the end of a run goes into that run
+		while(i < count - 1 && offset > runStart + lengths[i]) {
+			runStart += lengths[i];
+			i++;
+		}
+		lengths[i] += length;
+		widths[i] = -1;
+
+		//run that grew a lot, for example with pasted text, is split so it can be measured in parts again
+		if(lengths[i] > 2 * RUN) {
+			int total = lengths[i];
+			int parts = (total + RUN - 1) / RUN;
+			open(i + 1, parts - 1);
+			for(int k = 0; k < parts; k++) {
+				lengths[i + k] = Math.min(RUN, total - k * RUN);
+				widths[i + k] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Takes removed characters out of runs.
+	 *
+	 * @param offset offset of removed range relative to start of line
+	 * @param length number of removed characters
+	 */
+	void removed(int offset, int length) {
+		int runStart = 0;
+		int first = -1;
+		for(int i = 0; i < count && length > 0; i++) {
+			int runEnd = runStart + lengths[i];
+			if(offset < runEnd) {
+				int cut = Math.min(runEnd, offset + length) - offset;
+				lengths[i] -= cut;
+				widths[i] = -1;
+				length -= cut;
+				if(first == -1)
+					first = i;
+				runEnd -= cut;
+			}
+			runStart = runEnd;
+		}
+
+		//empty runs are dropped and a short run is merged into the next one
+		int kept = 0;
+		for(int i = 0; i < count; i++) {
+			if(lengths[i] == 0 && count > 1)
+				continue;
+			lengths[kept] = lengths[i];
+			widths[kept] = widths[i];
+			measuredAt[kept] = measuredAt[i];
+			tabs[kept] = tabs[i];
+			kept++;
+		}
+		if(kept == 0) {
+			lengths[0] = 0;
+			widths[0] = -1;
+			kept = 1;
+		}
+		count = kept;
+		if(first != -1) {
+			first = Math.min(first, count - 1);
+			if(lengths[first] < RUN / 4 && first + 1 < count) {
+				lengths[first] += lengths[first + 1];
+				widths[first] = -1;
+				close(first + 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns width of run, measures it if it changed or it has tabs and starts somewhere else now.
+	 */
+	private float width(int i, int runStart, double x) {
+		if(widths[i] < 0 || (tabs[i] && measuredAt[i] != x)) {
+			Segment text = view.getText(runStart, runStart + lengths[i]);
+			boolean tab = false;
+			for(int k = text.offset; k < text.offset + text.count && !tab; k++)
+				tab = text.array[k] == '\t';
+			tabs[i] = tab;
+			measuredAt[i] = x;
+			widths[i] = view.measure(runStart, runStart + lengths[i], x);
+		}
+		return widths[i];
+	}
+
+	/**
+	 * Makes room for n runs at index.
+	 */
+	private void open(int index, int n) {
+		if(count + n > lengths.length) {
+			int capacity = count + n + count / 2;
+			lengths = Arrays.copyOf(lengths, capacity);
+			widths = Arrays.copyOf(widths, capacity);
+			measuredAt = Arrays.copyOf(measuredAt, capacity);
+			tabs = Arrays.copyOf(tabs, capacity);
+		}
+		System.arraycopy(lengths, index, lengths, index + n, count - index);
+		System.arraycopy(widths, index, widths, index + n, count - index);
+		System.arraycopy(measuredAt, index, measuredAt, index + n, count - index);
+		System.arraycopy(tabs, index, tabs, index + n, count - index);
+		count += n;
+	}
+
+	/**
+	 * Removes run at index.
+	 */
+	private void close(int index) {
+		System.arraycopy(lengths, index + 1, lengths, index, count - index - 1);
+		System.arraycopy(widths, index + 1, widths, index, count - index - 1);
+		System.arraycopy(measuredAt, index + 1, measuredAt, index, count - index - 1);
+		System.arraycopy(tabs, index + 1, tabs, index, count - index - 1);
+		count--;
+	}
+}
@@ -0,0 +1,69 @@
+package com.notepad.highlight;
+
+/**
+ * {@link Lexer} of properties files. Line ending with an odd number of backslashes continues its value on
+ * the next line, which is the only state besides the initial one.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class PropertiesLexer implements Lexer {
+
+	private static final int CONTINUED_VALUE = 1;
+
+	@Override
+	public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+		int i = start;
+		while(i < end && (text[i] == ' ' || text[i] == '\t' || text[i] == '\f'))
+			i++;
+
+		if(state == CONTINUED_VALUE) {
+			emit(sink, i, end, TokenType.STRING);
+			return continues(text, i, end) ? CONTINUED_VALUE : INITIAL_STATE;
+		}
+
+		if(i == end)
+			return INITIAL_STATE;
+
+		//comments never continue
+		if(text[i] == '#' || text[i] == '!') {
+			emit(sink, i, end, TokenType.COMMENT);
+			return INITIAL_STATE;
+		}
+
+		int keyEnd = i;
+		while(keyEnd < end && text[keyEnd] != '=' && text[keyEnd] != ':' && !Character.isWhitespace(text[keyEnd])) {
+			if(text[keyEnd] == '\\')
+				keyEnd++;
+			keyEnd++;
+		}
+		keyEnd = Math.min(keyEnd, end);
+		emit(sink, i, keyEnd, TokenType.KEY);
+
+		int value = keyEnd;
+		while(value < end && Character.isWhitespace(text[value]))
+			value++;
+		if(value < end && (text[value] == '=' || text[value] == ':'))
+			value++;
+		while(value < end && Character.isWhitespace(text[value]))
+			value++;
+		emit(sink, value, end, TokenType.STRING);
+
+		return continues(text, keyEnd, end) ? CONTINUED_VALUE : INITIAL_STATE;
+	}
+
+	private static void emit(TokenSink sink, int start, int end, TokenType type) {
+		if(sink != null && start < end)
+			sink.token(start, end, type);
+	}
+
+	/**
+	 * Returns true if line ends with an odd number of backslashes.
+	 */
+	private static boolean continues(char[] text, int from, int end) {
+		int backslashes = 0;
+		for(int i = end - 1; i >= from && text[i] == '\\'; i--)
+			backslashes++;
+		return backslashes % 2 == 1;
+	}
+}
@@ -0,0 +1,610 @@
+package com.notepad.highlight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+
+import com.notepad.document.PieceTableDocument;
+import com.notepad.document.TextSource;
+
+/**
+ * Keeps lexer state at the start of every line of a document so any line can be lexed on its own when it is painted.
+ * After an edit, lines are lexed again from the edited one until the state at the start of a line after the edit is
+ * the same as before, because from there on nothing changed. Few lines are lexed on the EDT, the rest is lexed
+ * in the background over a snapshot of the text and handed back to the EDT in chunks.
+ * States are kept only while the document is shown, that is from the first {@link #getTokens(int)} until {@link #release()}.
+ * Methods must be called on the EDT.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class SyntaxHighlighter {
+
+	/**
+	 * Value of dirtyFrom when states of all lines are known
+	 */
+	private static final int CLEAN = Integer.MAX_VALUE;
+
+	/**
+	 * Longer lines are not lexed, they are drawn as plain text and start the next line in the initial state
+	 */
+	static final int MAX_LINE_LENGTH = 100_000;
+
+	/**
+	 * Characters lexed on the EDT before the rest is left to the background
+	 */
+	private static final int EDT_CHARS = 64 * 1024;
+
+	/**
+	 * Milliseconds from the last edit to lexing lines after it
+	 */
+	private static final int DELAY = 50;
+
+	private static final int FIRST_CHUNK = 64;
+
+	private static final int MAX_CHUNK = 64 * 1024;
+
+	/**
+	 * One thread lexes for all documents, only the document being shown has work to do
+	 */
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "syntax-highlighter");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	private final PieceTableDocument document;
+
+	private Lexer lexer;
+
+	/**
+	 * State at the start of each line, null while highlighter is not active
+	 */
+	private int[] states;
+
+	/**
+	 * Number of lines in states
+	 */
+	private int lines;
+
+	/**
+	 * First line whose state is not known, {@link #CLEAN} if states of all lines are known
+	 */
+	private int dirtyFrom;
+
+	/**
+	 * Last line whose stored state is left from text that was replaced, stored states of later lines were right
+	 * before the edit and lexing stops once it finds one of them unchanged
+	 */
+	private int dirtyTo;
+
+	/**
+	 * Counts edits, tokens and background results are thrown away once it changes
+	 */
+	private int version;
+
+	private Job job;
+
+	private final Timer timer;
+
+	private final LineTokens tokens;
+
+	private final Segment segment;
+
+	private final List<ChangeListener> listeners;
+
+	/**
+	 * Creates highlighter of document.
+	 *
+	 * @param document document to highlight
+	 * @param lexer lexer of document, null if document is plain text
+	 */
+	public SyntaxHighlighter(PieceTableDocument document, Lexer lexer) {
+		this.document = document;
+		this.lexer = lexer;
+		tokens = new LineTokens();
+		segment = new Segment();
+		listeners = new ArrayList<>();
+		timer = new Timer(DELAY, e -> resume());
+		timer.setRepeats(false);
+
+		document.addDocumentListener(new DocumentListener() {
+
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				edited(e);
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				edited(e);
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				//bulk replacements are reported as changes
+				edited(e);
+			}
+		});
+	}
+
+	/**
+	 * Returns highlighted document.
+	 *
+	 * @return document
+	 */
+	public PieceTableDocument getDocument() {
+		return document;
+	}
+
+	/**
+	 * Returns lexer of document.
+	 *
+	 * @return lexer, null if document is plain text
+	 */
+	public Lexer getLexer() {
+		return lexer;
+	}
+
+	/**
+	 * Changes lexer of document, for example after it was saved as another file type. Whole document is lexed again.
+	 *
+	 * @param lexer new lexer, null if document is plain text
+	 */
+	public void setLexer(Lexer lexer) {
+		if(this.lexer == lexer)
+			return;
+
+		this.lexer = lexer;
+		release();
+		fireChanged();
+	}
+
+	/**
+	 * Returns true if states of all lines are known, which is also true while highlighter is not active.
+	 *
+	 * @return are all lines lexed
+	 */
+	public boolean isUpToDate() {
+		return states == null || dirtyFrom == CLEAN;
+	}
+
+	/**
+	 * Drops states of lines and stops lexing, for example when document is no longer shown.
+	 * Highlighter becomes active again on the next {@link #getTokens(int)}.
+	 */
+	public void release() {
+		cancel();
+		timer.stop();
+		states = null;
+		lines = 0;
+		version++;
+	}
+
+	/**
+	 * Adds listener notified when states of lines changed and lines have to be painted again.
+	 *
+	 * @param l listener to add
+	 */
+	public void addChangeListener(ChangeListener l) {
+		listeners.add(l);
+	}
+
+	public void removeChangeListener(ChangeListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Returns tokens of line for painting it. Returned object is reused by the next call.
+	 *
+	 * @param line line to lex
+	 * @return tokens of line, null if document is plain text or line is too long
+	 */
+	LineTokens getTokens(int line) {
+		if(lexer == null)
+			return null;
+
+		if(states == null)
+			activate();
+
+		if(line >= lines)
+			return null;
+
+		//painted line should not wait for the background unless that would take long
+		if(line >= dirtyFrom) {
+			Element root = document.getDefaultRootElement();
+			if(root.getElement(line).getStartOffset() - root.getElement(dirtyFrom - 1).getStartOffset() <= EDT_CHARS)
+				lexUpTo(line, EDT_CHARS);
+		}
+
+		int state = states[line];
+		if(tokens.line == line && tokens.version == version && tokens.state == state)
+			return tokens.count == -1 ? null : tokens;
+
+		tokens.line = line;
+		tokens.version = version;
+		tokens.state = state;
+		tokens.count = 0;
+		Element element = document.getDefaultRootElement().getElement(line);
+		int start = element.getStartOffset();
+		//new line that ends the line is not lexed
+		int length = element.getEndOffset() - 1 - start;
+		if(length > MAX_LINE_LENGTH) {
+			tokens.count = -1;
+			return null;
+		}
+
+		int base = readLine(start, length);
+		lexer.lexLine(segment.array, segment.offset, segment.offset + length, state, (s, e, type) -> tokens.add(base + s, base + e, type));
+		return tokens;
+	}
+
+	private void activate() {
+		lines = document.getDefaultRootElement().getElementCount();
+		states = new int[lines + 16];
+		dirtyFrom = 1;
+		dirtyTo = lines - 1;
+		if(dirtyFrom >= lines)
+			dirtyFrom = CLEAN;
+		else
+			timer.restart();
+	}
+
+	/**
+	 * Moves states of lines after the edited one and marks lines whose state can change as dirty.
+	 */
+	private void edited(DocumentEvent e) {
+		if(states == null)
+			return;
+
+		version++;
+		cancel();
+
+		Element root = document.getDefaultRootElement();
+		DocumentEvent.ElementChange change = e.getChange(root);
+		int index;
+		int removed;
+		int added;
+		if(change == null) {
+			index = root.getElementIndex(e.getOffset());
+			removed = 1;
+			added = 1;
+		}
+		else {
+			index = change.getIndex();
+			removed = change.getChildrenRemoved().length;
+			added = change.getChildrenAdded().length;
+		}
+
+		int newLines = lines - removed + added;
+		if(newLines > states.length)
+			states = Arrays.copyOf(states, newLines + newLines / 2);
+		System.arraycopy(states, index + removed, states, index + added, lines - index - removed);
+		lines = newLines;
+
+		//state at the start of the edited line stays, lines after it can change up to the first one after the edit
+		//whose state comes out as before
+		int from = index + 1;
+		int to = index + added - 1;
+		if(dirtyFrom == CLEAN) {
+			dirtyFrom = from;
+			dirtyTo = to;
+		}
+		else {
+			if(dirtyTo >= index + removed)
+				dirtyTo += added - removed;
+			else if(dirtyTo > index)
+				dirtyTo = to;
+			dirtyFrom = Math.min(dirtyFrom, from);
+			dirtyTo = Math.max(dirtyTo, to);
+		}
+
+		if(dirtyFrom >= lines)
+			dirtyFrom = CLEAN;
+		else
+			timer.restart();
+	}
+
+	/**
+	 * Stores state at the start of line dirtyFrom, which was just lexed.
+	 *
+	 * @return true if states of all lines are now known
+	 */
+	private boolean advance(int state, boolean[] changed) {
+		int line = dirtyFrom;
+		boolean converged = line > dirtyTo && states[line] == state;
+		if(states[line] != state) {
+			states[line] = state;
+			changed[0] = true;
+		}
+
+		dirtyFrom = line + 1;
+		if(converged || dirtyFrom >= lines) {
+			dirtyFrom = CLEAN;
+			cancel();
+			timer.stop();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Lexes dirty lines on the EDT until state of line is known or about limit characters were lexed.
+	 */
+	private void lexUpTo(int line, int limit) {
+		Element root = document.getDefaultRootElement();
+		boolean[] changed = new boolean[1];
+		int lexed = 0;
+		for(int i = dirtyFrom - 1; i < line && lexed <= limit; i++) {
+			Element element = root.getElement(i);
+			int start = element.getStartOffset();
+			int length = element.getEndOffset() - 1 - start;
+			int state = Lexer.INITIAL_STATE;
+			if(length <= MAX_LINE_LENGTH) {
+				readLine(start, length);
+				state = lexer.lexLine(segment.array, segment.offset, segment.offset + length, states[i], null);
+			}
+			lexed += length + 1;
+			if(advance(state, changed))
+				break;
+		}
+
+		//lines below the painted ones can look different now
+		if(changed[0])
+			fireChanged();
+	}
+
+	/**
+	 * Lexes some lines on the EDT after an edit, starts lexing the rest in the background if that was not enough.
+	 */
+	private void resume() {
+		if(states == null || dirtyFrom == CLEAN || job != null)
+			return;
+
+		lexUpTo(lines - 1, EDT_CHARS);
+		if(dirtyFrom == CLEAN)
+			return;
+
+		int first = dirtyFrom - 1;
+		int start = document.getDefaultRootElement().getElement(first).getStartOffset();
+		job = new Job(lexer, document.snapshot(), start, first, states[first]);
+		EXECUTOR.execute(job);
+	}
+
+	private void cancel() {
+		if(job != null) {
+			job.cancelled = true;
+			job = null;
+		}
+	}
+
+	/**
+	 * Stores states lexed in the background if nothing was edited since the job started.
+	 */
+	private void apply(Job from, int firstLine, int[] chunk, int count) {
+		if(from != job)
+			return;
+
+		boolean[] changed = new boolean[1];
+		for(int i = 0; i < count; i++) {
+			int line = firstLine + i;
+			//lines already lexed on the EDT
+			if(line < dirtyFrom)
+				continue;
+			if(advance(chunk[i], changed))
+				break;
+		}
+
+		if(changed[0])
+			fireChanged();
+	}
+
+	/**
+	 * Reads characters of document into segment as one array.
+	 *
+	 * @return offset in document of the first character of segment array
+	 */
+	private int readLine(int start, int length) {
+		try {
+			segment.setPartialReturn(false);
+			document.getText(start, length, segment);
+		} catch(BadLocationException ex) {
+			throw new RuntimeException("Error while reading document");
+		}
+		return start - segment.offset;
+	}
+
+	private void fireChanged() {
+		ChangeEvent event = new ChangeEvent(this);
+		for(ChangeListener l : listeners)
+			l.stateChanged(event);
+	}
+
+	/**
+	 * Lexes lines of a snapshot from a line whose state is known and sends states of the following lines to the EDT.
+	 */
+	private final class Job implements Runnable {
+
+		private final Lexer lexer;
+
+		private final TextSource text;
+
+		private final int startOffset;
+
+		private final int startLine;
+
+		private final int startState;
+
+		private volatile boolean cancelled;
+
+		Job(Lexer lexer, TextSource text, int startOffset, int startLine, int startState) {
+			this.lexer = lexer;
+			this.text = text;
+			this.startOffset = startOffset;
+			this.startLine = startLine;
+			this.startState = startState;
+		}
+
+		@Override
+		public void run() {
+			LineReader reader = new LineReader(text, startOffset);
+			int state = startState;
+			int chunkSize = FIRST_CHUNK;
+			int[] chunk = new int[chunkSize];
+			int count = 0;
+			int firstLine = startLine + 1;
+
+			while(!cancelled && reader.next()) {
+				state = reader.isTooLong() ? Lexer.INITIAL_STATE : lexer.lexLine(reader.getLine(), 0, reader.getLength(), state, null);
+				chunk[count++] = state;
+				if(count == chunkSize) {
+					send(firstLine, chunk, count);
+					firstLine += count;
+					//first lines come back fast, later ones in bigger chunks so the EDT is not flooded
+					chunkSize = Math.min(chunkSize * 2, MAX_CHUNK);
+					chunk = new int[chunkSize];
+					count = 0;
+				}
+			}
+
+			if(!cancelled && count > 0)
+				send(firstLine, chunk, count);
+		}
+
+		private void send(int firstLine, int[] chunk, int count) {
+			SwingUtilities.invokeLater(() -> apply(this, firstLine, chunk, count));
+		}
+	}
+
+	/**
+	 * Reads text one line at a time, characters of a line are copied into one array.
+	 */
+	private static final class LineReader {
+
+		private static final int RUN = 64 * 1024;
+
+		private final TextSource text;
+
+		private final Segment run;
+
+		private int offset;
+
+		private char[] line;
+
+		private int length;
+
+		private boolean tooLong;
+
+		LineReader(TextSource text, int offset) {
+			this.text = text;
+			this.offset = offset;
+			run = new Segment();
+			line = new char[256];
+		}
+
+		/**
+		 * Reads next line.
+		 *
+		 * @return false if there are no more lines
+		 */
+		boolean next() {
+			//last line has no new line and ends at the end of text
+			if(offset > text.length())
+				return false;
+
+			length = 0;
+			tooLong = false;
+			int end = text.length();
+			while(offset < end) {
+				text.getChars(offset, Math.min(RUN, end - offset), run);
+				int newLine = -1;
+				for(int i = 0; i < run.count; i++) {
+					if(run.array[run.offset + i] == '\n') {
+						newLine = i;
+						break;
+					}
+				}
+
+				int count = newLine == -1 ? run.count : newLine;
+				append(run.array, run.offset, count);
+				offset += count;
+				if(newLine != -1) {
+					offset++;
+					return true;
+				}
+			}
+			offset = end + 1;
+			return true;
+		}
+
+		private void append(char[] chars, int from, int count) {
+			if(tooLong)
+				return;
+			if(length + count > MAX_LINE_LENGTH) {
+				tooLong = true;
+				return;
+			}
+			if(length + count > line.length)
+				line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+			System.arraycopy(chars, from, line, length, count);
+			length += count;
+		}
+
+		char[] getLine() {
+			return line;
+		}
+
+		int getLength() {
+			return length;
+		}
+
+		boolean isTooLong() {
+			return tooLong;
+		}
+	}
+
+	/**
+	 * Tokens of one line with offsets in document.
+	 */
+	static final class LineTokens {
+
+		private int line = -1;
+
+		private int version;
+
+		private int state;
+
+		int count;
+
+		int[] starts = new int[16];
+
+		int[] ends = new int[16];
+
+		TokenType[] types = new TokenType[16];
+
+		private void add(int start, int end, TokenType type) {
+			if(count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+				types = Arrays.copyOf(types, count * 2);
+			}
+			starts[count] = start;
+			ends[count] = end;
+			types[count] = type;
+			count++;
+		}
+	}
+}
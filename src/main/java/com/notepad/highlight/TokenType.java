@@ -0,0 +1,36 @@
+package com.notepad.highlight;
+
+import java.awt.Color;
+
+/**
+ * Kinds of tokens lexers find, every kind is shown in its own color.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public enum TokenType {
+	PLAIN(null),
+	KEYWORD(new Color(0x7F0055)),
+	STRING(new Color(0x2A00FF)),
+	NUMBER(new Color(0x098658)),
+	COMMENT(new Color(0x3F7F5F)),
+	ANNOTATION(new Color(0x646464)),
+	TAG(new Color(0x3F7F7F)),
+	ATTRIBUTE(new Color(0x7F007F)),
+	KEY(new Color(0x0451A5));
+
+	private final Color color;
+
+	private TokenType(Color color) {
+		this.color = color;
+	}
+
+	/**
+	 * Returns color tokens of this kind are drawn with.
+	 *
+	 * @return color, null if token is drawn like plain text
+	 */
+	public Color getColor() {
+		return color;
+	}
+}
@@ -0,0 +1,161 @@
+package com.notepad.highlight;
+
+/**
+ * {@link Lexer} of XML. Tags, attribute values, comments and CDATA sections can all continue on the next line,
+ * state tells which one the line starts in.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class XmlLexer implements Lexer {
+
+	private static final int TEXT = INITIAL_STATE;
+
+	private static final int TAG = 1;
+
+	private static final int COMMENT = 2;
+
+	private static final int CDATA = 3;
+
+	private static final int DOUBLE_QUOTED = 4;
+
+	private static final int SINGLE_QUOTED = 5;
+
+	@Override
+	public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+		int i = start;
+		while(i < end) {
+			switch(state) {
+			case COMMENT -> {
+				int close = find(text, i, end, "-->");
+				emit(sink, i, close == -1 ? end : close + 3, TokenType.COMMENT);
+				if(close == -1)
+					return COMMENT;
+				i = close + 3;
+				state = TEXT;
+			}
+			case CDATA -> {
+				int close = find(text, i, end, "]]>");
+				emit(sink, i, close == -1 ? end : close + 3, TokenType.STRING);
+				if(close == -1)
+					return CDATA;
+				i = close + 3;
+				state = TEXT;
+			}
+			case DOUBLE_QUOTED, SINGLE_QUOTED -> {
+				char quote = state == DOUBLE_QUOTED ? '"' : '\'';
+				int close = i;
+				while(close < end && text[close] != quote)
+					close++;
+				emit(sink, i, Math.min(close + 1, end), TokenType.STRING);
+				if(close == end)
+					return state;
+				i = close + 1;
+				state = TAG;
+			}
+			case TAG -> {
+				char c = text[i];
+				if(c == '>') {
+					emit(sink, i, i + 1, TokenType.TAG);
+					i++;
+					state = TEXT;
+				}
+				else if((c == '/' || c == '?') && i + 1 < end && text[i + 1] == '>') {
+					emit(sink, i, i + 2, TokenType.TAG);
+					i += 2;
+					state = TEXT;
+				}
+				else if(c == '"' || c == '\'') {
+					state = c == '"' ? DOUBLE_QUOTED : SINGLE_QUOTED;
+					emit(sink, i, i + 1, TokenType.STRING);
+					i++;
+				}
+				else if(isNameChar(c)) {
+					int close = endOfName(text, i, end);
+					emit(sink, i, close, TokenType.ATTRIBUTE);
+					i = close;
+				}
+				else {
+					i++;
+				}
+			}
+			default -> {
+				if(startsWith(text, i, end, "<!--")) {
+					state = COMMENT;
+					emit(sink, i, i + 4, TokenType.COMMENT);
+					i += 4;
+				}
+				else if(startsWith(text, i, end, "<![CDATA[")) {
+					state = CDATA;
+					emit(sink, i, i + 9, TokenType.STRING);
+					i += 9;
+				}
+				else if(text[i] == '<') {
+					//tag name together with <, </, <? or <!
+					int close = i + 1;
+					if(close < end && (text[close] == '/' || text[close] == '?' || text[close] == '!'))
+						close++;
+					close = endOfName(text, close, end);
+					emit(sink, i, close, TokenType.TAG);
+					i = close;
+					state = TAG;
+				}
+				else if(text[i] == '&') {
+					int close = i + 1;
+					while(close < end && close - i < 12 && text[close] != ';' && !Character.isWhitespace(text[close]))
+						close++;
+					if(close < end && text[close] == ';') {
+						emit(sink, i, close + 1, TokenType.KEYWORD);
+						i = close + 1;
+					}
+					else {
+						i++;
+					}
+				}
+				else {
+					i++;
+				}
+			}
+			}
+		}
+		return state;
+	}
+
+	private static void emit(TokenSink sink, int start, int end, TokenType type) {
+		if(sink != null && start < end)
+			sink.token(start, end, type);
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == ':' || c == '_' || c == '-' || c == '.';
+	}
+
+	private static int endOfName(char[] text, int from, int end) {
+		int i = from;
+		while(i < end && isNameChar(text[i]))
+			i++;
+		return i;
+	}
+
+	private static boolean startsWith(char[] text, int from, int end, String prefix) {
+		if(end - from < prefix.length())
+			return false;
+
+		for(int i = 0; i < prefix.length(); i++) {
+			if(text[from + i] != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns index where suffix starts, -1 if it is not in [from, end).
+	 */
+	private static int find(char[] text, int from, int end, String suffix) {
+		for(int i = from; i <= end - suffix.length(); i++) {
+			if(startsWith(text, i, end, suffix))
+				return i;
+		}
+		return -1;
+	}
+}
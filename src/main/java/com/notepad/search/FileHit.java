@@ -0,0 +1,59 @@
+package com.notepad.search;
+
+import java.nio.file.Path;
+
+/**
+ * Line of a file that contains a match, found by {@link FileSearch}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class FileHit {
+
+	private final Path path;
+
+	private final int line;
+
+	private final int column;
+
+	private final int length;
+
+	private final String preview;
+
+	/**
+	 * Creates hit.
+	 *
+	 * @param path file that contains the match
+	 * @param line index of line of match, starting at 0
+	 * @param column offset of match from start of line
+	 * @param length length of match
+	 * @param preview text of line around the match
+	 */
+	public FileHit(Path path, int line, int column, int length, String preview) {
+		this.path = path;
+		this.line = line;
+		this.column = column;
+		this.length = length;
+		this.preview = preview;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public String getPreview() {
+		return preview;
+	}
+}
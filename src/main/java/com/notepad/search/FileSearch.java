@@ -0,0 +1,236 @@
+package com.notepad.search;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import com.notepad.document.DocumentReader;
+import com.notepad.document.TextSource;
+
+/**
+ * Searches every file in a directory tree. Every directory is listed by its own task and every file
+ * is searched by its own task on a pool with a fixed number of threads, so directories are walked and
+ * files are searched in parallel. Bigger files are memory mapped. Like grep, every line with a match
+ * is reported once, with its first match.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class FileSearch {
+
+	/**
+	 * Files of this size in bytes or bigger are memory mapped instead of read in
+	 */
+	private static final long MAPPED_THRESHOLD = 1 << 20;
+
+	/**
+	 * Most lines reported for one file
+	 */
+	public static final int MAX_HITS_PER_FILE = 1000;
+
+	/**
+	 * Longest preview of a line
+	 */
+	public static final int MAX_PREVIEW = 200;
+
+	/**
+	 * Number of characters at start of file checked for zeros, files with zeros are binary and skipped
+	 */
+	private static final int BINARY_SAMPLE = 8192;
+
+	private final TextSearcher searcher;
+
+	private final Charset fallback;
+
+	private final int threads;
+
+	/**
+	 * Creates search.
+	 *
+	 * @param searcher searcher that finds matches in each file
+	 * @param fallback charset of files that are neither UTF-8 nor UTF-16
+	 * @param threads number of threads that walk and search
+	 */
+	public FileSearch(TextSearcher searcher, Charset fallback, int threads) {
+		this.searcher = searcher;
+		this.fallback = fallback;
+		this.threads = threads;
+	}
+
+	/**
+	 * Starts searching files under root whose names match glob. Symbolic links are not followed, directories
+	 * and files that can not be read are skipped. Hits of a file are passed to consumer together as soon as
+	 * the file is searched, from the searching threads.
+	 *
+	 * @param root directory to search
+	 * @param glob pattern of file names such as *.log, null or empty for every file
+	 * @param hits receives hits of each file that has some, called from many threads
+	 * @return future completed with number of searched files, cancelling it stops the search
+	 */
+	public CompletableFuture<Integer> start(Path root, String glob, Consumer<List<FileHit>> hits) {
+		CompletableFuture<Integer> future = new CompletableFuture<>();
+		PathMatcher matcher = glob == null || glob.isEmpty() ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		AtomicInteger searched = new AtomicInteger();
+		BooleanSupplier cancelled = future::isCancelled;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		pool.execute(() -> {
+			try {
+				new DirectoryTask(root, matcher, hits, searched, cancelled).invoke();
+				future.complete(searched.get());
+			} catch(Throwable ex) {
+				future.completeExceptionally(ex);
+			}
+			finally {
+				pool.shutdown();
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Lists one directory, forks a task for every subdirectory and matching file and waits for them.
+	 */
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path directory;
+		private final PathMatcher matcher;
+		private final Consumer<List<FileHit>> hits;
+		private final AtomicInteger searched;
+		private final BooleanSupplier cancelled;
+
+		DirectoryTask(Path directory, PathMatcher matcher, Consumer<List<FileHit>> hits, AtomicInteger searched, BooleanSupplier cancelled) {
+			this.directory = directory;
+			this.matcher = matcher;
+			this.hits = hits;
+			this.searched = searched;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		protected void compute() {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			try(DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				for(Path entry : entries) {
+					if(cancelled.getAsBoolean())
+						break;
+
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch(IOException ex) {
+						continue;
+					}
+
+					if(attributes.isDirectory())
+						tasks.add(new DirectoryTask(entry, matcher, hits, searched, cancelled).fork());
+					else if(attributes.isRegularFile() && (matcher == null || matcher.matches(entry.getFileName())))
+						tasks.add(ForkJoinTask.adapt(() -> searchFile(entry)).fork());
+				}
+			} catch(IOException ex) {
+				//directory that can not be read is skipped
+			}
+
+			for(ForkJoinTask<?> task : tasks)
+				task.join();
+		}
+
+		private void searchFile(Path file) {
+			if(cancelled.getAsBoolean())
+				return;
+
+			List<FileHit> found;
+			try {
+				found = search(file, cancelled);
+			} catch(IOException | IllegalStateException ex) {
+				//file that can not be read or was changed while it was searched is skipped
+				return;
+			}
+
+			searched.incrementAndGet();
+			if(!found.isEmpty())
+				hits.accept(found);
+		}
+	}
+
+	/**
+	 * Searches one file.
+	 *
+	 * @param file file to search
+	 * @param cancelled checked while searching, can be null
+	 * @return lines of file with a match, empty for binary files
+	 * @throws IOException if file can not be read
+	 */
+	public List<FileHit> search(Path file, BooleanSupplier cancelled) throws IOException {
+		TextSource text = DocumentReader.read(file, MAPPED_THRESHOLD, fallback, null, cancelled).getContent().getOriginal();
+		TextSequence sequence = new TextSequence(text, cancelled);
+		int length = sequence.length();
+
+		for(int i = 0, end = Math.min(length, BINARY_SAMPLE); i < end; i++) {
+			if(sequence.charAt(i) == '\0')
+				return Collections.emptyList();
+		}
+
+		List<FileHit> hits = new ArrayList<>();
+		int line = 0;
+		int lineStart = 0;
+		int scanned = 0;
+		SearchMatch match = searcher.find(text, 0, cancelled);
+		while(match != null && hits.size() < MAX_HITS_PER_FILE) {
+			int start = match.getStart();
+			for(; scanned < start; scanned++) {
+				if(sequence.charAt(scanned) == '\n') {
+					line++;
+					lineStart = scanned + 1;
+				}
+			}
+
+			int lineEnd = start;
+			while(lineEnd < length && sequence.charAt(lineEnd) != '\n')
+				lineEnd++;
+
+			hits.add(new FileHit(file, line, start - lineStart, match.getLength(), preview(sequence, lineStart, lineEnd, start)));
+
+			//rest of line is skipped, next search starts on next line
+			if(lineEnd >= length)
+				break;
+			match = searcher.find(text, lineEnd + 1, cancelled);
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Returns text of line, cut around match if line is long.
+	 */
+	private static String preview(TextSequence sequence, int lineStart, int lineEnd, int matchStart) {
+		int from = matchStart - lineStart > MAX_PREVIEW / 2 ? matchStart - MAX_PREVIEW / 4 : lineStart;
+		int to = Math.min(lineEnd, from + MAX_PREVIEW);
+		if(to > from && sequence.charAt(to - 1) == '\r')
+			to--;
+
+		StringBuilder sb = new StringBuilder(to - from + 3);
+		if(from > lineStart)
+			sb.append("...");
+		sequence.appendTo(sb, from, to);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,133 @@
+package com.notepad.search;
+
+import java.util.function.BooleanSupplier;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Searches for literal text with Boyer-Moore-Horspool. The window is compared starting with its last
+ * character, on a mismatch it is shifted by the distance of that character from the end of the pattern.
+ * Shifts are kept per low byte of the character, characters that share a byte get the shortest shift.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class LiteralSearcher extends TextSearcher{
+
+	private final char[] pattern;
+
+	private final boolean ignoreCase;
+
+	/**
+	 * Shift of window searching forward, by last character of window
+	 */
+	private final int[] shifts;
+
+	/**
+	 * Shift of window searching backward, by first character of window
+	 */
+	private final int[] backShifts;
+
+	LiteralSearcher(SearchQuery query) {
+		ignoreCase = !query.isMatchCase();
+		pattern = query.getText().toCharArray();
+		int m = pattern.length;
+		for(int i = 0; i < m; i++)
+			pattern[i] = fold(pattern[i]);
+
+		shifts = new int[256];
+		backShifts = new int[256];
+		for(int i = 0; i < 256; i++) {
+			shifts[i] = m;
+			backShifts[i] = m;
+		}
+		for(int i = 0; i < m - 1; i++)
+			shifts[pattern[i] & 0xFF] = m - 1 - i;
+		for(int i = m - 1; i > 0; i--)
+			backShifts[pattern[i] & 0xFF] = i;
+	}
+
+	@Override
+	public SearchMatch find(TextSource text, int from, BooleanSupplier cancelled) {
+		TextSequence sequence = new TextSequence(text, cancelled);
+		int position = find(sequence, from, sequence.length());
+		return position == -1 ? null : new SearchMatch(position, position + pattern.length);
+	}
+
+	@Override
+	public SearchMatch find(TextSource text, int from, int to, BooleanSupplier cancelled) {
+		TextSequence sequence = new TextSequence(text, cancelled);
+		int position = find(sequence, from, Math.min(to, sequence.length()));
+		return position == -1 ? null : new SearchMatch(position, position + pattern.length);
+	}
+
+	@Override
+	public SearchMatch findPrevious(TextSource text, int before, BooleanSupplier cancelled) {
+		TextSequence sequence = new TextSequence(text, cancelled);
+		int m = pattern.length;
+		char first = pattern[0];
+
+		int position = Math.min(before, sequence.length()) - m;
+		while(position >= 0) {
+			char c = fold(sequence.charAt(position));
+			if(c == first && matches(sequence, position, 1))
+				return new SearchMatch(position, position + m);
+			position -= backShifts[c & 0xFF];
+		}
+		return null;
+	}
+
+	@Override
+	public Replacement replaceAll(TextSource text, int start, int end, String replacement, BooleanSupplier cancelled) {
+		TextSequence sequence = new TextSequence(text, cancelled);
+		int first = find(sequence, start, end);
+		if(first == -1)
+			return null;
+
+		StringBuilder sb = new StringBuilder();
+		int count = 0;
+		int last = first;
+		for(int position = first; position != -1; position = find(sequence, last, end)) {
+			sequence.appendTo(sb, last, position);
+			sb.append(replacement);
+			last = position + pattern.length;
+			count++;
+		}
+
+		return new Replacement(first, last, sb.toString(), count);
+	}
+
+	/**
+	 * Returns start of first match in [from, to) or -1.
+	 */
+	private int find(TextSequence sequence, int from, int to) {
+		int m = pattern.length;
+		char last = pattern[m - 1];
+
+		int position = Math.max(from, 0);
+		while(position <= to - m) {
+			char c = fold(sequence.charAt(position + m - 1));
+			if(c == last && matches(sequence, position, 0))
+				return position;
+			position += shifts[c & 0xFF];
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares window at position with pattern from index from on, leaving out one character at either end
+	 * which was already compared. Comparison goes forward so the view mostly reads forward too.
+	 */
+	private boolean matches(TextSequence sequence, int position, int from) {
+		int end = pattern.length - 1 + from;
+		for(int i = from; i < end; i++) {
+			if(fold(sequence.charAt(position + i)) != pattern[i])
+				return false;
+		}
+		return true;
+	}
+
+	private char fold(char c) {
+		return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+	}
+}
@@ -0,0 +1,146 @@
+package com.notepad.search;
+
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Searches for regular expression over a {@link TextSequence} view of the text. Bounds are transparent,
+ * so look-arounds see text outside of the searched range, and not anchoring, so ^ and $ keep their meaning.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+class RegexSearcher extends TextSearcher{
+
+	private final Pattern pattern;
+
+	RegexSearcher(SearchQuery query) {
+		int flags = Pattern.MULTILINE;
+		if(!query.isMatchCase())
+			flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+
+		pattern = Pattern.compile(query.getText(), flags);
+	}
+
+	@Override
+	public SearchMatch find(TextSource text, int from, BooleanSupplier cancelled) {
+		Matcher matcher = matcher(new TextSequence(text, cancelled));
+		if(from > text.length() || !matcher.find(Math.max(from, 0)))
+			return null;
+
+		return new SearchMatch(matcher.start(), matcher.end());
+	}
+
+	@Override
+	public SearchMatch find(TextSource text, int from, int to, BooleanSupplier cancelled) {
+		Matcher matcher = matcher(new TextSequence(text, cancelled));
+		int end = Math.min(to, text.length());
+		if(from > end)
+			return null;
+
+		matcher.region(Math.max(from, 0), end);
+		if(!matcher.find())
+			return null;
+
+		return new SearchMatch(matcher.start(), matcher.end());
+	}
+
+	@Override
+	public SearchMatch findPrevious(TextSource text, int before, BooleanSupplier cancelled) {
+		Matcher matcher = matcher(new TextSequence(text, cancelled));
+		matcher.region(0, Math.min(Math.max(before, 0), text.length()));
+
+		//matches can only be found going forward, last one is kept
+		SearchMatch last = null;
+		while(matcher.find())
+			last = new SearchMatch(matcher.start(), matcher.end());
+		return last;
+	}
+
+	@Override
+	public Replacement replaceAll(TextSource text, int start, int end, String replacement, BooleanSupplier cancelled) {
+		TextSequence sequence = new TextSequence(text, cancelled);
+		Matcher matcher = matcher(sequence);
+		matcher.region(start, end);
+		if(!matcher.find())
+			return null;
+
+		StringBuilder sb = new StringBuilder();
+		int first = matcher.start();
+		int last = first;
+		int count = 0;
+		do {
+			sequence.appendTo(sb, last, matcher.start());
+			expand(matcher, replacement, sb);
+			last = matcher.end();
+			count++;
+		} while(matcher.find());
+
+		return new Replacement(first, last, sb.toString(), count);
+	}
+
+	private Matcher matcher(TextSequence sequence) {
+		Matcher matcher = pattern.matcher(sequence);
+		matcher.useTransparentBounds(true);
+		matcher.useAnchoringBounds(false);
+		return matcher;
+	}
+
+	/**
+	 * Appends replacement for current match of matcher. Same syntax as {@link Matcher#appendReplacement(StringBuilder, String)},
+	 * which can not be used because it would also append all text before the match.
+	 */
+	private static void expand(Matcher matcher, String replacement, StringBuilder sb) {
+		int length = replacement.length();
+		for(int i = 0; i < length; i++) {
+			char c = replacement.charAt(i);
+
+			if(c == '\\') {
+				if(++i == length)
+					throw new IllegalArgumentException("Character to be escaped is missing");
+				sb.append(replacement.charAt(i));
+				continue;
+			}
+
+			if(c != '$') {
+				sb.append(c);
+				continue;
+			}
+
+			if(++i == length)
+				throw new IllegalArgumentException("Illegal group reference: group index is missing");
+
+			String group;
+			if(replacement.charAt(i) == '{') {
+				int close = replacement.indexOf('}', i);
+				if(close == -1)
+					throw new IllegalArgumentException("Named capturing group is missing trailing '}'");
+				group = matcher.group(replacement.substring(i + 1, close));
+				i = close;
+			}
+			else {
+				int number = replacement.charAt(i) - '0';
+				if(number < 0 || number > 9)
+					throw new IllegalArgumentException("Illegal group reference");
+
+				//more digits are taken while they still name an existing group
+				while(i + 1 < length) {
+					int digit = replacement.charAt(i + 1) - '0';
+					if(digit < 0 || digit > 9 || number * 10 + digit > matcher.groupCount())
+						break;
+					number = number * 10 + digit;
+					i++;
+				}
+				if(number > matcher.groupCount())
+					throw new IllegalArgumentException("No group " + number);
+				group = matcher.group(number);
+			}
+
+			if(group != null)
+				sb.append(group);
+		}
+	}
+}
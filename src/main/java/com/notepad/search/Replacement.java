@@ -0,0 +1,50 @@
+package com.notepad.search;
+
+/**
+ * Result of replacing every match in a range. Only the part of the text from the first to the last match
+ * is given, so it can be applied to the document as one edit.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class Replacement {
+
+	private final int start;
+
+	private final int end;
+
+	private final String text;
+
+	private final int count;
+
+	/**
+	 * Creates replacement.
+	 *
+	 * @param start start of replaced range
+	 * @param end end of replaced range
+	 * @param text new text of range
+	 * @param count number of replaced matches
+	 */
+	public Replacement(int start, int end, String text, int count) {
+		this.start = start;
+		this.end = end;
+		this.text = text;
+		this.count = count;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,37 @@
+package com.notepad.search;
+
+/**
+ * Range of text matched by a search.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class SearchMatch {
+
+	private final int start;
+
+	private final int end;
+
+	/**
+	 * Creates match.
+	 *
+	 * @param start offset of first matched character
+	 * @param end offset after last matched character
+	 */
+	public SearchMatch(int start, int end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public int getLength() {
+		return end - start;
+	}
+}
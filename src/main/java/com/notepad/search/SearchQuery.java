@@ -0,0 +1,59 @@
+package com.notepad.search;
+
+import java.util.Objects;
+
+/**
+ * What is searched for: text of the query and how it is matched.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public final class SearchQuery {
+
+	private final String text;
+
+	private final boolean matchCase;
+
+	private final boolean regex;
+
+	/**
+	 * Creates query.
+	 *
+	 * @param text searched text or regular expression
+	 * @param matchCase should upper and lower case letters be different
+	 * @param regex is text a regular expression
+	 */
+	public SearchQuery(String text, boolean matchCase, boolean regex) {
+		this.text = Objects.requireNonNull(text);
+		this.matchCase = matchCase;
+		this.regex = regex;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public boolean isMatchCase() {
+		return matchCase;
+	}
+
+	public boolean isRegex() {
+		return regex;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj)
+			return true;
+		if(!(obj instanceof SearchQuery))
+			return false;
+
+		SearchQuery other = (SearchQuery) obj;
+		return text.equals(other.text) && matchCase == other.matchCase && regex == other.regex;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(text, matchCase, regex);
+	}
+}
@@ -0,0 +1,80 @@
+package com.notepad.search;
+
+import java.util.function.BooleanSupplier;
+import java.util.regex.PatternSyntaxException;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Finds matches of a {@link SearchQuery} in text. Text is read segment by segment from a {@link TextSource},
+ * usually a snapshot of a document, and is never copied as a whole. Literal queries are matched with
+ * Boyer-Moore-Horspool, regular expressions run over a {@link CharSequence} view of the text.
+ *
+ * Every method takes a supplier that is checked while searching, a search that is no longer needed
+ * stops with a {@link java.util.concurrent.CancellationException}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public abstract class TextSearcher {
+
+	/**
+	 * Creates searcher for given query.
+	 *
+	 * @param query what to search for, text must not be empty
+	 * @return searcher for query
+	 * @throws PatternSyntaxException if query is an invalid regular expression
+	 * @throws IllegalArgumentException if text of query is empty
+	 */
+	public static TextSearcher create(SearchQuery query) {
+		if(query.getText().isEmpty())
+			throw new IllegalArgumentException("Query is empty");
+
+		return query.isRegex() ? new RegexSearcher(query) : new LiteralSearcher(query);
+	}
+
+	/**
+	 * Finds first match that starts at from or later.
+	 *
+	 * @param text text to search
+	 * @param from where search starts
+	 * @param cancelled checked while searching, can be null
+	 * @return first match or null if there is none
+	 */
+	public abstract SearchMatch find(TextSource text, int from, BooleanSupplier cancelled);
+
+	/**
+	 * Finds first match that lies inside [from, to). Text around the range is still seen by look-arounds.
+	 *
+	 * @param text text to search
+	 * @param from start of range
+	 * @param to end of range
+	 * @param cancelled checked while searching, can be null
+	 * @return first match or null if there is none
+	 */
+	public abstract SearchMatch find(TextSource text, int from, int to, BooleanSupplier cancelled);
+
+	/**
+	 * Finds last match that ends at before or earlier.
+	 *
+	 * @param text text to search
+	 * @param before where search ends
+	 * @param cancelled checked while searching, can be null
+	 * @return last match or null if there is none
+	 */
+	public abstract SearchMatch findPrevious(TextSource text, int before, BooleanSupplier cancelled);
+
+	/**
+	 * Replaces every match inside [start, end). For regular expressions replacement can refer to groups
+	 * with $n and ${name}, \ escapes the next character.
+	 *
+	 * @param text text to search
+	 * @param start start of range
+	 * @param end end of range
+	 * @param replacement replacement as written by user
+	 * @param cancelled checked while searching, can be null
+	 * @return new text from first to last match or null if there was no match
+	 * @throws IllegalArgumentException if replacement refers to a group that does not exist
+	 */
+	public abstract Replacement replaceAll(TextSource text, int start, int end, String replacement, BooleanSupplier cancelled);
+}
@@ -0,0 +1,123 @@
+package com.notepad.search;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+import javax.swing.text.Segment;
+
+import com.notepad.document.TextSource;
+
+/**
+ * {@link CharSequence} view of a {@link TextSource} that is read through one segment at a time, so
+ * text is never copied as a whole. Runs are limited in size, which makes loading the next run a cheap
+ * place to check whether the search was cancelled.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+final class TextSequence implements CharSequence {
+
+	/**
+	 * Maximum number of characters in one run
+	 */
+	private static final int MAX_RUN = 1 << 16;
+
+	/**
+	 * How far back a run is started, so reading backwards does not load a run for every character
+	 */
+	private static final int LOOK_BEHIND = 1 << 12;
+
+	private final TextSource text;
+
+	private final BooleanSupplier cancelled;
+
+	private final int length;
+
+	private final Segment segment;
+
+	/**
+	 * Offset of the first character of segment
+	 */
+	private int start;
+
+	/**
+	 * Creates view.
+	 *
+	 * @param text text to view, must not change while it is viewed
+	 * @param cancelled checked whenever a run is loaded, can be null
+	 */
+	TextSequence(TextSource text, BooleanSupplier cancelled) {
+		this.text = text;
+		this.cancelled = cancelled;
+		length = text.length();
+		segment = new Segment();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		int i = index - start;
+		if(i < 0 || i >= segment.count) {
+			load(index);
+			i = index - start;
+		}
+		return segment.array[segment.offset + i];
+	}
+
+	/**
+	 * Loads run that contains index.
+	 */
+	private void load(int index) {
+		if(index < 0 || index >= length)
+			throw new IndexOutOfBoundsException(index);
+		if(cancelled != null && cancelled.getAsBoolean())
+			throw new CancellationException("Search was cancelled");
+
+		//run starting a bit before index is taken if index is in the same piece
+		int from = Math.max(index - LOOK_BEHIND, 0);
+		text.getChars(from, Math.min(length - from, MAX_RUN), segment);
+		if(index - from < segment.count) {
+			start = from;
+			return;
+		}
+
+		text.getChars(index, Math.min(length - index, MAX_RUN), segment);
+		start = index;
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		StringBuilder sb = new StringBuilder(end - start);
+		appendTo(sb, start, end);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends characters in [from, to) to builder.
+	 *
+	 * @param sb where to append
+	 * @param from start of range
+	 * @param to end of range
+	 */
+	void appendTo(StringBuilder sb, int from, int to) {
+		if(from < 0 || to > length || from > to)
+			throw new IndexOutOfBoundsException("Invalid range " + from + ", " + to);
+
+		Segment run = new Segment();
+		int offset = from;
+		while(offset < to) {
+			text.getChars(offset, to - offset, run);
+			sb.append(run.array, run.offset, run.count);
+			offset += run.count;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
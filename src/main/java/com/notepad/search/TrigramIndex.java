@@ -0,0 +1,787 @@
+package com.notepad.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.text.Segment;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Inverted index from trigrams to blocks of text of open documents. Every document is cut into blocks of
+ * about {@link #BLOCK_SIZE} characters and for every trigram the index keeps ids of blocks that contain it.
+ * Searching for literal text then only has to verify blocks that, together with the blocks a match starting
+ * in them reaches, contain every trigram of the text.
+ *
+ * Edits only change lengths of blocks and mark touched blocks dirty, which is cheap enough for the EDT.
+ * Dirty blocks are indexed again by {@link #refresh(Object, TextSource, int)} on a background thread, until
+ * then they are always candidates. Every edit raises the version of its document, index and a snapshot
+ * agree on offsets only while the version is the one snapshot was taken at.
+ *
+ * Trigrams are case folded and hashed, collisions only add candidates. Posting lists hold ids in increasing
+ * order as differences of one or more bytes. Ids of blocks that were indexed again stay in lists until dead
+ * postings outnumber live ones, then every list is rewritten. A document whose postings would take the index
+ * over its memory budget is not indexed and is always searched whole.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class TrigramIndex {
+
+	/**
+	 * Number of characters in a block, blocks are split and merged to stay close to it
+	 */
+	public static final int BLOCK_SIZE = 16 * 1024;
+
+	/**
+	 * Trigrams starting in the last two characters of a block are read into the next block
+	 */
+	private static final int OVERLAP = 2;
+
+	/**
+	 * Number of blocks indexed before memory is checked
+	 */
+	private static final int BATCH = 64;
+
+	private final long budget;
+
+	private final Map<Object, Entry> entries = new IdentityHashMap<>();
+
+	private final PostingTable postings = new PostingTable();
+
+	/**
+	 * Indexed blocks by id, null for dead ids
+	 */
+	private Block[] blocksById = new Block[1024];
+
+	private int nextId;
+
+	private long livePostings;
+
+	private long deadPostings;
+
+	/**
+	 * Ids below next id that belong to no block
+	 */
+	private int deadIds;
+
+	/**
+	 * Only one refresh runs at a time, so dirty blocks are not indexed twice
+	 */
+	private final Object refreshLock = new Object();
+
+	/**
+	 * Creates empty index.
+	 *
+	 * @param budget most bytes index should take
+	 */
+	public TrigramIndex(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Adds document with given length, its text is indexed by the first refresh.
+	 *
+	 * @param key document
+	 * @param length number of characters in document
+	 */
+	public synchronized void add(Object key, int length) {
+		remove(key);
+
+		Entry entry = new Entry();
+		entry.length = length;
+		for(int offset = 0; offset < length; offset += BLOCK_SIZE)
+			entry.blocks.add(new Block(Math.min(BLOCK_SIZE, length - offset)));
+		entries.put(key, entry);
+	}
+
+	/**
+	 * Removes document from index.
+	 *
+	 * @param key document
+	 */
+	public synchronized void remove(Object key) {
+		Entry entry = entries.remove(key);
+		if(entry == null)
+			return;
+
+		for(Block block : entry.blocks)
+			markDirty(block);
+		compactIfWasteful();
+	}
+
+	/**
+	 * Records that text was inserted into document.
+	 *
+	 * @param key document
+	 * @param offset where text was inserted
+	 * @param length number of inserted characters
+	 */
+	public synchronized void textInserted(Object key, int offset, int length) {
+		Entry entry = entries.get(key);
+		if(entry == null || length == 0)
+			return;
+
+		entry.version++;
+		entry.length += length;
+		if(!entry.indexed)
+			return;
+
+		List<Block> blocks = entry.blocks;
+		if(blocks.isEmpty()) {
+			blocks.add(new Block(length));
+			return;
+		}
+
+		//insert at the boundary grows the earlier block, so typing at the end grows the last one
+		int i = 0;
+		int start = 0;
+		while(i < blocks.size() - 1 && start + blocks.get(i).length < offset) {
+			start += blocks.get(i).length;
+			i++;
+		}
+
+		Block block = blocks.get(i);
+		block.length += length;
+		markDirty(block);
+		if(i > 0 && offset - start < OVERLAP)
+			markDirty(blocks.get(i - 1));
+	}
+
+	/**
+	 * Records that text was removed from document.
+	 *
+	 * @param key document
+	 * @param offset where removed text started
+	 * @param length number of removed characters
+	 */
+	public synchronized void textRemoved(Object key, int offset, int length) {
+		Entry entry = entries.get(key);
+		if(entry == null || length == 0)
+			return;
+
+		entry.version++;
+		entry.length -= length;
+		if(!entry.indexed)
+			return;
+
+		List<Block> blocks = entry.blocks;
+		int end = offset + length;
+		int i = 0;
+		int start = 0;
+		while(i < blocks.size() && start + blocks.get(i).length <= offset) {
+			start += blocks.get(i).length;
+			i++;
+		}
+		if(i > 0 && offset - start < OVERLAP)
+			markDirty(blocks.get(i - 1));
+
+		//start is in offsets from before the removal
+		while(i < blocks.size() && start < end) {
+			Block block = blocks.get(i);
+			int blockEnd = start + block.length;
+			markDirty(block);
+			block.length -= Math.min(end, blockEnd) - Math.max(offset, start);
+			if(block.length == 0)
+				blocks.remove(i);
+			else
+				i++;
+			start = blockEnd;
+		}
+	}
+
+	/**
+	 * Records that all text from offset on was replaced. Used for changes that do not tell how much text they removed.
+	 *
+	 * @param key document
+	 * @param offset where replaced text starts
+	 * @param length number of characters in document after the change
+	 */
+	public synchronized void textReplaced(Object key, int offset, int length) {
+		Entry entry = entries.get(key);
+		if(entry == null)
+			return;
+
+		textRemoved(key, offset, entry.length - offset);
+		textInserted(key, offset, length - offset);
+	}
+
+	/**
+	 * Returns version of document, which changes with every edit.
+	 *
+	 * @param key document
+	 * @return version or -1 if document is not in index
+	 */
+	public synchronized int getVersion(Object key) {
+		Entry entry = entries.get(key);
+		return entry == null ? -1 : entry.version;
+	}
+
+	/**
+	 * Indexes dirty blocks of document. Nothing is done if document was edited after version, text has to
+	 * be a snapshot taken at that version. Blocks are indexed in batches, lock is not held while trigrams are read.
+	 *
+	 * @param key document
+	 * @param text snapshot of document
+	 * @param version version of document when snapshot was taken
+	 */
+	public void refresh(Object key, TextSource text, int version) {
+		synchronized(refreshLock) {
+			List<Block> dirty = new ArrayList<>();
+			List<Integer> starts = new ArrayList<>();
+			synchronized(this) {
+				Entry entry = entries.get(key);
+				if(!isCurrent(entry, version) || entry.length != text.length())
+					return;
+
+				rebalance(entry);
+				int start = 0;
+				for(Block block : entry.blocks) {
+					if(block.id == -1) {
+						dirty.add(block);
+						starts.add(start);
+					}
+					start += block.length;
+				}
+			}
+
+			for(int first = 0; first < dirty.size(); first += BATCH) {
+				int last = Math.min(first + BATCH, dirty.size());
+				int[][] trigrams = new int[last - first][];
+				for(int i = first; i < last; i++) {
+					int start = starts.get(i);
+					trigrams[i - first] = trigrams(text, start, Math.min(start + dirty.get(i).length + OVERLAP, text.length()));
+				}
+
+				synchronized(this) {
+					Entry entry = entries.get(key);
+					if(!isCurrent(entry, version))
+						return;
+
+					for(int i = first; i < last; i++)
+						index(dirty.get(i), trigrams[i - first]);
+
+					if(getMemoryUsage() > budget) {
+						//dropping the document which did not fit keeps documents indexed so far
+						entry.indexed = false;
+						for(Block block : entry.blocks)
+							markDirty(block);
+						entry.blocks.clear();
+						compactIfWasteful();
+						return;
+					}
+				}
+			}
+
+			synchronized(this) {
+				compactIfWasteful();
+			}
+		}
+	}
+
+	/**
+	 * Finds regions of documents that can contain literal text. Region of a block reaches into the next block
+	 * far enough for a match that starts in the block to fit. Block is a candidate if blocks a match starting
+	 * in it can reach together contain every trigram of the literal, so a match across a boundary is found
+	 * in region of the block it starts in. Dirty blocks and blocks that reach a dirty one are always candidates.
+	 *
+	 * @param literal text to search for, case does not matter
+	 * @param keys documents
+	 * @param versions versions of documents at which regions are wanted
+	 * @return for every document starts and ends of regions one after another, or null if whole document has to be searched
+	 */
+	public synchronized int[][] candidates(String literal, Object[] keys, int[] versions) {
+		int[][] regions = new int[keys.length][];
+		int m = literal.length();
+		if(m < 3)
+			return regions;
+
+		int[] trigrams = trigrams(literal);
+		long[][] contained = containedTrigrams(trigrams);
+		long[] covered = new long[(trigrams.length + 63) >>> 6];
+
+		for(int k = 0; k < keys.length; k++) {
+			Entry entry = entries.get(keys[k]);
+			if(!isCurrent(entry, versions[k]))
+				continue;
+
+			int[] found = new int[8];
+			int count = 0;
+			int start = 0;
+			List<Block> blocks = entry.blocks;
+			for(int i = 0; i < blocks.size(); i++) {
+				Block block = blocks.get(i);
+				if(canStartMatch(blocks, i, start, m, contained, covered, trigrams.length)) {
+					int end = Math.min(start + block.length + m - 1, entry.length);
+					if(count > 0 && found[count - 1] >= start) {
+						found[count - 1] = end;
+					}
+					else {
+						if(count + 2 > found.length)
+							found = Arrays.copyOf(found, found.length * 2);
+						found[count++] = start;
+						found[count++] = end;
+					}
+				}
+				start += block.length;
+			}
+			regions[k] = Arrays.copyOf(found, count);
+		}
+		return regions;
+	}
+
+	/**
+	 * Returns estimate of bytes taken by index.
+	 *
+	 * @return memory used
+	 */
+	public synchronized long getMemoryUsage() {
+		return postings.getMemoryUsage() + 8L * blocksById.length + 24L * (nextId - deadIds);
+	}
+
+	/**
+	 * Returns most bytes index should take.
+	 *
+	 * @return memory budget
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns number of documents in index, including those too big to be indexed.
+	 *
+	 * @return number of documents
+	 */
+	public synchronized int getDocumentCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns number of documents whose text is indexed.
+	 *
+	 * @return number of indexed documents
+	 */
+	public synchronized int getIndexedDocumentCount() {
+		int count = 0;
+		for(Entry entry : entries.values()) {
+			if(entry.indexed)
+				count++;
+		}
+		return count;
+	}
+
+	private static boolean isCurrent(Entry entry, int version) {
+		return entry != null && entry.indexed && entry.version == version;
+	}
+
+	/**
+	 * Replaces every run of dirty blocks with blocks of even length close to block size,
+	 * so blocks grown by typing are split and blocks shrunk by deleting are merged.
+	 */
+	private void rebalance(Entry entry) {
+		List<Block> blocks = entry.blocks;
+		List<Block> balanced = new ArrayList<>(blocks.size());
+		int i = 0;
+		while(i < blocks.size()) {
+			if(blocks.get(i).id != -1) {
+				balanced.add(blocks.get(i++));
+				continue;
+			}
+
+			int length = 0;
+			while(i < blocks.size() && blocks.get(i).id == -1)
+				length += blocks.get(i++).length;
+
+			int count = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			for(int j = 0; j < count; j++)
+				balanced.add(new Block(length / count + (j < length % count ? 1 : 0)));
+		}
+		entry.blocks = balanced;
+	}
+
+	/**
+	 * Gives block a new id and adds it to posting lists of its trigrams.
+	 */
+	private void index(Block block, int[] trigrams) {
+		if(nextId == blocksById.length)
+			blocksById = Arrays.copyOf(blocksById, blocksById.length * 2);
+
+		block.id = nextId++;
+		block.postings = trigrams.length;
+		blocksById[block.id] = block;
+		for(int trigram : trigrams)
+			postings.add(trigram, block.id);
+		livePostings += trigrams.length;
+	}
+
+	/**
+	 * Takes block out of index, its id stays in posting lists until they are compacted.
+	 */
+	private void markDirty(Block block) {
+		if(block.id == -1)
+			return;
+
+		blocksById[block.id] = null;
+		livePostings -= block.postings;
+		deadPostings += block.postings;
+		deadIds++;
+		block.id = -1;
+		block.postings = 0;
+	}
+
+	/**
+	 * Rewrites posting lists without dead ids once there are more dead postings than live ones.
+	 * Live ids are numbered again in the same order, so lists stay sorted.
+	 */
+	private void compactIfWasteful() {
+		if(deadPostings <= livePostings)
+			return;
+
+		int[] renumbered = new int[nextId];
+		int next = 0;
+		for(int id = 0; id < nextId; id++) {
+			Block block = blocksById[id];
+			if(block == null) {
+				renumbered[id] = -1;
+				continue;
+			}
+			renumbered[id] = next;
+			block.id = next;
+			blocksById[next++] = block;
+		}
+		Arrays.fill(blocksById, next, nextId, null);
+		if(blocksById.length > 1024 && next < blocksById.length / 4)
+			blocksById = Arrays.copyOf(blocksById, Math.max(1024, next * 2));
+
+		postings.compact(renumbered);
+		nextId = next;
+		deadPostings = 0;
+		deadIds = 0;
+	}
+
+	/**
+	 * Returns for every block id a set of indexes of trigrams the block contains, null for blocks with none of them.
+	 */
+	private long[][] containedTrigrams(int[] trigrams) {
+		long[][] contained = new long[nextId][];
+		int words = (trigrams.length + 63) >>> 6;
+		for(int t = 0; t < trigrams.length; t++) {
+			int slot = postings.find(trigrams[t]);
+			if(slot == -1)
+				continue;
+
+			for(int id : postings.decode(slot)) {
+				//dead ids stay in lists until they are compacted
+				if(blocksById[id] == null)
+					continue;
+				if(contained[id] == null)
+					contained[id] = new long[words];
+				contained[id][t >>> 6] |= 1L << t;
+			}
+		}
+		return contained;
+	}
+
+	/**
+	 * Checks if a match can start in block at index first. Match starting in the last character of the block
+	 * ends m - 1 characters later, so every block starting before that can hold some of its trigrams.
+	 */
+	private static boolean canStartMatch(List<Block> blocks, int first, int start, int m, long[][] contained, long[] covered, int count) {
+		Arrays.fill(covered, 0);
+		int reach = start + blocks.get(first).length + m - 2;
+		for(int i = first; i < blocks.size() && start <= reach; i++) {
+			Block block = blocks.get(i);
+			if(block.id == -1)
+				return true;
+
+			long[] bits = contained[block.id];
+			if(bits != null) {
+				for(int w = 0; w < covered.length; w++)
+					covered[w] |= bits[w];
+			}
+			start += block.length;
+		}
+
+		int set = 0;
+		for(long word : covered)
+			set += Long.bitCount(word);
+		return set == count;
+	}
+
+	/**
+	 * Returns sorted distinct trigrams of text starting in [from, to - 2). Repeated trigrams are dropped
+	 * by a hash set as they are read, so only distinct ones are sorted.
+	 */
+	private static int[] trigrams(TextSource text, int from, int to) {
+		int capacity = 16;
+		while(capacity < (to - from) * 2)
+			capacity *= 2;
+		//trigram in low bits, set high bit marks a used slot
+		long[] set = new long[capacity];
+		int mask = capacity - 1;
+		int[] trigrams = new int[Math.max(to - from - OVERLAP, 0)];
+		int count = 0;
+
+		Segment segment = new Segment();
+		char a = 0;
+		char b = 0;
+		int seen = 0;
+		for(int offset = from; offset < to; offset += segment.count) {
+			text.getChars(offset, to - offset, segment);
+			for(int i = segment.offset, end = segment.offset + segment.count; i < end; i++) {
+				char c = fold(segment.array[i]);
+				if(++seen >= 3) {
+					int trigram = trigram(a, b, c);
+					long used = (trigram & 0xFFFFFFFFL) | (1L << 32);
+					int slot = PostingTable.mix(trigram) & mask;
+					while(set[slot] != 0 && set[slot] != used)
+						slot = (slot + 1) & mask;
+					if(set[slot] == 0) {
+						set[slot] = used;
+						trigrams[count++] = trigram;
+					}
+				}
+				a = b;
+				b = c;
+			}
+		}
+		return distinct(trigrams, count);
+	}
+
+	private static int[] trigrams(String literal) {
+		int[] trigrams = new int[literal.length() - OVERLAP];
+		for(int i = 0; i < trigrams.length; i++)
+			trigrams[i] = trigram(fold(literal.charAt(i)), fold(literal.charAt(i + 1)), fold(literal.charAt(i + 2)));
+		return distinct(trigrams, trigrams.length);
+	}
+
+	private static int[] distinct(int[] values, int count) {
+		Arrays.sort(values, 0, count);
+		int distinct = 0;
+		for(int i = 0; i < count; i++) {
+			if(distinct == 0 || values[distinct - 1] != values[i])
+				values[distinct++] = values[i];
+		}
+		return Arrays.copyOf(values, distinct);
+	}
+
+	private static int trigram(char a, char b, char c) {
+		long packed = ((long) a << 32) | ((long) b << 16) | c;
+		packed *= 0x9E3779B97F4A7C15L;
+		return (int) (packed ^ (packed >>> 32));
+	}
+
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * Indexed document.
+	 */
+	private static class Entry {
+
+		private List<Block> blocks = new ArrayList<>();
+
+		private int length;
+
+		private int version;
+
+		/**
+		 * False once document did not fit into memory budget
+		 */
+		private boolean indexed = true;
+	}
+
+	/**
+	 * Block of a document, id is -1 while block is dirty.
+	 */
+	private static class Block {
+
+		private int length;
+
+		private int id = -1;
+
+		/**
+		 * Number of trigrams block was indexed with
+		 */
+		private int postings;
+
+		private Block(int length) {
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Open addressing table from trigram to posting list. Each list is a byte array of differences between
+	 * consecutive ids, seven bits per byte with the high bit set on every byte but the last.
+	 */
+	private static class PostingTable {
+
+		private int[] keys = new int[1024];
+
+		private byte[][] lists = new byte[1024][];
+
+		/**
+		 * Used bytes of lists
+		 */
+		private int[] sizes = new int[1024];
+
+		/**
+		 * Last id added to lists
+		 */
+		private int[] lastIds = new int[1024];
+
+		private int count;
+
+		private long listBytes;
+
+		int find(int key) {
+			int mask = keys.length - 1;
+			for(int slot = mix(key) & mask; lists[slot] != null; slot = (slot + 1) & mask) {
+				if(keys[slot] == key)
+					return slot;
+			}
+			return -1;
+		}
+
+		void add(int key, int id) {
+			int mask = keys.length - 1;
+			int slot = mix(key) & mask;
+			while(lists[slot] != null && keys[slot] != key)
+				slot = (slot + 1) & mask;
+
+			if(lists[slot] == null) {
+				keys[slot] = key;
+				lists[slot] = new byte[4];
+				lastIds[slot] = -1;
+				listBytes += 4;
+				if(++count * 2 > keys.length) {
+					grow();
+					slot = find(key);
+				}
+			}
+			append(slot, id - lastIds[slot] - 1);
+			lastIds[slot] = id;
+		}
+
+		/**
+		 * Returns ids of list in slot.
+		 */
+		int[] decode(int slot) {
+			int[] ids = new int[sizes[slot]];
+			int n = 0;
+			byte[] list = lists[slot];
+			int id = -1;
+			for(int i = 0; i < sizes[slot]; ) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = list[i++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while(b < 0);
+				id += delta + 1;
+				ids[n++] = id;
+			}
+			return Arrays.copyOf(ids, n);
+		}
+
+		/**
+		 * Rewrites every list with ids numbered again, ids numbered -1 are left out and empty lists are removed.
+		 */
+		void compact(int[] renumbered) {
+			int[] oldKeys = keys;
+			byte[][] oldLists = lists;
+			int[] oldSizes = sizes;
+			int capacity = 1024;
+			while(capacity < count * 2)
+				capacity *= 2;
+			reset(capacity);
+
+			//decoding needs the old arrays in the fields
+			PostingTable old = new PostingTable();
+			old.lists = oldLists;
+			old.sizes = oldSizes;
+			for(int slot = 0; slot < oldKeys.length; slot++) {
+				if(oldLists[slot] == null)
+					continue;
+
+				for(int id : old.decode(slot)) {
+					if(renumbered[id] != -1)
+						add(oldKeys[slot], renumbered[id]);
+				}
+			}
+
+			//table is sized for all lists, shrink it if many of them were removed
+			if(keys.length > 1024 && count * 8 < keys.length)
+				grow();
+		}
+
+		long getMemoryUsage() {
+			return listBytes + 16L * count + 20L * keys.length;
+		}
+
+		/**
+		 * Rehashes into a table twice as big as the number of lists needs.
+		 */
+		private void grow() {
+			int[] oldKeys = keys;
+			byte[][] oldLists = lists;
+			int[] oldSizes = sizes;
+			int[] oldLastIds = lastIds;
+			int capacity = 1024;
+			while(capacity < count * 4)
+				capacity *= 2;
+			reset(capacity);
+
+			int mask = capacity - 1;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldLists[i] == null)
+					continue;
+
+				int slot = mix(oldKeys[i]) & mask;
+				while(lists[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				lists[slot] = oldLists[i];
+				sizes[slot] = oldSizes[i];
+				lastIds[slot] = oldLastIds[i];
+				count++;
+				listBytes += oldLists[i].length;
+			}
+		}
+
+		private void reset(int capacity) {
+			keys = new int[capacity];
+			lists = new byte[capacity][];
+			sizes = new int[capacity];
+			lastIds = new int[capacity];
+			count = 0;
+			listBytes = 0;
+		}
+
+		private void append(int slot, int delta) {
+			byte[] list = lists[slot];
+			if(sizes[slot] + 5 > list.length) {
+				int length = list.length + (list.length >> 1) + 5;
+				listBytes += length - list.length;
+				list = lists[slot] = Arrays.copyOf(list, length);
+			}
+			while((delta & ~0x7F) != 0) {
+				list[sizes[slot]++] = (byte) ((delta & 0x7F) | 0x80);
+				delta >>>= 7;
+			}
+			list[sizes[slot]++] = (byte) delta;
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package com.notepad.tools;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import javax.swing.text.Segment;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Changes case of text. Large ranges are split into chunks that are converted in parallel, every thread
+ * reads its chunks into its own reusable buffer. Chunks end after white space where possible, so rules that
+ * depend on surrounding letters still see whole words, and never between the two halves of a surrogate pair.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class CaseTransformer implements TextTool{
+
+	/**
+	 * How case is changed.
+	 */
+	public enum Mode {
+		/**
+		 * Everything to upper case
+		 */
+		UPPER,
+		/**
+		 * Everything to lower case
+		 */
+		LOWER,
+		/**
+		 * Upper case letters to lower case and lower case letters to upper case
+		 */
+		INVERT
+	}
+
+	/**
+	 * Preferred number of chars in one chunk
+	 */
+	static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * How far chunk end is moved looking for white space
+	 */
+	private static final int BOUNDARY_SEARCH = 256;
+
+	private final Mode mode;
+
+	private final Locale locale;
+
+	/**
+	 * Turkish and Azerbaijani have dotted and dotless i as separate letters
+	 */
+	private final boolean turkic;
+
+	private final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[CHUNK_SIZE + BOUNDARY_SEARCH + 1]);
+
+	/**
+	 * Creates transformer.
+	 *
+	 * @param mode how case is changed
+	 * @param locale locale whose case rules are used
+	 */
+	public CaseTransformer(Mode mode, Locale locale) {
+		this.mode = mode;
+		this.locale = locale;
+		turkic = locale.getLanguage().equals("tr") || locale.getLanguage().equals("az");
+	}
+
+	@Override
+	public String apply(TextSource text, int start, int end) {
+		int[] bounds = chunks(text, start, end);
+		int count = bounds.length - 1;
+
+		char[][] results = new char[count][];
+		int[] lengths = new int[count];
+		IntStream.range(0, count).parallel().forEach(i -> {
+			char[] buffer = buffers.get();
+			int length = bounds[i + 1] - bounds[i];
+			read(text, bounds[i], length, buffer);
+			results[i] = transform(buffer, length);
+			lengths[i] = results[i] == buffer ? length : results[i].length;
+			//buffer is reused by the next chunk of this thread
+			if(results[i] == buffer)
+				results[i] = null;
+		});
+
+		int total = 0;
+		for(int length : lengths)
+			total += length;
+
+		//chunks whose text did not change were not kept, they are copied from the text again
+		char[] result = new char[total];
+		int offset = 0;
+		for(int i = 0; i < count; i++) {
+			if(results[i] != null)
+				System.arraycopy(results[i], 0, result, offset, lengths[i]);
+			else
+				read(text, bounds[i], lengths[i], result, offset);
+			offset += lengths[i];
+		}
+
+		return new String(result);
+	}
+
+	/**
+	 * Returns boundaries of chunks, first is start and last is end.
+	 */
+	private static int[] chunks(TextSource text, int start, int end) {
+		int[] bounds = new int[(end - start) / CHUNK_SIZE + 2];
+		int count = 0;
+		bounds[count++] = start;
+
+		Segment segment = new Segment();
+		int chunkStart = start;
+		while(end - chunkStart > CHUNK_SIZE) {
+			int boundary = chunkStart + CHUNK_SIZE;
+			int limit = Math.min(boundary + BOUNDARY_SEARCH, end);
+
+			//chunk ends right after first white space at or after boundary
+			int next = -1;
+			for(int offset = boundary - 1; offset < limit && next == -1; offset += segment.count) {
+				text.getChars(offset, limit - offset, segment);
+				for(int i = 0; i < segment.count; i++) {
+					if(Character.isWhitespace(segment.array[segment.offset + i])) {
+						next = offset + i + 1;
+						break;
+					}
+				}
+			}
+
+			if(next == -1) {
+				next = boundary;
+				text.getChars(next - 1, 1, segment);
+				if(Character.isHighSurrogate(segment.array[segment.offset]))
+					next++;
+			}
+
+			if(count == bounds.length)
+				bounds = Arrays.copyOf(bounds, count * 2);
+			bounds[count++] = next;
+			chunkStart = next;
+		}
+
+		if(count == bounds.length)
+			bounds = Arrays.copyOf(bounds, count + 1);
+		bounds[count++] = end;
+
+		return Arrays.copyOf(bounds, count);
+	}
+
+	private static void read(TextSource text, int start, int length, char[] destination) {
+		read(text, start, length, destination, 0);
+	}
+
+	private static void read(TextSource text, int start, int length, char[] destination, int destinationOffset) {
+		Segment segment = new Segment();
+		int offset = 0;
+		while(offset < length) {
+			text.getChars(start + offset, length - offset, segment);
+			System.arraycopy(segment.array, segment.offset, destination, destinationOffset + offset, segment.count);
+			offset += segment.count;
+		}
+	}
+
+	/**
+	 * Transforms first length chars of buffer. Returns the buffer itself if nothing changed.
+	 */
+	private char[] transform(char[] buffer, int length) {
+		if(mode == Mode.INVERT)
+			return invert(buffer, length);
+
+		boolean ascii = true;
+		for(int i = 0; i < length && ascii; i++)
+			ascii = buffer[i] < 0x80;
+
+		//full case mapping can change length and depend on neighbouring letters, String handles that
+		if(!ascii) {
+			String chunk = new String(buffer, 0, length);
+			String converted = mode == Mode.UPPER ? chunk.toUpperCase(locale) : chunk.toLowerCase(locale);
+			return converted.equals(chunk) ? buffer : converted.toCharArray();
+		}
+
+		//ascii letters are shifted directly, only i and I differ in Turkish
+		char first = mode == Mode.UPPER ? 'a' : 'A';
+		int shift = mode == Mode.UPPER ? 'A' - 'a' : 'a' - 'A';
+		char dotted = mode == Mode.UPPER ? 'i' : 'I';
+		char dottedConverted = mode == Mode.UPPER ? '\u0130' : '\u0131';
+
+		int i = 0;
+		while(i < length && (char) (buffer[i] - first) >= 26)
+			i++;
+		if(i == length)
+			return buffer;
+
+		char[] result = Arrays.copyOf(buffer, length);
+		for(; i < length; i++) {
+			char c = result[i];
+			if((char) (c - first) < 26)
+				result[i] = turkic && c == dotted ? dottedConverted : (char) (c + shift);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Inverts case code point by code point, so surrogate pairs are mapped as one character.
+	 */
+	private char[] invert(char[] buffer, int length) {
+		char[] result = new char[length];
+		int written = 0;
+		boolean changed = false;
+
+		for(int i = 0; i < length; ) {
+			int codePoint = Character.codePointAt(buffer, i, length);
+			int converted = invert(codePoint);
+			changed |= converted != codePoint;
+
+			if(written + 2 > result.length)
+				result = Arrays.copyOf(result, result.length * 2 + 2);
+			written += Character.toChars(converted, result, written);
+			i += Character.charCount(codePoint);
+		}
+
+		if(!changed)
+			return buffer;
+		return written == result.length ? result : Arrays.copyOf(result, written);
+	}
+
+	private int invert(int codePoint) {
+		if(turkic) {
+			switch(codePoint) {
+			case 'i': return '\u0130';
+			case 'I': return '\u0131';
+			case '\u0130': return 'i';
+			case '\u0131': return 'I';
+			}
+		}
+
+		if(Character.isUpperCase(codePoint) || Character.isTitleCase(codePoint))
+			return Character.toLowerCase(codePoint);
+		if(Character.isLowerCase(codePoint))
+			return Character.toUpperCase(codePoint);
+		return codePoint;
+	}
+}
@@ -0,0 +1,299 @@
+package com.notepad.tools;
+
+import java.util.Arrays;
+
+import javax.swing.text.Segment;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Removes duplicate lines in linear time. Lines are never copied into strings, each distinct line is
+ * remembered only by its 64-bit fingerprint and its offsets in the text, so equal fingerprints are
+ * verified by comparing the text itself.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class LineDeduplicator implements LineTool{
+
+	/**
+	 * Which lines are kept.
+	 */
+	public enum Mode {
+		/**
+		 * First occurrence of every line is kept
+		 */
+		KEEP_FIRST,
+		/**
+		 * Last occurrence of every line is kept
+		 */
+		KEEP_LAST,
+		/**
+		 * First occurrence of every line is kept and prefixed by number of occurrences
+		 */
+		COUNT,
+		/**
+		 * Only lines equal to the line right before them are removed
+		 */
+		ADJACENT
+	}
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final Mode mode;
+
+	private boolean ignoreCase;
+
+	private boolean trim;
+
+	/**
+	 * Creates deduplicator that compares lines exactly.
+	 *
+	 * @param mode which lines are kept
+	 */
+	public LineDeduplicator(Mode mode) {
+		this.mode = mode;
+	}
+
+	public void setIgnoreCase(boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+	}
+
+	/**
+	 * Sets whether white space at the start and the end of lines is ignored when comparing them.
+	 *
+	 * @param trim should lines be trimmed
+	 */
+	public void setTrim(boolean trim) {
+		this.trim = trim;
+	}
+
+	@Override
+	public String apply(TextSource text, int start, int end) {
+		Lines lines = scan(text, start, end);
+
+		StringBuilder result = new StringBuilder();
+		Cursor cursor = new Cursor(text);
+		Cursor other = new Cursor(text);
+
+		if(mode == Mode.ADJACENT) {
+			for(int i = 0; i < lines.count; i++) {
+				if(i > 0 && lines.hashes[i] == lines.hashes[i - 1]
+						&& equal(cursor, other, lines.keyStarts[i], lines.keyEnds[i], lines.keyStarts[i - 1], lines.keyEnds[i - 1]))
+					continue;
+
+				if(i > 0)
+					result.append('\n');
+				append(result, cursor, lines, i);
+			}
+			return result.toString();
+		}
+
+		//every line gets index of the first line equal to it
+		int[] first = new int[lines.count];
+		int[] last = new int[lines.count];
+		int[] occurrences = new int[lines.count];
+		Table table = new Table(lines.count);
+		for(int i = 0; i < lines.count; i++) {
+			int firstLine = table.find(lines, i, cursor, other);
+			first[i] = firstLine;
+			last[firstLine] = i;
+			occurrences[firstLine]++;
+		}
+
+		int kept = 0;
+		for(int i = 0; i < lines.count; i++) {
+			boolean keep = mode == Mode.KEEP_LAST ? last[first[i]] == i : first[i] == i;
+			if(!keep)
+				continue;
+
+			if(kept++ > 0)
+				result.append('\n');
+
+			if(mode == Mode.COUNT)
+				result.append(occurrences[i]).append('\t');
+			append(result, cursor, lines, i);
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Finds line boundaries, fingerprints and compared ranges of all lines in one pass.
+	 */
+	private Lines scan(TextSource text, int start, int end) {
+		Lines lines = new Lines(start);
+		Segment segment = new Segment();
+
+		int offset = start;
+		while(offset < end) {
+			text.getChars(offset, end - offset, segment);
+			for(int i = 0; i < segment.count; i++) {
+				char c = segment.array[segment.offset + i];
+				if(c == '\n')
+					lines.endLine(offset + i);
+				else
+					lines.addChar(offset + i, c);
+			}
+			offset += segment.count;
+		}
+		lines.endLine(end);
+
+		return lines;
+	}
+
+	private char normalize(char c) {
+		return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+	}
+
+	private boolean equal(Cursor a, Cursor b, int startA, int endA, int startB, int endB) {
+		if(endA - startA != endB - startB)
+			return false;
+
+		for(int i = 0; i < endA - startA; i++) {
+			if(normalize(a.charAt(startA + i)) != normalize(b.charAt(startB + i)))
+				return false;
+		}
+		return true;
+	}
+
+	private static void append(StringBuilder result, Cursor cursor, Lines lines, int line) {
+		for(int i = lines.starts[line]; i < lines.ends[line]; i++)
+			result.append(cursor.charAt(i));
+	}
+
+	/**
+	 * Spreads bits of fingerprint so lower bits can index the table.
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Offsets and fingerprints of lines. Compared range of a line is the whole line or, when trimming,
+	 * the line without white space at its start and end.
+	 */
+	private class Lines {
+		int count;
+		int[] starts = new int[64];
+		int[] ends = new int[64];
+		int[] keyStarts = new int[64];
+		int[] keyEnds = new int[64];
+		long[] hashes = new long[64];
+
+		private int lineStart;
+		private int keyStart;
+		private int keyEnd;
+		private long hash;
+		private long keyHash;
+
+		Lines(int start) {
+			startLine(start);
+		}
+
+		void addChar(int offset, char c) {
+			boolean blank = trim && Character.isWhitespace(c);
+			if(blank && keyStart == -1)
+				return;
+
+			if(keyStart == -1)
+				keyStart = offset;
+
+			hash = (hash ^ normalize(c)) * FNV_PRIME;
+
+			//hash without trailing white space is the hash after last non-blank character
+			if(!blank) {
+				keyHash = hash;
+				keyEnd = offset + 1;
+			}
+		}
+
+		void endLine(int offset) {
+			if(count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+				keyStarts = Arrays.copyOf(keyStarts, count * 2);
+				keyEnds = Arrays.copyOf(keyEnds, count * 2);
+				hashes = Arrays.copyOf(hashes, count * 2);
+			}
+
+			starts[count] = lineStart;
+			ends[count] = offset;
+			keyStarts[count] = keyStart == -1 ? offset : keyStart;
+			keyEnds[count] = keyStart == -1 ? offset : keyEnd;
+			hashes[count] = mix(keyHash);
+			count++;
+
+			startLine(offset + 1);
+		}
+
+		private void startLine(int start) {
+			lineStart = start;
+			keyStart = -1;
+			keyEnd = start;
+			hash = FNV_OFFSET;
+			keyHash = FNV_OFFSET;
+		}
+	}
+
+	/**
+	 * Open addressing hash table of distinct lines, slots store index of line plus one.
+	 */
+	private class Table {
+		private final int[] slots;
+
+		Table(int lines) {
+			slots = new int[Integer.highestOneBit(Math.max(lines, 8)) << 2];
+		}
+
+		/**
+		 * Returns the first line equal to given line, adding the line if there is none.
+		 */
+		int find(Lines lines, int line, Cursor cursor, Cursor other) {
+			long hash = lines.hashes[line];
+			int mask = slots.length - 1;
+			for(int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+				if(slots[slot] == 0) {
+					slots[slot] = line + 1;
+					return line;
+				}
+
+				//equal fingerprints are only a hint, text decides
+				int candidate = slots[slot] - 1;
+				if(lines.hashes[candidate] == hash && equal(cursor, other,
+						lines.keyStarts[line], lines.keyEnds[line], lines.keyStarts[candidate], lines.keyEnds[candidate]))
+					return candidate;
+			}
+		}
+	}
+
+	/**
+	 * Reads single characters of text, fetching a new segment only when leaving the current one.
+	 */
+	private static class Cursor {
+		private final TextSource text;
+		private final Segment segment = new Segment();
+		private int segmentStart;
+		private int segmentEnd;
+
+		Cursor(TextSource text) {
+			this.text = text;
+		}
+
+		char charAt(int offset) {
+			if(offset < segmentStart || offset >= segmentEnd) {
+				text.getChars(offset, text.length() - offset, segment);
+				segmentStart = offset;
+				segmentEnd = offset + segment.count;
+			}
+			return segment.array[segment.offset + offset - segmentStart];
+		}
+	}
+}
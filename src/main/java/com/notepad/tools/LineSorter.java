@@ -0,0 +1,270 @@
+package com.notepad.tools;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Sorts lines. Everything lines are compared by is computed once per line, collation keys included,
+ * in parallel, so sorting itself only compares precomputed values with {@link Arrays#parallelSort}.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public class LineSorter implements LineTool{
+
+	/**
+	 * What lines are compared by.
+	 */
+	public enum Mode {
+		/**
+		 * Alphabetic order of current language
+		 */
+		ALPHABETIC,
+		/**
+		 * Alphabetic order ignoring case
+		 */
+		CASE_INSENSITIVE,
+		/**
+		 * Number at the start of the line, lines without one go last
+		 */
+		NUMERIC,
+		/**
+		 * Runs of digits are compared as numbers and the rest ignoring case
+		 */
+		NATURAL,
+		/**
+		 * Length of line
+		 */
+		LENGTH,
+		/**
+		 * Alphabetic order of one column, columns are separated by a delimiter
+		 */
+		COLUMN
+	}
+
+	private final Mode mode;
+
+	private final Locale locale;
+
+	private boolean descending;
+
+	private boolean stable;
+
+	private String delimiter;
+
+	private int column;
+
+	/**
+	 * Creates ascending, stable sorter.
+	 *
+	 * @param mode what lines are compared by
+	 * @param locale locale of collation
+	 */
+	public LineSorter(Mode mode, Locale locale) {
+		this.mode = mode;
+		this.locale = locale;
+		stable = true;
+		delimiter = "\t";
+		column = 0;
+	}
+
+	public void setDescending(boolean descending) {
+		this.descending = descending;
+	}
+
+	/**
+	 * Sets whether lines that compare equal keep their order. If not they are ordered by their whole text.
+	 *
+	 * @param stable should sort be stable
+	 */
+	public void setStable(boolean stable) {
+		this.stable = stable;
+	}
+
+	/**
+	 * Sets column used by {@link Mode#COLUMN}.
+	 *
+	 * @param delimiter text between columns
+	 * @param column index of column starting from 0
+	 */
+	public void setColumn(String delimiter, int column) {
+		if(delimiter.isEmpty() || column < 0)
+			throw new IllegalArgumentException("Invalid column");
+
+		this.delimiter = delimiter;
+		this.column = column;
+	}
+
+	@Override
+	public String apply(TextSource text, int start, int end) {
+		String[] lines = TextLines.read(text, start, end);
+
+		//collators are not thread safe so every thread gets its own
+		ThreadLocal<Collator> collators = ThreadLocal.withInitial(this::createCollator);
+
+		Entry[] entries = new Entry[lines.length];
+		IntStream.range(0, lines.length).parallel().forEach(i -> entries[i] = createEntry(lines[i], collators.get()));
+
+		//parallel sort of objects is stable
+		Arrays.parallelSort(entries, createComparator());
+
+		for(int i = 0; i < entries.length; i++)
+			lines[i] = entries[i].line;
+
+		return TextLines.join(lines, lines.length);
+	}
+
+	private Collator createCollator() {
+		Collator collator = Collator.getInstance(locale);
+		if(mode == Mode.CASE_INSENSITIVE)
+			collator.setStrength(Collator.SECONDARY);
+
+		return collator;
+	}
+
+	private Entry createEntry(String line, Collator collator) {
+		Entry entry = new Entry();
+		entry.line = line;
+
+		switch(mode) {
+		case COLUMN -> entry.key = collator.getCollationKey(column(line));
+		case NATURAL -> entry.natural = line.toLowerCase(locale);
+		case NUMERIC -> {
+			entry.number = leadingNumber(line);
+			entry.key = collator.getCollationKey(line);
+		}
+		default -> entry.key = collator.getCollationKey(line);
+		}
+
+		return entry;
+	}
+
+	private Comparator<Entry> createComparator() {
+		Comparator<Entry> byKey = (a, b) -> a.key.compareTo(b.key);
+
+		Comparator<Entry> comparator = switch(mode) {
+		case NUMERIC -> Comparator.<Entry>comparingInt(e -> Double.isNaN(e.number) ? 1 : 0)
+				.thenComparingDouble(e -> Double.isNaN(e.number) ? 0 : e.number)
+				.thenComparing(byKey);
+		case NATURAL -> (a, b) -> compareNatural(a.natural, b.natural);
+		case LENGTH -> Comparator.<Entry>comparingInt(e -> e.line.length()).thenComparing(byKey);
+		default -> byKey;
+		};
+
+		if(!stable)
+			comparator = comparator.thenComparing(e -> e.line);
+
+		return descending ? comparator.reversed() : comparator;
+	}
+
+	/**
+	 * Returns text of configured column, empty if line has less columns.
+	 */
+	private String column(String line) {
+		int start = 0;
+		for(int i = 0; i < column; i++) {
+			int next = line.indexOf(delimiter, start);
+			if(next == -1)
+				return "";
+			start = next + delimiter.length();
+		}
+
+		int end = line.indexOf(delimiter, start);
+		return end == -1 ? line.substring(start) : line.substring(start, end);
+	}
+
+	/**
+	 * Parses number at the start of line, returns NaN if there is none.
+	 */
+	private static double leadingNumber(String line) {
+		int i = 0;
+		while(i < line.length() && Character.isWhitespace(line.charAt(i)))
+			i++;
+
+		int start = i;
+		if(i < line.length() && (line.charAt(i) == '-' || line.charAt(i) == '+'))
+			i++;
+
+		int digits = 0;
+		while(i < line.length() && Character.isDigit(line.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if(i < line.length() && line.charAt(i) == '.') {
+			i++;
+			while(i < line.length() && Character.isDigit(line.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+
+		if(digits == 0)
+			return Double.NaN;
+
+		try {
+			return Double.parseDouble(line.substring(start, i));
+		} catch(NumberFormatException ex) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Compares runs of digits by their value and other characters one by one.
+	 */
+	private static int compareNatural(String a, String b) {
+		int i = 0;
+		int j = 0;
+		while(i < a.length() && j < b.length()) {
+			char ca = a.charAt(i);
+			char cb = b.charAt(j);
+
+			if(Character.isDigit(ca) && Character.isDigit(cb)) {
+				//skip leading zeros, then longer run is bigger number
+				int startA = i;
+				int startB = j;
+				while(startA < a.length() && a.charAt(startA) == '0')
+					startA++;
+				while(startB < b.length() && b.charAt(startB) == '0')
+					startB++;
+
+				int endA = startA;
+				int endB = startB;
+				while(endA < a.length() && Character.isDigit(a.charAt(endA)))
+					endA++;
+				while(endB < b.length() && Character.isDigit(b.charAt(endB)))
+					endB++;
+
+				int result = Integer.compare(endA - startA, endB - startB);
+				for(int k = 0; result == 0 && k < endA - startA; k++)
+					result = Character.compare(a.charAt(startA + k), b.charAt(startB + k));
+
+				if(result != 0)
+					return result;
+
+				i = endA;
+				j = endB;
+			}
+			else {
+				if(ca != cb)
+					return Character.compare(ca, cb);
+				i++;
+				j++;
+			}
+		}
+
+		return Integer.compare(a.length() - i, b.length() - j);
+	}
+
+	private static class Entry {
+		String line;
+		CollationKey key;
+		double number;
+		String natural;
+	}
+}
@@ -0,0 +1,24 @@
+package com.notepad.tools;
+
+import com.notepad.document.TextSource;
+
+/**
+ * {@link TextTool} that works on whole lines.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public interface LineTool extends TextTool{
+
+	/**
+	 * Returns text that replaces [start, end) of text. Range starts at the beginning of a line and ends at
+	 * the end of a line without its new line.
+	 *
+	 * @param text snapshot of document
+	 * @param start start of first line
+	 * @param end end of last line
+	 * @return replacement text
+	 */
+	@Override
+	String apply(TextSource text, int start, int end);
+}
@@ -0,0 +1,253 @@
+package com.notepad.tools;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+import javax.swing.text.Segment;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Calculates {@link TextStatistics} of a text in parallel. Text is split into segments that are counted
+ * on a {@link ForkJoinPool} and partial results are joined, taking care of words, lines and surrogate
+ * pairs that cross segment boundaries.
+ * 
+ * Meant to be run off the EDT over a snapshot of the document.
+ * 
+ * @author Marko-Gregurovic
+ *
+ */
+public class StatisticsEngine {
+	
+	/**
+	 * Segments shorter than this are counted on one thread
+	 */
+	private static final int THRESHOLD = 1 << 16;
+
+	private final TextSource text;
+	
+	private final ForkJoinPool pool;
+	
+	private final AtomicLong processed;
+	
+	private volatile boolean cancelled;
+	
+	private IntConsumer progressListener;
+	
+	private volatile int lastProgress;
+
+	/**
+	 * Creates engine that counts given text on common pool.
+	 * 
+	 * @param text text to count
+	 */
+	public StatisticsEngine(TextSource text) {
+		this(text, ForkJoinPool.commonPool());
+	}
+	
+	public StatisticsEngine(TextSource text, ForkJoinPool pool) {
+		this.text = text;
+		this.pool = pool;
+		processed = new AtomicLong();
+		lastProgress = -1;
+	}
+	
+	/**
+	 * Sets listener that gets progress in percent. Listener is called from worker threads.
+	 * 
+	 * @param progressListener listener for progress
+	 */
+	public void setProgressListener(IntConsumer progressListener) {
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * Counts the text and blocks until it is done.
+	 * 
+	 * @return statistics of text
+	 * @throws CancellationException if {@link #cancel()} was called
+	 */
+	public TextStatistics compute() {
+		Counts counts = pool.invoke(new CountTask(0, text.length()));
+		
+		if(counts == null)
+			counts = new Counts();
+		
+		int longestLine = Math.max(counts.longestLine, Math.max(counts.prefix, counts.suffix));
+		
+		return new TextStatistics(counts.length, counts.length - counts.surrogatePairs, counts.nonBlank,
+				counts.newlines + 1, counts.words, longestLine);
+	}
+	
+	/**
+	 * Stops counting, {@link #compute()} throws {@link CancellationException}.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	private void reportProgress(int count) {
+		long done = processed.addAndGet(count);
+		if(progressListener == null || text.length() == 0)
+			return;
+		
+		int progress = (int) (done * 100 / text.length());
+		if(progress != lastProgress) {
+			lastProgress = progress;
+			progressListener.accept(progress);
+		}
+	}
+	
+	/**
+	 * Counts of one segment with what is needed to join it with neighbouring segments.
+	 */
+	private static class Counts {
+		int length;
+		int newlines;
+		int nonBlank;
+		int words;
+		int surrogatePairs;
+		
+		/**
+		 * Longest line that has a new line on both sides inside segment
+		 */
+		int longestLine;
+		
+		/**
+		 * Characters before first new line and after last one, whole length if there is none
+		 */
+		int prefix;
+		int suffix;
+		
+		char first;
+		char last;
+		
+		static Counts join(Counts left, Counts right) {
+			if(left.length == 0)
+				return right;
+			if(right.length == 0)
+				return left;
+			
+			Counts counts = new Counts();
+			counts.length = left.length + right.length;
+			counts.newlines = left.newlines + right.newlines;
+			counts.nonBlank = left.nonBlank + right.nonBlank;
+			counts.words = left.words + right.words;
+			counts.surrogatePairs = left.surrogatePairs + right.surrogatePairs;
+			
+			//word that goes over the boundary was counted twice
+			if(!Character.isWhitespace(left.last) && !Character.isWhitespace(right.first))
+				counts.words--;
+			
+			if(Character.isHighSurrogate(left.last) && Character.isLowSurrogate(right.first))
+				counts.surrogatePairs++;
+			
+			counts.longestLine = Math.max(left.longestLine, right.longestLine);
+			if(left.newlines > 0 && right.newlines > 0)
+				counts.longestLine = Math.max(counts.longestLine, left.suffix + right.prefix);
+			
+			counts.prefix = left.newlines > 0 ? left.prefix : left.length + right.prefix;
+			counts.suffix = right.newlines > 0 ? right.suffix : right.length + left.suffix;
+			
+			counts.first = left.first;
+			counts.last = right.last;
+			
+			return counts;
+		}
+	}
+	
+	private class CountTask extends RecursiveTask<Counts> {
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+		
+		private final int end;
+		
+		CountTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Counts compute() {
+			if(cancelled)
+				throw new CancellationException();
+			
+			if(end - start <= THRESHOLD) {
+				Counts counts = count();
+				reportProgress(end - start);
+				return counts;
+			}
+			
+			int middle = (start + end) >>> 1;
+			CountTask left = new CountTask(start, middle);
+			left.fork();
+			Counts right = new CountTask(middle, end).compute();
+			
+			return Counts.join(left.join(), right);
+		}
+		
+		private Counts count() {
+			Counts counts = new Counts();
+			counts.length = end - start;
+			
+			Segment segment = new Segment();
+			boolean previousBlank = true;
+			char previous = 0;
+			int line = 0;
+			boolean first = true;
+			
+			int offset = start;
+			while(offset < end) {
+				text.getChars(offset, end - offset, segment);
+				char[] array = segment.array;
+				for(int i = segment.offset, last = segment.offset + segment.count; i < last; i++) {
+					char c = array[i];
+					if(first) {
+						counts.first = c;
+						first = false;
+					}
+					
+					if(c == '\n') {
+						if(counts.newlines == 0)
+							counts.prefix = line;
+						else
+							counts.longestLine = Math.max(counts.longestLine, line);
+						counts.newlines++;
+						line = 0;
+					}
+					else {
+						line++;
+					}
+					
+					boolean blank = Character.isWhitespace(c);
+					if(!blank) {
+						counts.nonBlank++;
+						if(previousBlank)
+							counts.words++;
+					}
+					previousBlank = blank;
+					
+					if(Character.isLowSurrogate(c) && Character.isHighSurrogate(previous))
+						counts.surrogatePairs++;
+					previous = c;
+				}
+				offset += segment.count;
+			}
+			
+			counts.last = previous;
+			counts.suffix = line;
+			if(counts.newlines == 0)
+				counts.prefix = line;
+			
+			return counts;
+		}
+	}
+}
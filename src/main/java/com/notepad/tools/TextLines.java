@@ -0,0 +1,75 @@
+package com.notepad.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.Segment;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Helpers for reading lines from a {@link TextSource} and joining them back.
+ * 
+ * @author Marko-Gregurovic
+ *
+ */
+public class TextLines {
+	
+	private TextLines() {
+	}
+
+	/**
+	 * Reads lines in [start, end) of text. New lines are not included.
+	 * 
+	 * @param text text to read
+	 * @param start start of first line
+	 * @param end end of last line
+	 * @return lines in range
+	 */
+	public static String[] read(TextSource text, int start, int end) {
+		List<String> lines = new ArrayList<>();
+		StringBuilder line = new StringBuilder();
+		Segment segment = new Segment();
+		
+		int offset = start;
+		while(offset < end) {
+			text.getChars(offset, end - offset, segment);
+			int lineStart = segment.offset;
+			for(int i = segment.offset, last = segment.offset + segment.count; i < last; i++) {
+				if(segment.array[i] == '\n') {
+					line.append(segment.array, lineStart, i - lineStart);
+					lines.add(line.toString());
+					line.setLength(0);
+					lineStart = i + 1;
+				}
+			}
+			line.append(segment.array, lineStart, segment.offset + segment.count - lineStart);
+			offset += segment.count;
+		}
+		lines.add(line.toString());
+		
+		return lines.toArray(new String[0]);
+	}
+	
+	/**
+	 * Joins lines with new lines between them.
+	 * 
+	 * @param lines lines to join
+	 * @param count number of lines from the start of array to join
+	 * @return joined lines
+	 */
+	public static String join(String[] lines, int count) {
+		int length = Math.max(count - 1, 0);
+		for(int i = 0; i < count; i++)
+			length += lines[i].length();
+		
+		StringBuilder builder = new StringBuilder(length);
+		for(int i = 0; i < count; i++) {
+			if(i > 0)
+				builder.append('\n');
+			builder.append(lines[i]);
+		}
+		
+		return builder.toString();
+	}
+}
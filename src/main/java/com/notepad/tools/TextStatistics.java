@@ -0,0 +1,70 @@
+package com.notepad.tools;
+
+/**
+ * Result of {@link StatisticsEngine}.
+ * 
+ * @author Marko-Gregurovic
+ *
+ */
+public class TextStatistics {
+
+	private final int characters;
+	
+	private final int codePoints;
+	
+	private final int nonBlank;
+	
+	private final int lines;
+	
+	private final int words;
+	
+	private final int longestLine;
+
+	public TextStatistics(int characters, int codePoints, int nonBlank, int lines, int words, int longestLine) {
+		this.characters = characters;
+		this.codePoints = codePoints;
+		this.nonBlank = nonBlank;
+		this.lines = lines;
+		this.words = words;
+		this.longestLine = longestLine;
+	}
+
+	public int getCharacters() {
+		return characters;
+	}
+
+	/**
+	 * Returns number of code points, a surrogate pair is one code point.
+	 * 
+	 * @return number of code points
+	 */
+	public int getCodePoints() {
+		return codePoints;
+	}
+
+	public int getNonBlank() {
+		return nonBlank;
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 * Returns number of words, a word is a run of non-whitespace characters.
+	 * 
+	 * @return number of words
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * Returns number of characters in the longest line without the new line.
+	 * 
+	 * @return length of longest line
+	 */
+	public int getLongestLine() {
+		return longestLine;
+	}
+}
@@ -0,0 +1,22 @@
+package com.notepad.tools;
+
+import com.notepad.document.TextSource;
+
+/**
+ * Tool that replaces a range of text. Tools are run off the EDT over a snapshot of the document.
+ *
+ * @author Marko-Gregurovic
+ *
+ */
+public interface TextTool {
+
+	/**
+	 * Returns text that replaces [start, end) of text.
+	 *
+	 * @param text snapshot of document
+	 * @param start start of range
+	 * @param end end of range
+	 * @return replacement text
+	 */
+	String apply(TextSource text, int start, int end);
+}
@@ -0,0 +1,71 @@
+package com.notepad.document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.swing.text.BadLocationException;
+
+import org.junit.jupiter.api.Test;
+
+public class EditHistoryTest {
+
+	@Test
+	public void typingAfterUndoDropsRedo() throws BadLocationException {
+		PieceTableDocument document = new PieceTableDocument();
+		EditHistory history = document.getHistory();
+		type(document, "abc");
+		document.remove(2, 1);
+
+		history.undo();
+		assertTrue(history.canRedo());
+
+		//merged into the step that typed "abc"
+		document.insertString(3, "d", null);
+		assertFalse(history.canRedo());
+		assertEquals(1, history.getUndoCount());
+		assertEquals("abcd", document.getText(0, document.getLength()));
+
+		history.undo();
+		assertEquals("", document.getText(0, document.getLength()));
+	}
+
+	@Test
+	public void deletingAfterUndoDropsRedo() throws BadLocationException {
+		PieceTableDocument document = new PieceTableDocument();
+		EditHistory history = document.getHistory();
+		type(document, "abc");
+		document.remove(2, 1);
+		document.remove(1, 1);
+		document.insertString(1, "x", null);
+
+		history.undo();
+		assertTrue(history.canRedo());
+
+		//merged into the step that deleted "bc"
+		document.remove(0, 1);
+		assertFalse(history.canRedo());
+		assertEquals("", document.getText(0, document.getLength()));
+
+		history.undo();
+		assertEquals("abc", document.getText(0, document.getLength()));
+	}
+
+	@Test
+	public void undoneStepsAreNotCounted() throws BadLocationException {
+		PieceTableDocument document = new PieceTableDocument();
+		EditHistory history = document.getHistory();
+		type(document, "abc");
+		long typed = history.getMemoryUsage();
+		document.remove(0, 3);
+
+		history.undo();
+		document.insertString(3, "d", null);
+		assertEquals(typed, history.getMemoryUsage());
+	}
+
+	private static void type(PieceTableDocument document, String text) throws BadLocationException {
+		for(int i = 0; i < text.length(); i++)
+			document.insertString(document.getLength(), text.substring(i, i + 1), null);
+	}
+}
@@ -0,0 +1,71 @@
+package com.notepad.document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+import org.junit.jupiter.api.Test;
+
+public class PieceTableDocumentTest {
+
+	@Test
+	public void linesOfLoadedText() {
+		PieceTableDocument document = new PieceTableDocument(new PieceTableContent("ab\n\ncd\n"));
+		assertEquals("0-3 3-4 4-7 7-8", lines(document));
+		assertEquals(2, document.getDefaultRootElement().getElementIndex(5));
+	}
+
+	@Test
+	public void linesFollowInsertAndRemove() throws BadLocationException {
+		String text = "one\ntwo\nthree\n";
+		PieceTableDocument document = new PieceTableDocument(new PieceTableContent(text));
+		PlainDocument plain = new PlainDocument();
+		plain.insertString(0, text, null);
+
+		//insert at the start of a line moves that start past the inserted text
+		edit(document, plain, 4, "x\ny");
+		edit(document, plain, 4, "z");
+		edit(document, plain, 0, "\n\n");
+		document.remove(3, 6);
+		plain.remove(3, 6);
+		assertEquals(lines(plain), lines(document));
+
+		document.bulkReplace(1, 5, "a\nb\nc");
+		plain.replace(1, 5, "a\nb\nc", null);
+		assertEquals(lines(plain), lines(document));
+	}
+
+	@Test
+	public void lineStaysSameElement() throws BadLocationException {
+		PieceTableDocument document = new PieceTableDocument(new PieceTableContent("ab\ncd\nef"));
+		Element root = document.getDefaultRootElement();
+		Element line = root.getElement(1);
+
+		document.insertString(4, "x", null);
+		document.insertString(0, "\n", null);
+		assertSame(line, root.getElement(2));
+		assertEquals(4, line.getStartOffset());
+		assertEquals(8, line.getEndOffset());
+	}
+
+	private static void edit(PieceTableDocument document, PlainDocument plain, int offset, String text) throws BadLocationException {
+		document.insertString(offset, text, null);
+		plain.insertString(offset, text, null);
+		assertEquals(lines(plain), lines(document));
+	}
+
+	private static String lines(PlainDocument document) {
+		Element root = document.getDefaultRootElement();
+		StringBuilder lines = new StringBuilder();
+		for(int i = 0; i < root.getElementCount(); i++) {
+			Element line = root.getElement(i);
+			if(i > 0)
+				lines.append(' ');
+			lines.append(line.getStartOffset()).append('-').append(line.getEndOffset());
+		}
+		return lines.toString();
+	}
+}
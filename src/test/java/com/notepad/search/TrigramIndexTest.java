@@ -0,0 +1,110 @@
+package com.notepad.search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import javax.swing.text.Segment;
+
+import org.junit.jupiter.api.Test;
+
+import com.notepad.document.TextSource;
+
+public class TrigramIndexTest {
+
+	private static final int LENGTH = 40000;
+
+	/**
+	 * 40000 characters are indexed in three blocks, the first one ends at 13334
+	 */
+	private static final int BOUNDARY = 13334;
+
+	@Test
+	public void findsLiteralAcrossBlockBoundary() {
+		TextSource text = text("needleab", BOUNDARY - 4);
+		int[] regions = candidates(text, "needleab");
+
+		assertContains(regions, BOUNDARY - 4, BOUNDARY + 4);
+		SearchMatch match = find(text, regions, "needleab");
+		assertNotNull(match);
+		assertEquals(BOUNDARY - 4, match.getStart());
+	}
+
+	@Test
+	public void findsLiteralInsideBlock() {
+		TextSource text = text("needleab", 100);
+		int[] regions = candidates(text, "needleab");
+
+		assertContains(regions, 100, 108);
+		assertEquals(100, find(text, regions, "needleab").getStart());
+	}
+
+	@Test
+	public void findsLiteralSpanningThreeBlocks() {
+		char[] literal = new char[BOUNDARY + 100];
+		for(int i = 0; i < literal.length; i++)
+			literal[i] = (char) ('a' + i % 26);
+		String needle = new String(literal);
+		TextSource text = text(needle, BOUNDARY - 50);
+		int[] regions = candidates(text, needle);
+
+		assertContains(regions, BOUNDARY - 50, BOUNDARY - 50 + needle.length());
+	}
+
+	@Test
+	public void skipsBlocksWithoutLiteral() {
+		TextSource text = text("needleab", BOUNDARY - 4);
+		assertArrayEquals(new int[0], candidates(text, "haystack"));
+	}
+
+	private static TextSource text(String literal, int at) {
+		char[] chars = new char[LENGTH];
+		Arrays.fill(chars, '.');
+		literal.getChars(0, literal.length(), chars, at);
+		return new TextSource() {
+
+			@Override
+			public int length() {
+				return chars.length;
+			}
+
+			@Override
+			public void getChars(int offset, int length, Segment segment) {
+				segment.array = chars;
+				segment.offset = offset;
+				segment.count = length;
+			}
+		};
+	}
+
+	private static int[] candidates(TextSource text, String literal) {
+		Object key = new Object();
+		TrigramIndex index = new TrigramIndex(Long.MAX_VALUE);
+		index.add(key, text.length());
+		index.refresh(key, text, index.getVersion(key));
+		int[] regions = index.candidates(literal, new Object[] {key}, new int[] {index.getVersion(key)})[0];
+		assertNotNull(regions);
+		return regions;
+	}
+
+	private static SearchMatch find(TextSource text, int[] regions, String literal) {
+		TextSearcher searcher = TextSearcher.create(new SearchQuery(literal, false, false));
+		for(int i = 0; i < regions.length; i += 2) {
+			SearchMatch match = searcher.find(text, regions[i], regions[i + 1], () -> false);
+			if(match != null)
+				return match;
+		}
+		return null;
+	}
+
+	private static void assertContains(int[] regions, int start, int end) {
+		for(int i = 0; i < regions.length; i += 2) {
+			if(regions[i] <= start && end <= regions[i + 1])
+				return;
+		}
+		assertTrue(false, "no region holds [" + start + ", " + end + ") in " + Arrays.toString(regions));
+	}
+}